@@ -1,20 +1,37 @@
 package org.codelibs.vespa.opensearch.action;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.codelibs.core.lang.StringUtil;
 import org.codelibs.vespa.opensearch.client.VespaClient;
+import org.codelibs.vespa.opensearch.client.ingest.IngestLog;
+import org.codelibs.vespa.opensearch.client.limit.BulkAdmission;
+import org.codelibs.vespa.opensearch.client.limit.WriteRetryPolicy;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.codelibs.vespa.opensearch.exception.RejectedRequestException;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
 import org.codelibs.vespa.opensearch.handler.RestApiProxyHandler;
+import org.codelibs.vespa.opensearch.task.Task;
+import org.codelibs.vespa.opensearch.task.TaskManager;
 import org.opensearch.common.xcontent.json.JsonXContent;
-import org.opensearch.core.xcontent.DeprecationHandler;
-import org.opensearch.core.xcontent.NamedXContentRegistry;
+import org.opensearch.core.xcontent.XContentBuilder;
 
 import com.yahoo.container.jdisc.HttpRequest;
 import com.yahoo.container.jdisc.HttpResponse;
@@ -22,6 +39,23 @@ import com.yahoo.jdisc.http.HttpRequest.Method;
 
 public class BulkAction extends HttpAction {
 
+    private static final Logger log = Logger.getLogger(BulkAction.class.getName());
+
+    /** Operations of a bulk request which may wait for their item to be written before reading the request pauses. */
+    private static final int MAX_PENDING_OPERATIONS = 1024;
+
+    /** Number of items after which the response is flushed to the client. */
+    private static final int FLUSH_INTERVAL = 256;
+
+    /** Bytes an operation is accounted for besides its source, for its action and item. */
+    private static final int OPERATION_BYTES = 512;
+
+    /** Action of the task of a bulk request sent with wait_for_completion=false. */
+    static final String TASK_ACTION = "indices:data/write/bulk";
+
+    /** Failed items kept in the response of a bulk task, which counts the other items. */
+    private static final int MAX_TASK_FAILURES = 100;
+
     public BulkAction(final RestApiProxyHandler handler) {
         super(handler);
     }
@@ -41,178 +75,881 @@ public class BulkAction extends HttpAction {
         return false;
     }
 
+    @Override
+    public boolean isWrite(final Method method) {
+        return true;
+    }
+
     @Override
     public HttpResponse execute(final HttpRequest httpRequest) {
         final String path = httpRequest.getUri().getPath();
         final String[] paths = path.split("/");
         final String defaultIndex = paths.length == 3 ? paths[1] : null;
 
+        final long startTime = System.nanoTime();
+        // rejected before any of the body is read, so that a client sending Expect: 100-continue does not send it
+        final BulkAdmission.Reservation reservation = handler.getBulkAdmission().admit(defaultIndex, getContentLength(httpRequest));
+        if ("false".equals(httpRequest.getProperty("wait_for_completion"))) {
+            return executeTask(httpRequest, defaultIndex, reservation);
+        }
+        final InputStream is = httpRequest.getData();
+        final BulkParser parser = new BulkParser(is, reservation::tryGrowBuffer);
+        // the first action is read before the response is committed, so that a body which is not a bulk request gets a 400
+        final Map<String, Object> firstAction;
+        try {
+            firstAction = parser.nextLine() ? parser.parseLine() : null;
+        } catch (final IOException e) {
+            closeQuietly(is);
+            reservation.close();
+            final Map<String, Object> error = new HashMap<>();
+            error.put("error", "Failed to parse bulk request: " + e.getMessage());
+            return createResponse(httpRequest, 400, error);
+        } catch (final RejectedRequestException e) {
+            closeQuietly(is);
+            reservation.close();
+            throw e;
+        }
+
+        final VespaClient client = handler.getVespaClient();
+        final WriteRetryPolicy retryPolicy = client.getWriteRetryPolicy();
+        return new HttpResponse(200) {
+            @Override
+            public void render(final OutputStream stream) throws IOException {
+                // items are written as they complete, so took and errors are only known after them
+                try (is; reservation; XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, stream)) {
+                    builder.startObject();
+                    builder.startArray("items");
+                    final BulkRequest bulk = new BulkRequest(client, handler.getDocumentType(), defaultIndex, handler.getBulkConcurrency(),
+                            retryPolicy != null && retryPolicy.isEnabled() ? retryPolicy : null, reservation, new BulkListener() {
+                                @Override
+                                public void onItem(final Map<String, Object> item) throws IOException {
+                                    builder.value(item);
+                                }
+
+                                @Override
+                                public void flush() throws IOException {
+                                    builder.flush();
+                                }
+                            });
+                    String parseError = null;
+                    try {
+                        parseError = readOperations(parser, firstAction, bulk);
+                        bulk.drain();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        bulk.abort();
+                    }
+                    builder.endArray();
+                    builder.field("took", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                    builder.field("errors", bulk.hasErrors() || parseError != null);
+                    if (parseError != null) {
+                        builder.startObject("error");
+                        builder.field("type", "parse_exception");
+                        builder.field("reason", parseError);
+                        builder.endObject();
+                    }
+                    builder.endObject();
+                }
+            }
+        };
+    }
+
+    /**
+     * Spools the body to a file and runs the bulk request from it as a task, returning the task ID at once.
+     * The request thread is only held while the body is received. The slot of the task is reserved first, so that
+     * a request which cannot run is rejected before its body is read.
+     */
+    private HttpResponse executeTask(final HttpRequest httpRequest, final String defaultIndex, final BulkAdmission.Reservation reservation) {
+        final TaskManager.Slot slot;
+        try {
+            slot = handler.getTaskManager().reserve(TASK_ACTION);
+        } catch (final RejectedRequestException e) {
+            reservation.close();
+            throw e;
+        }
+        final Path spool;
+        try {
+            spool = Files.createTempFile("bulk-task-", ".ndjson");
+        } catch (final IOException e) {
+            slot.close();
+            reservation.close();
+            final Map<String, Object> error = new HashMap<>();
+            error.put("error", "Failed to create a file for the bulk request: " + e.getMessage());
+            return createResponse(httpRequest, 500, error);
+        }
+        final long spooled;
+        try {
+            spooled = spoolBody(httpRequest, spool, slot);
+        } catch (final IOException e) {
+            deleteQuietly(spool);
+            slot.close();
+            reservation.close();
+            final Map<String, Object> error = new HashMap<>();
+            error.put("error", "Failed to read bulk request: " + e.getMessage());
+            return createResponse(httpRequest, 400, error);
+        } catch (final RejectedRequestException e) {
+            deleteQuietly(spool);
+            slot.close();
+            reservation.close();
+            throw e;
+        }
+
+        final String description = "bulk indices[" + (defaultIndex != null ? defaultIndex : "_all") + "], bytes[" + spooled + "]";
+        // the cleanup also runs if the task is rejected, and the slot is closed after it
+        final Task task = handler.getTaskManager().submit(slot, description, t -> runTask(t, spool, defaultIndex, reservation), () -> {
+            reservation.close();
+            deleteQuietly(spool);
+        });
+        final Map<String, Object> result = new HashMap<>();
+        result.put("task", task.getId());
+        return createResponse(httpRequest, 200, result);
+    }
+
+    /**
+     * Runs the bulk request spooled to the file on a task thread, reporting its progress as the status of the task.
+     * A cancelled task stops reading operations, completes the ones already sent, and returns what it did.
+     */
+    private Map<String, Object> runTask(final Task task, final Path spool, final String defaultIndex,
+            final BulkAdmission.Reservation reservation) {
+        final long startTime = System.nanoTime();
         final VespaClient client = handler.getVespaClient();
-        final String documentType = handler.getDocumentType();
+        final WriteRetryPolicy retryPolicy = client.getWriteRetryPolicy();
+        final BulkProgress progress = new BulkProgress(task);
+        task.setStatus(progress::getStatus);
+        try (InputStream is = Files.newInputStream(spool)) {
+            final BulkParser parser = new BulkParser(is, reservation::tryGrowBuffer);
+            final Map<String, Object> firstAction;
+            try {
+                firstAction = parser.nextLine() ? parser.parseLine() : null;
+            } catch (final IOException e) {
+                throw new IllegalArgumentException("Failed to parse bulk request: " + e.getMessage(), e);
+            }
+            final BulkRequest bulk = new BulkRequest(client, handler.getDocumentType(), defaultIndex, handler.getBulkConcurrency(),
+                    retryPolicy != null && retryPolicy.isEnabled() ? retryPolicy : null, reservation, progress);
+            String parseError = null;
+            try {
+                parseError = readOperations(parser, firstAction, bulk);
+                bulk.drain();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                bulk.abort();
+            }
+            return progress.toResponse(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), parseError);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to read the bulk request from " + spool, e);
+        }
+    }
 
-        final List<Map<String, Object>> items = new ArrayList<>();
-        boolean hasErrors = false;
-        int took = 0;
+    /**
+     * Copies the body to the file, charging its bytes to the slot: the content length at once if it is known, and the
+     * bytes beyond it as they are read.
+     * @return the bytes copied
+     */
+    private static long spoolBody(final HttpRequest httpRequest, final Path spool, final TaskManager.Slot slot) throws IOException {
+        long charged = Math.max(getContentLength(httpRequest), 0);
+        slot.spool(charged);
+        long copied = 0;
+        try (InputStream is = httpRequest.getData(); OutputStream out = Files.newOutputStream(spool)) {
+            final byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                copied += n;
+                if (copied > charged) {
+                    slot.spool(copied - charged);
+                    charged = copied;
+                }
+                out.write(buffer, 0, n);
+            }
+        }
+        return copied;
+    }
 
-        try (InputStream is = httpRequest.getData(); BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-            String line;
-            Map<String, Object> action = null;
-            boolean expectingAction = true;
+    private static void deleteQuietly(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (final IOException e) {
+            log.log(Level.WARNING, e, () -> "Failed to delete " + path);
+        }
+    }
 
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty()) {
+    /**
+     * Sends the operations of the body while it is read.
+     * @return the reason why the rest of the body could not be read, or null
+     */
+    private String readOperations(final BulkParser parser, final Map<String, Object> firstAction, final BulkRequest bulk)
+            throws IOException, InterruptedException {
+        Map<String, Object> action = firstAction;
+        while (!bulk.isCancelled()) {
+            // delete actions don't have a document body, so next line is another action
+            if (action != null && !requiresDocumentBody(action)) {
+                bulk.add(action, BulkParser.Source.EMPTY);
+                action = null;
+            }
+            try {
+                if (!parser.nextLine()) {
+                    break;
+                }
+                if (action == null) {
+                    action = parser.parseLine();
                     continue;
                 }
+            } catch (final IOException | RejectedRequestException e) {
+                // items already written cannot be taken back, so the operations read so far are completed,
+                // and the rest of the body is reported as not executed
+                return "Failed to parse bulk request, operations after item " + bulk.getSize() + " were not executed: " + e.getMessage();
+            }
+            // index/create/update actions have their document body on the next line, kept as bytes until its operation is sent
+            bulk.add(action, parser.readSource());
+            action = null;
+        }
+        // an action whose document body is missing
+        if (action != null && !bulk.isCancelled()) {
+            bulk.add(action, BulkParser.Source.EMPTY);
+        }
+        return null;
+    }
+
+    private static long getContentLength(final HttpRequest httpRequest) {
+        final String value = httpRequest.getHeader("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void closeQuietly(final InputStream is) {
+        try {
+            is.close();
+        } catch (final IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Operations of one bulk request, sent concurrently while the rest of the request is parsed.
+     * At most concurrency operations are in flight, so that one bulk request does not fill the feed window alone,
+     * and reading the request waits while the window is full. An operation on a document with an earlier operation
+     * still pending waits for it, so that the operations on a document keep their order.
+     * Writes which Vespa throttles are parked in a bounded queue, and sent again after a backoff until they succeed
+     * or their deadline passes.
+     * Items are written to the response in the order of the request as soon as they and all items before them completed.
+     * When maxPending operations have no item written yet, because an earlier one is parked or slow, reading the request
+     * waits until all of them completed, retrying the parked ones, so that the memory held per bulk request stays bounded.
+     * Each operation holds its bytes in the bulk admission budget until its item is written; one which does not fit
+     * in it, even after the operations of this request completed, fails with 429.
+     * Operations are only sent from the request thread; completions record their result and hand the document over.
+     */
+    private class BulkRequest {
+
+        private final VespaClient client;
+
+        private final String documentType;
+
+        private final String defaultIndex;
+
+        private final int concurrency;
+
+        private final int maxPending;
+
+        private final WriteRetryPolicy retryPolicy;
+
+        private final BulkAdmission.Reservation reservation;
+
+        private final BulkListener listener;
+
+        /** Operations whose items are not written yet, in the order of the request. */
+        private final Deque<Operation> pending = new ArrayDeque<>();
+
+        /** Operations waiting behind an earlier operation on their document, by document. */
+        private final Map<String, Deque<Operation>> pendingDocuments = new HashMap<>();
+
+        /** Operations whose document was handed over to them, to be sent by the request thread. */
+        private final Deque<Operation> ready = new ArrayDeque<>();
+
+        private List<Operation> parked = new ArrayList<>();
+
+        private int inFlight;
+
+        private int size;
+
+        private int written;
+
+        private boolean errors;
+
+        BulkRequest(final VespaClient client, final String documentType, final String defaultIndex, final int concurrency,
+                final WriteRetryPolicy retryPolicy, final BulkAdmission.Reservation reservation, final BulkListener listener) {
+            this.client = client;
+            this.documentType = documentType;
+            this.defaultIndex = defaultIndex;
+            this.concurrency = Math.max(1, concurrency);
+            this.maxPending = Math.max(MAX_PENDING_OPERATIONS, this.concurrency);
+            this.retryPolicy = retryPolicy;
+            this.reservation = reservation;
+            this.listener = listener;
+        }
+
+        void add(final Map<String, Object> action, final BulkParser.Source source) throws IOException, InterruptedException {
+            // a retry must write the same document, and later operations must find it, so a generated ID is fixed now
+            if (!action.isEmpty()) {
+                final String actionType = action.keySet().iterator().next();
+                if (("index".equals(actionType) || "create".equals(actionType)) && action.get(actionType) instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    final Map<String, Object> target = (Map<String, Object>) action.get(actionType);
+                    target.putIfAbsent("_id", UUID.randomUUID().toString());
+                }
+            }
+            final Operation operation = new Operation(action, source, getIndex(action), getDocumentKey(action));
+            size++;
+            if (!admit(operation)) {
+                return;
+            }
+            sendReady();
+            synchronized (this) {
+                pending.add(operation);
+            }
+            boolean waiting = false;
+            if (operation.documentKey != null) {
+                synchronized (this) {
+                    final Deque<Operation> operations = pendingDocuments.get(operation.documentKey);
+                    if (operations != null) {
+                        operations.add(operation);
+                        waiting = true;
+                    } else {
+                        pendingDocuments.put(operation.documentKey, new ArrayDeque<>());
+                    }
+                }
+            }
+            if (!waiting) {
+                send(operation);
+            }
+            writeCompleted();
+            if (getPendingCount() >= maxPending) {
+                drain();
+            }
+        }
 
-                if (expectingAction) {
-                    // Process previous action if it exists (for delete operations without document body)
-                    if (action != null) {
-                        final Map<String, Object> result = processBulkAction(action, new HashMap<>(), defaultIndex, client, documentType);
-                        items.add(result);
-                        if (hasError(result)) {
-                            hasErrors = true;
-                        }
+        /**
+         * Holds the bytes of the operation in the budget. If it does not fit, the operations of this request are completed
+         * to make room first, and if it still does not fit, it fails with 429 without being sent.
+         */
+        private boolean admit(final Operation operation) throws IOException, InterruptedException {
+            final long bytes = operation.source.getBytes().length + OPERATION_BYTES;
+            if (!reservation.tryAcquire(operation.index, bytes)) {
+                drain();
+                if (!reservation.tryAcquire(operation.index, bytes)) {
+                    synchronized (this) {
+                        operation.result = createErrorResult(operation.action, new EsRejectedExecutionException(
+                                "rejected execution of bulk operation: the memory of bulk requests is used up"));
+                        pending.add(operation);
+                    }
+                    writeCompleted();
+                    return false;
+                }
+            }
+            operation.bytes = bytes;
+            return true;
+        }
+
+        /**
+         * Waits for all operations, sends the parked ones again in rounds, each after a backoff, until none is left,
+         * and writes their items. An operation still throttled at its deadline is reported with its last failure.
+         */
+        void drain() throws IOException, InterruptedException {
+            awaitAll();
+            int round = 0;
+            while (true) {
+                final List<Operation> retries;
+                final long delay;
+                synchronized (this) {
+                    if (parked.isEmpty()) {
+                        break;
                     }
+                    long earliestDeadline = Long.MAX_VALUE;
+                    for (final Operation operation : parked) {
+                        earliestDeadline = Math.min(earliestDeadline, operation.deadline);
+                    }
+                    // the operation closest to its deadline gets a last attempt at it
+                    delay = Math.min(retryPolicy.getBackoffNanos(round++), Math.max(0, earliestDeadline - System.nanoTime()));
+                    retries = parked;
+                    parked = new ArrayList<>();
+                }
+                writeCompleted();
+                TimeUnit.NANOSECONDS.sleep(delay);
+                for (final Operation operation : retries) {
+                    retryPolicy.onRetry();
+                    send(operation);
+                }
+                awaitAll();
+            }
+            writeCompleted();
+        }
 
-                    // Action line
-                    action = JsonXContent.jsonXContent
-                            .createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.IGNORE_DEPRECATIONS, line).map();
+        /**
+         * Writes the items of the operations not completed when the bulk request was interrupted as failures.
+         */
+        void abort() throws IOException {
+            synchronized (this) {
+                for (final Operation operation : pending) {
+                    if (operation.result == null) {
+                        // interrupted while the operation was parked, waiting or in flight
+                        operation.result = createErrorResult(operation.action, operation.failure != null ? operation.failure
+                                : new VespaClientException("The bulk request was interrupted before the operation completed."));
+                    }
+                }
+            }
+            writeCompleted();
+        }
 
-                    // Check if this action requires a document body on the next line
-                    // delete actions don't have a document body, so next line is another action
-                    // index/create/update actions require a document body on the next line
-                    if (requiresDocumentBody(action)) {
-                        expectingAction = false; // Next line is document body
-                    } else {
-                        expectingAction = true; // Next line is another action (for delete)
+        /**
+         * Writes the items of the completed operations at the head of the request.
+         */
+        private void writeCompleted() throws IOException {
+            final int writtenBefore = written;
+            while (true) {
+                final Operation head;
+                synchronized (this) {
+                    head = pending.peek();
+                    if (head == null || head.result == null) {
+                        break;
                     }
-                } else {
-                    // Document line
-                    if (action == null) {
-                        continue;
+                    pending.poll();
+                }
+                errors |= hasError(head.result);
+                listener.onItem(head.result);
+                written++;
+                if (head.bytes > 0) {
+                    reservation.release(head.index, head.bytes);
+                }
+            }
+            // the items go out in chunks instead of with the last one
+            if (written / FLUSH_INTERVAL != writtenBefore / FLUSH_INTERVAL) {
+                listener.flush();
+            }
+        }
+
+        private void send(final Operation operation) {
+            synchronized (this) {
+                while (inFlight >= concurrency) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        complete(operation, null, new VespaClientException("The bulk request was interrupted before the operation was sent.", e));
+                        return;
                     }
+                }
+                inFlight++;
+            }
+            CompletableFuture<Map<String, Object>> future;
+            try {
+                future = executeBulkAction(operation.action, operation.source, defaultIndex, client, documentType);
+            } catch (final Exception e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((result, t) -> {
+                synchronized (this) {
+                    inFlight--;
+                    complete(operation, result, t != null ? unwrap(t) : null);
+                    notifyAll();
+                }
+            });
+        }
+
+        /**
+         * Records the outcome of an operation, or parks it if it was throttled, and hands its document over to the next operation.
+         */
+        private synchronized void complete(final Operation operation, final Map<String, Object> result, final Exception failure) {
+            if (failure == null) {
+                operation.result = result;
+            } else if (retryPolicy != null && WriteRetryPolicy.isThrottled(failure) && park(operation, failure)) {
+                // the document stays with the parked operation
+                return;
+            } else {
+                operation.result = createErrorResult(operation.action, failure);
+            }
+            if (operation.documentKey != null) {
+                final Deque<Operation> operations = pendingDocuments.get(operation.documentKey);
+                final Operation next = operations != null ? operations.poll() : null;
+                if (next != null) {
+                    ready.add(next);
+                } else {
+                    pendingDocuments.remove(operation.documentKey);
+                }
+            }
+        }
 
-                    final Map<String, Object> doc = JsonXContent.jsonXContent
-                            .createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.IGNORE_DEPRECATIONS, line).map();
+        private boolean park(final Operation operation, final Exception failure) {
+            if (operation.deadline != 0 && System.nanoTime() - operation.deadline >= 0) {
+                retryPolicy.onExpired();
+                return false;
+            }
+            if (parked.size() >= retryPolicy.getQueueSize()) {
+                retryPolicy.onOverflow();
+                return false;
+            }
+            if (operation.deadline == 0) {
+                operation.deadline = System.nanoTime() + retryPolicy.getTimeoutNanos();
+                retryPolicy.onParked();
+            }
+            operation.failure = failure;
+            parked.add(operation);
+            return true;
+        }
 
-                    final Map<String, Object> result = processBulkAction(action, doc, defaultIndex, client, documentType);
-                    items.add(result);
+        private void sendReady() {
+            while (true) {
+                final Operation operation;
+                synchronized (this) {
+                    operation = ready.poll();
+                }
+                if (operation == null) {
+                    return;
+                }
+                send(operation);
+            }
+        }
 
-                    if (hasError(result)) {
-                        hasErrors = true;
+        /**
+         * Waits until no operation is in flight or ready to be sent, writing items meanwhile.
+         * Parked operations are left for the next round.
+         */
+        private void awaitAll() throws IOException, InterruptedException {
+            while (true) {
+                sendReady();
+                writeCompleted();
+                synchronized (this) {
+                    if (ready.isEmpty()) {
+                        if (inFlight == 0) {
+                            return;
+                        }
+                        wait();
                     }
+                }
+            }
+        }
+
+        private synchronized int getPendingCount() {
+            return pending.size();
+        }
+
+        /**
+         * @return the number of operations read so far
+         */
+        int getSize() {
+            return size;
+        }
 
-                    action = null;
-                    expectingAction = true; // Next line is action
+        boolean hasErrors() {
+            return errors;
+        }
+
+        boolean isCancelled() {
+            return listener.isCancelled();
+        }
+
+        private String getIndex(final Map<String, Object> action) {
+            if (!action.isEmpty() && action.values().iterator().next() instanceof Map) {
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> targetMap = (Map<String, Object>) action.values().iterator().next();
+                final Object index = targetMap.get("_index");
+                if (index != null) {
+                    return index.toString();
                 }
             }
+            return defaultIndex;
+        }
+
+        private String getDocumentKey(final Map<String, Object> action) {
+            if (action.isEmpty()) {
+                return null;
+            }
+            final Object target = action.values().iterator().next();
+            if (!(target instanceof Map)) {
+                return null;
+            }
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> targetMap = (Map<String, Object>) target;
+            final Object id = targetMap.get("_id");
+            if (id == null) {
+                return null;
+            }
+            return "[" + targetMap.getOrDefault("_index", defaultIndex) + "][" + id + "]";
+        }
+    }
+
+    private static Exception unwrap(final Throwable t) {
+        Throwable cause = t;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof Exception ? (Exception) cause : new VespaClientException(String.valueOf(cause.getMessage()));
+    }
+
+    /**
+     * Receives the items of a bulk request in the order of the request, to stream them in the response or count them in a task.
+     */
+    private interface BulkListener {
+
+        void onItem(Map<String, Object> item) throws IOException;
+
+        default void flush() throws IOException {
+        }
+
+        /**
+         * @return true if the rest of the request is not to be read
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /**
+     * Progress of a bulk request running as a task. The items are counted rather than kept, except the first failed ones.
+     */
+    private static class BulkProgress implements BulkListener {
+
+        private final Task task;
+
+        private final long startTime = System.nanoTime();
+
+        private final List<Map<String, Object>> failures = new ArrayList<>();
+
+        private long total;
+
+        private long created;
 
-            // Process final action if it exists (for delete operations without document body)
-            if (action != null) {
-                final Map<String, Object> result = processBulkAction(action, new HashMap<>(), defaultIndex, client, documentType);
-                items.add(result);
-                if (hasError(result)) {
-                    hasErrors = true;
+        private long updated;
+
+        private long deleted;
+
+        private long failed;
+
+        BulkProgress(final Task task) {
+            this.task = task;
+        }
+
+        @Override
+        public synchronized void onItem(final Map<String, Object> item) {
+            total++;
+            if (item.isEmpty() || !(item.values().iterator().next() instanceof Map)) {
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> itemResult = (Map<String, Object>) item.values().iterator().next();
+            if (itemResult.containsKey("error")) {
+                failed++;
+                if (failures.size() < MAX_TASK_FAILURES) {
+                    failures.add(item);
                 }
+                return;
+            }
+            final Object result = itemResult.get("result");
+            if ("created".equals(result)) {
+                created++;
+            } else if ("updated".equals(result)) {
+                updated++;
+            } else if ("deleted".equals(result)) {
+                deleted++;
             }
-        } catch (final IOException e) {
-            final Map<String, Object> error = new HashMap<>();
-            error.put("error", "Failed to parse bulk request: " + e.getMessage());
-            return createResponse(httpRequest, 400, error);
         }
 
-        final Map<String, Object> result = new HashMap<>();
-        result.put("took", took);
-        result.put("errors", hasErrors);
-        result.put("items", items);
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
 
-        return createResponse(httpRequest, 200, result);
+        synchronized Map<String, Object> getStatus() {
+            final Map<String, Object> status = new HashMap<>();
+            status.put("total", total);
+            status.put("created", created);
+            status.put("updated", updated);
+            status.put("deleted", deleted);
+            status.put("failed", failed);
+            final long elapsed = System.nanoTime() - startTime;
+            status.put("items_per_second", elapsed > 0 ? total * (double) TimeUnit.SECONDS.toNanos(1) / elapsed : 0.0);
+            return status;
+        }
+
+        synchronized Map<String, Object> toResponse(final long took, final String parseError) {
+            final Map<String, Object> response = getStatus();
+            response.put("took", took);
+            response.put("errors", failed > 0 || parseError != null);
+            response.put("failures", new ArrayList<>(failures));
+            if (task.isCancelled()) {
+                response.put("canceled", "by user request");
+            }
+            if (parseError != null) {
+                response.put("error", Map.of("type", "parse_exception", "reason", parseError));
+            }
+            return response;
+        }
     }
 
-    private Map<String, Object> processBulkAction(final Map<String, Object> action, final Map<String, Object> doc,
-            final String defaultIndex, final VespaClient client, final String documentType) {
-        final Map<String, Object> result = new HashMap<>();
+    private static class Operation {
 
-        try {
-            if (action.containsKey("index")) {
-                @SuppressWarnings("unchecked")
-                final Map<String, Object> indexAction = (Map<String, Object>) action.get("index");
-                final String index = (String) indexAction.getOrDefault("_index", defaultIndex);
-                final String id = (String) indexAction.getOrDefault("_id", UUID.randomUUID().toString());
+        private final Map<String, Object> action;
+
+        private final BulkParser.Source source;
 
-                client.insert(index, documentType, id, doc);
+        private final String index;
+
+        private final String documentKey;
+
+        /** Bytes held in the bulk admission budget until the item is written. */
+        private long bytes;
+
+        private Map<String, Object> result;
+
+        private long deadline;
+
+        private Exception failure;
+
+        Operation(final Map<String, Object> action, final BulkParser.Source source, final String index, final String documentKey) {
+            this.action = action;
+            this.source = source;
+            this.index = index;
+            this.documentKey = documentKey;
+        }
+    }
 
+    /**
+     * Starts the operation of the action. An invalid action, or the invalid source of an update, throws at once.
+     */
+    private CompletableFuture<Map<String, Object>> executeBulkAction(final Map<String, Object> action, final BulkParser.Source source,
+            final String defaultIndex, final VespaClient client, final String documentType) {
+        if (action.containsKey("index")) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> indexAction = (Map<String, Object>) action.get("index");
+            final String index = (String) indexAction.getOrDefault("_index", defaultIndex);
+            final String id = (String) indexAction.getOrDefault("_id", UUID.randomUUID().toString());
+
+            // the source goes to Vespa as it is, without maps of it
+            return insertSource(client, index, documentType, id, source.getBytes()).thenApply(response -> {
                 final Map<String, Object> indexResult = new HashMap<>();
                 indexResult.put("_index", index);
                 indexResult.put("_id", id);
                 indexResult.put("_version", 1);
                 indexResult.put("result", "created");
                 indexResult.put("status", 201);
+                final Map<String, Object> result = new HashMap<>();
                 result.put("index", indexResult);
+                return result;
+            });
 
-            } else if (action.containsKey("create")) {
-                @SuppressWarnings("unchecked")
-                final Map<String, Object> createAction = (Map<String, Object>) action.get("create");
-                final String index = (String) createAction.getOrDefault("_index", defaultIndex);
-                final String id = (String) createAction.getOrDefault("_id", UUID.randomUUID().toString());
-
-                client.insert(index, documentType, id, doc);
+        } else if (action.containsKey("create")) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> createAction = (Map<String, Object>) action.get("create");
+            final String index = (String) createAction.getOrDefault("_index", defaultIndex);
+            final String id = (String) createAction.getOrDefault("_id", UUID.randomUUID().toString());
 
+            // the source goes to Vespa as it is, without maps of it
+            return insertSource(client, index, documentType, id, source.getBytes()).thenApply(response -> {
                 final Map<String, Object> createResult = new HashMap<>();
                 createResult.put("_index", index);
                 createResult.put("_id", id);
                 createResult.put("_version", 1);
                 createResult.put("result", "created");
                 createResult.put("status", 201);
+                final Map<String, Object> result = new HashMap<>();
                 result.put("create", createResult);
+                return result;
+            });
 
-            } else if (action.containsKey("update")) {
-                @SuppressWarnings("unchecked")
-                final Map<String, Object> updateAction = (Map<String, Object>) action.get("update");
-                final String index = (String) updateAction.getOrDefault("_index", defaultIndex);
-                final String id = (String) updateAction.get("_id");
-
-                if (id == null) {
-                    throw new IllegalArgumentException("Document ID is required for update");
-                }
+        } else if (action.containsKey("update")) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> updateAction = (Map<String, Object>) action.get("update");
+            final String index = (String) updateAction.getOrDefault("_index", defaultIndex);
+            final String id = (String) updateAction.get("_id");
 
-                client.update(index, documentType, id, doc);
+            if (id == null) {
+                throw new IllegalArgumentException("Document ID is required for update");
+            }
+            final Map<String, Object> doc = parseSource(source);
 
+            return update(client, index, documentType, id, doc).thenApply(response -> {
                 final Map<String, Object> updateResult = new HashMap<>();
                 updateResult.put("_index", index);
                 updateResult.put("_id", id);
                 updateResult.put("_version", 1);
                 updateResult.put("result", "updated");
                 updateResult.put("status", 200);
+                final Map<String, Object> result = new HashMap<>();
                 result.put("update", updateResult);
+                return result;
+            });
 
-            } else if (action.containsKey("delete")) {
-                @SuppressWarnings("unchecked")
-                final Map<String, Object> deleteAction = (Map<String, Object>) action.get("delete");
-                final String index = (String) deleteAction.getOrDefault("_index", defaultIndex);
-                final String id = (String) deleteAction.get("_id");
-
-                if (id == null) {
-                    throw new IllegalArgumentException("Document ID is required for delete");
-                }
+        } else if (action.containsKey("delete")) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> deleteAction = (Map<String, Object>) action.get("delete");
+            final String index = (String) deleteAction.getOrDefault("_index", defaultIndex);
+            final String id = (String) deleteAction.get("_id");
 
-                client.delete(index, documentType, id);
+            if (id == null) {
+                throw new IllegalArgumentException("Document ID is required for delete");
+            }
 
+            return delete(client, index, documentType, id).thenApply(response -> {
                 final Map<String, Object> deleteResult = new HashMap<>();
                 deleteResult.put("_index", index);
                 deleteResult.put("_id", id);
                 deleteResult.put("_version", 1);
                 deleteResult.put("result", "deleted");
                 deleteResult.put("status", 200);
+                final Map<String, Object> result = new HashMap<>();
                 result.put("delete", deleteResult);
-            }
-        } catch (final Exception e) {
-            final Map<String, Object> errorResult = new HashMap<>();
-            errorResult.put("error", Map.of("type", "exception", "reason", e.getMessage()));
-            errorResult.put("status", 400);
-            result.put(action.keySet().iterator().next(), errorResult);
+                return result;
+            });
+        }
+
+        return CompletableFuture.completedFuture(new HashMap<>());
+    }
+
+    // with an ingest log, a write completes once it is synced to the log rather than once Vespa took it
+
+    private CompletableFuture<Map<String, Object>> insertSource(final VespaClient client, final String index, final String documentType,
+            final String id, final byte[] source) {
+        final IngestLog ingestLog = handler.getIngestLog();
+        return ingestLog != null ? ingestLog.put(index, documentType, id, source) : client.insertSourceAsync(index, documentType, id, source);
+    }
+
+    private CompletableFuture<Map<String, Object>> update(final VespaClient client, final String index, final String documentType,
+            final String id, final Map<String, Object> doc) {
+        final IngestLog ingestLog = handler.getIngestLog();
+        return ingestLog != null ? ingestLog.update(index, documentType, id, doc) : client.updateAsync(index, documentType, id, doc);
+    }
+
+    private CompletableFuture<Map<String, Object>> delete(final VespaClient client, final String index, final String documentType,
+            final String id) {
+        final IngestLog ingestLog = handler.getIngestLog();
+        return ingestLog != null ? ingestLog.delete(index, documentType, id) : client.deleteAsync(index, documentType, id);
+    }
+
+    private static Map<String, Object> parseSource(final BulkParser.Source source) {
+        try {
+            return source.toMap();
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Failed to parse the document source: " + e.getMessage(), e);
         }
+    }
 
+    private Map<String, Object> createErrorResult(final Map<String, Object> action, final Exception e) {
+        final Map<String, Object> result = new HashMap<>();
+        final Map<String, Object> errorResult = new HashMap<>();
+        if (e instanceof RejectedRequestException) {
+            errorResult.put("error",
+                    Map.of("type", StringUtil.decamelize(e.getClass().getSimpleName()).toLowerCase(), "reason", e.getMessage()));
+            errorResult.put("status", ((RejectedRequestException) e).getStatus());
+        } else {
+            errorResult.put("error", Map.of("type", "exception", "reason", e.getMessage()));
+            // a write Vespa still throttles keeps its status, so that the client knows it may send it again
+            final int throttleStatus = WriteRetryPolicy.getThrottleStatus(e);
+            errorResult.put("status", throttleStatus > 0 ? throttleStatus : 400);
+        }
+        result.put(action.keySet().iterator().next(), errorResult);
         return result;
     }
 
@@ -0,0 +1,184 @@
+package org.codelibs.vespa.opensearch.action;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.opensearch.common.xcontent.json.JsonXContent;
+import org.opensearch.core.xcontent.DeprecationHandler;
+import org.opensearch.core.xcontent.NamedXContentRegistry;
+import org.opensearch.core.xcontent.XContentParser;
+
+/**
+ * Reads the NDJSON body of a bulk request line by line from its raw bytes.
+ * Lines are found by scanning the bytes for newlines in a buffer refilled from the stream, so that no line becomes a String
+ * and the body is read as UTF-8 whatever the platform charset is. Action lines are parsed in place in the buffer,
+ * and source lines are only copied out as {@link Source}, to be parsed when their operation is sent.
+ * The buffer only grows for a line longer than it, and each growth is asked for first, so that a huge line or a body
+ * without newlines is rejected instead of filling the heap.
+ */
+public class BulkParser {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream in;
+
+    /** Asked with the bytes the buffer grows by before it grows. */
+    private final LongPredicate growth;
+
+    private byte[] buffer;
+
+    /** Start of the unread bytes in the buffer. */
+    private int position;
+
+    /** End of the bytes read into the buffer. */
+    private int limit;
+
+    private boolean eof;
+
+    private int lineStart;
+
+    private int lineEnd;
+
+    /**
+     * @param growth asked with the bytes the buffer grows by when a line does not fit in it, which it refuses by returning false
+     */
+    public BulkParser(final InputStream in, final LongPredicate growth) {
+        this(in, CHUNK_SIZE, growth);
+    }
+
+    BulkParser(final InputStream in, final int chunkSize, final LongPredicate growth) {
+        this.in = in;
+        this.growth = growth;
+        buffer = new byte[chunkSize];
+    }
+
+    /**
+     * Moves to the next line which is not blank.
+     * @return false at the end of the body
+     */
+    public boolean nextLine() throws IOException {
+        while (true) {
+            int newline = indexOf('\n', position, limit);
+            while (newline < 0 && !eof) {
+                // fill() moves the unread bytes to the start of the buffer, so the scanned bytes are counted from position
+                final int scanned = limit - position;
+                fill();
+                newline = indexOf('\n', position + scanned, limit);
+            }
+            if (newline < 0 && position == limit) {
+                return false;
+            }
+            lineStart = position;
+            lineEnd = newline >= 0 ? newline : limit;
+            position = newline >= 0 ? newline + 1 : limit;
+            if (!isBlank(lineStart, lineEnd)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Parses the current line as a JSON object, such as the action line {"index":{"_index":"test","_id":"1"}}.
+     */
+    public Map<String, Object> parseLine() throws IOException {
+        return parse(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    /**
+     * Copies the current line out of the buffer, which is reused for the following lines.
+     */
+    public Source readSource() {
+        return new Source(Arrays.copyOfRange(buffer, lineStart, lineEnd));
+    }
+
+    /**
+     * Reads more of the stream, first moving the unread bytes to the start of the buffer, and growing it if they fill it.
+     * @throws EsRejectedExecutionException if the growth of the buffer is refused
+     */
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            if (!growth.test(buffer.length)) {
+                throw new EsRejectedExecutionException("rejected execution of bulk request: a line longer than " + limit
+                        + " bytes does not fit in the bulk memory budget");
+            }
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        final int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private int indexOf(final int b, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isBlank(final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            final byte b = buffer[i];
+            if (b != ' ' && b != '\t' && b != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, Object> parse(final byte[] bytes, final int offset, final int length) throws IOException {
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.IGNORE_DEPRECATIONS, bytes, offset, length)) {
+            return parser.map();
+        }
+    }
+
+    /**
+     * The raw UTF-8 bytes of a source line.
+     */
+    public static class Source {
+
+        /** Source of operations without a source line, such as deletes. */
+        public static final Source EMPTY = new Source(new byte[0]);
+
+        private final byte[] bytes;
+
+        Source(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Parses the source. Each call returns a new map.
+         */
+        public Map<String, Object> toMap() throws IOException {
+            if (bytes.length == 0) {
+                return new HashMap<>();
+            }
+            return parse(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
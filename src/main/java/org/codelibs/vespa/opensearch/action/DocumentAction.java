@@ -7,6 +7,7 @@ import java.util.Map;
 import java.util.UUID;
 
 import org.codelibs.vespa.opensearch.client.VespaClient;
+import org.codelibs.vespa.opensearch.client.ingest.IngestLog;
 import org.codelibs.vespa.opensearch.exception.VespaClientException;
 import org.codelibs.vespa.opensearch.handler.RestApiProxyHandler;
 import org.opensearch.common.xcontent.json.JsonXContent;
@@ -51,6 +52,11 @@ public class DocumentAction extends HttpAction {
         return false;
     }
 
+    @Override
+    public boolean isWrite(final Method method) {
+        return method != Method.GET;
+    }
+
     @Override
     public HttpResponse execute(final HttpRequest httpRequest) {
         final String path = httpRequest.getUri().getPath();
@@ -93,8 +99,9 @@ public class DocumentAction extends HttpAction {
         } catch (final VespaClientException e) {
             final Map<String, Object> error = new HashMap<>();
             error.put("error", e.getMessage());
-            // Return 500 for general Vespa errors, 404 if explicitly not found
-            int status = e.getMessage() != null && e.getMessage().toLowerCase().contains("not found") ? 404 : 500;
+            // Return the status of the error if known, 500 for general Vespa errors, 404 if explicitly not found
+            int status = e.getStatus() > 0 ? e.getStatus()
+                    : e.getMessage() != null && e.getMessage().toLowerCase().contains("not found") ? 404 : 500;
             return createResponse(httpRequest, status, error);
         }
     }
@@ -120,7 +127,13 @@ public class DocumentAction extends HttpAction {
         }
 
         final String id = docId != null ? docId : UUID.randomUUID().toString();
-        final Map<String, Object> vespaResult = client.insert(indexName, documentType, id, requestBody);
+        final IngestLog ingestLog = handler.getIngestLog();
+        if (ingestLog != null) {
+            // acknowledged once it is synced to the log
+            VespaClient.join(ingestLog.put(indexName, documentType, id, requestBody));
+        } else {
+            client.insert(indexName, documentType, id, requestBody);
+        }
 
         final Map<String, Object> result = new HashMap<>();
         result.put("_index", indexName);
@@ -158,7 +171,12 @@ public class DocumentAction extends HttpAction {
             return createResponse(httpRequest, 400, error);
         }
 
-        final Map<String, Object> vespaResult = client.update(indexName, documentType, docId, requestBody);
+        final IngestLog ingestLog = handler.getIngestLog();
+        if (ingestLog != null) {
+            VespaClient.join(ingestLog.update(indexName, documentType, docId, requestBody));
+        } else {
+            client.update(indexName, documentType, docId, requestBody);
+        }
 
         final Map<String, Object> result = new HashMap<>();
         result.put("_index", indexName);
@@ -204,7 +222,12 @@ public class DocumentAction extends HttpAction {
             return createResponse(httpRequest, 400, error);
         }
 
-        final Map<String, Object> vespaResult = client.delete(indexName, documentType, docId);
+        final IngestLog ingestLog = handler.getIngestLog();
+        if (ingestLog != null) {
+            VespaClient.join(ingestLog.delete(indexName, documentType, docId));
+        } else {
+            client.delete(indexName, documentType, docId);
+        }
 
         final Map<String, Object> result = new HashMap<>();
         result.put("_index", indexName);
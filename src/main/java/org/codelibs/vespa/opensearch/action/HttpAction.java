@@ -24,6 +24,13 @@ public abstract class HttpAction {
 
     public abstract HttpResponse execute(HttpRequest httpRequest);
 
+    /**
+     * @return true if the request writes documents, so that its response is kept for its idempotency key
+     */
+    public boolean isWrite(final Method method) {
+        return false;
+    }
+
     protected HttpResponse createResponse(final HttpRequest httpRequest, final int status, final Map<String, Object> result) {
         return new HttpResponse(status) {
             @Override
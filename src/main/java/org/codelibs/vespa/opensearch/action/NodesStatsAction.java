@@ -0,0 +1,37 @@
+package org.codelibs.vespa.opensearch.action;
+
+import java.util.Map;
+
+import org.codelibs.vespa.opensearch.handler.RestApiProxyHandler;
+
+import com.yahoo.container.jdisc.HttpRequest;
+import com.yahoo.container.jdisc.HttpResponse;
+import com.yahoo.jdisc.http.HttpRequest.Method;
+
+public class NodesStatsAction extends HttpAction {
+
+    public NodesStatsAction(final RestApiProxyHandler handler) {
+        super(handler);
+    }
+
+    @Override
+    public boolean isTarget(final Method method, final String[] paths) {
+        // GET /_nodes/stats
+        return method == Method.GET && paths.length == 3 && "_nodes".equals(paths[1]) && "stats".equals(paths[2]);
+    }
+
+    @Override
+    public HttpResponse execute(final HttpRequest httpRequest) {
+        final Map<String, Object> result = handler.getVespaClient().getNodesStats();
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> node = (Map<String, Object>) ((Map<String, Object>) result.get("nodes")).get("node1");
+        node.put("bulk_admission", handler.getBulkAdmission().getStats());
+        node.put("tasks", handler.getTaskManager().getStats());
+        node.put("idempotency", handler.getIdempotencyStore().getStats());
+        if (handler.getIngestLog() != null) {
+            node.put("ingest_log", handler.getIngestLog().getStats());
+        }
+        return createResponse(httpRequest, 200, result);
+    }
+
+}
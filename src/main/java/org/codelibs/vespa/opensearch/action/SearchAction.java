@@ -5,6 +5,7 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.codelibs.vespa.opensearch.client.CrossClusterSearch;
 import org.codelibs.vespa.opensearch.client.VespaClient;
 import org.codelibs.vespa.opensearch.exception.VespaClientException;
 import org.codelibs.vespa.opensearch.handler.RestApiProxyHandler;
@@ -28,6 +29,7 @@ public class SearchAction extends HttpAction {
         // POST /<index>/_search
         // GET /_search
         // POST /_search
+        // GET /<cluster>:<index>,<index>/_search
         if ((method == Method.GET || method == Method.POST)) {
             if (paths.length == 2 && "_search".equals(paths[1])) {
                 return true; // /_search
@@ -66,8 +68,17 @@ public class SearchAction extends HttpAction {
         }
 
         try {
-            final Map<String, Object> result = client.search(indexName != null ? indexName : "default", documentType, requestBody);
+            final Map<String, Object> result;
+            if (CrossClusterSearch.isCrossCluster(indexName)) {
+                result = handler.getCrossClusterSearch().search(indexName, documentType, requestBody);
+            } else {
+                result = client.search(indexName != null ? indexName : "default", documentType, requestBody);
+            }
             return createResponse(httpRequest, 200, result);
+        } catch (final IllegalArgumentException e) {
+            final Map<String, Object> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return createResponse(httpRequest, 400, error);
         } catch (final VespaClientException e) {
             final Map<String, Object> error = new HashMap<>();
             error.put("error", e.getMessage());
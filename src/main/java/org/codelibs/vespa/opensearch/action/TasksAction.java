@@ -0,0 +1,84 @@
+package org.codelibs.vespa.opensearch.action;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.vespa.opensearch.handler.RestApiProxyHandler;
+import org.codelibs.vespa.opensearch.task.Task;
+import org.codelibs.vespa.opensearch.task.TaskManager;
+
+import com.yahoo.container.jdisc.HttpRequest;
+import com.yahoo.container.jdisc.HttpResponse;
+import com.yahoo.jdisc.http.HttpRequest.Method;
+
+public class TasksAction extends HttpAction {
+
+    public TasksAction(final RestApiProxyHandler handler) {
+        super(handler);
+    }
+
+    @Override
+    public boolean isTarget(final Method method, final String[] paths) {
+        // GET /_tasks
+        // GET /_tasks/<task_id>
+        // POST /_tasks/<task_id>/_cancel
+        if (paths.length < 2 || !"_tasks".equals(paths[1])) {
+            return false;
+        }
+        if (method == Method.GET) {
+            return paths.length == 2 || paths.length == 3;
+        }
+        return method == Method.POST && paths.length == 4 && "_cancel".equals(paths[3]);
+    }
+
+    @Override
+    public HttpResponse execute(final HttpRequest httpRequest) {
+        final String[] paths = httpRequest.getUri().getPath().split("/");
+        final TaskManager taskManager = handler.getTaskManager();
+        if (paths.length == 2) {
+            return createResponse(httpRequest, 200, createNodes(taskManager.getRunning()));
+        }
+
+        final String taskId = paths[2];
+        if (paths.length == 4) {
+            final Task task = taskManager.cancel(taskId);
+            if (task == null) {
+                return createNotFound(httpRequest, "task [" + taskId + "] is not running");
+            }
+            return createResponse(httpRequest, 200, createNodes(List.of(task)));
+        }
+
+        final Task task = taskManager.get(taskId);
+        if (task == null) {
+            return createNotFound(httpRequest, "task [" + taskId + "] isn't running and hasn't stored its results");
+        }
+        return createResponse(httpRequest, 200, task.toResult());
+    }
+
+    private static Map<String, Object> createNodes(final List<Task> tasks) {
+        final Map<String, Object> taskMap = new LinkedHashMap<>();
+        for (final Task task : tasks) {
+            taskMap.put(task.getId(), task.toMap());
+        }
+        final Map<String, Object> node = new HashMap<>();
+        node.put("name", "vespa-opensearch-proxy");
+        node.put("tasks", taskMap);
+        final Map<String, Object> result = new HashMap<>();
+        result.put("nodes", Map.of(TaskManager.NODE, node));
+        return result;
+    }
+
+    private HttpResponse createNotFound(final HttpRequest httpRequest, final String reason) {
+        final Map<String, Object> cause = new HashMap<>();
+        cause.put("type", "resource_not_found_exception");
+        cause.put("reason", reason);
+        final Map<String, Object> error = new HashMap<>(cause);
+        error.put("root_cause", List.of(cause));
+        final Map<String, Object> result = new HashMap<>();
+        result.put("error", error);
+        result.put("status", 404);
+        return createResponse(httpRequest, 404, result);
+    }
+}
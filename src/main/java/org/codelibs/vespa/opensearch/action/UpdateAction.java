@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.codelibs.vespa.opensearch.client.VespaClient;
+import org.codelibs.vespa.opensearch.client.ingest.IngestLog;
 import org.codelibs.vespa.opensearch.exception.VespaClientException;
 import org.codelibs.vespa.opensearch.handler.RestApiProxyHandler;
 import org.opensearch.common.xcontent.json.JsonXContent;
@@ -32,6 +33,11 @@ public class UpdateAction extends HttpAction {
         return false;
     }
 
+    @Override
+    public boolean isWrite(final Method method) {
+        return true;
+    }
+
     @Override
     public HttpResponse execute(final HttpRequest httpRequest) {
         final String path = httpRequest.getUri().getPath();
@@ -61,7 +67,13 @@ public class UpdateAction extends HttpAction {
         }
 
         try {
-            client.partialUpdate(indexName, documentType, docId, requestBody);
+            final IngestLog ingestLog = handler.getIngestLog();
+            if (ingestLog != null) {
+                // merged into the stored document when the log sends it
+                VespaClient.join(ingestLog.partialUpdate(indexName, documentType, docId, requestBody));
+            } else {
+                client.partialUpdate(indexName, documentType, docId, requestBody);
+            }
 
             final Map<String, Object> result = new HashMap<>();
             result.put("_index", indexName);
@@ -74,7 +86,7 @@ public class UpdateAction extends HttpAction {
         } catch (final VespaClientException e) {
             final Map<String, Object> error = new HashMap<>();
             error.put("error", e.getMessage());
-            return createResponse(httpRequest, 404, error);
+            return createResponse(httpRequest, e.getStatus() > 0 ? e.getStatus() : 404, error);
         }
     }
 
@@ -0,0 +1,368 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.codelibs.vespa.opensearch.exception.RejectedRequestException;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+
+/**
+ * Searches several Vespa clusters in parallel for index expressions such as eu:logs-*,us:logs-*, and merges their hits.
+ * Each cluster is asked for from + size hits, and the hits are merged by a k-way merge on their score, which is the order
+ * the search of every cluster returns them in, since the sort of a request is not passed to Vespa. A cluster which fails
+ * or does not answer within its timeout is left out and reported in _shards.failures and _clusters, and its request is
+ * aborted. The search fails only if no cluster answers.
+ */
+public class CrossClusterSearch {
+
+    /** Alias of the cluster at vespaEndpoint, which searches indices without an alias. */
+    public static final String LOCAL_CLUSTER = "";
+
+    private final Map<String, SearchClient> clusters = new LinkedHashMap<>();
+
+    private final long timeoutMillis;
+
+    /**
+     * @param localClient the search client of the VespaClient of vespaEndpoint
+     * @param remoteClients the clients of the remote clusters by their alias
+     * @param timeoutMillis the time a cluster may take unless the request has a timeout, or 0 to wait until the read timeout
+     */
+    public CrossClusterSearch(final SearchClient localClient, final Map<String, SearchClient> remoteClients, final long timeoutMillis) {
+        clusters.put(LOCAL_CLUSTER, localClient);
+        clusters.putAll(remoteClients);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Parses remote clusters such as "eu=http://eu-vespa:8080;us=http://us-vespa-1:8080,http://us-vespa-2:8080".
+     * @return the endpoints, each of them a comma separated list, by their alias
+     */
+    public static Map<String, String> parseClusters(final String remoteClusters) {
+        final Map<String, String> result = new LinkedHashMap<>();
+        if (remoteClusters == null) {
+            return result;
+        }
+        for (final String entry : remoteClusters.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            final int pos = entry.indexOf('=');
+            final String alias = pos > 0 ? entry.substring(0, pos).trim() : "";
+            final String endpoint = pos > 0 ? entry.substring(pos + 1).trim() : "";
+            if (alias.isEmpty() || endpoint.isEmpty() || alias.contains(":") || alias.contains(",")) {
+                throw new IllegalArgumentException("Invalid remote cluster [" + entry.trim() + "], expected alias=endpoint.");
+            }
+            if (result.put(alias, endpoint) != null) {
+                throw new IllegalArgumentException("Remote cluster [" + alias + "] is given more than once.");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return whether an index of the expression, such as eu:logs-*, names a cluster
+     */
+    public static boolean isCrossCluster(final String indexExpression) {
+        return indexExpression != null && indexExpression.indexOf(':') >= 0;
+    }
+
+    public Map<String, Object> search(final String indexExpression, final String docType, final Map<String, Object> searchRequest) {
+        return VespaClient.join(searchAsync(indexExpression, docType, searchRequest));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression names an unknown cluster
+     */
+    public CompletableFuture<Map<String, Object>> searchAsync(final String indexExpression, final String docType,
+            final Map<String, Object> searchRequest) {
+        final Map<String, List<String>> targets = resolve(indexExpression);
+        final int size = searchRequest.containsKey("size") ? ((Number) searchRequest.get("size")).intValue() : 10;
+        final int from = searchRequest.containsKey("from") ? ((Number) searchRequest.get("from")).intValue() : 0;
+        final long requestTimeout = SearchQuery.parseTimeMillis(searchRequest.get("timeout"));
+        final long timeout = requestTimeout >= 0 ? requestTimeout : timeoutMillis > 0 ? timeoutMillis : -1;
+
+        // every cluster returns its own top from + size hits, and the page is cut from the merged hits
+        final Map<String, Object> clusterRequest = new HashMap<>(searchRequest);
+        clusterRequest.put("from", 0);
+        clusterRequest.put("size", from + size);
+
+        final long startTime = System.nanoTime();
+        final List<CompletableFuture<ClusterResult>> futures = new ArrayList<>();
+        targets.forEach((alias, indices) -> {
+            CompletableFuture<Map<String, Object>> future;
+            try {
+                future = clusters.get(alias).searchAsync(String.join(",", indices), docType, clusterRequest);
+            } catch (final RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            if (timeout >= 0) {
+                // the request of a cluster which is left out is aborted, rather than left running on the cluster
+                final CompletableFuture<Map<String, Object>> request = future;
+                future = request.copy().orTimeout(timeout, TimeUnit.MILLISECONDS);
+                future.whenComplete((response, t) -> {
+                    if (t != null) {
+                        request.cancel(false);
+                    }
+                });
+            }
+            futures.add(future.handle((response, t) -> new ClusterResult(alias, indices, response, t)));
+        });
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            final List<ClusterResult> results = new ArrayList<>(futures.size());
+            futures.forEach(future -> results.add(future.join()));
+            return merge(results, from, size, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), timeout);
+        });
+    }
+
+    /**
+     * Groups the indices of the expression by cluster, keeping the order in which the clusters appear.
+     */
+    Map<String, List<String>> resolve(final String indexExpression) {
+        final Map<String, List<String>> targets = new LinkedHashMap<>();
+        for (final String index : indexExpression.split(",")) {
+            final String trimmed = index.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            final int pos = trimmed.indexOf(':');
+            final String alias = pos >= 0 ? trimmed.substring(0, pos) : LOCAL_CLUSTER;
+            if (!clusters.containsKey(alias) || pos == 0) {
+                throw new IllegalArgumentException("no such remote cluster: [" + alias + "]");
+            }
+            targets.computeIfAbsent(alias, k -> new ArrayList<>()).add(pos >= 0 ? trimmed.substring(pos + 1) : trimmed);
+        }
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No index in [" + indexExpression + "].");
+        }
+        return targets;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> merge(final List<ClusterResult> results, final int from, final int size, final long took,
+            final long timeout) {
+        final List<Map<String, Object>> failures = new ArrayList<>();
+        final List<Cursor> cursors = new ArrayList<>();
+        int shardsTotal = 0;
+        int shardsSuccessful = 0;
+        int shardsSkipped = 0;
+        int shardsFailed = 0;
+        long totalHits = 0;
+        boolean totalIsLowerBound = false;
+        boolean timedOut = false;
+        Double maxScore = null;
+        ClusterResult firstFailure = null;
+        for (final ClusterResult result : results) {
+            if (result.failure != null) {
+                firstFailure = firstFailure != null ? firstFailure : result;
+                timedOut |= result.isTimeout();
+                shardsTotal++;
+                shardsFailed++;
+                failures.add(result.toShardFailure(timeout));
+                continue;
+            }
+            final Map<String, Object> response = result.response;
+            timedOut |= Boolean.TRUE.equals(response.get("timed_out"));
+            final Map<String, Object> shards = (Map<String, Object>) response.getOrDefault("_shards", Map.of());
+            shardsTotal += getInt(shards, "total", 1);
+            shardsSuccessful += getInt(shards, "successful", 1);
+            shardsSkipped += getInt(shards, "skipped", 0);
+            shardsFailed += getInt(shards, "failed", 0);
+            final Map<String, Object> hits = (Map<String, Object>) response.getOrDefault("hits", Map.of());
+            final Object total = hits.get("total");
+            if (total instanceof Map) {
+                totalHits += getInt((Map<String, Object>) total, "value", 0);
+                totalIsLowerBound |= "gte".equals(((Map<String, Object>) total).get("relation"));
+            } else if (total instanceof Number) {
+                totalHits += ((Number) total).longValue();
+            }
+            if (hits.get("max_score") instanceof Number) {
+                final double score = ((Number) hits.get("max_score")).doubleValue();
+                maxScore = maxScore == null ? score : Math.max(maxScore, score);
+            }
+            final Object hitList = hits.get("hits");
+            if (hitList instanceof List && !((List<?>) hitList).isEmpty()) {
+                cursors.add(new Cursor(result.alias, cursors.size(), (List<Map<String, Object>>) hitList));
+            }
+        }
+        if (failures.size() == results.size()) {
+            throw firstFailure.toException(timeout);
+        }
+
+        final PriorityQueue<Cursor> queue = new PriorityQueue<>((c1, c2) -> {
+            final int compared = Double.compare(getScore(c2.current()), getScore(c1.current()));
+            // equal hits keep the order of the clusters in the expression
+            return compared != 0 ? compared : Integer.compare(c1.order, c2.order);
+        });
+        queue.addAll(cursors);
+        final List<Map<String, Object>> mergedHits = new ArrayList<>(size);
+        for (int i = 0; i < from + size && !queue.isEmpty(); i++) {
+            final Cursor cursor = queue.poll();
+            if (i >= from) {
+                mergedHits.add(cursor.toClusterHit());
+            }
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+
+        final Map<String, Object> result = new HashMap<>();
+        result.put("took", took);
+        result.put("timed_out", timedOut);
+        final Map<String, Object> shards = new HashMap<>();
+        shards.put("total", shardsTotal);
+        shards.put("successful", shardsSuccessful);
+        shards.put("skipped", shardsSkipped);
+        shards.put("failed", shardsFailed);
+        if (!failures.isEmpty()) {
+            shards.put("failures", failures);
+        }
+        result.put("_shards", shards);
+        final Map<String, Object> clusterCounts = new HashMap<>();
+        clusterCounts.put("total", results.size());
+        clusterCounts.put("successful", results.size() - failures.size());
+        clusterCounts.put("skipped", failures.size());
+        result.put("_clusters", clusterCounts);
+        final Map<String, Object> hits = new HashMap<>();
+        final Map<String, Object> total = new HashMap<>();
+        total.put("value", totalHits);
+        total.put("relation", totalIsLowerBound ? "gte" : "eq");
+        hits.put("total", total);
+        hits.put("max_score", maxScore);
+        hits.put("hits", mergedHits);
+        result.put("hits", hits);
+        return result;
+    }
+
+    private static int getInt(final Map<String, Object> map, final String key, final int defaultValue) {
+        final Object value = map.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    private static double getScore(final Map<String, Object> hit) {
+        final Object score = hit.get("_score");
+        return score instanceof Number ? ((Number) score).doubleValue() : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return the aliases of the remote clusters
+     */
+    public List<String> getRemoteClusters() {
+        final List<String> aliases = new ArrayList<>(clusters.keySet());
+        aliases.remove(LOCAL_CLUSTER);
+        return Collections.unmodifiableList(aliases);
+    }
+
+    /**
+     * Closes the clients of the remote clusters. The local client is closed by its owner.
+     */
+    public void close() {
+        clusters.forEach((alias, client) -> {
+            if (!LOCAL_CLUSTER.equals(alias)) {
+                client.close();
+            }
+        });
+    }
+
+    private static class ClusterResult {
+
+        private final String alias;
+
+        private final List<String> indices;
+
+        private final Map<String, Object> response;
+
+        private final Throwable failure;
+
+        ClusterResult(final String alias, final List<String> indices, final Map<String, Object> response, final Throwable t) {
+            this.alias = alias;
+            this.indices = indices;
+            this.response = response;
+            Throwable cause = t;
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            this.failure = cause;
+        }
+
+        boolean isTimeout() {
+            return failure instanceof TimeoutException;
+        }
+
+        String getIndex() {
+            final String indexList = String.join(",", indices);
+            return LOCAL_CLUSTER.equals(alias) ? indexList : alias + ":" + indexList;
+        }
+
+        String getReason(final long timeout) {
+            return isTimeout() ? "cluster [" + alias + "] did not answer within " + timeout + "ms" : String.valueOf(failure.getMessage());
+        }
+
+        Map<String, Object> toShardFailure(final long timeout) {
+            final Map<String, Object> reason = new HashMap<>();
+            reason.put("type", isTimeout() ? "timeout_exception" : failure instanceof RejectedRequestException
+                    ? "es_rejected_execution_exception" : "vespa_client_exception");
+            reason.put("reason", getReason(timeout));
+            final Map<String, Object> shardFailure = new HashMap<>();
+            shardFailure.put("shard", -1);
+            shardFailure.put("index", getIndex());
+            shardFailure.put("reason", reason);
+            return shardFailure;
+        }
+
+        RuntimeException toException(final long timeout) {
+            if (failure instanceof VespaClientException || failure instanceof RejectedRequestException) {
+                return (RuntimeException) failure;
+            }
+            if (isTimeout()) {
+                return new VespaClientException("Failed to execute search: " + getReason(timeout), 504);
+            }
+            return new VespaClientException("Failed to execute search on [" + getIndex() + "]",
+                    failure instanceof Exception ? (Exception) failure : null);
+        }
+    }
+
+    private static class Cursor {
+
+        private final String alias;
+
+        private final int order;
+
+        private final List<Map<String, Object>> hits;
+
+        private int position;
+
+        Cursor(final String alias, final int order, final List<Map<String, Object>> hits) {
+            this.alias = alias;
+            this.order = order;
+            this.hits = hits;
+        }
+
+        Map<String, Object> current() {
+            return hits.get(position);
+        }
+
+        boolean advance() {
+            return ++position < hits.size();
+        }
+
+        /**
+         * @return the current hit with its index prefixed by the cluster alias, as in eu:logs
+         */
+        Map<String, Object> toClusterHit() {
+            final Map<String, Object> hit = new HashMap<>(current());
+            if (!LOCAL_CLUSTER.equals(alias)) {
+                hit.put("_index", alias + ":" + hit.getOrDefault("_index", "default"));
+            }
+            return hit;
+        }
+    }
+}
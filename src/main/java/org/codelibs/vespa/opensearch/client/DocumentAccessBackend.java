@@ -0,0 +1,316 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+
+import com.yahoo.document.ArrayDataType;
+import com.yahoo.document.DataType;
+import com.yahoo.document.Document;
+import com.yahoo.document.DocumentId;
+import com.yahoo.document.DocumentPut;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.DocumentUpdate;
+import com.yahoo.document.Field;
+import com.yahoo.document.NumericDataType;
+import com.yahoo.document.WeightedSetDataType;
+import com.yahoo.document.datatypes.Array;
+import com.yahoo.document.datatypes.FieldValue;
+import com.yahoo.document.datatypes.MapFieldValue;
+import com.yahoo.document.datatypes.StructuredFieldValue;
+import com.yahoo.document.datatypes.WeightedSet;
+import com.yahoo.document.update.FieldUpdate;
+import com.yahoo.documentapi.AsyncParameters;
+import com.yahoo.documentapi.AsyncSession;
+import com.yahoo.documentapi.DocumentAccess;
+import com.yahoo.documentapi.DocumentResponse;
+import com.yahoo.documentapi.Response;
+import com.yahoo.documentapi.Result;
+
+/**
+ * Sends document operations through the in-process Document API of the container.
+ * This skips the HTTP round trip and JSON encoding to the Document V1 API.
+ * Operations are asynchronous; responses are matched to their futures by request id.
+ */
+public class DocumentAccessBackend implements DocumentBackend {
+
+    private static final Logger log = Logger.getLogger(DocumentAccessBackend.class.getName());
+
+    private final DocumentAccess documentAccess;
+
+    private final AsyncSession session;
+
+    /**
+     * Futures of operations waiting for a response, keyed by request id.
+     * Guarded by itself, so a response cannot arrive before its future is registered.
+     */
+    private final Map<Long, CompletableFuture<Response>> pending = new HashMap<>();
+
+    public DocumentAccessBackend(final DocumentAccess documentAccess) {
+        this.documentAccess = documentAccess;
+        session = documentAccess.createAsyncSession(new AsyncParameters().setResponseHandler(this::handleResponse));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> put(final String namespace, final String docType, final String id,
+            final Map<String, Object> fields) {
+        final Document document;
+        try {
+            final DocumentType documentType = getDocumentType(docType);
+            document = new Document(documentType, toDocumentId(namespace, docType, id));
+            for (final Map.Entry<String, Object> entry : fields.entrySet()) {
+                final Field field = getField(documentType, entry.getKey());
+                document.setFieldValue(field, toFieldValue(field.getDataType(), entry.getValue()));
+            }
+        } catch (final Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return send(() -> session.put(new DocumentPut(document))).thenApply(response -> toResult(namespace, docType, id));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> get(final String namespace, final String docType, final String id) {
+        final DocumentId documentId;
+        try {
+            documentId = toDocumentId(namespace, docType, id);
+        } catch (final Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return send(() -> session.get(documentId)).thenApply(response -> {
+            final Document document = response instanceof DocumentResponse ? ((DocumentResponse) response).getDocument() : null;
+            if (document == null) {
+                throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] The doc is not found.");
+            }
+            final Map<String, Object> result = toResult(namespace, docType, id);
+            result.put("fields", toMap(document));
+            return result;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> update(final String namespace, final String docType, final String id,
+            final Map<String, Object> fields) {
+        final DocumentUpdate update;
+        try {
+            final DocumentType documentType = getDocumentType(docType);
+            update = new DocumentUpdate(documentType, toDocumentId(namespace, docType, id));
+            for (final Map.Entry<String, Object> entry : fields.entrySet()) {
+                final Field field = getField(documentType, entry.getKey());
+                update.addFieldUpdate(FieldUpdate.createAssign(field, toFieldValue(field.getDataType(), entry.getValue())));
+            }
+        } catch (final Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return send(() -> session.update(update)).thenApply(response -> toResult(namespace, docType, id));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> remove(final String namespace, final String docType, final String id) {
+        final DocumentId documentId;
+        try {
+            documentId = toDocumentId(namespace, docType, id);
+        } catch (final Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return send(() -> session.remove(documentId)).thenApply(response -> toResult(namespace, docType, id));
+    }
+
+    private CompletableFuture<Response> send(final Operation operation) {
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        synchronized (pending) {
+            final Result result;
+            try {
+                result = operation.send();
+            } catch (final Exception e) {
+                future.completeExceptionally(e);
+                return future;
+            }
+            if (!result.isSuccess()) {
+                // a transient error means the session is full, which is Vespa's way of throttling
+                future.completeExceptionally(new VespaClientException("Document API rejected the operation: " + result.type() + " "
+                        + (result.error() != null ? result.error().getMessage() : ""),
+                        result.type() == Result.ResultType.TRANSIENT_ERROR ? 429 : 500));
+                return future;
+            }
+            pending.put(result.getRequestId(), future);
+        }
+        return future;
+    }
+
+    private void handleResponse(final Response response) {
+        final CompletableFuture<Response> future;
+        synchronized (pending) {
+            future = pending.remove(response.getRequestId());
+        }
+        if (future == null) {
+            log.log(Level.FINE, () -> "No pending operation for " + response);
+            return;
+        }
+        if (response.isSuccess() || response.outcome() == Response.Outcome.NOT_FOUND) {
+            future.complete(response);
+        } else {
+            future.completeExceptionally(new VespaClientException(
+                    "Document operation failed: " + response.outcome() + " " + response.getTextMessage(), toStatus(response.outcome())));
+        }
+    }
+
+    private static int toStatus(final Response.Outcome outcome) {
+        switch (outcome) {
+        case TIMEOUT:
+            return 504;
+        case INSUFFICIENT_STORAGE:
+            return 507;
+        case CONDITION_FAILED:
+            return 412;
+        default:
+            return 500;
+        }
+    }
+
+    private DocumentType getDocumentType(final String docType) {
+        final DocumentType documentType = documentAccess.getDocumentTypeManager().getDocumentType(docType);
+        if (documentType == null) {
+            throw new VespaClientException("Unknown document type: " + docType);
+        }
+        return documentType;
+    }
+
+    private static Field getField(final DocumentType documentType, final String name) {
+        final Field field = documentType.getField(name);
+        if (field == null) {
+            throw new VespaClientException("No field '" + name + "' in document type " + documentType.getName());
+        }
+        return field;
+    }
+
+    private static DocumentId toDocumentId(final String namespace, final String docType, final String id) {
+        return new DocumentId("id:" + namespace + ":" + docType + "::" + id);
+    }
+
+    /**
+     * Builds the same response as the Document V1 API returns for an operation.
+     */
+    private static Map<String, Object> toResult(final String namespace, final String docType, final String id) {
+        final Map<String, Object> result = new HashMap<>();
+        result.put("id", "id:" + namespace + ":" + docType + "::" + id);
+        result.put("pathId", "/" + HttpDocumentBackend.documentPath(namespace, docType, id));
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    static FieldValue toFieldValue(final DataType dataType, final Object value) {
+        if (dataType instanceof ArrayDataType && value instanceof List<?>) {
+            final DataType nestedType = ((ArrayDataType) dataType).getNestedType();
+            final Array<FieldValue> array = new Array<>(dataType);
+            for (final Object element : (List<Object>) value) {
+                array.add(toFieldValue(nestedType, element));
+            }
+            return array;
+        }
+        if (dataType instanceof WeightedSetDataType && value instanceof Map<?, ?>) {
+            final DataType nestedType = ((WeightedSetDataType) dataType).getNestedType();
+            final WeightedSet<FieldValue> weightedSet = new WeightedSet<>(dataType);
+            for (final Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                weightedSet.put(toFieldValue(nestedType, entry.getKey()), ((Number) entry.getValue()).intValue());
+            }
+            return weightedSet;
+        }
+        if (dataType instanceof NumericDataType && value instanceof Number) {
+            // JSON numbers are parsed as the narrowest type, which may differ from the field type
+            final Number number = (Number) value;
+            if (dataType == DataType.INT) {
+                return dataType.createFieldValue(number.intValue());
+            }
+            if (dataType == DataType.LONG) {
+                return dataType.createFieldValue(number.longValue());
+            }
+            if (dataType == DataType.FLOAT) {
+                return dataType.createFieldValue(number.floatValue());
+            }
+            if (dataType == DataType.DOUBLE) {
+                return dataType.createFieldValue(number.doubleValue());
+            }
+            if (dataType == DataType.BYTE) {
+                return dataType.createFieldValue(number.byteValue());
+            }
+        }
+        return dataType.createFieldValue(value);
+    }
+
+    static Map<String, Object> toMap(final StructuredFieldValue struct) {
+        final Map<String, Object> map = new HashMap<>();
+        final Iterator<Map.Entry<Field, FieldValue>> iterator = struct.iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Field, FieldValue> entry = iterator.next();
+            map.put(entry.getKey().getName(), toObject(entry.getValue()));
+        }
+        return map;
+    }
+
+    static Object toObject(final FieldValue value) {
+        if (value instanceof StructuredFieldValue) {
+            return toMap((StructuredFieldValue) value);
+        }
+        if (value instanceof Array<?>) {
+            final List<Object> list = new ArrayList<>();
+            for (final Object element : (Array<?>) value) {
+                list.add(toObject((FieldValue) element));
+            }
+            return list;
+        }
+        if (value instanceof WeightedSet<?>) {
+            final Map<String, Object> map = new HashMap<>();
+            final WeightedSet<?> weightedSet = (WeightedSet<?>) value;
+            for (final FieldValue key : weightedSet.keySet()) {
+                map.put(String.valueOf(toObject(key)), weightedSet.get(key));
+            }
+            return map;
+        }
+        if (value instanceof MapFieldValue<?, ?>) {
+            final Map<String, Object> map = new HashMap<>();
+            for (final Map.Entry<?, ?> entry : ((MapFieldValue<?, ?>) value).entrySet()) {
+                map.put(String.valueOf(toObject((FieldValue) entry.getKey())), toObject((FieldValue) entry.getValue()));
+            }
+            return map;
+        }
+        final Object wrapped = value.getWrappedValue();
+        return wrapped != null ? wrapped : value.toString();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        final int size;
+        synchronized (pending) {
+            size = pending.size();
+        }
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("type", "document_access");
+        stats.put("pending", size);
+        stats.put("window_size", session.getCurrentWindowSize());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        session.destroy();
+        final List<CompletableFuture<Response>> futures;
+        synchronized (pending) {
+            futures = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        futures.forEach(future -> future.completeExceptionally(new VespaClientException("Document API session is closed.")));
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        Result send() throws Exception;
+    }
+
+}
@@ -0,0 +1,59 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.opensearch.common.xcontent.json.JsonXContent;
+import org.opensearch.core.xcontent.DeprecationHandler;
+import org.opensearch.core.xcontent.NamedXContentRegistry;
+import org.opensearch.core.xcontent.XContentParser;
+
+/**
+ * Executes document operations against Vespa.
+ * The returned maps follow the Document V1 API response format, such as "id", "pathId" and "fields".
+ */
+public interface DocumentBackend {
+
+    /**
+     * Writes a document.
+     *
+     * @param fields the flattened document fields
+     */
+    CompletableFuture<Map<String, Object>> put(String namespace, String docType, String id, Map<String, Object> fields);
+
+    /**
+     * Writes a document given as a Document V1 API payload, such as one made by {@link DocumentSource#toFieldsJson(byte[])}.
+     * Backends which send the payload as it is override this; the default parses it and calls {@link #put}.
+     *
+     * @param fieldsJson the flattened document fields as {"fields":{...}}
+     */
+    @SuppressWarnings("unchecked")
+    default CompletableFuture<Map<String, Object>> putFields(final String namespace, final String docType, final String id,
+            final byte[] fieldsJson) {
+        final Map<String, Object> payload;
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.IGNORE_DEPRECATIONS, fieldsJson)) {
+            payload = parser.map();
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return put(namespace, docType, id, (Map<String, Object>) payload.get("fields"));
+    }
+
+    CompletableFuture<Map<String, Object>> get(String namespace, String docType, String id);
+
+    /**
+     * Assigns the given fields of a document.
+     *
+     * @param fields the flattened document fields
+     */
+    CompletableFuture<Map<String, Object>> update(String namespace, String docType, String id, Map<String, Object> fields);
+
+    CompletableFuture<Map<String, Object>> remove(String namespace, String docType, String id);
+
+    Map<String, Object> getStats();
+
+    void close();
+
+}
@@ -0,0 +1,69 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.opensearch.common.xcontent.json.JsonXContent;
+import org.opensearch.core.xcontent.DeprecationHandler;
+import org.opensearch.core.xcontent.NamedXContentRegistry;
+import org.opensearch.core.xcontent.XContentBuilder;
+import org.opensearch.core.xcontent.XContentParser;
+
+/**
+ * Converts the JSON source of a document into the Document V1 API payload without building maps of it.
+ * The tokens of the source are copied to the payload as they are read, and nested objects are flattened
+ * into dotted field names on the way, the same way as a source map is flattened by VespaClient.
+ */
+public final class DocumentSource {
+
+    private DocumentSource() {
+    }
+
+    /**
+     * Converts a source such as {"title":"a","meta":{"lang":"en"}} into {"fields":{"title":"a","meta.lang":"en"}}.
+     * Arrays are copied as they are. An empty source is an empty document.
+     * @throws IOException if the source is not a JSON object
+     */
+    public static byte[] toFieldsJson(final byte[] source) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(source.length + 16);
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.IGNORE_DEPRECATIONS, source);
+                XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out)) {
+            builder.startObject();
+            builder.startObject("fields");
+            final XContentParser.Token token = source.length == 0 ? null : parser.nextToken();
+            if (token == XContentParser.Token.START_OBJECT) {
+                copyFlattened(parser, null, builder);
+            } else if (token != null) {
+                throw new IOException("The document source must be a JSON object, but starts with " + token + ".");
+            }
+            builder.endObject();
+            builder.endObject();
+            if (parser.nextToken() != null) {
+                throw new IOException("The document source has content after its JSON object.");
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Copies the fields of the object the parser is in, up to its end.
+     */
+    private static void copyFlattened(final XContentParser parser, final String prefix, final XContentBuilder builder)
+            throws IOException {
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+            final String name = prefix == null ? parser.currentName() : prefix + "." + parser.currentName();
+            token = parser.nextToken();
+            if (token == XContentParser.Token.START_OBJECT) {
+                copyFlattened(parser, name, builder);
+            } else {
+                builder.field(name);
+                builder.copyCurrentStructure(parser);
+            }
+        }
+        if (token != XContentParser.Token.END_OBJECT) {
+            throw new IOException("Unexpected " + token + " in the document source.");
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+
+import com.yahoo.container.protect.Error;
+import com.yahoo.data.access.Inspectable;
+import com.yahoo.data.access.Inspector;
+import com.yahoo.document.datatypes.FieldValue;
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.result.ErrorMessage;
+import com.yahoo.search.result.Hit;
+import com.yahoo.search.searchchain.Execution;
+import com.yahoo.search.searchchain.ExecutionFactory;
+
+/**
+ * Runs queries through a search chain of this container.
+ * The Query DSL is translated into a query item tree, and the hits of the result are converted directly,
+ * so no YQL, HTTP request or JSON rendering and parsing is involved.
+ * A query is executed in the calling thread, so the returned future is already completed.
+ */
+public class ExecutionSearchBackend implements SearchBackend {
+
+    private static final Logger log = Logger.getLogger(ExecutionSearchBackend.class.getName());
+
+    private final ExecutionFactory executionFactory;
+
+    private final String searchChain;
+
+    private final AtomicLong queryCount = new AtomicLong();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    public ExecutionSearchBackend(final ExecutionFactory executionFactory, final String searchChain) {
+        this.executionFactory = executionFactory;
+        this.searchChain = searchChain;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> search(final SearchQuery searchQuery) {
+        queryCount.incrementAndGet();
+        try {
+            final long startTime = System.nanoTime();
+            final Query query = new Query();
+            query.getModel().getQueryTree().setRoot(searchQuery.toItem());
+            query.setHits(searchQuery.getHits());
+            query.setOffset(searchQuery.getOffset());
+            if (searchQuery.getTimeoutMillis() >= 0) {
+                query.setTimeout(searchQuery.getTimeoutMillis());
+            }
+            // the YQL is only built when debugging
+            log.log(Level.FINE, () -> "Running " + searchQuery + " as " + query.getModel().getQueryTree());
+
+            final Execution execution = executionFactory.newExecution(searchChain);
+            final Result result = execution.search(query);
+            final ErrorMessage error = result.hits().getError();
+            if (error != null) {
+                throw new VespaClientException("Search failed: " + error, toStatus(error));
+            }
+            if (searchQuery.getHits() > 0) {
+                execution.fill(result);
+            }
+            return CompletableFuture.completedFuture(convertResult(result, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+        } catch (final Exception e) {
+            errorCount.incrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static int toStatus(final ErrorMessage error) {
+        if (error.getCode() == Error.TIMEOUT.code) {
+            return 504;
+        }
+        if (error.getCode() == Error.NO_BACKENDS_IN_SERVICE.code || error.getCode() == Error.BACKEND_COMMUNICATION_ERROR.code) {
+            return 503;
+        }
+        return 500;
+    }
+
+    static Map<String, Object> convertResult(final Result result, final long took) {
+        final Map<String, Object> response = new HashMap<>();
+        response.put("took", took);
+        response.put("timed_out", false);
+        response.put("_shards", Map.of("total", 1, "successful", 1, "skipped", 0, "failed", 0));
+
+        final List<Map<String, Object>> hitList = new ArrayList<>();
+        double maxScore = 0;
+        final Iterator<Hit> iterator = result.hits().deepIterator();
+        while (iterator.hasNext()) {
+            final Hit hit = iterator.next();
+            if (hit.isMeta() || hit.isAuxiliary()) {
+                continue;
+            }
+            final double score = hit.getRelevance().getScore();
+            maxScore = Math.max(maxScore, score);
+
+            final Map<String, Object> source = new HashMap<>();
+            hit.fields().forEach((name, value) -> source.put(name, toObject(value)));
+
+            final Map<String, Object> openSearchHit = new HashMap<>();
+            openSearchHit.put("_index", "default");
+            openSearchHit.put("_id", hit.getId() != null ? hit.getId().toString() : null);
+            openSearchHit.put("_score", score);
+            openSearchHit.put("_source", source);
+            hitList.add(openSearchHit);
+        }
+
+        final Map<String, Object> hits = new HashMap<>();
+        hits.put("total", Map.of("value", result.getTotalHitCount(), "relation", "eq"));
+        hits.put("max_score", hitList.isEmpty() ? 1.0 : maxScore);
+        hits.put("hits", hitList);
+        response.put("hits", hits);
+        return response;
+    }
+
+    /**
+     * Converts a summary field value to plain Java objects, as they would be after a JSON round trip.
+     */
+    static Object toObject(final Object value) {
+        if (value instanceof FieldValue) {
+            return DocumentAccessBackend.toObject((FieldValue) value);
+        }
+        if (value instanceof Inspectable) {
+            return toObject(((Inspectable) value).inspect());
+        }
+        return value;
+    }
+
+    private static Object toObject(final Inspector inspector) {
+        switch (inspector.type()) {
+        case BOOL:
+            return inspector.asBool();
+        case LONG:
+            return inspector.asLong();
+        case DOUBLE:
+            return inspector.asDouble();
+        case STRING:
+            return inspector.asString();
+        case DATA:
+            return inspector.asData();
+        case ARRAY:
+            final List<Object> list = new ArrayList<>();
+            for (final Inspector entry : inspector.entries()) {
+                list.add(toObject(entry));
+            }
+            return list;
+        case OBJECT:
+            final Map<String, Object> map = new HashMap<>();
+            for (final Map.Entry<String, Inspector> field : inspector.fields()) {
+                map.put(field.getKey(), toObject(field.getValue()));
+            }
+            return map;
+        default:
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("type", "execution");
+        stats.put("search_chain", searchChain);
+        stats.put("queries", queryCount.get());
+        stats.put("errors", errorCount.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        // the execution factory is owned by the container
+    }
+
+}
@@ -0,0 +1,124 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.codelibs.vespa.opensearch.client.transport.TransportRequest;
+import org.codelibs.vespa.opensearch.client.transport.TransportResponse;
+import org.codelibs.vespa.opensearch.client.transport.VespaTransport;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.opensearch.common.xcontent.json.JsonXContent;
+import org.opensearch.core.xcontent.XContentBuilder;
+
+/**
+ * Sends document operations to the Document V1 API of Vespa.
+ */
+public class HttpDocumentBackend implements DocumentBackend {
+
+    private final VespaTransport transport;
+
+    private final boolean ownTransport;
+
+    /**
+     * Creates a backend sharing the transport of VespaClient.
+     */
+    public HttpDocumentBackend(final VespaTransport transport) {
+        this(transport, false);
+    }
+
+    /**
+     * @param transport the transport of document operations
+     * @param ownTransport true if the transport is used only by this backend, and is closed with it
+     */
+    public HttpDocumentBackend(final VespaTransport transport, final boolean ownTransport) {
+        this.transport = transport;
+        this.ownTransport = ownTransport;
+    }
+
+    static String documentPath(final String namespace, final String docType, final String id) {
+        return "document/v1/" + namespace + "/" + docType + "/docid/" + URLEncoder.encode(id, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    static byte[] toFieldsJson(final Map<String, Object> fieldMap) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out)) {
+            final Map<String, Object> obj = new HashMap<>();
+            obj.put("fields", fieldMap);
+            builder.value(obj);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> put(final String namespace, final String docType, final String id,
+            final Map<String, Object> fields) {
+        final byte[] body;
+        try {
+            body = toFieldsJson(fields);
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return execute(TransportRequest.post(documentPath(namespace, docType, id), body), namespace, docType, id, "");
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> putFields(final String namespace, final String docType, final String id,
+            final byte[] fieldsJson) {
+        return execute(TransportRequest.post(documentPath(namespace, docType, id), fieldsJson), namespace, docType, id, "");
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> get(final String namespace, final String docType, final String id) {
+        return execute(TransportRequest.get(documentPath(namespace, docType, id)), namespace, docType, id, " The doc is not found.");
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> update(final String namespace, final String docType, final String id,
+            final Map<String, Object> fields) {
+        final byte[] body;
+        try {
+            body = toFieldsJson(fields);
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return execute(TransportRequest.put(documentPath(namespace, docType, id), body), namespace, docType, id, "");
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> remove(final String namespace, final String docType, final String id) {
+        return execute(TransportRequest.delete(documentPath(namespace, docType, id)), namespace, docType, id, "");
+    }
+
+    private CompletableFuture<Map<String, Object>> execute(final TransportRequest request, final String namespace, final String docType,
+            final String id, final String reason) {
+        return transport.executeAsync(request).thenApply(response -> {
+            if (response.getHttpStatusCode() == 200) {
+                return response.getContent(VespaClient.PARSER);
+            }
+            throw new VespaClientException(
+                    "[" + namespace + "][" + docType + "][" + id + "]" + reason + " The response is " + response.getHttpStatusCode(),
+                    response.getHttpStatusCode());
+        });
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        if (ownTransport) {
+            return Map.of("type", "http", "transport", transport.getStats());
+        }
+        return Map.of("type", "http");
+    }
+
+    @Override
+    public void close() {
+        if (ownTransport) {
+            transport.close();
+        }
+    }
+
+}
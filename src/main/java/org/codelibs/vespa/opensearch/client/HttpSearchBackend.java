@@ -0,0 +1,136 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.codelibs.vespa.opensearch.client.transport.TransportRequest;
+import org.codelibs.vespa.opensearch.client.transport.TransportResponse;
+import org.codelibs.vespa.opensearch.client.transport.VespaTransport;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.opensearch.common.xcontent.json.JsonXContent;
+import org.opensearch.core.xcontent.XContentBuilder;
+
+/**
+ * Sends queries to the search API of Vespa as POST requests with a JSON body, and converts the JSON result.
+ * Unlike a GET, the body has no length limit and the YQL is not URL-encoded, which matters for queries with many terms or ids.
+ */
+public class HttpSearchBackend implements SearchBackend {
+
+    private final VespaTransport transport;
+
+    public HttpSearchBackend(final VespaTransport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> search(final SearchQuery query) {
+        final byte[] body;
+        try {
+            body = toQueryJson(query);
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final CompletableFuture<TransportResponse> request = transport.executeAsync(TransportRequest.query("search/", body));
+        final CompletableFuture<Map<String, Object>> result = request.thenApply(response -> {
+            if (response.getHttpStatusCode() == 200) {
+                final Map<String, Object> vespaResult = response.getContent(VespaClient.PARSER);
+                return convertVespaSearchToOpenSearch(vespaResult);
+            }
+            throw new VespaClientException("Search failed with status: " + response.getHttpStatusCode(), response.getHttpStatusCode());
+        });
+        result.whenComplete((response, t) -> {
+            if (result.isCancelled()) {
+                request.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Writes the query parameters as a JSON object, such as {"yql":"select ...","hits":10,"offset":0,"timeout":"500ms"}.
+     */
+    static byte[] toQueryJson(final SearchQuery query) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out)) {
+            builder.startObject();
+            builder.field("yql", query.getYql());
+            builder.field("hits", query.getHits());
+            builder.field("offset", query.getOffset());
+            if (query.getTimeoutMillis() >= 0) {
+                builder.field("timeout", query.getTimeoutMillis() + "ms");
+            }
+            builder.endObject();
+        }
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> convertVespaSearchToOpenSearch(final Map<String, Object> vespaResult) {
+        final Map<String, Object> result = new HashMap<>();
+        result.put("took", vespaResult.getOrDefault("timing", Map.of("searchtime", 0)));
+        result.put("timed_out", false);
+
+        final Map<String, Object> shards = new HashMap<>();
+        shards.put("total", 1);
+        shards.put("successful", 1);
+        shards.put("skipped", 0);
+        shards.put("failed", 0);
+        result.put("_shards", shards);
+
+        final Map<String, Object> hits = new HashMap<>();
+        final Map<String, Object> root = (Map<String, Object>) vespaResult.get("root");
+        int totalCount = 0;
+        if (root != null) {
+            final Map<String, Object> coverage = (Map<String, Object>) root.getOrDefault("coverage", Map.of("documents", 0));
+            final Object documentsObj = coverage.getOrDefault("documents", 0);
+            if (documentsObj instanceof Number) {
+                totalCount = ((Number) documentsObj).intValue();
+            } else {
+                try {
+                    totalCount = Integer.parseInt(documentsObj.toString());
+                } catch (final NumberFormatException e) {
+                    totalCount = 0;
+                }
+            }
+        }
+
+        final Map<String, Object> total = new HashMap<>();
+        total.put("value", totalCount);
+        total.put("relation", "eq");
+        hits.put("total", total);
+        hits.put("max_score", 1.0);
+
+        final List<Map<String, Object>> hitList = new ArrayList<>();
+        if (root != null && root.containsKey("children")) {
+            final List<Map<String, Object>> children = (List<Map<String, Object>>) root.get("children");
+            for (final Map<String, Object> child : children) {
+                final Map<String, Object> hit = new HashMap<>();
+                hit.put("_index", "default");
+                hit.put("_id", child.get("id"));
+                hit.put("_score", child.getOrDefault("relevance", 1.0));
+                hit.put("_source", child.get("fields"));
+                hitList.add(hit);
+            }
+        }
+        hits.put("hits", hitList);
+        result.put("hits", hits);
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        return Map.of("type", "http");
+    }
+
+    @Override
+    public void close() {
+        // the transport is closed by VespaClient
+    }
+
+}
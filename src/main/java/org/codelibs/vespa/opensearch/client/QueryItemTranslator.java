@@ -0,0 +1,314 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+
+import com.yahoo.prelude.query.AndItem;
+import com.yahoo.prelude.query.CompositeItem;
+import com.yahoo.prelude.query.FalseItem;
+import com.yahoo.prelude.query.IntItem;
+import com.yahoo.prelude.query.Item;
+import com.yahoo.prelude.query.Limit;
+import com.yahoo.prelude.query.NotItem;
+import com.yahoo.prelude.query.OrItem;
+import com.yahoo.prelude.query.PhraseItem;
+import com.yahoo.prelude.query.PrefixItem;
+import com.yahoo.prelude.query.RangeItem;
+import com.yahoo.prelude.query.RegExpItem;
+import com.yahoo.prelude.query.TrueItem;
+import com.yahoo.prelude.query.WordItem;
+
+/**
+ * Translates Query DSL into a Vespa query item tree, so no YQL has to be built and parsed.
+ * Terms are put into items as they are, so they never need escaping.
+ */
+public final class QueryItemTranslator {
+
+    private QueryItemTranslator() {
+        // static only
+    }
+
+    public static Item translate(final Map<String, Object> query) {
+        if (query == null || query.isEmpty()) {
+            return new TrueItem();
+        }
+
+        if (query.containsKey("match_all")) {
+            return new TrueItem();
+        }
+        if (query.containsKey("match")) {
+            return translateMatchQuery(asMap(query.get("match")));
+        }
+        if (query.containsKey("match_phrase")) {
+            return translateMatchPhraseQuery(asMap(query.get("match_phrase")));
+        }
+        if (query.containsKey("multi_match")) {
+            return translateMultiMatchQuery(asMap(query.get("multi_match")));
+        }
+        if (query.containsKey("term")) {
+            return translateTermQuery(asMap(query.get("term")));
+        }
+        if (query.containsKey("terms")) {
+            return translateTermsQuery(asMap(query.get("terms")));
+        }
+        if (query.containsKey("range")) {
+            return translateRangeQuery(asMap(query.get("range")));
+        }
+        if (query.containsKey("exists")) {
+            return translateExistsQuery(asMap(query.get("exists")));
+        }
+        if (query.containsKey("prefix")) {
+            return translatePrefixQuery(asMap(query.get("prefix")));
+        }
+        if (query.containsKey("wildcard")) {
+            return translateWildcardQuery(asMap(query.get("wildcard")));
+        }
+        if (query.containsKey("bool")) {
+            return translateBoolQuery(asMap(query.get("bool")));
+        }
+        if (query.containsKey("ids")) {
+            return translateIdsQuery(asMap(query.get("ids")));
+        }
+        if (query.containsKey("query_string")) {
+            return translateQueryStringQuery(asMap(query.get("query_string")));
+        }
+        return new TrueItem();
+    }
+
+    private static Item translateMatchQuery(final Map<String, Object> match) {
+        final String field = match.keySet().iterator().next();
+        return text(field, valueOf(match.get(field), "query"));
+    }
+
+    private static Item translateMatchPhraseQuery(final Map<String, Object> matchPhrase) {
+        final String field = matchPhrase.keySet().iterator().next();
+        final List<String> words = words(valueOf(matchPhrase.get(field), "query"));
+        if (words.size() == 1) {
+            return new WordItem(words.get(0), field, true);
+        }
+        final PhraseItem phrase = new PhraseItem();
+        phrase.setIndexName(field);
+        for (final String word : words) {
+            phrase.addItem(new WordItem(word, field, true));
+        }
+        return phrase;
+    }
+
+    private static Item translateMultiMatchQuery(final Map<String, Object> multiMatch) {
+        final String queryValue = (String) multiMatch.get("query");
+        final List<String> fields = asList(multiMatch.get("fields"));
+        if (fields == null || fields.isEmpty()) {
+            return new TrueItem();
+        }
+        final List<Item> items = new ArrayList<>();
+        for (final String field : fields) {
+            items.add(text(field, queryValue));
+        }
+        return combine(new OrItem(), items);
+    }
+
+    private static Item translateTermQuery(final Map<String, Object> term) {
+        final String field = term.keySet().iterator().next();
+        return new WordItem(valueOf(term.get(field), "value"), field, true);
+    }
+
+    private static Item translateTermsQuery(final Map<String, Object> terms) {
+        final String field = terms.keySet().iterator().next();
+        final List<Object> values = asList(terms.get(field));
+        if (values == null || values.isEmpty()) {
+            return new FalseItem();
+        }
+        final List<Item> items = new ArrayList<>();
+        for (final Object value : values) {
+            items.add(new WordItem(value.toString(), field, true));
+        }
+        return combine(new OrItem(), items);
+    }
+
+    private static Item translateRangeQuery(final Map<String, Object> range) {
+        final String field = range.keySet().iterator().next();
+        final Map<String, Object> conditions = asMap(range.get(field));
+        Limit from = Limit.NEGATIVE_INFINITY;
+        Limit to = Limit.POSITIVE_INFINITY;
+        if (conditions.containsKey("gte")) {
+            from = new Limit(toNumber(field, conditions.get("gte")), true);
+        } else if (conditions.containsKey("gt")) {
+            from = new Limit(toNumber(field, conditions.get("gt")), false);
+        }
+        if (conditions.containsKey("lte")) {
+            to = new Limit(toNumber(field, conditions.get("lte")), true);
+        } else if (conditions.containsKey("lt")) {
+            to = new Limit(toNumber(field, conditions.get("lt")), false);
+        }
+        if (from == Limit.NEGATIVE_INFINITY && to == Limit.POSITIVE_INFINITY) {
+            return new TrueItem();
+        }
+        return new RangeItem(from, to, field);
+    }
+
+    private static Item translateExistsQuery(final Map<String, Object> exists) {
+        final String field = (String) exists.get("field");
+        final OrItem or = new OrItem();
+        or.addItem(new RegExpItem(field, true, "."));
+        or.addItem(new IntItem(">0", field));
+        or.addItem(new IntItem("<0", field));
+        return or;
+    }
+
+    private static Item translatePrefixQuery(final Map<String, Object> prefix) {
+        final String field = prefix.keySet().iterator().next();
+        return new PrefixItem(valueOf(prefix.get(field), "value"), field);
+    }
+
+    private static Item translateWildcardQuery(final Map<String, Object> wildcard) {
+        final String field = wildcard.keySet().iterator().next();
+        final String pattern = valueOf(wildcard.get(field), "value");
+        final StringBuilder regex = new StringBuilder("^");
+        for (final char c : pattern.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if ("\\.[]{}()<>+-=!^$|".indexOf(c) >= 0) {
+                regex.append('\\').append(c);
+            } else {
+                regex.append(c);
+            }
+        }
+        return new RegExpItem(field, true, regex.append('$').toString());
+    }
+
+    private static Item translateBoolQuery(final Map<String, Object> bool) {
+        final List<Item> positives = new ArrayList<>();
+        positives.addAll(translateClauses(bool.get("must")));
+        positives.addAll(translateClauses(bool.get("filter")));
+
+        final List<Item> shouldItems = translateClauses(bool.get("should"));
+        if (!shouldItems.isEmpty()) {
+            positives.add(combine(new OrItem(), shouldItems));
+        }
+
+        final List<Item> negatives = translateClauses(bool.get("must_not"));
+        final Item positive = positives.isEmpty() ? new TrueItem() : combine(new AndItem(), positives);
+        if (negatives.isEmpty()) {
+            return positive;
+        }
+        final NotItem not = new NotItem();
+        not.addPositiveItem(positive);
+        for (final Item negative : negatives) {
+            not.addNegativeItem(negative);
+        }
+        return not;
+    }
+
+    private static List<Item> translateClauses(final Object clauses) {
+        final List<Item> items = new ArrayList<>();
+        if (clauses instanceof Collection<?>) {
+            for (final Object clause : (Collection<?>) clauses) {
+                items.add(translate(asMap(clause)));
+            }
+        } else if (clauses instanceof Map<?, ?>) {
+            items.add(translate(asMap(clauses)));
+        }
+        return items;
+    }
+
+    private static Item translateIdsQuery(final Map<String, Object> ids) {
+        final List<String> values = asList(ids.get("values"));
+        if (values == null || values.isEmpty()) {
+            return new FalseItem();
+        }
+        final List<Item> items = new ArrayList<>();
+        for (final String id : values) {
+            items.add(new WordItem(id, "documentid", true));
+        }
+        return combine(new OrItem(), items);
+    }
+
+    private static Item translateQueryStringQuery(final Map<String, Object> queryString) {
+        final String query = (String) queryString.get("query");
+        final List<String> fields = asList(queryString.get("fields"));
+        if (fields == null || fields.isEmpty()) {
+            return text("default", query);
+        }
+        final List<Item> items = new ArrayList<>();
+        for (final String field : fields) {
+            items.add(text(field, query));
+        }
+        return combine(new OrItem(), items);
+    }
+
+    /**
+     * Creates an item matching all words of the text in the field.
+     */
+    private static Item text(final String field, final String text) {
+        final List<String> words = words(text);
+        if (words.size() == 1) {
+            return new WordItem(words.get(0), field, true);
+        }
+        final List<Item> items = new ArrayList<>();
+        for (final String word : words) {
+            items.add(new WordItem(word, field, true));
+        }
+        return combine(new AndItem(), items);
+    }
+
+    private static List<String> words(final String text) {
+        final List<String> words = new ArrayList<>();
+        if (text != null) {
+            for (final String word : text.trim().split("\\s+")) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+        }
+        if (words.isEmpty()) {
+            words.add("");
+        }
+        return words;
+    }
+
+    private static Item combine(final CompositeItem composite, final List<Item> items) {
+        if (items.size() == 1) {
+            return items.get(0);
+        }
+        items.forEach(composite::addItem);
+        return composite;
+    }
+
+    private static String valueOf(final Object value, final String key) {
+        return value instanceof Map ? String.valueOf(((Map<?, ?>) value).get(key)) : String.valueOf(value);
+    }
+
+    private static Number toNumber(final String field, final Object value) {
+        if (value instanceof Number) {
+            return (Number) value;
+        }
+        final String text = String.valueOf(value);
+        try {
+            return Long.valueOf(text);
+        } catch (final NumberFormatException e) {
+            // try as a decimal number
+        }
+        try {
+            return Double.valueOf(text);
+        } catch (final NumberFormatException e) {
+            throw new VespaClientException("[" + field + "] range value is not a number: " + value, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(final Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> asList(final Object value) {
+        return (List<T>) value;
+    }
+
+}
@@ -0,0 +1,18 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Executes queries against Vespa.
+ * The returned maps are already in the OpenSearch search response format.
+ */
+public interface SearchBackend {
+
+    CompletableFuture<Map<String, Object>> search(SearchQuery query);
+
+    Map<String, Object> getStats();
+
+    void close();
+
+}
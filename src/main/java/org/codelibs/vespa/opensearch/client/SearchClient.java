@@ -0,0 +1,52 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.codelibs.vespa.opensearch.client.limit.OperationType;
+import org.codelibs.vespa.opensearch.client.limit.UpstreamGuard;
+import org.codelibs.vespa.opensearch.client.transport.VespaTransport;
+
+/**
+ * Searches a Vespa cluster through a search backend, once the guard admits the query.
+ * A remote cluster of cross-cluster searches is only searched, so it gets this client rather than a VespaClient
+ * with a document write path it never uses.
+ */
+public class SearchClient {
+
+    private final VespaTransport transport;
+
+    private final SearchBackend searchBackend;
+
+    private final UpstreamGuard guard;
+
+    /**
+     * @param transport the transport of the search backend, which the client owns, or null if the backend has another owner
+     */
+    public SearchClient(final VespaTransport transport, final SearchBackend searchBackend, final UpstreamGuard guard) {
+        this.transport = transport;
+        this.searchBackend = searchBackend;
+        this.guard = guard;
+    }
+
+    public Map<String, Object> search(final String namespace, final String docType, final Map<String, Object> searchRequest) {
+        return VespaClient.join(searchAsync(namespace, docType, searchRequest));
+    }
+
+    public CompletableFuture<Map<String, Object>> searchAsync(final String namespace, final String docType,
+            final Map<String, Object> searchRequest) {
+        return VespaClient.executeAsync(guard, OperationType.SEARCH, () -> searchBackend.search(VespaClient.toSearchQuery(searchRequest)),
+                "Failed to execute search");
+    }
+
+    /**
+     * Closes the search backend and the transport the client owns. The search client of a VespaClient is closed by it.
+     */
+    public void close() {
+        if (transport != null) {
+            searchBackend.close();
+            transport.close();
+        }
+    }
+
+}
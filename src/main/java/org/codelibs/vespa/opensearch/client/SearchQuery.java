@@ -0,0 +1,127 @@
+package org.codelibs.vespa.opensearch.client;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.yahoo.prelude.query.Item;
+
+/**
+ * A query to run on a {@link SearchBackend}.
+ * It holds the Query DSL clause, and translates it to YQL or to a query item tree only when a backend asks for it.
+ */
+public class SearchQuery {
+
+    private final Map<String, Object> query;
+
+    private final int hits;
+
+    private final int offset;
+
+    private final long timeoutMillis;
+
+    private final Supplier<String> yqlSupplier;
+
+    private String yql;
+
+    /**
+     * @param query the "query" clause of the request, or null to match all documents
+     * @param hits the number of hits to return
+     * @param offset the offset of the first hit
+     * @param yqlSupplier builds the YQL of the query
+     */
+    public SearchQuery(final Map<String, Object> query, final int hits, final int offset, final Supplier<String> yqlSupplier) {
+        this(query, hits, offset, -1, yqlSupplier);
+    }
+
+    /**
+     * @param timeoutMillis the time Vespa may spend on the query, or -1 for its default
+     */
+    public SearchQuery(final Map<String, Object> query, final int hits, final int offset, final long timeoutMillis,
+            final Supplier<String> yqlSupplier) {
+        this.query = query;
+        this.hits = hits;
+        this.offset = offset;
+        this.timeoutMillis = timeoutMillis;
+        this.yqlSupplier = yqlSupplier;
+    }
+
+    /**
+     * Parses an OpenSearch time value, such as "500ms" or "2s".
+     * @return the time in milliseconds, or -1 if the value is null or -1
+     */
+    public static long parseTimeMillis(final Object value) {
+        if (value == null) {
+            return -1;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        final String text = value.toString().trim().toLowerCase(Locale.ROOT);
+        if ("-1".equals(text)) {
+            return -1;
+        }
+        try {
+            if (text.endsWith("nanos")) {
+                return Long.parseLong(text.substring(0, text.length() - 5)) / 1_000_000;
+            }
+            if (text.endsWith("micros")) {
+                return Long.parseLong(text.substring(0, text.length() - 6)) / 1_000;
+            }
+            if (text.endsWith("ms")) {
+                return Long.parseLong(text.substring(0, text.length() - 2));
+            }
+            if (text.endsWith("s")) {
+                return Long.parseLong(text.substring(0, text.length() - 1)) * 1_000;
+            }
+            if (text.endsWith("m")) {
+                return Long.parseLong(text.substring(0, text.length() - 1)) * 60_000;
+            }
+            if (text.endsWith("h")) {
+                return Long.parseLong(text.substring(0, text.length() - 1)) * 3_600_000;
+            }
+            if (text.endsWith("d")) {
+                return Long.parseLong(text.substring(0, text.length() - 1)) * 86_400_000;
+            }
+            return Long.parseLong(text);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("failed to parse time value [" + value + "]", e);
+        }
+    }
+
+    public Map<String, Object> getQuery() {
+        return query;
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the time Vespa may spend on the query, or -1 for its default
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public String getYql() {
+        if (yql == null) {
+            yql = yqlSupplier.get();
+        }
+        return yql;
+    }
+
+    public Item toItem() {
+        return QueryItemTranslator.translate(query);
+    }
+
+    @Override
+    public String toString() {
+        return getYql() + " hits=" + hits + " offset=" + offset;
+    }
+
+}
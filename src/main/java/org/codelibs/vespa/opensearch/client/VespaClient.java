@@ -2,31 +2,61 @@ package org.codelibs.vespa.opensearch.client;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.codelibs.core.exception.IORuntimeException;
-import org.codelibs.curl.Curl;
-import org.codelibs.curl.CurlException;
-import org.codelibs.curl.CurlResponse;
+import org.codelibs.vespa.opensearch.client.limit.FeedWindow;
+import org.codelibs.vespa.opensearch.client.limit.OperationType;
+import org.codelibs.vespa.opensearch.client.limit.UpstreamGuard;
+import org.codelibs.vespa.opensearch.client.limit.WriteCoalescer;
+import org.codelibs.vespa.opensearch.client.limit.WriteLanes;
+import org.codelibs.vespa.opensearch.client.limit.WriteRetryPolicy;
+import org.codelibs.vespa.opensearch.client.transport.LoadBalancingTransport;
+import org.codelibs.vespa.opensearch.client.transport.PooledHttpTransport;
+import org.codelibs.vespa.opensearch.client.transport.TransportRequest;
+import org.codelibs.vespa.opensearch.client.transport.TransportResponse;
+import org.codelibs.vespa.opensearch.client.transport.VespaTransport;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.RejectedRequestException;
 import org.codelibs.vespa.opensearch.exception.VespaClientException;
 import org.opensearch.common.xcontent.json.JsonXContent;
 import org.opensearch.core.xcontent.DeprecationHandler;
 import org.opensearch.core.xcontent.NamedXContentRegistry;
-import org.opensearch.core.xcontent.XContentBuilder;
 
 public class VespaClient {
 
     private static final Logger log = Logger.getLogger(VespaClient.class.getName());
 
-    private final String endpoint;
+    private static final int MULTI_GET_CONCURRENCY = 16;
+
+    private final VespaTransport transport;
+
+    private final DocumentBackend documentBackend;
+
+    private final SearchBackend searchBackend;
+
+    private final UpstreamGuard guard;
+
+    private final WriteRetryPolicy writeRetryPolicy;
+
+    private final FeedWindow feedWindow;
+
+    private final WriteLanes writeLanes;
+
+    private final WriteCoalescer writeCoalescer;
+
+    private final SearchClient searchClient;
 
     /**
      * In-memory index metadata storage (since Vespa schemas are static).
@@ -37,58 +67,90 @@ public class VespaClient {
      */
     private final Map<String, Map<String, Object>> indexMetadata = new ConcurrentHashMap<>();
 
-    protected static final Function<CurlResponse, Map<String, Object>> PARSER = response -> {
+    protected static final Function<TransportResponse, Map<String, Object>> PARSER = response -> {
         try (InputStream is = response.getContentAsStream()) {
             return JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.IGNORE_DEPRECATIONS, is).map();
         } catch (final Exception e) {
-            throw new CurlException("Failed to access the content.", e);
+            throw new VespaClientException("Failed to access the content.", e);
         }
     };
 
+    /**
+     * @param endpoint the Vespa endpoint, or a comma separated list of them
+     */
     public VespaClient(final String endpoint) {
-        if (endpoint.endsWith("/")) {
-            this.endpoint = endpoint;
-        } else {
-            this.endpoint = endpoint + "/";
-        }
+        this(new ProxyHandlerConfig(), new Components().transport(createTransport(endpoint, new ProxyHandlerConfig())));
+    }
+
+    /**
+     * Creates a client from the given components, and creates the ones not given from the config.
+     */
+    public VespaClient(final ProxyHandlerConfig config, final Components components) {
+        transport = components.transport != null ? components.transport : createTransport(config.vespaEndpoint(), config);
+        documentBackend = components.documentBackend != null ? components.documentBackend : new HttpDocumentBackend(transport);
+        searchBackend = components.searchBackend != null ? components.searchBackend : new HttpSearchBackend(transport);
+        guard = components.upstreamGuard != null ? components.upstreamGuard : new UpstreamGuard(config);
+        writeRetryPolicy = components.writeRetryPolicy != null ? components.writeRetryPolicy : new WriteRetryPolicy(config);
+        feedWindow = components.feedWindow != null ? components.feedWindow : new FeedWindow(config);
+        writeLanes = components.writeLanes != null ? components.writeLanes : new WriteLanes(config);
+        writeCoalescer = components.writeCoalescer != null ? components.writeCoalescer : new WriteCoalescer(config);
+        searchClient = new SearchClient(null, searchBackend, guard);
+    }
+
+    private static VespaTransport createTransport(final String endpoint, final ProxyHandlerConfig config) {
+        return LoadBalancingTransport.create(LoadBalancingTransport.parseEndpoints(endpoint), e -> new PooledHttpTransport(e, config),
+                config);
     }
 
     public Map<String, Object> getInfo() {
-        try (CurlResponse response = Curl.get(endpoint).header("Content-Type", "application/json").execute()) {
+        try {
+            final TransportResponse response = transport.execute(TransportRequest.get(""));
             if (response.getHttpStatusCode() == 200) {
                 return response.getContent(PARSER);
             }
         } catch (final IOException e) {
-            log.log(Level.WARNING, e, () -> "Failed to access to " + endpoint);
+            log.log(Level.WARNING, e, () -> "Failed to access to Vespa.");
         }
         return Collections.emptyMap();
     }
 
     public Map<String, Object> insert(final String namespace, final String docType, final String id, final Map<String, Object> data) {
+        return join(insertAsync(namespace, docType, id, data));
+    }
+
+    public CompletableFuture<Map<String, Object>> insertAsync(final String namespace, final String docType, final String id,
+            final Map<String, Object> data) {
         final Map<String, Object> fieldMap = new HashMap<>();
         flattenMap("", data, fieldMap);
+        return executeDocumentWriteAsync(namespace, docType, id, WriteCoalescer.Write.put(fieldMap));
+    }
 
-        try (CurlResponse response = Curl.post(endpoint + "document/v1/" + namespace + "/" + docType + "/docid/" + id)
-                .header("Content-Type", "application/json").onConnect((req, con) -> {
-                    con.setDoOutput(true);
-                    try (XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, con.getOutputStream())) {
-                        final Map<String, Object> obj = new HashMap<>();
-                        obj.put("fields", fieldMap);
-                        builder.value(obj);
-                    } catch (final IOException e) {
-                        throw new IORuntimeException(e);
-                    }
-                }).execute()) {
-            if (response.getHttpStatusCode() == 200) {
-                return response.getContent(PARSER);
-            }
-            throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to insert a doc. The response is "
-                    + response.getHttpStatusCode());
-        } catch (final Exception e) {
-            throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to insert a doc.", e);
+    /**
+     * Writes a document from its raw JSON source, such as a source line of a bulk request.
+     * The source is copied into the request to Vespa token by token, flattening nested objects, without building maps of it.
+     * A source which is not a JSON object fails with status 400 before the write is admitted.
+     */
+    public CompletableFuture<Map<String, Object>> insertSourceAsync(final String namespace, final String docType, final String id,
+            final byte[] source) {
+        final String message = "[" + namespace + "][" + docType + "][" + id + "] Failed to insert a doc.";
+        final byte[] fieldsJson;
+        try {
+            fieldsJson = DocumentSource.toFieldsJson(source);
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(new VespaClientException(message + " Invalid source: " + e.getMessage(), 400));
         }
+        return putFieldsAsync(namespace, docType, id, fieldsJson);
+    }
+
+    /**
+     * Writes a document given as a Document V1 API payload, such as one made by {@link DocumentSource#toFieldsJson(byte[])}.
+     */
+    public CompletableFuture<Map<String, Object>> putFieldsAsync(final String namespace, final String docType, final String id,
+            final byte[] fieldsJson) {
+        return executeDocumentWriteAsync(namespace, docType, id, WriteCoalescer.Write.putFieldsJson(fieldsJson));
     }
 
+    @SuppressWarnings("unchecked")
     private void flattenMap(final String currentPath, final Map<String, Object> map, final Map<String, Object> flattenedMap) {
         for (final Map.Entry<String, Object> entry : map.entrySet()) {
             final String key = entry.getKey();
@@ -106,61 +168,150 @@ public class VespaClient {
     }
 
     public Map<String, Object> get(final String namespace, final String docType, final String id) {
-        try (CurlResponse response = Curl.get(endpoint + "document/v1/" + namespace + "/" + docType + "/docid/" + id)
-                .header("Content-Type", "application/json").execute()) {
-            if (response.getHttpStatusCode() == 200) {
-                return response.getContent(PARSER);
-            }
-            throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] The doc is not found. The response is "
-                    + response.getHttpStatusCode());
-        } catch (final Exception e) {
-            throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to get the doc.", e);
-        }
+        return join(getAsync(namespace, docType, id));
+    }
+
+    public CompletableFuture<Map<String, Object>> getAsync(final String namespace, final String docType, final String id) {
+        final String message = "[" + namespace + "][" + docType + "][" + id + "] Failed to get the doc.";
+        return executeAsync(OperationType.GET, () -> documentBackend.get(namespace, docType, id), message);
     }
 
     public Map<String, Object> delete(final String namespace, final String docType, final String id) {
-        try (CurlResponse response = Curl.delete(endpoint + "document/v1/" + namespace + "/" + docType + "/docid/" + id)
-                .header("Content-Type", "application/json").execute()) {
-            if (response.getHttpStatusCode() == 200) {
-                return response.getContent(PARSER);
-            }
-            throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to delete the doc. The response is "
-                    + response.getHttpStatusCode());
-        } catch (final Exception e) {
-            throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to delete the doc.", e);
-        }
+        return join(deleteAsync(namespace, docType, id));
+    }
+
+    public CompletableFuture<Map<String, Object>> deleteAsync(final String namespace, final String docType, final String id) {
+        return executeDocumentWriteAsync(namespace, docType, id, WriteCoalescer.Write.delete());
     }
 
     public Map<String, Object> update(final String namespace, final String docType, final String id, final Map<String, Object> data) {
+        return join(updateAsync(namespace, docType, id, data));
+    }
+
+    public CompletableFuture<Map<String, Object>> updateAsync(final String namespace, final String docType, final String id,
+            final Map<String, Object> data) {
         final Map<String, Object> fieldMap = new HashMap<>();
         flattenMap("", data, fieldMap);
+        return executeDocumentWriteAsync(namespace, docType, id, WriteCoalescer.Write.update(fieldMap));
+    }
 
-        try (CurlResponse response = Curl.put(endpoint + "document/v1/" + namespace + "/" + docType + "/docid/" + id)
-                .header("Content-Type", "application/json").onConnect((req, con) -> {
-                    con.setDoOutput(true);
-                    try (XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, con.getOutputStream())) {
-                        final Map<String, Object> obj = new HashMap<>();
-                        obj.put("fields", fieldMap);
-                        builder.value(obj);
-                    } catch (final IOException e) {
-                        throw new IORuntimeException(e);
-                    }
-                }).execute()) {
-            if (response.getHttpStatusCode() == 200) {
-                return response.getContent(PARSER);
+    /**
+     * Sends the write, after merging it with the other writes on the document within the coalescing window if there is one.
+     */
+    private CompletableFuture<Map<String, Object>> executeDocumentWriteAsync(final String namespace, final String docType, final String id,
+            final WriteCoalescer.Write write) {
+        return writeCoalescer.submit(namespace + "/" + docType + "/" + id, write, w -> {
+            final String prefix = "[" + namespace + "][" + docType + "][" + id + "] ";
+            switch (w.getType()) {
+            case PUT:
+                return executeWriteAsync(namespace, docType, id, () -> documentBackend.put(namespace, docType, id, w.getFields()),
+                        prefix + "Failed to insert a doc.");
+            case PUT_FIELDS_JSON:
+                return executeWriteAsync(namespace, docType, id, () -> documentBackend.putFields(namespace, docType, id, w.getFieldsJson()),
+                        prefix + "Failed to insert a doc.");
+            case UPDATE:
+                return executeWriteAsync(namespace, docType, id, () -> documentBackend.update(namespace, docType, id, w.getFields()),
+                        prefix + "Failed to update a doc.");
+            default:
+                return executeWriteAsync(namespace, docType, id, () -> documentBackend.remove(namespace, docType, id),
+                        prefix + "Failed to delete the doc.");
             }
-            throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to update a doc. The response is "
-                    + response.getHttpStatusCode());
+        });
+    }
+
+    /**
+     * Starts an operation by the supplier once the guard admits it.
+     * A rejection completes the returned future with the RejectedRequestException as is,
+     * and any other failure with a VespaClientException having the given message.
+     */
+    private <T> CompletableFuture<T> executeAsync(final OperationType type, final OperationSupplier<T> operationSupplier,
+            final String message) {
+        return executeAsync(guard, type, operationSupplier, message);
+    }
+
+    static <T> CompletableFuture<T> executeAsync(final UpstreamGuard guard, final OperationType type,
+            final OperationSupplier<T> operationSupplier, final String message) {
+        final UpstreamGuard.Permit permit;
+        try {
+            permit = guard.acquire(type);
+        } catch (final RejectedRequestException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final CompletableFuture<T> future;
+        try {
+            future = operationSupplier.get();
         } catch (final Exception e) {
-            throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to update a doc.", e);
+            permit.release(e);
+            return CompletableFuture.failedFuture(new VespaClientException(message, e));
+        }
+        // the permit is released on the future itself, as a dependent cancelled by the caller would skip it
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((r, t) -> {
+            permit.release(t);
+            if (t != null) {
+                result.completeExceptionally(new CompletionException(new VespaClientException(message, unwrap(t))));
+            } else {
+                result.complete(r);
+            }
+        });
+        // a caller giving up on the operation, such as a cross-cluster search past its timeout, aborts the request
+        result.whenComplete((r, t) -> {
+            if (result.isCancelled()) {
+                future.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Starts a document write once the writes on the document before it have completed and the feed window has room for it,
+     * and adjusts the window by its outcome.
+     */
+    private <T> CompletableFuture<T> executeWriteAsync(final String namespace, final String docType, final String id,
+            final OperationSupplier<T> operationSupplier, final String message) {
+        return writeLanes.submit(namespace + "/" + docType + "/" + id, () -> feedWindow.acquire().thenCompose(permit -> {
+            final long startTime = System.nanoTime();
+            return executeAsync(OperationType.WRITE, operationSupplier, message)
+                    .whenComplete((result, t) -> permit.release(System.nanoTime() - startTime, t));
+        }));
+    }
+
+    /**
+     * Waits for the future and rethrows a failure as the VespaClientException or RejectedRequestException it completed with.
+     */
+    public static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException | CancellationException e) {
+            final Exception cause = unwrap(e);
+            if (cause instanceof VespaClientException) {
+                throw (VespaClientException) cause;
+            }
+            if (cause instanceof RejectedRequestException) {
+                throw (RejectedRequestException) cause;
+            }
+            throw new VespaClientException("Failed to access Vespa.", cause);
+        }
+    }
+
+    private static Exception unwrap(final Throwable t) {
+        Throwable cause = t;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
         }
+        return cause instanceof Exception ? (Exception) cause : new VespaClientException(cause.getMessage(), null);
+    }
+
+    @FunctionalInterface
+    interface OperationSupplier<T> {
+        CompletableFuture<T> get() throws Exception;
     }
 
     // Index management methods
     public Map<String, Object> createIndex(final String indexName, final Map<String, Object> settings) {
         final Map<String, Object> metadata = new HashMap<>();
         metadata.put("uuid", UUID.randomUUID().toString());
-        metadata.put("settings", settings != null ? settings : new HashMap<>());
+        metadata.put("settings", settings != null ? new HashMap<>(settings) : new HashMap<>());
         metadata.put("mappings", new HashMap<>());
         indexMetadata.put(indexName, metadata);
 
@@ -287,30 +438,30 @@ public class VespaClient {
 
     // Search operations
     public Map<String, Object> search(final String namespace, final String docType, final Map<String, Object> searchRequest) {
-        try {
-            // Extract query parameters
-            final String yql = buildYqlFromOpenSearchQuery(searchRequest);
-            final int size = searchRequest.containsKey("size") ? (Integer) searchRequest.get("size") : 10;
-            final int from = searchRequest.containsKey("from") ? (Integer) searchRequest.get("from") : 0;
-
-            final StringBuilder url = new StringBuilder(endpoint).append("search/?");
-            url.append("yql=").append(java.net.URLEncoder.encode(yql, "UTF-8"));
-            url.append("&hits=").append(size);
-            url.append("&offset=").append(from);
-
-            try (CurlResponse response = Curl.get(url.toString()).header("Content-Type", "application/json").execute()) {
-                if (response.getHttpStatusCode() == 200) {
-                    final Map<String, Object> vespaResult = response.getContent(PARSER);
-                    return convertVespaSearchToOpenSearch(vespaResult);
-                }
-                throw new VespaClientException("Search failed with status: " + response.getHttpStatusCode());
-            }
-        } catch (final Exception e) {
-            throw new VespaClientException("Failed to execute search", e);
-        }
+        return join(searchAsync(namespace, docType, searchRequest));
+    }
+
+    public CompletableFuture<Map<String, Object>> searchAsync(final String namespace, final String docType,
+            final Map<String, Object> searchRequest) {
+        return searchClient.searchAsync(namespace, docType, searchRequest);
     }
 
-    private String buildYqlFromOpenSearchQuery(final Map<String, Object> searchRequest) {
+    /**
+     * Translates a search request, with its "query", "size", "from" and "timeout", to the query run on a search backend.
+     */
+    static SearchQuery toSearchQuery(final Map<String, Object> searchRequest) {
+        final int size = searchRequest.containsKey("size") ? (Integer) searchRequest.get("size") : 10;
+        final int from = searchRequest.containsKey("from") ? (Integer) searchRequest.get("from") : 0;
+        final long timeout = SearchQuery.parseTimeMillis(searchRequest.get("timeout"));
+        return new SearchQuery(getQueryClause(searchRequest), size, from, timeout, () -> buildYqlFromOpenSearchQuery(searchRequest));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getQueryClause(final Map<String, Object> searchRequest) {
+        return (Map<String, Object>) searchRequest.get("query");
+    }
+
+    private static String buildYqlFromOpenSearchQuery(final Map<String, Object> searchRequest) {
         if (searchRequest.containsKey("query")) {
             @SuppressWarnings("unchecked")
             final Map<String, Object> query = (Map<String, Object>) searchRequest.get("query");
@@ -320,7 +471,7 @@ public class VespaClient {
         return "select * from sources * where true";
     }
 
-    private String buildConditionFromQuery(final Map<String, Object> query) {
+    private static String buildConditionFromQuery(final Map<String, Object> query) {
         if (query == null || query.isEmpty()) {
             return "true";
         }
@@ -367,7 +518,7 @@ public class VespaClient {
         return "true";
     }
 
-    private String buildMatchQuery(final Object matchObj) {
+    private static String buildMatchQuery(final Object matchObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> match = (Map<String, Object>) matchObj;
         final String field = match.keySet().iterator().next();
@@ -376,7 +527,7 @@ public class VespaClient {
         return field + " contains \"" + escapeYqlString(searchValue) + "\"";
     }
 
-    private String buildMatchPhraseQuery(final Object matchPhraseObj) {
+    private static String buildMatchPhraseQuery(final Object matchPhraseObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> matchPhrase = (Map<String, Object>) matchPhraseObj;
         final String field = matchPhrase.keySet().iterator().next();
@@ -385,7 +536,7 @@ public class VespaClient {
         return field + " contains phrase(\"" + escapeYqlString(phraseValue) + "\")";
     }
 
-    private String buildMultiMatchQuery(final Object multiMatchObj) {
+    private static String buildMultiMatchQuery(final Object multiMatchObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> multiMatch = (Map<String, Object>) multiMatchObj;
         final String queryValue = (String) multiMatch.get("query");
@@ -401,7 +552,7 @@ public class VespaClient {
         return "(" + String.join(" OR ", conditions) + ")";
     }
 
-    private String buildTermQuery(final Object termObj) {
+    private static String buildTermQuery(final Object termObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> term = (Map<String, Object>) termObj;
         final String field = term.keySet().iterator().next();
@@ -410,7 +561,7 @@ public class VespaClient {
         return field + " matches \"" + escapeYqlString(termValue) + "\"";
     }
 
-    private String buildTermsQuery(final Object termsObj) {
+    private static String buildTermsQuery(final Object termsObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> terms = (Map<String, Object>) termsObj;
         final String field = terms.keySet().iterator().next();
@@ -426,7 +577,7 @@ public class VespaClient {
         return "(" + String.join(" OR ", conditions) + ")";
     }
 
-    private String buildRangeQuery(final Object rangeObj) {
+    private static String buildRangeQuery(final Object rangeObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> range = (Map<String, Object>) rangeObj;
         final String field = range.keySet().iterator().next();
@@ -446,14 +597,14 @@ public class VespaClient {
         return rangeParts.isEmpty() ? "true" : "(" + String.join(" AND ", rangeParts) + ")";
     }
 
-    private String buildExistsQuery(final Object existsObj) {
+    private static String buildExistsQuery(final Object existsObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> exists = (Map<String, Object>) existsObj;
         final String field = (String) exists.get("field");
         return "(" + field + " matches \"*\" OR " + field + " > 0 OR " + field + " < 0)";
     }
 
-    private String buildPrefixQuery(final Object prefixObj) {
+    private static String buildPrefixQuery(final Object prefixObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> prefix = (Map<String, Object>) prefixObj;
         final String field = prefix.keySet().iterator().next();
@@ -462,7 +613,7 @@ public class VespaClient {
         return field + " matches \"" + escapeYqlString(prefixValue) + "*\"";
     }
 
-    private String buildWildcardQuery(final Object wildcardObj) {
+    private static String buildWildcardQuery(final Object wildcardObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> wildcard = (Map<String, Object>) wildcardObj;
         final String field = wildcard.keySet().iterator().next();
@@ -471,7 +622,7 @@ public class VespaClient {
         return field + " matches \"" + escapeYqlString(wildcardValue) + "\"";
     }
 
-    private String buildBoolQuery(final Object boolObj) {
+    private static String buildBoolQuery(final Object boolObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> bool = (Map<String, Object>) boolObj;
         final java.util.List<String> allConditions = new java.util.ArrayList<>();
@@ -550,7 +701,7 @@ public class VespaClient {
         return allConditions.isEmpty() ? "true" : "(" + String.join(" AND ", allConditions) + ")";
     }
 
-    private String buildIdsQuery(final Object idsObj) {
+    private static String buildIdsQuery(final Object idsObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> ids = (Map<String, Object>) idsObj;
         @SuppressWarnings("unchecked")
@@ -565,7 +716,7 @@ public class VespaClient {
         return "(" + String.join(" OR ", conditions) + ")";
     }
 
-    private String buildQueryStringQuery(final Object queryStringObj) {
+    private static String buildQueryStringQuery(final Object queryStringObj) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> queryString = (Map<String, Object>) queryStringObj;
         final String query = (String) queryString.get("query");
@@ -582,100 +733,55 @@ public class VespaClient {
         return "(" + String.join(" OR ", conditions) + ")";
     }
 
-    private String escapeYqlString(final String value) {
+    private static String escapeYqlString(final String value) {
         if (value == null) {
             return "";
         }
         return value.replace("\\", "\\\\").replace("\"", "\\\"");
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> convertVespaSearchToOpenSearch(final Map<String, Object> vespaResult) {
-        final Map<String, Object> result = new HashMap<>();
-        result.put("took", vespaResult.getOrDefault("timing", Map.of("searchtime", 0)));
-        result.put("timed_out", false);
-
-        final Map<String, Object> shards = new HashMap<>();
-        shards.put("total", 1);
-        shards.put("successful", 1);
-        shards.put("skipped", 0);
-        shards.put("failed", 0);
-        result.put("_shards", shards);
-
-        final Map<String, Object> hits = new HashMap<>();
-        final Map<String, Object> root = (Map<String, Object>) vespaResult.get("root");
-        int totalCount = 0;
-        if (root != null) {
-            final Map<String, Object> coverage = (Map<String, Object>) root.getOrDefault("coverage", Map.of("documents", 0));
-            final Object documentsObj = coverage.getOrDefault("documents", 0);
-            if (documentsObj instanceof Number) {
-                totalCount = ((Number) documentsObj).intValue();
-            } else {
-                try {
-                    totalCount = Integer.parseInt(documentsObj.toString());
-                } catch (final NumberFormatException e) {
-                    totalCount = 0;
-                }
-            }
-        }
+    public Map<String, Object> count(final String namespace, final String docType, final Map<String, Object> query) {
+        return join(countAsync(namespace, docType, query));
+    }
 
-        final Map<String, Object> total = new HashMap<>();
-        total.put("value", totalCount);
-        total.put("relation", "eq");
-        hits.put("total", total);
-        hits.put("max_score", 1.0);
-
-        final java.util.List<Map<String, Object>> hitList = new java.util.ArrayList<>();
-        if (root != null && root.containsKey("children")) {
-            final java.util.List<Map<String, Object>> children = (java.util.List<Map<String, Object>>) root.get("children");
-            for (final Map<String, Object> child : children) {
-                final Map<String, Object> hit = new HashMap<>();
-                hit.put("_index", "default");
-                hit.put("_id", child.get("id"));
-                hit.put("_score", child.getOrDefault("relevance", 1.0));
-                hit.put("_source", child.get("fields"));
-                hitList.add(hit);
-            }
-        }
-        hits.put("hits", hitList);
-        result.put("hits", hits);
+    public CompletableFuture<Map<String, Object>> countAsync(final String namespace, final String docType, final Map<String, Object> query) {
+        return executeAsync(OperationType.SEARCH, () -> {
+            final SearchQuery searchQuery = query != null
+                    ? new SearchQuery(getQueryClause(query), 0, 0, () -> buildYqlFromOpenSearchQuery(query))
+                    : new SearchQuery(null, 0, 0, () -> "select * from sources * where true");
+            return searchBackend.search(searchQuery).thenApply(response -> {
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> hits = (Map<String, Object>) response.get("hits");
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> total = hits != null ? (Map<String, Object>) hits.get("total") : null;
+                final Object count = total != null ? total.get("value") : null;
 
-        return result;
+                final Map<String, Object> result = new HashMap<>();
+                result.put("count", count != null ? count : 0);
+                result.put("_shards", Map.of("total", 1, "successful", 1, "skipped", 0, "failed", 0));
+                return result;
+            });
+        }, "Failed to execute count");
     }
 
-    public Map<String, Object> count(final String namespace, final String docType, final Map<String, Object> query) {
-        try {
-            final String yql = query != null ? buildYqlFromOpenSearchQuery(query) : "select * from sources * where true";
-            final String url = endpoint + "search/?yql=" + java.net.URLEncoder.encode(yql, "UTF-8") + "&hits=0";
-
-            try (CurlResponse response = Curl.get(url).header("Content-Type", "application/json").execute()) {
-                if (response.getHttpStatusCode() == 200) {
-                    final Map<String, Object> vespaResult = response.getContent(PARSER);
-                    @SuppressWarnings("unchecked")
-                    final Map<String, Object> root = (Map<String, Object>) vespaResult.get("root");
-                    @SuppressWarnings("unchecked")
-                    final Map<String, Object> coverage = root != null ? (Map<String, Object>) root.get("coverage") : new HashMap<>();
-                    final int count = coverage != null ? (Integer) coverage.getOrDefault("documents", 0) : 0;
-
-                    final Map<String, Object> result = new HashMap<>();
-                    result.put("count", count);
-                    result.put("_shards", Map.of("total", 1, "successful", 1, "skipped", 0, "failed", 0));
-                    return result;
-                }
-                throw new VespaClientException("Count failed with status: " + response.getHttpStatusCode());
+    public Map<String, Object> multiGet(final String namespace, final String docType, final List<String> ids) {
+        // Send the gets together so the round trips overlap, but keep at most MULTI_GET_CONCURRENCY of them in flight
+        // so that one large request does not use up the concurrency limit of gets
+        final List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            if (i >= MULTI_GET_CONCURRENCY) {
+                futures.get(i - MULTI_GET_CONCURRENCY).exceptionally(t -> null).join();
             }
-        } catch (final Exception e) {
-            throw new VespaClientException("Failed to execute count", e);
+            futures.add(getAsync(namespace, docType, ids.get(i)));
         }
-    }
 
-    public Map<String, Object> multiGet(final String namespace, final String docType, final List<String> ids) {
         final Map<String, Object> result = new HashMap<>();
-        final java.util.List<Map<String, Object>> docs = new java.util.ArrayList<>();
+        final List<Map<String, Object>> docs = new ArrayList<>();
 
-        for (final String id : ids) {
+        for (int i = 0; i < ids.size(); i++) {
+            final String id = ids.get(i);
             try {
-                final Map<String, Object> doc = get(namespace, docType, id);
+                final Map<String, Object> doc = join(futures.get(i));
                 final Map<String, Object> docResult = new HashMap<>();
                 docResult.put("_index", namespace);
                 docResult.put("_id", id);
@@ -698,11 +804,28 @@ public class VespaClient {
 
     public Map<String, Object> partialUpdate(final String namespace, final String docType, final String id,
             final Map<String, Object> partialDoc) {
-        // For partial updates, we need to get the existing document, merge, and update
         try {
-            final Map<String, Object> existing = get(namespace, docType, id);
+            return join(partialUpdateAsync(namespace, docType, id, partialDoc));
+        } catch (final RejectedRequestException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to partial update.", e);
+        }
+    }
+
+    /**
+     * Merges the given fields, or those under "doc", into the stored document and writes it back.
+     * @return the future failing with status 404 if the document has no fields to merge into
+     */
+    public CompletableFuture<Map<String, Object>> partialUpdateAsync(final String namespace, final String docType, final String id,
+            final Map<String, Object> partialDoc) {
+        // For partial updates, we need to get the existing document, merge, and update
+        return getAsync(namespace, docType, id).thenCompose(existing -> {
             @SuppressWarnings("unchecked")
             final Map<String, Object> existingFields = (Map<String, Object>) existing.get("fields");
+            if (existingFields == null) {
+                throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Document not found.", 404);
+            }
 
             // Merge with partial document
             if (partialDoc.containsKey("doc")) {
@@ -713,10 +836,39 @@ public class VespaClient {
                 existingFields.putAll(partialDoc);
             }
 
-            return update(namespace, docType, id, existingFields);
-        } catch (final Exception e) {
-            throw new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to partial update.", e);
-        }
+            return updateAsync(namespace, docType, id, existingFields);
+        });
+    }
+
+    public Map<String, Object> getNodesStats() {
+        final Map<String, Object> node = new HashMap<>();
+        node.put("name", "vespa-opensearch-proxy");
+        node.put("vespa_client", Map.of("transport", transport.getStats(), "document_backend", documentBackend.getStats(), "search_backend",
+                searchBackend.getStats(), "operations", guard.getStats(), "write_retry", writeRetryPolicy.getStats(), "feed_window",
+                feedWindow.getStats(), "write_lanes", writeLanes.getStats(), "write_coalescer", writeCoalescer.getStats()));
+
+        final Map<String, Object> result = new HashMap<>();
+        result.put("_nodes", Map.of("total", 1, "successful", 1, "failed", 0));
+        result.put("cluster_name", "vespa-cluster");
+        result.put("nodes", Map.of("node1", node));
+        return result;
+    }
+
+    public WriteRetryPolicy getWriteRetryPolicy() {
+        return writeRetryPolicy;
+    }
+
+    /**
+     * @return the search path of this client, sharing its search backend and guard
+     */
+    public SearchClient getSearchClient() {
+        return searchClient;
+    }
+
+    public void close() {
+        documentBackend.close();
+        searchBackend.close();
+        transport.close();
     }
 
     public Map<String, Object> refresh(final String indexName) {
@@ -726,4 +878,75 @@ public class VespaClient {
         return result;
     }
 
+    /**
+     * The parts of a client which are created elsewhere. A part left unset is created from the config: the transport
+     * to vespaEndpoint, the HTTP backends over the transport, and the guard and the write limits from their settings.
+     */
+    public static class Components {
+
+        private VespaTransport transport;
+
+        private DocumentBackend documentBackend;
+
+        private SearchBackend searchBackend;
+
+        private UpstreamGuard upstreamGuard;
+
+        private WriteRetryPolicy writeRetryPolicy;
+
+        private FeedWindow feedWindow;
+
+        private WriteLanes writeLanes;
+
+        private WriteCoalescer writeCoalescer;
+
+        /** Sends everything which is not sent to the backends. */
+        public Components transport(final VespaTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /** Sends the document operations. */
+        public Components documentBackend(final DocumentBackend documentBackend) {
+            this.documentBackend = documentBackend;
+            return this;
+        }
+
+        /** Runs the queries. */
+        public Components searchBackend(final SearchBackend searchBackend) {
+            this.searchBackend = searchBackend;
+            return this;
+        }
+
+        /** Admits the calls to the backends. */
+        public Components upstreamGuard(final UpstreamGuard upstreamGuard) {
+            this.upstreamGuard = upstreamGuard;
+            return this;
+        }
+
+        /** Retries throttled bulk writes. */
+        public Components writeRetryPolicy(final WriteRetryPolicy writeRetryPolicy) {
+            this.writeRetryPolicy = writeRetryPolicy;
+            return this;
+        }
+
+        /** Shapes the document writes before the guard admits them. */
+        public Components feedWindow(final FeedWindow feedWindow) {
+            this.feedWindow = feedWindow;
+            return this;
+        }
+
+        /** Orders the writes on the same document before the feed window. */
+        public Components writeLanes(final WriteLanes writeLanes) {
+            this.writeLanes = writeLanes;
+            return this;
+        }
+
+        /** Merges the writes on the same document within a window before the lanes. */
+        public Components writeCoalescer(final WriteCoalescer writeCoalescer) {
+            this.writeCoalescer = writeCoalescer;
+            return this;
+        }
+    }
+
 }
@@ -0,0 +1,822 @@
+package org.codelibs.vespa.opensearch.client.ingest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.codelibs.vespa.opensearch.client.DocumentSource;
+import org.codelibs.vespa.opensearch.client.VespaClient;
+import org.codelibs.vespa.opensearch.client.limit.WriteRetryPolicy;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.codelibs.vespa.opensearch.exception.RejectedRequestException;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.opensearch.common.xcontent.json.JsonXContent;
+import org.opensearch.core.xcontent.DeprecationHandler;
+import org.opensearch.core.xcontent.NamedXContentRegistry;
+import org.opensearch.core.xcontent.XContentBuilder;
+import org.opensearch.core.xcontent.XContentParser;
+
+/**
+ * Durable log of document writes, which are acknowledged once they are on disk and sent to Vespa in the background.
+ * Writes are appended as checksummed records to segment files, and a new segment is started when the current one
+ * reaches the segment size. A sync thread forces the segment to disk once per sync interval for all writes appended
+ * meanwhile, and only then completes their futures.
+ * A drain thread reads the synced records in order and sends them through the VespaClient, at most drainConcurrency
+ * at once, so that the feed window sets the pace. Writes on the same document are sent one after the other.
+ * Writes which fail because Vespa is overloaded or unreachable are sent again after a backoff for as long as it takes,
+ * writes which Vespa refuses as invalid are dropped, and other failures are tried MAX_ATTEMPTS times.
+ * A segment is deleted once all its writes were sent. When the log is opened, the segments left are checked, a torn
+ * record at the end of one is cut off, and their writes are sent again, so that a write may reach Vespa twice
+ * but is not lost.
+ */
+public class IngestLog implements Closeable {
+
+    private static final Logger log = Logger.getLogger(IngestLog.class.getName());
+
+    static final byte PUT = 1;
+
+    static final byte UPDATE = 2;
+
+    static final byte DELETE = 3;
+
+    static final byte PARTIAL_UPDATE = 4;
+
+    private static final String SEGMENT_PREFIX = "ingest-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile(Pattern.quote(SEGMENT_PREFIX) + "(\\d{19})" + Pattern.quote(SEGMENT_SUFFIX));
+
+    /** Length and checksum of the payload in front of each record. */
+    private static final int HEADER_BYTES = 8;
+
+    /** Attempts of a write failing for a reason other than overload, which may be a bug rather than a bad write. */
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final Path directory;
+
+    private final long segmentSize;
+
+    private final long syncIntervalNanos;
+
+    private final long maxBytes;
+
+    private final VespaClient client;
+
+    private final WriteRetryPolicy retryPolicy;
+
+    private final Semaphore drainPermits;
+
+    /** Segments not deleted yet, oldest first. The last one is appended to. */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    /** Appends waiting for the next sync. */
+    private List<CompletableFuture<Map<String, Object>>> unsynced = new ArrayList<>();
+
+    /** Last write sent or waiting to be sent on each document, so that the next one waits for it. */
+    private final Map<String, CompletableFuture<Void>> documentTails = new HashMap<>();
+
+    private final Thread syncThread;
+
+    private final Thread drainThread;
+
+    private volatile boolean closed;
+
+    private long bytes;
+
+    /** Writes appended, or recovered from disk, and not sent yet. */
+    private long operations;
+
+    private long appended;
+
+    private long drained;
+
+    private long retried;
+
+    private long failed;
+
+    private long rejected;
+
+    /** Time at which the write read last by the drain thread was appended. */
+    private long drainAppendTime;
+
+    public IngestLog(final ProxyHandlerConfig config, final VespaClient client) throws IOException {
+        directory = Paths.get(config.ingestLogDirectory());
+        segmentSize = config.ingestLogSegmentSize();
+        syncIntervalNanos = (long) (config.ingestLogSyncInterval() * TimeUnit.SECONDS.toNanos(1));
+        maxBytes = config.ingestLogMaxBytes();
+        this.client = client;
+        retryPolicy = new WriteRetryPolicy(config);
+        drainPermits = new Semaphore(Math.max(1, config.ingestLogDrainConcurrency()));
+
+        Files.createDirectories(directory);
+        recover();
+        segments.add(Segment.create(directory, segments.isEmpty() ? 0 : segments.getLast().sequence + 1));
+
+        syncThread = new Thread(this::syncLoop, "ingest-log-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+        drainThread = new Thread(this::drainLoop, "ingest-log-drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    /**
+     * Appends the write of a document from its JSON source.
+     * @return the future completing once the write is on disk, or failing with status 400 if the source is invalid
+     */
+    public CompletableFuture<Map<String, Object>> put(final String namespace, final String docType, final String id, final byte[] source) {
+        final byte[] fieldsJson;
+        try {
+            fieldsJson = DocumentSource.toFieldsJson(source);
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(new VespaClientException(
+                    "[" + namespace + "][" + docType + "][" + id + "] Failed to insert a doc. Invalid source: " + e.getMessage(), 400));
+        }
+        return append(PUT, namespace, docType, id, fieldsJson);
+    }
+
+    /**
+     * Appends the write of a document from its fields.
+     * @return the future completing once the write is on disk
+     */
+    public CompletableFuture<Map<String, Object>> put(final String namespace, final String docType, final String id,
+            final Map<String, Object> data) {
+        final byte[] source;
+        try {
+            source = toJson(data);
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(
+                    new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to insert a doc.", e));
+        }
+        return put(namespace, docType, id, source);
+    }
+
+    /**
+     * Appends the update of a document with the given fields.
+     * @return the future completing once the update is on disk
+     */
+    public CompletableFuture<Map<String, Object>> update(final String namespace, final String docType, final String id,
+            final Map<String, Object> data) {
+        final byte[] body;
+        try {
+            body = toJson(data);
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(
+                    new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to update a doc.", e));
+        }
+        return append(UPDATE, namespace, docType, id, body);
+    }
+
+    /**
+     * Appends the partial update of a document, which is merged into the stored document when it is sent.
+     * Since the document is only read then, an update of a document which does not exist is dropped as invalid.
+     * @return the future completing once the update is on disk
+     */
+    public CompletableFuture<Map<String, Object>> partialUpdate(final String namespace, final String docType, final String id,
+            final Map<String, Object> partialDoc) {
+        final byte[] body;
+        try {
+            body = toJson(partialDoc);
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(
+                    new VespaClientException("[" + namespace + "][" + docType + "][" + id + "] Failed to partial update.", e));
+        }
+        return append(PARTIAL_UPDATE, namespace, docType, id, body);
+    }
+
+    /**
+     * Appends the removal of a document.
+     * @return the future completing once the removal is on disk
+     */
+    public CompletableFuture<Map<String, Object>> delete(final String namespace, final String docType, final String id) {
+        return append(DELETE, namespace, docType, id, new byte[0]);
+    }
+
+    private CompletableFuture<Map<String, Object>> append(final byte type, final String namespace, final String docType, final String id,
+            final byte[] body) {
+        final byte[] record = encode(new Record(type, System.currentTimeMillis(), namespace, docType, id, body));
+        final CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new VespaClientException("The ingest log is closed.", 503));
+            }
+            if (maxBytes > 0 && bytes + record.length > maxBytes) {
+                rejected++;
+                return CompletableFuture.failedFuture(new EsRejectedExecutionException("rejected execution of write operation: [ingest_log_bytes="
+                        + bytes + ", requested_bytes=" + record.length + ", max_ingest_log_bytes=" + maxBytes + "]"));
+            }
+            Segment segment = segments.getLast();
+            try {
+                if (segment.size > 0 && segment.size + record.length > segmentSize) {
+                    segment = rotate(segment);
+                }
+                segment.append(record);
+            } catch (final IOException e) {
+                log.log(Level.WARNING, e, () -> "Failed to append to the ingest log in " + directory);
+                return CompletableFuture.failedFuture(new VespaClientException("Failed to append to the ingest log.", e));
+            }
+            bytes += record.length;
+            operations++;
+            appended++;
+            unsynced.add(future);
+            notifyAll();
+        }
+        return future;
+    }
+
+    /**
+     * Forces the full segment to disk, so that its records are synced even if the sync thread works on the next one,
+     * and starts the next segment.
+     */
+    private Segment rotate(final Segment segment) throws IOException {
+        segment.channel.force(false);
+        segment.synced = segment.size;
+        segment.active = false;
+        final Segment next = Segment.create(directory, segment.sequence + 1);
+        segments.add(next);
+        notifyAll();
+        return next;
+    }
+
+    private void syncLoop() {
+        while (true) {
+            synchronized (this) {
+                while (unsynced.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        // checked by the loop
+                    }
+                }
+                if (unsynced.isEmpty()) {
+                    return;
+                }
+            }
+            if (syncIntervalNanos > 0 && !closed) {
+                // the appends of the interval are synced together
+                try {
+                    TimeUnit.NANOSECONDS.sleep(syncIntervalNanos);
+                } catch (final InterruptedException e) {
+                    // synced at once
+                }
+            }
+            final List<CompletableFuture<Map<String, Object>>> batch;
+            final Segment segment;
+            final long end;
+            synchronized (this) {
+                batch = unsynced;
+                unsynced = new ArrayList<>();
+                segment = segments.getLast();
+                end = segment.size;
+            }
+            IOException failure = null;
+            try {
+                segment.channel.force(false);
+            } catch (final IOException e) {
+                log.log(Level.WARNING, e, () -> "Failed to sync the ingest log in " + directory);
+                failure = e;
+            }
+            if (failure == null) {
+                synchronized (this) {
+                    segment.synced = Math.max(segment.synced, end);
+                    notifyAll();
+                }
+                batch.forEach(future -> future.complete(Collections.emptyMap()));
+            } else {
+                final VespaClientException e = new VespaClientException("Failed to sync the ingest log.", failure);
+                batch.forEach(future -> future.completeExceptionally(e));
+            }
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            while (true) {
+                final Segment segment;
+                final long end;
+                synchronized (this) {
+                    segment = getReadSegment();
+                    while (segment.readPosition >= segment.synced && segment.active && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    if (segment.readPosition >= segment.synced) {
+                        segment.read = true;
+                        deleteIfDrained(segment);
+                        continue;
+                    }
+                    end = segment.synced;
+                }
+                final Record record = readRecord(segment, end);
+                if (record == null) {
+                    continue;
+                }
+                drainPermits.acquire();
+                synchronized (this) {
+                    segment.inFlight++;
+                    drainAppendTime = record.appendTime;
+                }
+                send(record).whenComplete((result, t) -> {
+                    drainPermits.release();
+                    synchronized (this) {
+                        segment.inFlight--;
+                        if (!closed) {
+                            // writes given up on by close are sent again after a restart
+                            operations--;
+                            drained++;
+                            deleteIfDrained(segment);
+                        }
+                    }
+                });
+            }
+        } catch (final InterruptedException e) {
+            // closed
+        }
+    }
+
+    private Segment getReadSegment() {
+        for (final Segment segment : segments) {
+            if (!segment.read) {
+                return segment;
+            }
+        }
+        // the last segment is active, so it is never read to its end
+        return segments.getLast();
+    }
+
+    /**
+     * Reads the record at the read position of the segment, or skips the rest of the segment if it cannot be read.
+     */
+    private Record readRecord(final Segment segment, final long end) {
+        try {
+            final Record record = segment.read(end);
+            if (record != null) {
+                return record;
+            }
+            log.severe(() -> "The ingest log segment " + segment.path + " is corrupt at " + segment.readPosition
+                    + ", the rest of it is skipped.");
+        } catch (final IOException e) {
+            log.log(Level.SEVERE, e, () -> "Failed to read the ingest log segment " + segment.path + ", the rest of it is skipped.");
+        }
+        synchronized (this) {
+            operations -= segment.records - segment.readRecords;
+            segment.readPosition = segment.active ? segment.synced : segment.size;
+            segment.read = !segment.active;
+            if (segment.read) {
+                deleteIfDrained(segment);
+            }
+        }
+        return null;
+    }
+
+    private void deleteIfDrained(final Segment segment) {
+        if (closed || !segment.read || segment.active || segment.inFlight > 0) {
+            return;
+        }
+        segments.remove(segment);
+        bytes -= segment.size;
+        try {
+            segment.close();
+            Files.deleteIfExists(segment.path);
+        } catch (final IOException e) {
+            log.log(Level.WARNING, e, () -> "Failed to delete the ingest log segment " + segment.path);
+        }
+    }
+
+    /**
+     * Sends the write once the writes before it on its document were sent.
+     * @return the future completing when the write was sent or given up on, which never fails
+     */
+    private CompletableFuture<Void> send(final Record record) {
+        final String key = record.namespace + "/" + record.docType + "/" + record.id;
+        final CompletableFuture<Void> future;
+        synchronized (documentTails) {
+            final CompletableFuture<Void> previous = documentTails.get(key);
+            future = previous == null ? sendWithRetry(record, 0) : previous.thenCompose(v -> sendWithRetry(record, 0));
+            documentTails.put(key, future);
+        }
+        future.whenComplete((v, t) -> {
+            synchronized (documentTails) {
+                documentTails.remove(key, future);
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Void> sendWithRetry(final Record record, final int attempt) {
+        CompletableFuture<Map<String, Object>> future;
+        try {
+            future = record.send(client);
+        } catch (final Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.handle((result, t) -> t).thenCompose(t -> {
+            if (t == null || closed) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (isOverload(t) || !isInvalid(t) && attempt + 1 < MAX_ATTEMPTS) {
+                synchronized (this) {
+                    retried++;
+                }
+                return CompletableFuture
+                        .runAsync(() -> {}, CompletableFuture.delayedExecutor(retryPolicy.getBackoffNanos(attempt), TimeUnit.NANOSECONDS))
+                        .thenCompose(v -> sendWithRetry(record, attempt + 1));
+            }
+            synchronized (this) {
+                failed++;
+            }
+            log.log(Level.WARNING, t, () -> "Dropped the write on " + record.id + " from the ingest log after " + (attempt + 1) + " attempts.");
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Whether the write may succeed later, since Vespa or the proxy could not take it now.
+     */
+    static boolean isOverload(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof RejectedRequestException || cause instanceof IOException || cause instanceof TimeoutException) {
+                return true;
+            }
+            if (cause instanceof VespaClientException) {
+                final int status = ((VespaClientException) cause).getStatus();
+                if (status == 429 || status >= 500) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether Vespa refused the write itself, so that it would fail again.
+     */
+    static boolean isInvalid(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof VespaClientException) {
+                final int status = ((VespaClientException) cause).getStatus();
+                if (status >= 400 && status < 500 && status != 429) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the segments left by an earlier run, and cuts off a torn record at the end of each.
+     * Other files in the directory are left alone.
+     */
+    private void recover() throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(path -> {
+                final String name = path.getFileName().toString();
+                if (parseSequence(name) >= 0) {
+                    return true;
+                }
+                log.warning(() -> "Skipped " + path + " in the ingest log directory, which is not named as a segment.");
+                return false;
+            }).sorted().forEach(paths::add);
+        }
+        for (final Path path : paths) {
+            final Segment segment = Segment.recover(path);
+            if (segment.records == 0) {
+                Files.delete(path);
+                continue;
+            }
+            segments.add(segment);
+            bytes += segment.size;
+            operations += segment.records;
+            log.info(() -> "Sending " + segment.records + " writes of the ingest log segment " + path + " again.");
+        }
+    }
+
+    /**
+     * Gets the sequence number from the name of a segment file.
+     * @return the sequence number, or -1 if the name is not the one of a segment
+     */
+    static long parseSequence(final String name) {
+        final Matcher matcher = SEGMENT_NAME.matcher(name);
+        if (!matcher.matches()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(matcher.group(1));
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] toJson(final Map<String, Object> data) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out)) {
+            builder.map(data);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] encode(final Record record) {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(record.body.length + 64);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(record.type);
+            out.writeLong(record.appendTime);
+            out.writeUTF(record.namespace);
+            out.writeUTF(record.docType);
+            out.writeUTF(record.id);
+            out.writeInt(record.body.length);
+            out.write(record.body);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        final byte[] bytes = payload.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return ByteBuffer.allocate(HEADER_BYTES + bytes.length).putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).array();
+    }
+
+    static Record decode(final byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            final byte type = in.readByte();
+            final long appendTime = in.readLong();
+            final String namespace = in.readUTF();
+            final String docType = in.readUTF();
+            final String id = in.readUTF();
+            final byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new Record(type, appendTime, namespace, docType, id, body);
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("segments", segments.size());
+        stats.put("bytes", bytes);
+        stats.put("operations", operations);
+        stats.put("appended", appended);
+        stats.put("drained", drained);
+        stats.put("retried", retried);
+        stats.put("failed", failed);
+        stats.put("rejected", rejected);
+        stats.put("lag_ms", operations > 0 && drainAppendTime > 0 ? Math.max(0, System.currentTimeMillis() - drainAppendTime) : 0);
+        return stats;
+    }
+
+    /**
+     * Syncs the writes appended so far and stops sending writes. Writes not sent yet stay on disk for the next start.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            syncThread.join();
+            drainThread.interrupt();
+            drainThread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (final Segment segment : segments) {
+                try {
+                    segment.close();
+                } catch (final IOException e) {
+                    log.log(Level.WARNING, e, () -> "Failed to close the ingest log segment " + segment.path);
+                }
+            }
+        }
+    }
+
+    static class Record {
+
+        final byte type;
+
+        final long appendTime;
+
+        final String namespace;
+
+        final String docType;
+
+        final String id;
+
+        final byte[] body;
+
+        Record(final byte type, final long appendTime, final String namespace, final String docType, final String id, final byte[] body) {
+            this.type = type;
+            this.appendTime = appendTime;
+            this.namespace = namespace;
+            this.docType = docType;
+            this.id = id;
+            this.body = body;
+        }
+
+        CompletableFuture<Map<String, Object>> send(final VespaClient client) {
+            switch (type) {
+            case PUT:
+                return client.putFieldsAsync(namespace, docType, id, body);
+            case UPDATE:
+                return client.updateAsync(namespace, docType, id, parseBody());
+            case PARTIAL_UPDATE:
+                return client.partialUpdateAsync(namespace, docType, id, parseBody());
+            case DELETE:
+                return client.deleteAsync(namespace, docType, id);
+            default:
+                throw new VespaClientException("Unknown write type in the ingest log: " + type, 400);
+            }
+        }
+
+        private Map<String, Object> parseBody() {
+            try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                    DeprecationHandler.IGNORE_DEPRECATIONS, body)) {
+                return parser.map();
+            } catch (final IOException e) {
+                throw new VespaClientException("Invalid update in the ingest log: " + e.getMessage(), 400);
+            }
+        }
+    }
+
+    /**
+     * A segment file. Its fields are guarded by the log, except the read channel, which only the drain thread uses.
+     */
+    private static class Segment {
+
+        final long sequence;
+
+        final Path path;
+
+        /** Channel appended to while the segment is active. */
+        FileChannel channel;
+
+        FileChannel readChannel;
+
+        long size;
+
+        /** End of the records on disk, which the drain thread may read. */
+        long synced;
+
+        boolean active;
+
+        long records;
+
+        long readPosition;
+
+        long readRecords;
+
+        /** Whether the drain thread read all records. */
+        boolean read;
+
+        int inFlight;
+
+        private Segment(final long sequence, final Path path) {
+            this.sequence = sequence;
+            this.path = path;
+        }
+
+        static Segment create(final Path directory, final long sequence) throws IOException {
+            final Segment segment = new Segment(sequence, directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX)));
+            segment.channel = FileChannel.open(segment.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            segment.active = true;
+            return segment;
+        }
+
+        /**
+         * Opens a segment of an earlier run, counting its records up to the first one which is torn or corrupt, and cutting it off there.
+         */
+        static Segment recover(final Path path) throws IOException {
+            final long sequence = parseSequence(path.getFileName().toString());
+            if (sequence < 0) {
+                throw new IOException("Not an ingest log segment: " + path);
+            }
+            final Segment segment = new Segment(sequence, path);
+            final long fileSize = Files.size(path);
+            try (InputStream in = Files.newInputStream(path); DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+                while (segment.size + HEADER_BYTES <= fileSize) {
+                    final int length = data.readInt();
+                    final int checksum = data.readInt();
+                    if (length < 0 || segment.size + HEADER_BYTES + length > fileSize) {
+                        break;
+                    }
+                    final byte[] payload = new byte[length];
+                    data.readFully(payload);
+                    if (!isValid(payload, checksum)) {
+                        break;
+                    }
+                    segment.size += HEADER_BYTES + length;
+                    segment.records++;
+                }
+            }
+            if (segment.size < fileSize) {
+                log.warning(() -> "Cutting off " + (fileSize - segment.size) + " bytes of a torn record at the end of " + path);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(segment.size);
+                    channel.force(false);
+                }
+            }
+            segment.synced = segment.size;
+            return segment;
+        }
+
+        void append(final byte[] record) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(record);
+            try {
+                long position = size;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            } catch (final IOException e) {
+                // a partly written record would hide the records after it
+                channel.truncate(size);
+                throw e;
+            }
+            size += record.length;
+            records++;
+        }
+
+        /**
+         * @param end the end of the synced records
+         * @return the record at the read position, or null if it is corrupt
+         */
+        Record read(final long end) throws IOException {
+            if (readChannel == null) {
+                readChannel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(header, readPosition);
+            header.flip();
+            final int length = header.getInt();
+            final int checksum = header.getInt();
+            if (length < 0 || readPosition + HEADER_BYTES + length > end) {
+                return null;
+            }
+            final ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, readPosition + HEADER_BYTES);
+            if (!isValid(payload.array(), checksum)) {
+                return null;
+            }
+            final Record record = decode(payload.array());
+            readPosition += HEADER_BYTES + length;
+            readRecords++;
+            return record;
+        }
+
+        private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+            long offset = position;
+            while (buffer.hasRemaining()) {
+                final int read = readChannel.read(buffer, offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + path + " at " + offset);
+                }
+                offset += read;
+            }
+        }
+
+        void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+            if (readChannel != null) {
+                readChannel.close();
+            }
+        }
+
+        private static boolean isValid(final byte[] payload, final int checksum) {
+            final CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == checksum;
+        }
+    }
+}
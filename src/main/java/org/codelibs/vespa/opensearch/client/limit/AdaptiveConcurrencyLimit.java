@@ -0,0 +1,113 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit adjusted by the gradient of the round trip time.
+ * The limit shrinks when the latency of recent calls rises above the long term average, or when Vespa signals overload,
+ * and grows by a queue allowance of sqrt(limit) while latency stays flat.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final double LONG_RTT_DECAY = 1.0 / 600;
+
+    private static final double SMOOTHING = 0.2;
+
+    private static final double TOLERANCE = 1.5;
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /** Decay of a long term average more than twice the last round trip time, so that it follows a lasting drop of latency. */
+    private static final double LONG_RTT_DROP_DECAY = 0.95;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private double limit;
+
+    private int inFlight;
+
+    private double longRttNanos;
+
+    private long lastRttNanos;
+
+    private long rejected;
+
+    /**
+     * @param maxLimit the upper bound of the limit, or 0 if calls are never limited
+     */
+    public AdaptiveConcurrencyLimit(final int initialLimit, final int minLimit, final int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = maxLimit;
+        limit = maxLimit > 0 ? Math.max(this.minLimit, Math.min(initialLimit, maxLimit)) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the number of calls in flight before this one, or -1 if the limit is reached
+     */
+    public synchronized int tryAcquire() {
+        if (maxLimit > 0 && inFlight >= (int) limit) {
+            rejected++;
+            return -1;
+        }
+        return inFlight++;
+    }
+
+    /**
+     * Releases a call without sampling it, as when it never reached Vespa.
+     */
+    public synchronized void release() {
+        inFlight--;
+    }
+
+    /**
+     * Releases a call and adjusts the limit by its round trip time. Only calls which succeeded are sampled, since a
+     * call failing fast, such as a get of a missing document, says nothing about the load of Vespa.
+     * @param inFlightAtStart the value returned by {@link #tryAcquire()}
+     * @param dropped whether Vespa failed the call because of overload
+     */
+    public synchronized void release(final long rttNanos, final int inFlightAtStart, final boolean dropped) {
+        inFlight--;
+        if (maxLimit <= 0) {
+            return;
+        }
+        if (dropped) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            return;
+        }
+        lastRttNanos = rttNanos;
+        longRttNanos = longRttNanos == 0 ? rttNanos : longRttNanos * (1 - LONG_RTT_DECAY) + rttNanos * LONG_RTT_DECAY;
+        if (longRttNanos / rttNanos > 2) {
+            // latency may have dropped for good; let the average follow it, but a single fast call must not reset it
+            longRttNanos = Math.max(rttNanos * 2.0, longRttNanos * LONG_RTT_DROP_DECAY);
+        }
+        if (inFlightAtStart + 1 < limit / 2) {
+            // far below the limit, so the latency says nothing about it
+            return;
+        }
+        final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / Math.max(1, rttNanos)));
+        final double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+
+    public synchronized int getLimit() {
+        return maxLimit > 0 ? (int) limit : -1;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("limit", getLimit());
+        stats.put("in_flight", inFlight);
+        stats.put("rejected", rejected);
+        stats.put("rtt_ms", TimeUnit.NANOSECONDS.toMillis(lastRttNanos));
+        stats.put("long_rtt_ms", TimeUnit.NANOSECONDS.toMillis((long) longRttNanos));
+        return stats;
+    }
+}
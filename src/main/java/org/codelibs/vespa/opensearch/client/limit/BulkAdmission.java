@@ -0,0 +1,219 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+
+/**
+ * Budget of the bytes and operations which bulk requests hold in memory, over all requests and per index,
+ * as the indexing pressure of OpenSearch does.
+ * A bulk request is admitted before its body is read, reserving the bytes its reading buffer needs, and is rejected
+ * if the budget is already used up. The buffer grows for a line longer than it only if the budget holds the growth. Each operation it reads then holds the bytes of its action and source lines
+ * until its item is written to the response.
+ */
+public class BulkAdmission {
+
+    /** Bytes reserved by a bulk request for reading its body, as large as the chunks of the bulk parser. */
+    static final long REQUEST_BYTES = 64 * 1024;
+
+    private final long maxBytes;
+
+    private final long maxIndexBytes;
+
+    private final long maxOperations;
+
+    private final Map<String, Long> indexBytes = new HashMap<>();
+
+    private long bytes;
+
+    private long operations;
+
+    private long requests;
+
+    private long rejectedRequests;
+
+    private long rejectedOperations;
+
+    public BulkAdmission(final ProxyHandlerConfig config) {
+        this((long) (Runtime.getRuntime().maxMemory() * config.bulkMemoryLimit()), config.bulkIndexMemoryLimit(),
+                config.bulkMaxOperations());
+    }
+
+    /**
+     * @param maxBytes the bytes all bulk requests may hold, or 0 for no limit
+     * @param indexShare the share of maxBytes the operations on one index may hold
+     * @param maxOperations the operations all bulk requests may hold, or 0 for no limit
+     */
+    BulkAdmission(final long maxBytes, final double indexShare, final long maxOperations) {
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.maxIndexBytes = maxBytes > 0 && indexShare > 0 && indexShare < 1 ? (long) (maxBytes * indexShare) : this.maxBytes;
+        this.maxOperations = maxOperations > 0 ? maxOperations : Long.MAX_VALUE;
+    }
+
+    /**
+     * Admits a bulk request before its body is read. The returned reservation must be closed when the request completes.
+     *
+     * @param index the index of the request path, or null
+     * @param contentLength the Content-Length of the request, or -1 if it is unknown
+     * @throws EsRejectedExecutionException if the budget is used up
+     */
+    public Reservation admit(final String index, final long contentLength) {
+        final long requestBytes = contentLength >= 0 ? Math.min(contentLength, REQUEST_BYTES) : REQUEST_BYTES;
+        synchronized (this) {
+            // a request which could not hold a single operation is not worth reading
+            final String reason = check(index, requestBytes, 1);
+            if (reason != null) {
+                rejectedRequests++;
+                throw new EsRejectedExecutionException("rejected execution of bulk request: " + reason);
+            }
+            acquire(index, requestBytes, 0);
+            requests++;
+        }
+        final Reservation reservation = new Reservation(index);
+        reservation.add(index, requestBytes, 0);
+        return reservation;
+    }
+
+    /**
+     * @return why the bytes and operations do not fit in the budget, or null if they do
+     */
+    private String check(final String index, final long requestBytes, final long requestOperations) {
+        if (bytes + requestBytes > maxBytes && bytes > 0) {
+            return "[bulk_bytes=" + bytes + ", requested_bytes=" + requestBytes + ", max_bulk_bytes=" + maxBytes + "]";
+        }
+        final long current = index != null ? indexBytes.getOrDefault(index, 0L) : 0;
+        if (current + requestBytes > maxIndexBytes && current > 0) {
+            return "[index=" + index + ", index_bulk_bytes=" + current + ", requested_bytes=" + requestBytes + ", max_index_bulk_bytes="
+                    + maxIndexBytes + "]";
+        }
+        if (operations + requestOperations > maxOperations) {
+            return "[bulk_operations=" + operations + ", max_bulk_operations=" + maxOperations + "]";
+        }
+        return null;
+    }
+
+    private void acquire(final String index, final long requestBytes, final long requestOperations) {
+        bytes += requestBytes;
+        operations += requestOperations;
+        if (index != null) {
+            indexBytes.merge(index, requestBytes, Long::sum);
+        }
+    }
+
+    private synchronized void release(final String index, final long requestBytes, final long requestOperations) {
+        bytes -= requestBytes;
+        operations -= requestOperations;
+        if (index != null) {
+            indexBytes.computeIfPresent(index, (k, v) -> v - requestBytes <= 0 ? null : v - requestBytes);
+        }
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getOperations() {
+        return operations;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("bytes", bytes);
+        stats.put("operations", operations);
+        stats.put("max_bytes", maxBytes == Long.MAX_VALUE ? -1 : maxBytes);
+        stats.put("max_index_bytes", maxIndexBytes == Long.MAX_VALUE ? -1 : maxIndexBytes);
+        stats.put("max_operations", maxOperations == Long.MAX_VALUE ? -1 : maxOperations);
+        stats.put("index_bytes", new HashMap<>(indexBytes));
+        stats.put("requests", requests);
+        stats.put("rejected_requests", rejectedRequests);
+        stats.put("rejected_operations", rejectedOperations);
+        return stats;
+    }
+
+    /**
+     * What one bulk request holds of the budget. Only the thread reading the request uses it.
+     */
+    public class Reservation implements AutoCloseable {
+
+        private final Map<String, long[]> held = new HashMap<>();
+
+        /** Index of the request path, which the reading buffer is charged to. */
+        private final String index;
+
+        private boolean closed;
+
+        private Reservation(final String index) {
+            this.index = index;
+        }
+
+        private void add(final String index, final long requestBytes, final long requestOperations) {
+            final long[] counts = held.computeIfAbsent(index, k -> new long[2]);
+            counts[0] += requestBytes;
+            counts[1] += requestOperations;
+        }
+
+        /**
+         * Holds the bytes of an operation read from the request.
+         *
+         * @param index the index of the operation, or null
+         * @return false if the operation does not fit in the budget
+         */
+        public boolean tryAcquire(final String index, final long operationBytes) {
+            synchronized (BulkAdmission.this) {
+                if (closed || check(index, operationBytes, 1) != null) {
+                    rejectedOperations++;
+                    return false;
+                }
+                acquire(index, operationBytes, 1);
+            }
+            add(index, operationBytes, 1);
+            return true;
+        }
+
+        /**
+         * Holds more bytes for the reading buffer, which grows when a line does not fit in it.
+         * The bytes are held until the reservation is closed.
+         *
+         * @return false if the bytes do not fit in the budget
+         */
+        public boolean tryGrowBuffer(final long bufferBytes) {
+            synchronized (BulkAdmission.this) {
+                if (closed || check(index, bufferBytes, 0) != null) {
+                    rejectedRequests++;
+                    return false;
+                }
+                acquire(index, bufferBytes, 0);
+            }
+            add(index, bufferBytes, 0);
+            return true;
+        }
+
+        /**
+         * Releases the bytes of an operation whose item was written.
+         */
+        public void release(final String index, final long operationBytes) {
+            final long[] counts = held.get(index);
+            if (closed || counts == null) {
+                return;
+            }
+            counts[0] -= operationBytes;
+            counts[1]--;
+            BulkAdmission.this.release(index, operationBytes, 1);
+        }
+
+        /**
+         * Releases the reading buffer and every operation still held.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            held.forEach((index, counts) -> BulkAdmission.this.release(index, counts[0], counts[1]));
+            held.clear();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Opens after a number of consecutive failed calls and lets no call through until the open duration has passed.
+ * Then a single trial call decides whether it closes again or stays open for another period.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long openDurationNanos;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openUntil;
+
+    private boolean trialInFlight;
+
+    private long opened;
+
+    /**
+     * @param failureThreshold consecutive failures which open the breaker, or 0 if it never opens
+     */
+    public CircuitBreaker(final int failureThreshold, final long openDurationNanos) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = openDurationNanos;
+    }
+
+    public synchronized boolean allow(final long now) {
+        switch (state) {
+        case OPEN:
+            if (now - openUntil < 0) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = true;
+            return true;
+        case HALF_OPEN:
+            if (trialInFlight) {
+                return false;
+            }
+            trialInFlight = true;
+            return true;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Gives back a call which was allowed but never sent.
+     */
+    public synchronized void cancel() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized void onFailure(final long now) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || state == State.CLOSED && failureThreshold > 0 && consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openUntil = now + openDurationNanos;
+            trialInFlight = false;
+            opened++;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("state", state.name().toLowerCase(Locale.ROOT));
+        stats.put("consecutive_failures", consecutiveFailures);
+        stats.put("opened", opened);
+        return stats;
+    }
+}
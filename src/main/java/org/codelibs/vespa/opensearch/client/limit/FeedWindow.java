@@ -0,0 +1,213 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+
+/**
+ * Window of in-flight document writes shared by all requests, tuned by additive increase and multiplicative decrease.
+ * The window grows by about one per window of writes completed while it is in use and latency stays near the base latency.
+ * It is cut in half when Vespa throttles a write or times out, or when latency rises above latencyFactor times the base latency,
+ * at most once per round trip. Writes over the window wait in a bounded queue instead of failing.
+ */
+public class FeedWindow {
+
+    private static final double DECREASE_RATIO = 0.5;
+
+    private static final double SMOOTHING = 0.1;
+
+    /** Share by which the base latency follows higher latencies, so that it recovers when Vespa got slower for good. */
+    private static final double BASE_RTT_DRIFT = 0.001;
+
+    /** Latency differences below this are noise rather than a queue building up in Vespa. */
+    private static final long MIN_SPIKE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final int maxQueued;
+
+    private final double latencyFactor;
+
+    private final Deque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+
+    private double size;
+
+    private int inFlight;
+
+    private double baseRttNanos;
+
+    private double smoothedRttNanos;
+
+    private long lastDecrease;
+
+    private long decreases;
+
+    private long throttled;
+
+    private long queued;
+
+    private long rejected;
+
+    public FeedWindow(final ProxyHandlerConfig config) {
+        minSize = Math.max(1, config.feedWindowMinSize());
+        maxSize = config.feedWindowMaxSize();
+        maxQueued = config.feedWindowMaxQueued();
+        latencyFactor = config.feedWindowLatencyFactor();
+        size = maxSize > 0 ? Math.max(minSize, Math.min(config.feedWindowInitialSize(), maxSize)) : Integer.MAX_VALUE;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Admits a write, which must be released by {@link Permit#release(long, Throwable)} when it completes.
+     * The returned future completes when the write fits in the window, or fails with EsRejectedExecutionException
+     * if maxQueued writes are already waiting.
+     */
+    public synchronized CompletableFuture<Permit> acquire() {
+        if (inFlight < (int) size) {
+            return CompletableFuture.completedFuture(new Permit(inFlight++));
+        }
+        if (waiters.size() >= maxQueued) {
+            rejected++;
+            return CompletableFuture.failedFuture(new EsRejectedExecutionException("rejected execution of write operation: feed window of "
+                    + (int) size + " is full and " + waiters.size() + " writes are waiting"));
+        }
+        queued++;
+        final CompletableFuture<Permit> waiter = new CompletableFuture<>();
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    /**
+     * @param sampled whether the write was sent, so that its outcome adjusts the window
+     */
+    private void release(final long rttNanos, final int inFlightAtStart, final Throwable t, final boolean sampled) {
+        final List<CompletableFuture<Permit>> granted = new ArrayList<>();
+        final List<Permit> permits = new ArrayList<>();
+        synchronized (this) {
+            inFlight--;
+            if (sampled && isEnabled()) {
+                adjust(System.nanoTime(), rttNanos, inFlightAtStart, t);
+            }
+            while (inFlight < (int) size && !waiters.isEmpty()) {
+                final CompletableFuture<Permit> waiter = waiters.poll();
+                if (!waiter.isDone()) {
+                    granted.add(waiter);
+                    permits.add(new Permit(inFlight++));
+                }
+            }
+        }
+        // completed outside the lock, since the waiting writes are sent from here
+        for (int i = 0; i < granted.size(); i++) {
+            if (!granted.get(i).complete(permits.get(i))) {
+                // given up by the caller in the meantime
+                permits.get(i).cancel();
+            }
+        }
+    }
+
+    private void adjust(final long now, final long rttNanos, final int inFlightAtStart, final Throwable t) {
+        if (t != null) {
+            if (WriteRetryPolicy.isThrottled(t) || isTimeout(t)) {
+                throttled++;
+                decrease(now);
+            }
+            // other failures say nothing about the load of Vespa
+            return;
+        }
+        smoothedRttNanos = smoothedRttNanos == 0 ? rttNanos : smoothedRttNanos * (1 - SMOOTHING) + rttNanos * SMOOTHING;
+        baseRttNanos = baseRttNanos == 0 || rttNanos < baseRttNanos ? rttNanos : baseRttNanos + (rttNanos - baseRttNanos) * BASE_RTT_DRIFT;
+        if (latencyFactor > 0 && rttNanos > baseRttNanos * latencyFactor && rttNanos - baseRttNanos > MIN_SPIKE_NANOS) {
+            decrease(now);
+        } else if (inFlightAtStart + 1 >= size / 2) {
+            // only a window in use shows whether Vespa keeps up with it
+            size = Math.min(maxSize, size + 1 / size);
+        }
+    }
+
+    private void decrease(final long now) {
+        // the writes failing from one overload were all in flight within a round trip, and count once
+        if (decreases > 0 && now - lastDecrease < smoothedRttNanos) {
+            return;
+        }
+        size = Math.max(minSize, size * DECREASE_RATIO);
+        lastDecrease = now;
+        decreases++;
+    }
+
+    private static boolean isTimeout(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof TimeoutException || cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int getSize() {
+        return isEnabled() ? (int) size : -1;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("size", getSize());
+        stats.put("in_flight", inFlight);
+        stats.put("waiting", waiters.size());
+        stats.put("queued", queued);
+        stats.put("rejected", rejected);
+        stats.put("throttled", throttled);
+        stats.put("decreases", decreases);
+        stats.put("rtt_ms", TimeUnit.NANOSECONDS.toMillis((long) smoothedRttNanos));
+        stats.put("base_rtt_ms", TimeUnit.NANOSECONDS.toMillis((long) baseRttNanos));
+        return stats;
+    }
+
+    public class Permit {
+
+        private final int inFlightAtStart;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(final int inFlightAtStart) {
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /**
+         * @param rttNanos the round trip time of the write
+         * @param t the failure of the write, or null if it succeeded
+         */
+        public void release(final long rttNanos, final Throwable t) {
+            if (released.compareAndSet(false, true)) {
+                FeedWindow.this.release(rttNanos, inFlightAtStart, t, true);
+            }
+        }
+
+        /**
+         * Releases a write which was never sent.
+         */
+        public void cancel() {
+            if (released.compareAndSet(false, true)) {
+                FeedWindow.this.release(0, inFlightAtStart, null, false);
+            }
+        }
+    }
+}
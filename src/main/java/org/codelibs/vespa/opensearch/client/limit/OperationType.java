@@ -0,0 +1,15 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import java.util.Locale;
+
+/**
+ * Kind of upstream call. Each kind has its own concurrency limit and circuit breaker,
+ * so slow queries do not starve writes and the other way round.
+ */
+public enum OperationType {
+    SEARCH, GET, WRITE;
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
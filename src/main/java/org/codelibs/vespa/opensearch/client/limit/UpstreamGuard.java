@@ -0,0 +1,121 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.CircuitBreakingException;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+
+/**
+ * Admits upstream calls by an adaptive concurrency limit and a circuit breaker per operation type.
+ * A call which is not admitted fails at once instead of queuing in front of an overloaded Vespa.
+ */
+public class UpstreamGuard {
+
+    private final Map<OperationType, AdaptiveConcurrencyLimit> limits = new EnumMap<>(OperationType.class);
+
+    private final Map<OperationType, CircuitBreaker> breakers = new EnumMap<>(OperationType.class);
+
+    public UpstreamGuard(final ProxyHandlerConfig config) {
+        final long openDurationNanos = (long) (config.circuitBreakerOpenDuration() * TimeUnit.SECONDS.toNanos(1));
+        for (final OperationType type : OperationType.values()) {
+            limits.put(type,
+                    new AdaptiveConcurrencyLimit(config.concurrencyInitialLimit(), config.concurrencyMinLimit(), config.concurrencyMaxLimit()));
+            breakers.put(type, new CircuitBreaker(config.circuitBreakerFailureThreshold(), openDurationNanos));
+        }
+    }
+
+    /**
+     * Admits a call of the given type, which must be released by {@link Permit#release(Throwable)} when it completes.
+     * @throws EsRejectedExecutionException if the concurrency limit is reached
+     * @throws CircuitBreakingException if the circuit breaker is open
+     */
+    public Permit acquire(final OperationType type) {
+        final AdaptiveConcurrencyLimit limit = limits.get(type);
+        final int inFlight = limit.tryAcquire();
+        if (inFlight < 0) {
+            throw new EsRejectedExecutionException("rejected execution of " + type.getName() + " operation: concurrency limit of "
+                    + limit.getLimit() + " reached");
+        }
+        final long now = System.nanoTime();
+        if (!breakers.get(type).allow(now)) {
+            limit.release();
+            throw new CircuitBreakingException("[" + type.getName() + "] circuit breaker is open because Vespa keeps failing");
+        }
+        return new Permit(type, inFlight, now);
+    }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        for (final OperationType type : OperationType.values()) {
+            final Map<String, Object> typeStats = limits.get(type).getStats();
+            typeStats.put("circuit_breaker", breakers.get(type).getStats());
+            stats.put(type.getName(), typeStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Whether the failure says Vespa is unreachable or overloaded, rather than that the request was wrong.
+     * @param includeThrottling whether 429 counts as overload
+     */
+    static boolean isOverload(final Throwable t, final boolean includeThrottling) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof TimeoutException) {
+                return true;
+            }
+            if (cause instanceof VespaClientException) {
+                final int status = ((VespaClientException) cause).getStatus();
+                if (status == 502 || status == 503 || status == 504 || includeThrottling && status == 429) {
+                    return true;
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    public class Permit {
+
+        private final OperationType type;
+
+        private final int inFlightAtStart;
+
+        private final long startTime;
+
+        Permit(final OperationType type, final int inFlightAtStart, final long startTime) {
+            this.type = type;
+            this.inFlightAtStart = inFlightAtStart;
+            this.startTime = startTime;
+        }
+
+        /**
+         * @param t the failure of the call, or null if it succeeded
+         */
+        public void release(final Throwable t) {
+            final long now = System.nanoTime();
+            final AdaptiveConcurrencyLimit limit = limits.get(type);
+            if (t == null) {
+                limit.release(now - startTime, inFlightAtStart, false);
+            } else if (isOverload(t, true)) {
+                limit.release(now - startTime, inFlightAtStart, true);
+            } else {
+                // a fast failure such as 404 or 400 would make the latency look lower than it is
+                limit.release();
+            }
+            if (t != null && isOverload(t, false)) {
+                breakers.get(type).onFailure(now);
+            } else {
+                breakers.get(type).onSuccess();
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+
+/**
+ * Merges the writes on the same document arriving within a window into one write, which is sent when the window ends.
+ * A later put or delete replaces the pending write, and a later update is merged into a pending update or put with its
+ * fields winning. A write which cannot be merged, such as an update after a delete, sends the pending write at once and
+ * waits in a window of its own. Every merged write completes with the outcome of the write that was sent for it.
+ */
+public class WriteCoalescer {
+
+    private static final CompletableFuture<Void> SENT = CompletableFuture.completedFuture(null);
+
+    private final long windowNanos;
+
+    /** Writes waiting for the end of their window, by document. */
+    private final Map<String, Batch> pending = new HashMap<>();
+
+    /** Writes taken out of the window and not handed to the sender yet, so that the next write on the document waits for them. */
+    private final Map<String, CompletableFuture<Void>> sending = new HashMap<>();
+
+    private long writes;
+
+    private long coalesced;
+
+    private long sent;
+
+    public WriteCoalescer(final ProxyHandlerConfig config) {
+        windowNanos = (long) (config.writeCoalesceWindow() * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public boolean isEnabled() {
+        return windowNanos > 0;
+    }
+
+    /**
+     * Merges the write into the pending write on its document, or holds it for the window.
+     *
+     * @param key the key of the document, such as namespace/docType/id
+     * @param write the write
+     * @param sender sends a write and returns its future
+     * @return the future completing as the write it was merged into does
+     */
+    public CompletableFuture<Map<String, Object>> submit(final String key, final Write write,
+            final Function<Write, CompletableFuture<Map<String, Object>>> sender) {
+        if (!isEnabled()) {
+            return sender.apply(write);
+        }
+        final CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+        final Batch previous;
+        final Batch batch;
+        synchronized (this) {
+            writes++;
+            final Batch current = pending.get(key);
+            if (current != null) {
+                final Write merged = current.write.merge(write);
+                if (merged != null) {
+                    current.write = merged;
+                    current.callers.add(result);
+                    coalesced++;
+                    return result;
+                }
+                // the pending write goes first
+                take(current);
+                previous = current;
+            } else {
+                previous = null;
+            }
+            batch = new Batch(key, write, sender, sending.getOrDefault(key, SENT));
+            batch.callers.add(result);
+            pending.put(key, batch);
+        }
+        if (previous != null) {
+            send(previous);
+        }
+        CompletableFuture.delayedExecutor(windowNanos, TimeUnit.NANOSECONDS).execute(() -> flush(batch));
+        return result;
+    }
+
+    private void flush(final Batch batch) {
+        synchronized (this) {
+            if (pending.get(batch.key) != batch) {
+                // sent early by a write which could not be merged
+                return;
+            }
+            take(batch);
+        }
+        send(batch);
+    }
+
+    /**
+     * Takes the batch out of the window, so that later writes on its document wait until it is handed to the sender.
+     */
+    private void take(final Batch batch) {
+        pending.remove(batch.key);
+        sending.put(batch.key, batch.handedOver);
+        sent++;
+    }
+
+    private void send(final Batch batch) {
+        // the write before it on the document is handed to the sender first, so that the writes keep their order
+        batch.previous.thenRun(() -> {
+            CompletableFuture<Map<String, Object>> future;
+            try {
+                future = batch.sender.apply(batch.write);
+            } catch (final RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            synchronized (this) {
+                sending.remove(batch.key, batch.handedOver);
+            }
+            batch.handedOver.complete(null);
+            future.whenComplete((value, t) -> {
+                for (final CompletableFuture<Map<String, Object>> caller : batch.callers) {
+                    if (t != null) {
+                        caller.completeExceptionally(t);
+                    } else {
+                        caller.complete(value);
+                    }
+                }
+            });
+        });
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("window_ms", TimeUnit.NANOSECONDS.toMillis(windowNanos));
+        stats.put("pending", pending.size());
+        stats.put("writes", writes);
+        stats.put("coalesced", coalesced);
+        stats.put("sent", sent);
+        return stats;
+    }
+
+    /**
+     * A write on one document, whose fields are flattened into dotted names.
+     */
+    public static final class Write {
+
+        public enum Type {
+            PUT, PUT_FIELDS_JSON, UPDATE, DELETE
+        }
+
+        private final Type type;
+
+        private final Map<String, Object> fields;
+
+        private final byte[] fieldsJson;
+
+        private Write(final Type type, final Map<String, Object> fields, final byte[] fieldsJson) {
+            this.type = type;
+            this.fields = fields;
+            this.fieldsJson = fieldsJson;
+        }
+
+        public static Write put(final Map<String, Object> fields) {
+            return new Write(Type.PUT, fields, null);
+        }
+
+        /**
+         * A put given as a Document V1 API payload, which later updates are not merged into.
+         */
+        public static Write putFieldsJson(final byte[] fieldsJson) {
+            return new Write(Type.PUT_FIELDS_JSON, null, fieldsJson);
+        }
+
+        public static Write update(final Map<String, Object> fields) {
+            return new Write(Type.UPDATE, fields, null);
+        }
+
+        public static Write delete() {
+            return new Write(Type.DELETE, null, null);
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public Map<String, Object> getFields() {
+            return fields;
+        }
+
+        public byte[] getFieldsJson() {
+            return fieldsJson;
+        }
+
+        /**
+         * @return the write having the effect of this write followed by the later one, or null if there is none
+         */
+        Write merge(final Write later) {
+            switch (later.type) {
+            case PUT:
+            case PUT_FIELDS_JSON:
+            case DELETE:
+                return later;
+            default:
+                if (type == Type.UPDATE || type == Type.PUT) {
+                    final Map<String, Object> merged = new HashMap<>(fields);
+                    merged.putAll(later.fields);
+                    return new Write(type, merged, null);
+                }
+                // an update after a delete fails on the missing document, and the fields of a payload are not known
+                return null;
+            }
+        }
+    }
+
+    private static class Batch {
+
+        private final String key;
+
+        private final Function<Write, CompletableFuture<Map<String, Object>>> sender;
+
+        private final CompletableFuture<Void> previous;
+
+        private final CompletableFuture<Void> handedOver = new CompletableFuture<>();
+
+        private final List<CompletableFuture<Map<String, Object>>> callers = new ArrayList<>();
+
+        private Write write;
+
+        Batch(final String key, final Write write, final Function<Write, CompletableFuture<Map<String, Object>>> sender,
+                final CompletableFuture<Void> previous) {
+            this.key = key;
+            this.write = write;
+            this.sender = sender;
+            this.previous = previous;
+        }
+    }
+}
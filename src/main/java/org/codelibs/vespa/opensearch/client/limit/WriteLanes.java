@@ -0,0 +1,163 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+
+/**
+ * Fixed set of ordered lanes onto which document writes are hashed by document id.
+ * Writes in one lane are started one after the other in the order they were submitted, each once the one before it completed,
+ * so that writes on the same document from any request apply in order, while writes on documents in other lanes run in parallel.
+ * Documents whose ids share a lane are serialized too, which the number of lanes keeps rare.
+ */
+public class WriteLanes {
+
+    private final Lane[] lanes;
+
+    private final AtomicLong queued = new AtomicLong();
+
+    public WriteLanes(final ProxyHandlerConfig config) {
+        lanes = new Lane[Math.max(0, config.writeLanes())];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    public boolean isEnabled() {
+        return lanes.length > 0;
+    }
+
+    /**
+     * Starts the write in the lane of the key once the writes submitted to the lane before it have completed.
+     * The write starts on the calling thread if the lane is idle, and otherwise on the thread completing the previous write.
+     *
+     * @param key the key of the document, such as namespace/docType/id
+     * @param write starts the write and returns its future
+     * @return the future completing as the write does
+     */
+    public <T> CompletableFuture<T> submit(final String key, final Supplier<CompletableFuture<T>> write) {
+        if (!isEnabled()) {
+            return write.get();
+        }
+        final Lane lane = lanes[indexOf(key)];
+        final Task<T> task = new Task<>(write);
+        synchronized (lane) {
+            if (lane.busy) {
+                lane.waiting.add(task);
+                queued.incrementAndGet();
+                return task.result;
+            }
+            lane.busy = true;
+        }
+        run(lane, task);
+        return task.result;
+    }
+
+    private int indexOf(final String key) {
+        final int h = key.hashCode();
+        // spreads the high bits, as ids often differ only in their last characters
+        return Math.floorMod(h ^ (h >>> 16), lanes.length);
+    }
+
+    /**
+     * Runs the tasks of the lane until one is still in flight, which goes on with the lane when it completes.
+     * Tasks completing at once, such as rejected writes, are run in this loop rather than recursively.
+     */
+    private void run(final Lane lane, final Task<?> first) {
+        Task<?> task = first;
+        while (task != null) {
+            final CompletableFuture<?> future = task.start();
+            if (!future.isDone()) {
+                future.whenComplete((result, t) -> {
+                    final Task<?> next = lane.next();
+                    if (next != null) {
+                        run(lane, next);
+                    }
+                });
+                return;
+            }
+            task = lane.next();
+        }
+    }
+
+    public int size() {
+        return lanes.length;
+    }
+
+    public Map<String, Object> getStats() {
+        int busy = 0;
+        int waiting = 0;
+        int maxWaiting = 0;
+        for (final Lane lane : lanes) {
+            synchronized (lane) {
+                if (lane.busy) {
+                    busy++;
+                }
+                waiting += lane.waiting.size();
+                maxWaiting = Math.max(maxWaiting, lane.waiting.size());
+            }
+        }
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("lanes", lanes.length);
+        stats.put("busy", busy);
+        stats.put("waiting", waiting);
+        stats.put("max_waiting", maxWaiting);
+        stats.put("queued", queued.get());
+        return stats;
+    }
+
+    private static class Lane {
+
+        private final Deque<Task<?>> waiting = new ArrayDeque<>();
+
+        private boolean busy;
+
+        /**
+         * Takes the next task of the lane, or marks the lane idle if there is none.
+         */
+        synchronized Task<?> next() {
+            final Task<?> task = waiting.poll();
+            if (task == null) {
+                busy = false;
+            }
+            return task;
+        }
+    }
+
+    private static class Task<T> {
+
+        private final Supplier<CompletableFuture<T>> write;
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Task(final Supplier<CompletableFuture<T>> write) {
+            this.write = write;
+        }
+
+        /**
+         * Starts the write, and returns the future the lane waits for, which completes after the result.
+         */
+        CompletableFuture<?> start() {
+            final CompletableFuture<T> future;
+            try {
+                future = write.get();
+            } catch (final RuntimeException e) {
+                result.completeExceptionally(e);
+                return result;
+            }
+            return future.whenComplete((value, t) -> {
+                if (t != null) {
+                    result.completeExceptionally(t);
+                } else {
+                    result.complete(value);
+                }
+            });
+        }
+    }
+}
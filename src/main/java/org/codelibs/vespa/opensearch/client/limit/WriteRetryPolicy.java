@@ -0,0 +1,119 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+
+/**
+ * How writes throttled by Vespa are sent again. A throttled write is parked in a bounded queue of its bulk request,
+ * and sent again after a jittered exponential backoff until it succeeds or its deadline passes.
+ */
+public class WriteRetryPolicy {
+
+    private static final int MAX_BACKOFF_DOUBLINGS = 6;
+
+    private final int queueSize;
+
+    private final long timeoutNanos;
+
+    private final long backoffNanos;
+
+    private final AtomicLong parked = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    private final AtomicLong expired = new AtomicLong();
+
+    private final AtomicLong overflows = new AtomicLong();
+
+    public WriteRetryPolicy(final ProxyHandlerConfig config) {
+        queueSize = config.writeRetryQueueSize();
+        timeoutNanos = (long) (config.writeRetryTimeout() * TimeUnit.SECONDS.toNanos(1));
+        backoffNanos = Math.max(1, (long) (config.writeRetryBackoff() * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    public boolean isEnabled() {
+        return queueSize > 0 && timeoutNanos > 0;
+    }
+
+    /**
+     * @return the maximum number of parked operations of one bulk request
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return the time a throttled operation may be retried after it was first parked
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * Full jitter: the delay before the n-th retry round is random between 0 and backoff * 2^n,
+     * so that parked operations of concurrent bulk requests do not come back at once.
+     */
+    public long getBackoffNanos(final int round) {
+        return ThreadLocalRandom.current().nextLong(backoffNanos << Math.min(round, MAX_BACKOFF_DOUBLINGS)) + 1;
+    }
+
+    /**
+     * Whether the failure says Vespa, or the concurrency limit in front of it, cannot take the write now,
+     * so that it may succeed when sent again later.
+     */
+    public static boolean isThrottled(final Throwable t) {
+        return getThrottleStatus(t) > 0;
+    }
+
+    /**
+     * @return 429 or 503 if the failure is throttling, or -1
+     */
+    public static int getThrottleStatus(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof EsRejectedExecutionException) {
+                return ((EsRejectedExecutionException) cause).getStatus();
+            }
+            if (cause instanceof VespaClientException) {
+                final int status = ((VespaClientException) cause).getStatus();
+                if (status == 429 || status == 503) {
+                    return status;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public void onParked() {
+        parked.incrementAndGet();
+    }
+
+    public void onRetry() {
+        retries.incrementAndGet();
+    }
+
+    public void onExpired() {
+        expired.incrementAndGet();
+    }
+
+    public void onOverflow() {
+        overflows.incrementAndGet();
+    }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("queue_size", queueSize);
+        stats.put("parked", parked.get());
+        stats.put("retries", retries.get());
+        stats.put("expired", expired.get());
+        stats.put("overflows", overflows.get());
+        return stats;
+    }
+}
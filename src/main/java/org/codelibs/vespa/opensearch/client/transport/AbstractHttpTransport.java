@@ -0,0 +1,79 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * Base of transports sending requests to one Vespa endpoint with a non-blocking HTTP client.
+ */
+public abstract class AbstractHttpTransport implements VespaTransport {
+
+    private static final Logger log = Logger.getLogger(AbstractHttpTransport.class.getName());
+
+    protected final String endpoint;
+
+    protected AbstractHttpTransport(final String endpoint) {
+        if (endpoint.endsWith("/")) {
+            this.endpoint = endpoint;
+        } else {
+            this.endpoint = endpoint + "/";
+        }
+    }
+
+    static Timeout toTimeout(final double seconds) {
+        return Timeout.ofMilliseconds(toMillis(seconds));
+    }
+
+    static long toMillis(final double seconds) {
+        return (long) (seconds * 1000);
+    }
+
+    protected CompletableFuture<TransportResponse> execute(final CloseableHttpAsyncClient httpClient, final TransportRequest request) {
+        final SimpleRequestBuilder builder = SimpleRequestBuilder.create(request.getMethod().name()).setUri(endpoint + request.getPath());
+        if (request.getBody() != null) {
+            builder.setBody(request.getBody(), ContentType.APPLICATION_JSON);
+        }
+        final SimpleHttpRequest httpRequest = builder.build();
+        log.log(Level.FINER, () -> "Sending " + request + " to " + endpoint);
+
+        final CompletableFuture<TransportResponse> future = new CompletableFuture<>();
+        final Future<SimpleHttpResponse> exchange = httpClient.execute(httpRequest, new FutureCallback<SimpleHttpResponse>() {
+            @Override
+            public void completed(final SimpleHttpResponse response) {
+                future.complete(new TransportResponse(response.getCode(), response.getBodyBytes()));
+            }
+
+            @Override
+            public void failed(final Exception e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        // abort the exchange when the caller gives up on it, as for the losing attempt of a hedged read
+        future.whenComplete((response, t) -> {
+            if (future.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+}
@@ -0,0 +1,217 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+
+/**
+ * Transport multiplexing requests over a few HTTP/2 connections to one Vespa endpoint, like the Vespa feed client does.
+ * Each request is sent on the connection with the fewest streams in flight.
+ * When every connection has the maximum number of streams in flight, requests wait in a queue until a stream completes.
+ * Plain "http" endpoints are spoken to with HTTP/2 prior knowledge (h2c).
+ * A request cancelled by its caller is dropped from the queue, or its stream is reset if it was already sent.
+ */
+public class Http2Transport extends AbstractHttpTransport {
+
+    private final List<Connection> connections = new ArrayList<>();
+
+    private final int maxStreamsPerConnection;
+
+    private final Queue<PendingRequest> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public Http2Transport(final String endpoint, final ProxyHandlerConfig config) {
+        super(endpoint);
+        maxStreamsPerConnection = config.feedMaxStreamsPerConnection();
+        for (int i = 0; i < Math.max(1, config.feedConnections()); i++) {
+            // an HTTP/2 client keeps a single connection per route, so each connection gets its own client
+            final CloseableHttpAsyncClient httpClient = H2AsyncClientBuilder.create()//
+                    .setH2Config(H2Config.custom()//
+                            .setPushEnabled(false)//
+                            .build())//
+                    .setIOReactorConfig(IOReactorConfig.custom()//
+                            .setIoThreadCount(1)//
+                            .build())//
+                    .setDefaultConnectionConfig(ConnectionConfig.custom()//
+                            .setConnectTimeout(toTimeout(config.connectTimeout()))//
+                            .setSocketTimeout(toTimeout(config.readTimeout()))//
+                            .build())//
+                    .setDefaultRequestConfig(RequestConfig.custom()//
+                            .setResponseTimeout(toTimeout(config.readTimeout()))//
+                            .build())//
+                    .evictIdleConnections(TimeValue.ofMilliseconds(toMillis(config.connectionIdleTimeout())))//
+                    .disableAutomaticRetries()//
+                    .disableCookieManagement()//
+                    .disableRedirectHandling()//
+                    .build();
+            httpClient.start();
+            connections.add(new Connection(httpClient));
+        }
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+        final CompletableFuture<TransportResponse> future = new CompletableFuture<>();
+        queue.add(new PendingRequest(request, future));
+        queued.incrementAndGet();
+        if (closed) {
+            failQueued();
+        } else {
+            drain();
+        }
+        return future;
+    }
+
+    /**
+     * Sends queued requests while a connection has a free stream.
+     */
+    private void drain() {
+        while (!closed && !queue.isEmpty()) {
+            final Connection connection = acquire();
+            if (connection == null) {
+                return;
+            }
+            final PendingRequest pending = queue.poll();
+            if (pending == null) {
+                connection.inFlight.decrementAndGet();
+                continue;
+            }
+            queued.decrementAndGet();
+            if (pending.future.isDone()) {
+                // cancelled by the caller while it waited, so its stream goes to the next request
+                connection.inFlight.decrementAndGet();
+                continue;
+            }
+            send(connection, pending);
+        }
+    }
+
+    /**
+     * Reserves a stream on the least loaded connection, or returns null if all streams are in use.
+     */
+    private Connection acquire() {
+        while (true) {
+            Connection best = null;
+            int bestInFlight = Integer.MAX_VALUE;
+            for (final Connection connection : connections) {
+                final int inFlight = connection.inFlight.get();
+                if (inFlight < bestInFlight) {
+                    best = connection;
+                    bestInFlight = inFlight;
+                }
+            }
+            if (best == null || bestInFlight >= maxStreamsPerConnection) {
+                return null;
+            }
+            if (best.inFlight.compareAndSet(bestInFlight, bestInFlight + 1)) {
+                return best;
+            }
+        }
+    }
+
+    private void send(final Connection connection, final PendingRequest pending) {
+        final CompletableFuture<TransportResponse> exchange = execute(connection.httpClient, pending.request);
+        pending.future.whenComplete((response, t) -> {
+            if (pending.future.isCancelled()) {
+                exchange.cancel(false);
+            }
+        });
+        exchange.whenComplete((response, t) -> {
+            connection.inFlight.decrementAndGet();
+            completed.incrementAndGet();
+            drain();
+            if (t != null) {
+                pending.future.completeExceptionally(t);
+            } else {
+                pending.future.complete(response);
+            }
+        });
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        final List<Integer> streams = new ArrayList<>();
+        int active = 0;
+        for (final Connection connection : connections) {
+            final int inFlight = connection.inFlight.get();
+            streams.add(inFlight);
+            active += inFlight;
+        }
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("endpoint", endpoint);
+        stats.put("protocol", "HTTP/2");
+        stats.put("connections", connections.size());
+        stats.put("max_streams_per_connection", maxStreamsPerConnection);
+        stats.put("active", active);
+        stats.put("streams", streams);
+        stats.put("pending", queued.get());
+        stats.put("completed", completed.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        failQueued();
+        for (final Connection connection : connections) {
+            connection.httpClient.close(CloseMode.GRACEFUL);
+        }
+    }
+
+    /**
+     * Fails the requests still waiting for a stream, which no connection will send after the transport is closed.
+     */
+    private void failQueued() {
+        PendingRequest pending;
+        while ((pending = queue.poll()) != null) {
+            queued.decrementAndGet();
+            pending.future.completeExceptionally(new IOException("Transport to " + endpoint + " is closed"));
+        }
+    }
+
+    private static class Connection {
+
+        final CloseableHttpAsyncClient httpClient;
+
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        Connection(final CloseableHttpAsyncClient httpClient) {
+            this.httpClient = httpClient;
+        }
+    }
+
+    private static class PendingRequest {
+
+        final TransportRequest request;
+
+        final CompletableFuture<TransportResponse> future;
+
+        PendingRequest(final TransportRequest request, final CompletableFuture<TransportResponse> future) {
+            this.request = request;
+            this.future = future;
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+import java.util.Arrays;
+
+/**
+ * Percentile of the latest latencies, recomputed every few samples rather than on every read.
+ */
+class LatencyPercentile {
+
+    private static final int CAPACITY = 1024;
+
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final double percentile;
+
+    private final int minSamples;
+
+    private final long[] samples = new long[CAPACITY];
+
+    private int count;
+
+    private int next;
+
+    private int sinceRecompute;
+
+    private volatile long value = -1;
+
+    LatencyPercentile(final double percentile, final int minSamples) {
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+    }
+
+    synchronized void add(final long latencyNanos) {
+        samples[next] = latencyNanos;
+        next = (next + 1) % CAPACITY;
+        if (count < CAPACITY) {
+            count++;
+        }
+        if (count >= minSamples && (value < 0 || ++sinceRecompute >= RECOMPUTE_INTERVAL)) {
+            sinceRecompute = 0;
+            final long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            value = sorted[Math.max(0, Math.min(count - 1, (int) Math.ceil(percentile / 100 * count) - 1))];
+        }
+    }
+
+    /**
+     * @return the percentile in nanoseconds, or -1 if there are not enough samples yet
+     */
+    long get() {
+        return value;
+    }
+}
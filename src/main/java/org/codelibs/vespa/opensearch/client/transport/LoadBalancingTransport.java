@@ -0,0 +1,474 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+
+/**
+ * Transport spreading requests over several Vespa endpoints.
+ * An endpoint is chosen by the power of two choices: two random healthy endpoints are compared,
+ * and the one with fewer outstanding requests gets the request.
+ * Health is tracked passively from the responses: an endpoint failing ejectionFailureThreshold times in a row,
+ * or much slower than the others, is ejected for a while. The ejection time doubles when it is ejected again soon.
+ * If all endpoints are ejected, requests still go to the one whose ejection ends first.
+ * <p>
+ * Idempotent reads may also be hedged: when a read takes longer than a percentile of the recent latencies of its kind,
+ * it is sent again to another healthy endpoint, if there is one, and the first answer wins. Reads failing on the connection
+ * are retried after a jittered backoff.
+ */
+public class LoadBalancingTransport implements VespaTransport {
+
+    private static final Logger log = Logger.getLogger(LoadBalancingTransport.class.getName());
+
+    /** Weight of the latest sample in the average latency. */
+    private static final double LATENCY_DECAY = 0.1;
+
+    /** Number of samples before the latency of an endpoint is compared with the others. */
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    /** Latency differences below this are noise rather than a slow endpoint. */
+    private static final long MIN_SLOW_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final int MAX_EJECTION_DOUBLINGS = 6;
+
+    /** Number of samples before a hedge delay is derived from the latencies. */
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    /** Hedges are only sent while they stay below this share of all reads, so that an overloaded cluster gets no extra load. */
+    private static final double MAX_HEDGE_RATIO = 0.1;
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    private final int failureThreshold;
+
+    private final long ejectionNanos;
+
+    private final double latencyFactor;
+
+    private final double hedgeDelayPercentile;
+
+    private final long hedgeMinDelayNanos;
+
+    private final int readRetries;
+
+    private final long retryBackoffNanos;
+
+    /** Latency of reads by the first path segment, as document gets and searches differ a lot. */
+    private final Map<String, LatencyPercentile> readLatencies = new ConcurrentHashMap<>();
+
+    private final AtomicLong reads = new AtomicLong();
+
+    private final AtomicLong hedges = new AtomicLong();
+
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    public LoadBalancingTransport(final List<String> endpoints, final Function<String, VespaTransport> transportFactory,
+            final ProxyHandlerConfig config) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("No Vespa endpoint.");
+        }
+        for (final String endpoint : endpoints) {
+            nodes.add(new Node(endpoint, transportFactory.apply(endpoint)));
+        }
+        failureThreshold = config.ejectionFailureThreshold();
+        ejectionNanos = TimeUnit.MILLISECONDS.toNanos(AbstractHttpTransport.toMillis(config.ejectionDuration()));
+        latencyFactor = config.ejectionLatencyFactor();
+        hedgeDelayPercentile = config.hedgeDelayPercentile();
+        hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(AbstractHttpTransport.toMillis(config.hedgeMinDelay()));
+        readRetries = config.readRetries();
+        retryBackoffNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(AbstractHttpTransport.toMillis(config.retryBackoff())));
+    }
+
+    /**
+     * Whether requests to the endpoints need this transport, which is the case for several endpoints,
+     * or for one when reads are retried. A single endpoint has no other endpoint to hedge to.
+     */
+    public static boolean isRequired(final List<String> endpoints, final ProxyHandlerConfig config) {
+        return endpoints.size() > 1 || config.readRetries() > 0;
+    }
+
+    /**
+     * Creates the transport to the endpoints: this one if it is required, and otherwise the transport of the single endpoint.
+     */
+    public static VespaTransport create(final List<String> endpoints, final Function<String, VespaTransport> transportFactory,
+            final ProxyHandlerConfig config) {
+        if (!isRequired(endpoints, config)) {
+            return transportFactory.apply(endpoints.get(0));
+        }
+        return new LoadBalancingTransport(endpoints, transportFactory, config);
+    }
+
+    /**
+     * Splits a comma separated list of endpoints.
+     */
+    public static List<String> parseEndpoints(final String value) {
+        final List<String> endpoints = new ArrayList<>();
+        if (value != null) {
+            Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).forEach(endpoints::add);
+        }
+        return endpoints;
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+        if (!request.isIdempotent() || hedgeDelayPercentile <= 0 && readRetries <= 0) {
+            return execute(select(null), request);
+        }
+        return executeRead(request);
+    }
+
+    private CompletableFuture<TransportResponse> executeRead(final TransportRequest request) {
+        reads.incrementAndGet();
+        final LatencyPercentile latency = hedgeDelayPercentile > 0
+                ? readLatencies.computeIfAbsent(getKind(request), k -> new LatencyPercentile(hedgeDelayPercentile, MIN_HEDGE_SAMPLES))
+                : null;
+        final CompletableFuture<TransportResponse> result = new CompletableFuture<>();
+        // attempts which may still answer; the read fails when the last of them fails
+        final AtomicInteger attempts = new AtomicInteger(1);
+        final Node first = select(null);
+        final CompletableFuture<TransportResponse> primary = executeWithRetries(first, request, 0);
+        complete(result, primary, attempts, latency, false);
+
+        final long delay = latency != null ? latency.get() : -1;
+        if (delay >= 0) {
+            CompletableFuture.delayedExecutor(Math.max(delay, hedgeMinDelayNanos), TimeUnit.NANOSECONDS).execute(() -> {
+                if (result.isDone() || hedges.get() >= reads.get() * MAX_HEDGE_RATIO) {
+                    return;
+                }
+                final Node other = select(first);
+                if (other == first) {
+                    // no other healthy endpoint, and the same one would only get the read twice
+                    return;
+                }
+                attempts.incrementAndGet();
+                hedges.incrementAndGet();
+                log.log(Level.FINER, () -> "Hedging " + request + " sent to " + first.endpoint);
+                complete(result, executeWithRetries(other, request, 0), attempts, latency, true);
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Completes the read by the attempt if it answers first, and cancels the attempt if another one does.
+     * A cancelled attempt took at least as long as it ran, which is sampled as its latency, so that the hedge delay
+     * does not only learn from the attempts which were fast enough to win.
+     */
+    private void complete(final CompletableFuture<TransportResponse> result, final CompletableFuture<TransportResponse> attempt,
+            final AtomicInteger attempts, final LatencyPercentile latency, final boolean hedge) {
+        final long startTime = System.nanoTime();
+        attempt.whenComplete((response, t) -> {
+            if (t == null) {
+                if (latency != null) {
+                    latency.add(System.nanoTime() - startTime);
+                }
+                if (result.complete(response) && hedge) {
+                    hedgeWins.incrementAndGet();
+                }
+            } else if (attempts.decrementAndGet() == 0) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((response, t) -> {
+            if (!attempt.isDone()) {
+                if (latency != null) {
+                    latency.add(System.nanoTime() - startTime);
+                }
+                attempt.cancel(false);
+            }
+        });
+    }
+
+    /**
+     * Sends the request, and sends it again to another endpoint after a jittered backoff while it fails on the connection.
+     */
+    private CompletableFuture<TransportResponse> executeWithRetries(final Node node, final TransportRequest request, final int retry) {
+        final CompletableFuture<TransportResponse> result = new CompletableFuture<>();
+        final CompletableFuture<TransportResponse> attempt = execute(node, request);
+        result.whenComplete((response, t) -> {
+            if (result.isCancelled()) {
+                attempt.cancel(false);
+            }
+        });
+        attempt.whenComplete((response, t) -> {
+            if (t == null) {
+                result.complete(response);
+                return;
+            }
+            if (retry >= readRetries || result.isDone() || !isConnectionFailure(t)) {
+                result.completeExceptionally(t);
+                return;
+            }
+            retries.incrementAndGet();
+            // full jitter: spread the retries of many failed reads over the backoff window
+            final long backoff = ThreadLocalRandom.current().nextLong(retryBackoffNanos << Math.min(retry, 16)) + 1;
+            log.log(Level.FINE, () -> "Retrying " + request + " failed on " + node.endpoint + " in " + backoff + "ns: " + t);
+            CompletableFuture.delayedExecutor(backoff, TimeUnit.NANOSECONDS).execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                final CompletableFuture<TransportResponse> next = executeWithRetries(select(node), request, retry + 1);
+                result.whenComplete((r, e) -> {
+                    if (result.isCancelled()) {
+                        next.cancel(false);
+                    }
+                });
+                next.whenComplete((r, e) -> {
+                    if (e == null) {
+                        result.complete(r);
+                    } else {
+                        result.completeExceptionally(e);
+                    }
+                });
+            });
+        });
+        return result;
+    }
+
+    /**
+     * A connection refused, reset or closed means the request did not get an answer, so a read can safely be sent again.
+     * Timeouts are not retried, since the endpoint may still be working on it.
+     */
+    static boolean isConnectionFailure(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof InterruptedIOException) {
+                return false;
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getKind(final TransportRequest request) {
+        final String path = request.getPath();
+        final int end = path.indexOf('/');
+        return end < 0 ? path : path.substring(0, end);
+    }
+
+    CompletableFuture<TransportResponse> execute(final Node node, final TransportRequest request) {
+        node.outstanding.incrementAndGet();
+        final long startTime = System.nanoTime();
+        final CompletableFuture<TransportResponse> future;
+        try {
+            future = node.transport.executeAsync(request);
+        } catch (final RuntimeException e) {
+            node.outstanding.decrementAndGet();
+            onFailure(node);
+            return CompletableFuture.failedFuture(e);
+        }
+        // the endpoint is accounted on the future itself, as a dependent cancelled by the caller would skip it
+        final CompletableFuture<TransportResponse> result = new CompletableFuture<>();
+        future.whenComplete((response, t) -> {
+            node.outstanding.decrementAndGet();
+            if (t instanceof CancellationException) {
+                // given up by the caller, which says nothing about the endpoint
+                return;
+            }
+            if (t != null || isServerFailure(response.getHttpStatusCode())) {
+                onFailure(node);
+            } else {
+                onSuccess(node, System.nanoTime() - startTime);
+            }
+            if (t != null) {
+                result.completeExceptionally(t);
+            } else {
+                result.complete(response);
+            }
+        });
+        result.whenComplete((response, t) -> {
+            if (result.isCancelled()) {
+                future.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Bad gateway, unavailable and gateway timeout mean the container node cannot serve requests.
+     * Other statuses, including 429 and 500, are answers to the request itself.
+     */
+    private static boolean isServerFailure(final int status) {
+        return status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * @param avoid the endpoint a previous attempt of the request went to, which is only chosen if no other is healthy
+     */
+    Node select(final Node avoid) {
+        final long now = System.nanoTime();
+        final List<Node> healthy = new ArrayList<>(nodes.size());
+        for (final Node node : nodes) {
+            if (!node.isEjected(now)) {
+                healthy.add(node);
+            }
+        }
+        if (avoid != null && healthy.size() > 1) {
+            healthy.remove(avoid);
+        }
+        if (healthy.isEmpty()) {
+            Node first = nodes.get(0);
+            for (final Node node : nodes) {
+                if (node.ejectedUntil < first.ejectedUntil) {
+                    first = node;
+                }
+            }
+            return first;
+        }
+        if (healthy.size() == 1) {
+            return healthy.get(0);
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int i = random.nextInt(healthy.size());
+        int j = random.nextInt(healthy.size() - 1);
+        if (j >= i) {
+            j++;
+        }
+        final Node a = healthy.get(i);
+        final Node b = healthy.get(j);
+        // a tie goes to the random first choice, so every healthy endpoint keeps getting requests and latency samples
+        return a.outstanding.get() <= b.outstanding.get() ? a : b;
+    }
+
+    private void onSuccess(final Node node, final long latencyNanos) {
+        node.consecutiveFailures.set(0);
+        synchronized (node) {
+            node.latencyNanos = node.samples == 0 ? latencyNanos : (1 - LATENCY_DECAY) * node.latencyNanos + LATENCY_DECAY * latencyNanos;
+            node.samples++;
+        }
+        if (latencyFactor > 0 && node.samples >= MIN_LATENCY_SAMPLES && nodes.size() > 1) {
+            final double median = medianLatency();
+            if (node.latencyNanos > median * latencyFactor && node.latencyNanos - median > MIN_SLOW_LATENCY_NANOS) {
+                eject(node, "average latency " + TimeUnit.NANOSECONDS.toMillis((long) node.latencyNanos) + "ms");
+            }
+        }
+    }
+
+    private void onFailure(final Node node) {
+        node.failures.incrementAndGet();
+        if (node.consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            eject(node, node.consecutiveFailures.get() + " consecutive failures");
+        }
+    }
+
+    private double medianLatency() {
+        final double[] latencies = nodes.stream().filter(n -> n.samples > 0).mapToDouble(n -> n.latencyNanos).sorted().toArray();
+        if (latencies.length == 0) {
+            return 0;
+        }
+        return latencies[latencies.length / 2];
+    }
+
+    private void eject(final Node node, final String reason) {
+        final long now = System.nanoTime();
+        synchronized (node) {
+            if (node.isEjected(now)) {
+                return;
+            }
+            // ejected again shortly after the last ejection ended
+            if (node.ejections > 0 && now - node.ejectedUntil < node.lastEjectionNanos) {
+                node.doublings = Math.min(node.doublings + 1, MAX_EJECTION_DOUBLINGS);
+            } else {
+                node.doublings = 0;
+            }
+            node.lastEjectionNanos = ejectionNanos << node.doublings;
+            node.ejectedUntil = now + node.lastEjectionNanos;
+            node.ejections++;
+            node.consecutiveFailures.set(0);
+            // start measuring again when it comes back
+            node.samples = 0;
+        }
+        log.log(Level.WARNING, () -> "Ejected " + node.endpoint + " for " + TimeUnit.NANOSECONDS.toMillis(node.lastEjectionNanos)
+                + "ms: " + reason);
+    }
+
+    List<Node> getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        final long now = System.nanoTime();
+        final List<Map<String, Object>> endpoints = new ArrayList<>();
+        for (final Node node : nodes) {
+            final Map<String, Object> stats = new HashMap<>();
+            stats.put("endpoint", node.endpoint);
+            stats.put("outstanding", node.outstanding.get());
+            stats.put("latency_ms", TimeUnit.NANOSECONDS.toMillis((long) node.latencyNanos));
+            stats.put("failures", node.failures.get());
+            stats.put("ejected", node.isEjected(now));
+            stats.put("ejections", node.ejections);
+            stats.put("transport", node.transport.getStats());
+            endpoints.add(stats);
+        }
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("policy", "power_of_two_choices");
+        stats.put("endpoints", endpoints);
+        final Map<String, Object> hedgeDelays = new HashMap<>();
+        readLatencies.forEach((kind, latency) -> hedgeDelays.put(kind, TimeUnit.NANOSECONDS.toMillis(Math.max(latency.get(), 0))));
+        stats.put("reads", Map.of("total", reads.get(), "hedges", hedges.get(), "hedge_wins", hedgeWins.get(), "retries", retries.get(),
+                "hedge_delay_ms", hedgeDelays));
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        for (final Node node : nodes) {
+            node.transport.close();
+        }
+    }
+
+    static class Node {
+
+        final String endpoint;
+
+        final VespaTransport transport;
+
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        final AtomicLong failures = new AtomicLong();
+
+        volatile double latencyNanos;
+
+        volatile int samples;
+
+        volatile long ejectedUntil = Long.MIN_VALUE;
+
+        long lastEjectionNanos;
+
+        int doublings;
+
+        int ejections;
+
+        Node(final String endpoint, final VespaTransport transport) {
+            this.endpoint = endpoint;
+            this.transport = transport;
+        }
+
+        boolean isEjected(final long now) {
+            return ejectedUntil != Long.MIN_VALUE && now - ejectedUntil < 0;
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+
+/**
+ * Transport with a bounded pool of keep-alive connections to one Vespa endpoint.
+ * Requests are sent by a non-blocking client, so waiting for Vespa does not hold a thread unless the caller blocks.
+ */
+public class PooledHttpTransport extends AbstractHttpTransport {
+
+    private final PoolingAsyncClientConnectionManager connectionManager;
+
+    private final CloseableHttpAsyncClient httpClient;
+
+    public PooledHttpTransport(final String endpoint, final ProxyHandlerConfig config) {
+        super(endpoint);
+
+        connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()//
+                .setMaxConnTotal(config.maxConnections())//
+                .setMaxConnPerRoute(config.maxConnections())//
+                .setDefaultConnectionConfig(ConnectionConfig.custom()//
+                        .setConnectTimeout(toTimeout(config.connectTimeout()))//
+                        .setSocketTimeout(toTimeout(config.readTimeout()))//
+                        .build())//
+                .build();
+        httpClient = HttpAsyncClients.custom()//
+                .setConnectionManager(connectionManager)//
+                .setDefaultRequestConfig(RequestConfig.custom()//
+                        .setConnectionRequestTimeout(toTimeout(config.connectionRequestTimeout()))//
+                        .setResponseTimeout(toTimeout(config.readTimeout()))//
+                        .build())//
+                .evictIdleConnections(TimeValue.ofMilliseconds(toMillis(config.connectionIdleTimeout())))//
+                .evictExpiredConnections()//
+                .disableAutomaticRetries()//
+                .disableCookieManagement()//
+                .build();
+        httpClient.start();
+    }
+
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+        return execute(httpClient, request);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        final PoolStats poolStats = connectionManager.getTotalStats();
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("endpoint", endpoint);
+        stats.put("max", poolStats.getMax());
+        stats.put("active", poolStats.getLeased());
+        stats.put("idle", poolStats.getAvailable());
+        stats.put("pending", poolStats.getPending());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+public class TransportRequest {
+
+    public enum Method {
+        GET, POST, PUT, DELETE
+    }
+
+    private final Method method;
+
+    private final String path;
+
+    private final byte[] body;
+
+    private final boolean idempotent;
+
+    protected TransportRequest(final Method method, final String path, final byte[] body) {
+        this(method, path, body, method == Method.GET);
+    }
+
+    protected TransportRequest(final Method method, final String path, final byte[] body, final boolean idempotent) {
+        this.method = method;
+        this.path = path;
+        this.body = body;
+        this.idempotent = idempotent;
+    }
+
+    public static TransportRequest get(final String path) {
+        return new TransportRequest(Method.GET, path, null);
+    }
+
+    public static TransportRequest post(final String path, final byte[] body) {
+        return new TransportRequest(Method.POST, path, body);
+    }
+
+    /**
+     * Creates a POST request which only reads, such as a query with a JSON body, so that it may be hedged or retried like a GET.
+     */
+    public static TransportRequest query(final String path, final byte[] body) {
+        return new TransportRequest(Method.POST, path, body, true);
+    }
+
+    public static TransportRequest put(final String path, final byte[] body) {
+        return new TransportRequest(Method.PUT, path, body);
+    }
+
+    public static TransportRequest delete(final String path) {
+        return new TransportRequest(Method.DELETE, path, null);
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the path relative to the endpoint, such as "document/v1/..." or "search/?..."
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the JSON body, or null if the request has no body
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return whether sending the request more than once has no further effect, so that it may be hedged or retried
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + path;
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+public class TransportResponse {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int httpStatusCode;
+
+    private final byte[] content;
+
+    public TransportResponse(final int httpStatusCode, final byte[] content) {
+        this.httpStatusCode = httpStatusCode;
+        this.content = content != null ? content : EMPTY;
+    }
+
+    public int getHttpStatusCode() {
+        return httpStatusCode;
+    }
+
+    public InputStream getContentAsStream() {
+        return new ByteArrayInputStream(content);
+    }
+
+    public String getContentAsString() {
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+    public <T> T getContent(final Function<TransportResponse, T> parser) {
+        return parser.apply(this);
+    }
+
+    public int getContentLength() {
+        return content.length;
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Sends requests to a Vespa endpoint.
+ * VespaClient builds the Vespa requests and leaves connection handling to an implementation of this interface.
+ */
+public interface VespaTransport extends Closeable {
+
+    /**
+     * Sends the request without blocking the calling thread.
+     * The returned future fails with an IOException if the request could not be sent or the response could not be read.
+     *
+     * @param request the request, with a path relative to the endpoint
+     * @return the future completed with the response
+     */
+    CompletableFuture<TransportResponse> executeAsync(TransportRequest request);
+
+    /**
+     * Sends the request and waits for the whole response.
+     *
+     * @param request the request, with a path relative to the endpoint
+     * @return the response
+     * @throws IOException if the request could not be sent or the response could not be read
+     */
+    default TransportResponse execute(final TransportRequest request) throws IOException {
+        try {
+            return executeAsync(request).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Failed to execute " + request, cause);
+        }
+    }
+
+    /**
+     * Returns statistics of this transport, such as connection pool usage.
+     *
+     * @return the statistics
+     */
+    Map<String, Object> getStats();
+
+    @Override
+    void close();
+
+}
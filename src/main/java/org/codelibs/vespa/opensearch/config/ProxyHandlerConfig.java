@@ -12,6 +12,58 @@ public class ProxyHandlerConfig {
     private final String vespaEndpoint;
     private final String documentType;
     private final String pathPrefix;
+    private final int maxConnections;
+    private final double connectionIdleTimeout;
+    private final double connectTimeout;
+    private final double readTimeout;
+    private final double connectionRequestTimeout;
+    private final DocumentBackend.Enum documentBackend;
+    private final SearchBackend.Enum searchBackend;
+    private final String searchChain;
+    private final FeedProtocol.Enum feedProtocol;
+    private final int feedConnections;
+    private final int feedMaxStreamsPerConnection;
+    private final int ejectionFailureThreshold;
+    private final double ejectionDuration;
+    private final double ejectionLatencyFactor;
+    private final int concurrencyInitialLimit;
+    private final int concurrencyMinLimit;
+    private final int concurrencyMaxLimit;
+    private final int circuitBreakerFailureThreshold;
+    private final double circuitBreakerOpenDuration;
+    private final double hedgeDelayPercentile;
+    private final double hedgeMinDelay;
+    private final int readRetries;
+    private final double retryBackoff;
+    private final double writeRetryTimeout;
+    private final int writeRetryQueueSize;
+    private final double writeRetryBackoff;
+    private final int feedWindowInitialSize;
+    private final int feedWindowMinSize;
+    private final int feedWindowMaxSize;
+    private final double feedWindowLatencyFactor;
+    private final int feedWindowMaxQueued;
+    private final int bulkConcurrency;
+    private final int writeLanes;
+    private final double writeCoalesceWindow;
+    private final int taskConcurrency;
+    private final int taskQueueSize;
+    private final long taskSpoolMaxBytes;
+    private final String idempotencyKeyHeader;
+    private final double idempotencyKeyTtl;
+    private final double idempotencyWaitTimeout;
+    private final int idempotencyMaxKeys;
+    private final long idempotencyMaxBytes;
+    private final double bulkMemoryLimit;
+    private final double bulkIndexMemoryLimit;
+    private final int bulkMaxOperations;
+    private final String ingestLogDirectory;
+    private final long ingestLogSegmentSize;
+    private final double ingestLogSyncInterval;
+    private final int ingestLogDrainConcurrency;
+    private final long ingestLogMaxBytes;
+    private final String remoteClusters;
+    private final double remoteClusterTimeout;
 
     /**
      * Constructor for manual configuration.
@@ -20,9 +72,69 @@ public class ProxyHandlerConfig {
      * @param pathPrefix The path prefix for the proxy handler
      */
     public ProxyHandlerConfig(String vespaEndpoint, String documentType, String pathPrefix) {
-        this.vespaEndpoint = vespaEndpoint != null ? vespaEndpoint : "http://localhost:8080";
-        this.documentType = documentType != null ? documentType : "doc";
-        this.pathPrefix = pathPrefix != null ? pathPrefix : "/";
+        this(new Builder().vespaEndpoint(vespaEndpoint).documentType(documentType).pathPrefix(pathPrefix));
+    }
+
+    /**
+     * Constructor from a builder, as provided by the generated config class.
+     * @param builder The builder holding the configured values
+     */
+    public ProxyHandlerConfig(Builder builder) {
+        this.vespaEndpoint = builder.vespaEndpoint != null ? builder.vespaEndpoint : "http://localhost:8080";
+        this.documentType = builder.documentType != null ? builder.documentType : "doc";
+        this.pathPrefix = builder.pathPrefix != null ? builder.pathPrefix : "/";
+        this.maxConnections = builder.maxConnections;
+        this.connectionIdleTimeout = builder.connectionIdleTimeout;
+        this.connectTimeout = builder.connectTimeout;
+        this.readTimeout = builder.readTimeout;
+        this.connectionRequestTimeout = builder.connectionRequestTimeout;
+        this.documentBackend = builder.documentBackend != null ? builder.documentBackend : DocumentBackend.HTTP;
+        this.searchBackend = builder.searchBackend != null ? builder.searchBackend : SearchBackend.HTTP;
+        this.searchChain = builder.searchChain != null ? builder.searchChain : "vespa";
+        this.feedProtocol = builder.feedProtocol != null ? builder.feedProtocol : FeedProtocol.HTTP_1_1;
+        this.feedConnections = builder.feedConnections;
+        this.feedMaxStreamsPerConnection = builder.feedMaxStreamsPerConnection;
+        this.ejectionFailureThreshold = builder.ejectionFailureThreshold;
+        this.ejectionDuration = builder.ejectionDuration;
+        this.ejectionLatencyFactor = builder.ejectionLatencyFactor;
+        this.concurrencyInitialLimit = builder.concurrencyInitialLimit;
+        this.concurrencyMinLimit = builder.concurrencyMinLimit;
+        this.concurrencyMaxLimit = builder.concurrencyMaxLimit;
+        this.circuitBreakerFailureThreshold = builder.circuitBreakerFailureThreshold;
+        this.circuitBreakerOpenDuration = builder.circuitBreakerOpenDuration;
+        this.hedgeDelayPercentile = builder.hedgeDelayPercentile;
+        this.hedgeMinDelay = builder.hedgeMinDelay;
+        this.readRetries = builder.readRetries;
+        this.retryBackoff = builder.retryBackoff;
+        this.writeRetryTimeout = builder.writeRetryTimeout;
+        this.writeRetryQueueSize = builder.writeRetryQueueSize;
+        this.writeRetryBackoff = builder.writeRetryBackoff;
+        this.feedWindowInitialSize = builder.feedWindowInitialSize;
+        this.feedWindowMinSize = builder.feedWindowMinSize;
+        this.feedWindowMaxSize = builder.feedWindowMaxSize;
+        this.feedWindowLatencyFactor = builder.feedWindowLatencyFactor;
+        this.feedWindowMaxQueued = builder.feedWindowMaxQueued;
+        this.bulkConcurrency = builder.bulkConcurrency;
+        this.writeLanes = builder.writeLanes;
+        this.writeCoalesceWindow = builder.writeCoalesceWindow;
+        this.taskConcurrency = builder.taskConcurrency;
+        this.taskQueueSize = builder.taskQueueSize;
+        this.taskSpoolMaxBytes = builder.taskSpoolMaxBytes;
+        this.idempotencyKeyHeader = builder.idempotencyKeyHeader != null ? builder.idempotencyKeyHeader : "";
+        this.idempotencyKeyTtl = builder.idempotencyKeyTtl;
+        this.idempotencyWaitTimeout = builder.idempotencyWaitTimeout;
+        this.idempotencyMaxKeys = builder.idempotencyMaxKeys;
+        this.idempotencyMaxBytes = builder.idempotencyMaxBytes;
+        this.bulkMemoryLimit = builder.bulkMemoryLimit;
+        this.bulkIndexMemoryLimit = builder.bulkIndexMemoryLimit;
+        this.bulkMaxOperations = builder.bulkMaxOperations;
+        this.ingestLogDirectory = builder.ingestLogDirectory != null ? builder.ingestLogDirectory : "";
+        this.ingestLogSegmentSize = builder.ingestLogSegmentSize;
+        this.ingestLogSyncInterval = builder.ingestLogSyncInterval;
+        this.ingestLogDrainConcurrency = builder.ingestLogDrainConcurrency;
+        this.ingestLogMaxBytes = builder.ingestLogMaxBytes;
+        this.remoteClusters = builder.remoteClusters != null ? builder.remoteClusters : "";
+        this.remoteClusterTimeout = builder.remoteClusterTimeout;
     }
 
     /**
@@ -32,6 +144,42 @@ public class ProxyHandlerConfig {
         this("http://localhost:8080", "doc", "/");
     }
 
+    /**
+     * How document operations reach Vespa, mirroring the generated enum class.
+     */
+    public static class DocumentBackend {
+        public enum Enum {
+            HTTP, DOCUMENT_ACCESS
+        }
+
+        public static final Enum HTTP = Enum.HTTP;
+        public static final Enum DOCUMENT_ACCESS = Enum.DOCUMENT_ACCESS;
+    }
+
+    /**
+     * How queries reach Vespa, mirroring the generated enum class.
+     */
+    public static class SearchBackend {
+        public enum Enum {
+            HTTP, EXECUTION
+        }
+
+        public static final Enum HTTP = Enum.HTTP;
+        public static final Enum EXECUTION = Enum.EXECUTION;
+    }
+
+    /**
+     * Protocol of document operations, mirroring the generated enum class.
+     */
+    public static class FeedProtocol {
+        public enum Enum {
+            HTTP_1_1, HTTP_2
+        }
+
+        public static final Enum HTTP_1_1 = Enum.HTTP_1_1;
+        public static final Enum HTTP_2 = Enum.HTTP_2;
+    }
+
     /**
      * Builder for fluent configuration.
      */
@@ -39,6 +187,58 @@ public class ProxyHandlerConfig {
         private String vespaEndpoint = "http://localhost:8080";
         private String documentType = "doc";
         private String pathPrefix = "/";
+        private int maxConnections = 128;
+        private double connectionIdleTimeout = 30.0;
+        private double connectTimeout = 5.0;
+        private double readTimeout = 60.0;
+        private double connectionRequestTimeout = 10.0;
+        private DocumentBackend.Enum documentBackend = DocumentBackend.HTTP;
+        private SearchBackend.Enum searchBackend = SearchBackend.HTTP;
+        private String searchChain = "vespa";
+        private FeedProtocol.Enum feedProtocol = FeedProtocol.HTTP_1_1;
+        private int feedConnections = 1;
+        private int feedMaxStreamsPerConnection = 256;
+        private int ejectionFailureThreshold = 3;
+        private double ejectionDuration = 10.0;
+        private double ejectionLatencyFactor = 5.0;
+        private int concurrencyInitialLimit = 32;
+        private int concurrencyMinLimit = 4;
+        private int concurrencyMaxLimit = 0;
+        private int circuitBreakerFailureThreshold = 20;
+        private double circuitBreakerOpenDuration = 5.0;
+        private double hedgeDelayPercentile = 0.0;
+        private double hedgeMinDelay = 0.01;
+        private int readRetries = 0;
+        private double retryBackoff = 0.05;
+        private double writeRetryTimeout = 10.0;
+        private int writeRetryQueueSize = 1000;
+        private double writeRetryBackoff = 0.1;
+        private int feedWindowInitialSize = 16;
+        private int feedWindowMinSize = 1;
+        private int feedWindowMaxSize = 256;
+        private double feedWindowLatencyFactor = 3.0;
+        private int feedWindowMaxQueued = 4096;
+        private int bulkConcurrency = 64;
+        private int writeLanes = 1024;
+        private double writeCoalesceWindow = 0.0;
+        private int taskConcurrency = 2;
+        private int taskQueueSize = 16;
+        private long taskSpoolMaxBytes = 1024L * 1024 * 1024;
+        private String idempotencyKeyHeader = "Idempotency-Key";
+        private double idempotencyKeyTtl = 300.0;
+        private double idempotencyWaitTimeout = 1.0;
+        private int idempotencyMaxKeys = 10000;
+        private long idempotencyMaxBytes = 67108864L;
+        private double bulkMemoryLimit = 0.1;
+        private double bulkIndexMemoryLimit = 1.0;
+        private int bulkMaxOperations = 100000;
+        private String ingestLogDirectory = "";
+        private long ingestLogSegmentSize = 64L * 1024 * 1024;
+        private double ingestLogSyncInterval = 0.005;
+        private int ingestLogDrainConcurrency = 64;
+        private long ingestLogMaxBytes = 1024L * 1024 * 1024;
+        private String remoteClusters = "";
+        private double remoteClusterTimeout = 30.0;
 
         public Builder vespaEndpoint(String vespaEndpoint) {
             this.vespaEndpoint = vespaEndpoint;
@@ -55,13 +255,273 @@ public class ProxyHandlerConfig {
             return this;
         }
 
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder connectionIdleTimeout(double connectionIdleTimeout) {
+            this.connectionIdleTimeout = connectionIdleTimeout;
+            return this;
+        }
+
+        public Builder connectTimeout(double connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder readTimeout(double readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder connectionRequestTimeout(double connectionRequestTimeout) {
+            this.connectionRequestTimeout = connectionRequestTimeout;
+            return this;
+        }
+
+        public Builder documentBackend(DocumentBackend.Enum documentBackend) {
+            this.documentBackend = documentBackend;
+            return this;
+        }
+
+        public Builder searchBackend(SearchBackend.Enum searchBackend) {
+            this.searchBackend = searchBackend;
+            return this;
+        }
+
+        public Builder searchChain(String searchChain) {
+            this.searchChain = searchChain;
+            return this;
+        }
+
+        public Builder feedProtocol(FeedProtocol.Enum feedProtocol) {
+            this.feedProtocol = feedProtocol;
+            return this;
+        }
+
+        public Builder feedConnections(int feedConnections) {
+            this.feedConnections = feedConnections;
+            return this;
+        }
+
+        public Builder feedMaxStreamsPerConnection(int feedMaxStreamsPerConnection) {
+            this.feedMaxStreamsPerConnection = feedMaxStreamsPerConnection;
+            return this;
+        }
+
+        public Builder ejectionFailureThreshold(int ejectionFailureThreshold) {
+            this.ejectionFailureThreshold = ejectionFailureThreshold;
+            return this;
+        }
+
+        public Builder ejectionDuration(double ejectionDuration) {
+            this.ejectionDuration = ejectionDuration;
+            return this;
+        }
+
+        public Builder ejectionLatencyFactor(double ejectionLatencyFactor) {
+            this.ejectionLatencyFactor = ejectionLatencyFactor;
+            return this;
+        }
+
+        public Builder concurrencyInitialLimit(int concurrencyInitialLimit) {
+            this.concurrencyInitialLimit = concurrencyInitialLimit;
+            return this;
+        }
+
+        public Builder concurrencyMinLimit(int concurrencyMinLimit) {
+            this.concurrencyMinLimit = concurrencyMinLimit;
+            return this;
+        }
+
+        public Builder concurrencyMaxLimit(int concurrencyMaxLimit) {
+            this.concurrencyMaxLimit = concurrencyMaxLimit;
+            return this;
+        }
+
+        public Builder circuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+            this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+            return this;
+        }
+
+        public Builder circuitBreakerOpenDuration(double circuitBreakerOpenDuration) {
+            this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+            return this;
+        }
+
+        public Builder hedgeDelayPercentile(double hedgeDelayPercentile) {
+            this.hedgeDelayPercentile = hedgeDelayPercentile;
+            return this;
+        }
+
+        public Builder hedgeMinDelay(double hedgeMinDelay) {
+            this.hedgeMinDelay = hedgeMinDelay;
+            return this;
+        }
+
+        public Builder readRetries(int readRetries) {
+            this.readRetries = readRetries;
+            return this;
+        }
+
+        public Builder retryBackoff(double retryBackoff) {
+            this.retryBackoff = retryBackoff;
+            return this;
+        }
+
+        public Builder writeRetryTimeout(double writeRetryTimeout) {
+            this.writeRetryTimeout = writeRetryTimeout;
+            return this;
+        }
+
+        public Builder writeRetryQueueSize(int writeRetryQueueSize) {
+            this.writeRetryQueueSize = writeRetryQueueSize;
+            return this;
+        }
+
+        public Builder writeRetryBackoff(double writeRetryBackoff) {
+            this.writeRetryBackoff = writeRetryBackoff;
+            return this;
+        }
+
+        public Builder feedWindowInitialSize(int feedWindowInitialSize) {
+            this.feedWindowInitialSize = feedWindowInitialSize;
+            return this;
+        }
+
+        public Builder feedWindowMinSize(int feedWindowMinSize) {
+            this.feedWindowMinSize = feedWindowMinSize;
+            return this;
+        }
+
+        public Builder feedWindowMaxSize(int feedWindowMaxSize) {
+            this.feedWindowMaxSize = feedWindowMaxSize;
+            return this;
+        }
+
+        public Builder feedWindowLatencyFactor(double feedWindowLatencyFactor) {
+            this.feedWindowLatencyFactor = feedWindowLatencyFactor;
+            return this;
+        }
+
+        public Builder feedWindowMaxQueued(int feedWindowMaxQueued) {
+            this.feedWindowMaxQueued = feedWindowMaxQueued;
+            return this;
+        }
+
+        public Builder bulkConcurrency(int bulkConcurrency) {
+            this.bulkConcurrency = bulkConcurrency;
+            return this;
+        }
+
+        public Builder writeLanes(int writeLanes) {
+            this.writeLanes = writeLanes;
+            return this;
+        }
+
+        public Builder writeCoalesceWindow(double writeCoalesceWindow) {
+            this.writeCoalesceWindow = writeCoalesceWindow;
+            return this;
+        }
+
+        public Builder taskConcurrency(int taskConcurrency) {
+            this.taskConcurrency = taskConcurrency;
+            return this;
+        }
+
+        public Builder taskQueueSize(int taskQueueSize) {
+            this.taskQueueSize = taskQueueSize;
+            return this;
+        }
+
+        public Builder taskSpoolMaxBytes(long taskSpoolMaxBytes) {
+            this.taskSpoolMaxBytes = taskSpoolMaxBytes;
+            return this;
+        }
+
+        public Builder idempotencyKeyHeader(String idempotencyKeyHeader) {
+            this.idempotencyKeyHeader = idempotencyKeyHeader;
+            return this;
+        }
+
+        public Builder idempotencyKeyTtl(double idempotencyKeyTtl) {
+            this.idempotencyKeyTtl = idempotencyKeyTtl;
+            return this;
+        }
+
+        public Builder idempotencyWaitTimeout(double idempotencyWaitTimeout) {
+            this.idempotencyWaitTimeout = idempotencyWaitTimeout;
+            return this;
+        }
+
+        public Builder idempotencyMaxKeys(int idempotencyMaxKeys) {
+            this.idempotencyMaxKeys = idempotencyMaxKeys;
+            return this;
+        }
+
+        public Builder idempotencyMaxBytes(long idempotencyMaxBytes) {
+            this.idempotencyMaxBytes = idempotencyMaxBytes;
+            return this;
+        }
+
+        public Builder bulkMemoryLimit(double bulkMemoryLimit) {
+            this.bulkMemoryLimit = bulkMemoryLimit;
+            return this;
+        }
+
+        public Builder bulkIndexMemoryLimit(double bulkIndexMemoryLimit) {
+            this.bulkIndexMemoryLimit = bulkIndexMemoryLimit;
+            return this;
+        }
+
+        public Builder bulkMaxOperations(int bulkMaxOperations) {
+            this.bulkMaxOperations = bulkMaxOperations;
+            return this;
+        }
+
+        public Builder ingestLogDirectory(String ingestLogDirectory) {
+            this.ingestLogDirectory = ingestLogDirectory;
+            return this;
+        }
+
+        public Builder ingestLogSegmentSize(long ingestLogSegmentSize) {
+            this.ingestLogSegmentSize = ingestLogSegmentSize;
+            return this;
+        }
+
+        public Builder ingestLogSyncInterval(double ingestLogSyncInterval) {
+            this.ingestLogSyncInterval = ingestLogSyncInterval;
+            return this;
+        }
+
+        public Builder ingestLogDrainConcurrency(int ingestLogDrainConcurrency) {
+            this.ingestLogDrainConcurrency = ingestLogDrainConcurrency;
+            return this;
+        }
+
+        public Builder ingestLogMaxBytes(long ingestLogMaxBytes) {
+            this.ingestLogMaxBytes = ingestLogMaxBytes;
+            return this;
+        }
+
+        public Builder remoteClusters(String remoteClusters) {
+            this.remoteClusters = remoteClusters;
+            return this;
+        }
+
+        public Builder remoteClusterTimeout(double remoteClusterTimeout) {
+            this.remoteClusterTimeout = remoteClusterTimeout;
+            return this;
+        }
+
         public ProxyHandlerConfig build() {
-            return new ProxyHandlerConfig(vespaEndpoint, documentType, pathPrefix);
+            return new ProxyHandlerConfig(this);
         }
     }
 
     /**
-     * Get the Vespa endpoint URL.
+     * Get the Vespa endpoint URL, or a comma separated list of them.
      * @return the Vespa endpoint
      */
     public String vespaEndpoint() {
@@ -83,4 +543,420 @@ public class ProxyHandlerConfig {
     public String pathPrefix() {
         return pathPrefix;
     }
+
+    /**
+     * Get the maximum number of pooled connections per Vespa endpoint.
+     * @return the maximum number of connections
+     */
+    public int maxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Get the idle time in seconds after which a pooled connection is evicted.
+     * @return the idle timeout in seconds
+     */
+    public double connectionIdleTimeout() {
+        return connectionIdleTimeout;
+    }
+
+    /**
+     * Get the connect timeout in seconds.
+     * @return the connect timeout in seconds
+     */
+    public double connectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Get the read timeout in seconds.
+     * @return the read timeout in seconds
+     */
+    public double readTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Get the time in seconds a request may wait for a pooled connection.
+     * @return the connection request timeout in seconds
+     */
+    public double connectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    /**
+     * Get how document operations reach Vespa.
+     * @return the document backend
+     */
+    public DocumentBackend.Enum documentBackend() {
+        return documentBackend;
+    }
+
+    /**
+     * Get how queries reach Vespa.
+     * @return the search backend
+     */
+    public SearchBackend.Enum searchBackend() {
+        return searchBackend;
+    }
+
+    /**
+     * Get the search chain for in-process queries.
+     * @return the search chain name
+     */
+    public String searchChain() {
+        return searchChain;
+    }
+
+    /**
+     * Get the protocol of Document V1 API requests.
+     * @return the feed protocol
+     */
+    public FeedProtocol.Enum feedProtocol() {
+        return feedProtocol;
+    }
+
+    /**
+     * Get the number of HTTP/2 connections per Vespa endpoint for document operations.
+     * @return the number of feed connections
+     */
+    public int feedConnections() {
+        return feedConnections;
+    }
+
+    /**
+     * Get the maximum number of concurrent streams per HTTP/2 connection.
+     * @return the maximum number of streams
+     */
+    public int feedMaxStreamsPerConnection() {
+        return feedMaxStreamsPerConnection;
+    }
+
+    /**
+     * Get the number of consecutive failures after which an endpoint is ejected.
+     * @return the failure threshold
+     */
+    public int ejectionFailureThreshold() {
+        return ejectionFailureThreshold;
+    }
+
+    /**
+     * Get the time in seconds an ejected endpoint receives no requests.
+     * @return the ejection duration in seconds
+     */
+    public double ejectionDuration() {
+        return ejectionDuration;
+    }
+
+    /**
+     * Get the factor of the median latency above which an endpoint is ejected.
+     * @return the latency factor, or 0 if slow endpoints are not ejected
+     */
+    public double ejectionLatencyFactor() {
+        return ejectionLatencyFactor;
+    }
+
+    /**
+     * Get the initial concurrency limit of upstream calls per operation type.
+     * @return the initial limit
+     */
+    public int concurrencyInitialLimit() {
+        return concurrencyInitialLimit;
+    }
+
+    /**
+     * Get the lower bound of the adaptive concurrency limit.
+     * @return the minimum limit
+     */
+    public int concurrencyMinLimit() {
+        return concurrencyMinLimit;
+    }
+
+    /**
+     * Get the upper bound of the adaptive concurrency limit.
+     * @return the maximum limit, or 0 if calls are not limited
+     */
+    public int concurrencyMaxLimit() {
+        return concurrencyMaxLimit;
+    }
+
+    /**
+     * Get the number of consecutive failures which open the circuit breaker of an operation type.
+     * @return the failure threshold, or 0 if the breaker never opens
+     */
+    public int circuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * Get the time in seconds an open circuit breaker rejects calls.
+     * @return the open duration in seconds
+     */
+    public double circuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    /**
+     * Get the latency percentile after which an idempotent read is hedged to another endpoint.
+     * @return the percentile, or 0 if reads are not hedged
+     */
+    public double hedgeDelayPercentile() {
+        return hedgeDelayPercentile;
+    }
+
+    /**
+     * Get the lower bound in seconds of the hedge delay.
+     * @return the minimum hedge delay in seconds
+     */
+    public double hedgeMinDelay() {
+        return hedgeMinDelay;
+    }
+
+    /**
+     * Get the number of retries of an idempotent read after a connection failure.
+     * @return the number of retries
+     */
+    public int readRetries() {
+        return readRetries;
+    }
+
+    /**
+     * Get the base backoff in seconds before a retry.
+     * @return the base backoff in seconds
+     */
+    public double retryBackoff() {
+        return retryBackoff;
+    }
+
+    /**
+     * Get the time in seconds a write throttled by Vespa is retried within a bulk request.
+     * @return the retry timeout in seconds, or 0 if throttled writes are not retried
+     */
+    public double writeRetryTimeout() {
+        return writeRetryTimeout;
+    }
+
+    /**
+     * Get the maximum number of throttled writes parked for retry per bulk request.
+     * @return the retry queue size
+     */
+    public int writeRetryQueueSize() {
+        return writeRetryQueueSize;
+    }
+
+    /**
+     * Get the base backoff in seconds before throttled writes are sent again.
+     * @return the base backoff in seconds
+     */
+    public double writeRetryBackoff() {
+        return writeRetryBackoff;
+    }
+
+    /**
+     * Get the initial size of the window of in-flight document writes.
+     * @return the initial window size
+     */
+    public int feedWindowInitialSize() {
+        return feedWindowInitialSize;
+    }
+
+    /**
+     * Get the lower bound of the window of in-flight document writes.
+     * @return the minimum window size
+     */
+    public int feedWindowMinSize() {
+        return feedWindowMinSize;
+    }
+
+    /**
+     * Get the upper bound of the window of in-flight document writes.
+     * @return the maximum window size, or 0 if writes are not windowed
+     */
+    public int feedWindowMaxSize() {
+        return feedWindowMaxSize;
+    }
+
+    /**
+     * Get the factor of the base latency above which a write shrinks the feed window.
+     * @return the latency factor, or 0 if latency does not shrink the window
+     */
+    public double feedWindowLatencyFactor() {
+        return feedWindowLatencyFactor;
+    }
+
+    /**
+     * Get the maximum number of writes waiting for the feed window.
+     * @return the maximum number of waiting writes
+     */
+    public int feedWindowMaxQueued() {
+        return feedWindowMaxQueued;
+    }
+
+    /**
+     * Get the maximum number of operations of one bulk request in flight at once.
+     * @return the bulk concurrency
+     */
+    public int bulkConcurrency() {
+        return bulkConcurrency;
+    }
+
+    /**
+     * Get the number of ordered lanes document writes are hashed onto by document id.
+     * @return the number of write lanes, or 0 if writes are not ordered
+     */
+    public int writeLanes() {
+        return writeLanes;
+    }
+
+    /**
+     * Get the time writes on the same document wait to be merged with later ones.
+     * @return the coalescing window in seconds, or 0 if writes are not merged
+     */
+    public double writeCoalesceWindow() {
+        return writeCoalesceWindow;
+    }
+
+    /**
+     * Get the number of background threads running tasks, such as bulk requests sent with wait_for_completion=false.
+     * @return the number of task threads
+     */
+    public int taskConcurrency() {
+        return taskConcurrency;
+    }
+
+    /**
+     * Get the maximum number of tasks waiting for a thread.
+     * @return the task queue size
+     */
+    public int taskQueueSize() {
+        return taskQueueSize;
+    }
+
+    /**
+     * Get the maximum bytes of the request bodies tasks spool to files until they complete.
+     * @return the maximum spooled bytes, or 0 if unlimited
+     */
+    public long taskSpoolMaxBytes() {
+        return taskSpoolMaxBytes;
+    }
+
+    /**
+     * Get the name of the request header carrying the idempotency key of a document write.
+     * @return the idempotency key header, or an empty string if keys are ignored
+     */
+    public String idempotencyKeyHeader() {
+        return idempotencyKeyHeader;
+    }
+
+    /**
+     * Get the seconds the response of a request with an idempotency key is kept to be replayed.
+     * @return the idempotency key time to live, or 0 if keys are ignored
+     */
+    public double idempotencyKeyTtl() {
+        return idempotencyKeyTtl;
+    }
+
+    /**
+     * Get the seconds a request waits for the response of a running request with the same idempotency key.
+     * @return the idempotency wait timeout, or 0 to answer with 409 at once
+     */
+    public double idempotencyWaitTimeout() {
+        return idempotencyWaitTimeout;
+    }
+
+    /**
+     * Get the maximum number of idempotency keys whose responses are kept.
+     * @return the maximum number of idempotency keys
+     */
+    public int idempotencyMaxKeys() {
+        return idempotencyMaxKeys;
+    }
+
+    /**
+     * Get the maximum bytes of the responses kept, or being recorded, for idempotency keys.
+     * @return the maximum bytes of kept responses
+     */
+    public long idempotencyMaxBytes() {
+        return idempotencyMaxBytes;
+    }
+
+    /**
+     * Get the share of the maximum heap which the operations of all bulk requests may hold.
+     * @return the bulk memory limit, or 0 for no limit
+     */
+    public double bulkMemoryLimit() {
+        return bulkMemoryLimit;
+    }
+
+    /**
+     * Get the share of the bulk memory limit which the operations on one index may hold.
+     * @return the bulk memory limit per index
+     */
+    public double bulkIndexMemoryLimit() {
+        return bulkIndexMemoryLimit;
+    }
+
+    /**
+     * Get the maximum number of operations all bulk requests may hold.
+     * @return the maximum number of bulk operations, or 0 for no limit
+     */
+    public int bulkMaxOperations() {
+        return bulkMaxOperations;
+    }
+
+    /**
+     * Get the directory of the ingest log, which acknowledges document writes once they are on disk.
+     * @return the ingest log directory, or an empty string if writes are sent to Vespa directly
+     */
+    public String ingestLogDirectory() {
+        return ingestLogDirectory;
+    }
+
+    /**
+     * Get the size at which the ingest log starts a new segment file.
+     * @return the segment size in bytes
+     */
+    public long ingestLogSegmentSize() {
+        return ingestLogSegmentSize;
+    }
+
+    /**
+     * Get the time the ingest log waits for more writes before syncing them to disk together.
+     * @return the sync interval in seconds, or 0 to sync as soon as a write is appended
+     */
+    public double ingestLogSyncInterval() {
+        return ingestLogSyncInterval;
+    }
+
+    /**
+     * Get the maximum number of writes the ingest log sends to Vespa at once.
+     * @return the drain concurrency
+     */
+    public int ingestLogDrainConcurrency() {
+        return ingestLogDrainConcurrency;
+    }
+
+    /**
+     * Get the maximum number of bytes of the segment files of the ingest log, over which writes are rejected.
+     * @return the maximum bytes, or 0 for no limit
+     */
+    public long ingestLogMaxBytes() {
+        return ingestLogMaxBytes;
+    }
+
+    /**
+     * Get the remote Vespa clusters searched by index expressions such as eu:logs-*.
+     * @return the remote clusters as alias=endpoint entries separated by semicolons
+     */
+    public String remoteClusters() {
+        return remoteClusters;
+    }
+
+    /**
+     * Get the time in seconds a remote cluster may take before a cross-cluster search goes on without it.
+     * @return the timeout in seconds, or 0 if clusters are waited for until the read timeout
+     */
+    public double remoteClusterTimeout() {
+        return remoteClusterTimeout;
+    }
 }
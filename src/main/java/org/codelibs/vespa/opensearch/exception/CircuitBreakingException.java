@@ -0,0 +1,19 @@
+package org.codelibs.vespa.opensearch.exception;
+
+/**
+ * Thrown while the circuit breaker of an operation type is open because Vespa keeps failing.
+ */
+public class CircuitBreakingException extends RejectedRequestException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitBreakingException(final String msg) {
+        super(msg);
+    }
+
+    @Override
+    public int getStatus() {
+        return 503;
+    }
+
+}
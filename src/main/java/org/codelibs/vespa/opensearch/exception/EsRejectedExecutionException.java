@@ -0,0 +1,19 @@
+package org.codelibs.vespa.opensearch.exception;
+
+/**
+ * Thrown when the concurrency limit of an operation type is reached, as OpenSearch does when a thread pool queue is full.
+ */
+public class EsRejectedExecutionException extends RejectedRequestException {
+
+    private static final long serialVersionUID = 1L;
+
+    public EsRejectedExecutionException(final String msg) {
+        super(msg);
+    }
+
+    @Override
+    public int getStatus() {
+        return 429;
+    }
+
+}
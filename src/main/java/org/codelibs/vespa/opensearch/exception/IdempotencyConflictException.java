@@ -0,0 +1,19 @@
+package org.codelibs.vespa.opensearch.exception;
+
+/**
+ * Thrown when a request repeats the idempotency key of a request which is still running, or whose response was not kept.
+ */
+public class IdempotencyConflictException extends RejectedRequestException {
+
+    private static final long serialVersionUID = 1L;
+
+    public IdempotencyConflictException(final String msg) {
+        super(msg);
+    }
+
+    @Override
+    public int getStatus() {
+        return 409;
+    }
+
+}
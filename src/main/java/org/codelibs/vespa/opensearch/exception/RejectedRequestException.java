@@ -0,0 +1,17 @@
+package org.codelibs.vespa.opensearch.exception;
+
+/**
+ * A request refused by the proxy without calling Vespa.
+ * The handler answers it with {@link #getStatus()} and an OpenSearch error body named after the exception class.
+ */
+public abstract class RejectedRequestException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    protected RejectedRequestException(final String msg) {
+        super(msg, null, false, false);
+    }
+
+    public abstract int getStatus();
+
+}
@@ -4,12 +4,31 @@ public class VespaClientException extends RuntimeException {
 
     private static final long serialVersionUID = 1L;
 
+    private final int status;
+
     public VespaClientException(final String msg, final Exception e) {
         super(msg, e);
+        status = -1;
     }
 
     public VespaClientException(final String msg) {
         super(msg);
+        status = -1;
+    }
+
+    /**
+     * @param status the HTTP status Vespa answered with, or the status closest to the failure of an in-process call
+     */
+    public VespaClientException(final String msg, final int status) {
+        super(msg);
+        this.status = status;
+    }
+
+    /**
+     * @return the status of the failed Vespa call, or -1 if it is unknown
+     */
+    public int getStatus() {
+        return status;
     }
 
 }
@@ -0,0 +1,466 @@
+package org.codelibs.vespa.opensearch.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.IdempotencyConflictException;
+
+import com.yahoo.container.jdisc.HttpResponse;
+
+/**
+ * Keeps the responses of write requests sent with an idempotency key, so that a client resending a request, for example after
+ * it timed out, gets the response of the first one instead of having its writes sent to Vespa again.
+ * The response is recorded while it is rendered, even if the client which sent the first request went away meanwhile, and
+ * the bytes recorded by all responses, kept or still rendering, are held within idempotencyMaxBytes.
+ * A request arriving while the first one with its key runs waits up to idempotencyWaitTimeout seconds for that response,
+ * and is answered with 409 if it does not come, so that retries cannot hold the request threads.
+ * A key is forgotten, and a request with it runs again, idempotencyKeyTtl seconds after its request completed, or once
+ * idempotencyMaxKeys newer keys are kept. A response dropped before that to stay within idempotencyMaxBytes, or too large
+ * to keep, leaves its key behind, and requests with it are answered with 409 instead of running again.
+ * Requests rejected before they ran, answered with 429 or 5xx, or failing while their response is rendered are not kept,
+ * so that resending them runs them again.
+ */
+public class IdempotencyStore {
+
+    /** Header set on a replayed response. */
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private final String keyHeader;
+
+    private final long ttlNanos;
+
+    private final long waitNanos;
+
+    private final int maxKeys;
+
+    private final long maxBytes;
+
+    /** Entries by key, oldest first. */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /** Bytes recorded by the kept and rendering responses. */
+    private long bytes;
+
+    private int inFlight;
+
+    private long replayed;
+
+    private long joined;
+
+    private long conflicts;
+
+    private long notKept;
+
+    public IdempotencyStore(final ProxyHandlerConfig config) {
+        keyHeader = config.idempotencyKeyHeader();
+        ttlNanos = (long) (config.idempotencyKeyTtl() * TimeUnit.SECONDS.toNanos(1));
+        waitNanos = (long) (Math.max(0, config.idempotencyWaitTimeout()) * TimeUnit.SECONDS.toNanos(1));
+        maxKeys = Math.max(1, config.idempotencyMaxKeys());
+        maxBytes = Math.max(0, config.idempotencyMaxBytes());
+    }
+
+    public boolean isEnabled() {
+        return ttlNanos > 0 && !keyHeader.isEmpty();
+    }
+
+    /**
+     * @return the name of the request header carrying the idempotency key
+     */
+    public String getKeyHeader() {
+        return keyHeader;
+    }
+
+    /**
+     * Runs the request unless a request with the same key ran, or is running, and returns its response.
+     *
+     * @param key the idempotency key, scoped to the method and path of the request
+     * @param action runs the request
+     * @return the response of the request, or the replayed response of the first request with the key
+     * @throws IdempotencyConflictException if the first request with the key is still running after the wait timeout, or
+     *         its response was not kept
+     */
+    public HttpResponse execute(final String key, final Supplier<HttpResponse> action) {
+        while (true) {
+            final Entry entry;
+            final boolean first;
+            synchronized (this) {
+                final long now = System.nanoTime();
+                expire(now);
+                Entry existing = entries.get(key);
+                if (existing != null && existing.isExpired(now, ttlNanos)) {
+                    entries.remove(key);
+                    forget(existing);
+                    existing = null;
+                } else if (existing != null && existing.state == State.KEPT) {
+                    replayed++;
+                    return existing.stored.replay();
+                } else if (existing != null && existing.state == State.DROPPED) {
+                    conflicts++;
+                    throw new IdempotencyConflictException("The response of the request with the idempotency key is no longer kept.");
+                } else if (existing != null) {
+                    joined++;
+                }
+                first = existing == null;
+                if (first) {
+                    entry = new Entry(key, now);
+                    entries.put(key, entry);
+                    inFlight++;
+                } else {
+                    entry = existing;
+                }
+            }
+            if (first) {
+                return executeFirst(entry, action);
+            }
+            await(entry);
+            // the first request completed, so its entry tells what this one gets
+        }
+    }
+
+    private HttpResponse executeFirst(final Entry entry, final Supplier<HttpResponse> action) {
+        final HttpResponse response;
+        try {
+            response = action.get();
+        } catch (final RuntimeException e) {
+            complete(entry, State.FORGOTTEN, null);
+            throw e;
+        }
+        final int status = response.getStatus();
+        if (status == 429 || status >= 500) {
+            complete(entry, State.FORGOTTEN, null);
+            return response;
+        }
+        final HttpResponse recording = new HttpResponse(status) {
+            @Override
+            public void render(final OutputStream stream) throws IOException {
+                final RecordingOutputStream out = new RecordingOutputStream(stream, entry);
+                boolean rendered = false;
+                try {
+                    response.render(out);
+                    rendered = true;
+                } finally {
+                    if (!rendered) {
+                        complete(entry, State.FORGOTTEN, null);
+                    } else if (out.recorded == null) {
+                        // the writes ran, but the response cannot be replayed
+                        complete(entry, State.DROPPED, null);
+                    } else {
+                        complete(entry, State.KEPT, new StoredResponse(response, out.recorded.toByteArray()));
+                    }
+                }
+                out.rethrowClientFailure();
+            }
+
+            @Override
+            public String getContentType() {
+                return response.getContentType();
+            }
+
+            @Override
+            public String getCharacterEncoding() {
+                return response.getCharacterEncoding();
+            }
+        };
+        copyHeaders(response, recording);
+        return recording;
+    }
+
+    private void await(final Entry entry) {
+        try {
+            entry.result.get(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            synchronized (this) {
+                conflicts++;
+            }
+            throw new IdempotencyConflictException("A request with the idempotency key is still running. Retry later.");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyConflictException("Interrupted while waiting for the request with the idempotency key.");
+        } catch (final ExecutionException e) {
+            // never completed exceptionally
+        }
+    }
+
+    /**
+     * Charges bytes recorded for the response of the entry to the shared budget, dropping older kept responses if needed.
+     * @return false if the entry is forgotten or the responses still rendering take the budget, so that recording stops
+     */
+    private synchronized boolean reserve(final Entry entry, final int length) {
+        if (entries.get(entry.key) != entry) {
+            return false;
+        }
+        bytes += length;
+        entry.bytes += length;
+        evict();
+        if (bytes > maxBytes) {
+            bytes -= entry.bytes;
+            entry.bytes = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private void complete(final Entry entry, final State state, final StoredResponse stored) {
+        synchronized (this) {
+            if (entries.get(entry.key) == entry) {
+                inFlight--;
+                entry.completedNanos = System.nanoTime();
+                if (state == State.KEPT) {
+                    entry.state = State.KEPT;
+                    entry.stored = stored;
+                    bytes += stored.getOverhead();
+                    entry.bytes += stored.getOverhead();
+                    evict();
+                } else {
+                    bytes -= entry.bytes;
+                    entry.bytes = 0;
+                    if (state == State.DROPPED) {
+                        entry.state = State.DROPPED;
+                    } else {
+                        entries.remove(entry.key);
+                    }
+                    notKept++;
+                }
+            }
+        }
+        entry.result.complete(null);
+    }
+
+    /**
+     * Forgets the entries whose time to live passed from the oldest on, stopping at the first one still alive.
+     */
+    private void expire(final long now) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (!entry.isExpired(now, ttlNanos)) {
+                return;
+            }
+            iterator.remove();
+            forget(entry);
+        }
+    }
+
+    /**
+     * Forgets the oldest completed keys while more than maxKeys are kept, and drops the oldest kept responses while the
+     * recorded bytes exceed maxBytes, leaving their keys behind.
+     */
+    private void evict() {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext() && (entries.size() > maxKeys || bytes > maxBytes)) {
+            final Entry entry = iterator.next();
+            if (entry.state == State.RUNNING) {
+                continue;
+            }
+            if (entries.size() > maxKeys) {
+                iterator.remove();
+                forget(entry);
+            } else if (entry.state == State.KEPT) {
+                bytes -= entry.bytes;
+                entry.bytes = 0;
+                entry.stored = null;
+                entry.state = State.DROPPED;
+            }
+        }
+    }
+
+    private void forget(final Entry entry) {
+        bytes -= entry.bytes;
+        entry.bytes = 0;
+        if (entry.state == State.RUNNING) {
+            // still running past its time to live; its waiters run on their own
+            inFlight--;
+            entry.result.complete(null);
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("ttl_ms", TimeUnit.NANOSECONDS.toMillis(ttlNanos));
+        stats.put("keys", entries.size());
+        stats.put("in_flight", inFlight);
+        stats.put("bytes", bytes);
+        stats.put("replayed", replayed);
+        stats.put("joined", joined);
+        stats.put("conflicts", conflicts);
+        stats.put("not_kept", notKept);
+        return stats;
+    }
+
+    private static void copyHeaders(final HttpResponse from, final HttpResponse to) {
+        for (final Map.Entry<String, List<String>> header : from.headers().entrySet()) {
+            to.headers().add(header.getKey(), header.getValue());
+        }
+    }
+
+    private enum State {
+        RUNNING, KEPT, DROPPED, FORGOTTEN
+    }
+
+    private static class Entry {
+
+        private final String key;
+
+        private final long startNanos;
+
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private State state = State.RUNNING;
+
+        private StoredResponse stored;
+
+        private long completedNanos;
+
+        /** Bytes charged to the store for this entry. */
+        private long bytes;
+
+        Entry(final String key, final long startNanos) {
+            this.key = key;
+            this.startNanos = startNanos;
+        }
+
+        boolean isExpired(final long now, final long ttlNanos) {
+            return now - (state == State.RUNNING ? startNanos : completedNanos) > ttlNanos;
+        }
+    }
+
+    private static class StoredResponse {
+
+        private final int status;
+
+        private final String contentType;
+
+        private final String characterEncoding;
+
+        private final List<Map.Entry<String, List<String>>> headers;
+
+        private final byte[] body;
+
+        StoredResponse(final HttpResponse response, final byte[] body) {
+            status = response.getStatus();
+            contentType = response.getContentType();
+            characterEncoding = response.getCharacterEncoding();
+            headers = new ArrayList<>();
+            for (final Map.Entry<String, List<String>> header : response.headers().entrySet()) {
+                headers.add(Map.entry(header.getKey(), List.copyOf(header.getValue())));
+            }
+            this.body = body;
+        }
+
+        /**
+         * @return the bytes held besides the body, as an estimate
+         */
+        long getOverhead() {
+            long overhead = 64;
+            for (final Map.Entry<String, List<String>> header : headers) {
+                overhead += 2L * header.getKey().length();
+                for (final String value : header.getValue()) {
+                    overhead += 2L * value.length();
+                }
+            }
+            return overhead;
+        }
+
+        HttpResponse replay() {
+            final HttpResponse response = new HttpResponse(status) {
+                @Override
+                public void render(final OutputStream stream) throws IOException {
+                    stream.write(body);
+                }
+
+                @Override
+                public String getContentType() {
+                    return contentType;
+                }
+
+                @Override
+                public String getCharacterEncoding() {
+                    return characterEncoding;
+                }
+            };
+            for (final Map.Entry<String, List<String>> header : headers) {
+                response.headers().add(header.getKey(), header.getValue());
+            }
+            response.headers().add(REPLAYED_HEADER, "true");
+            return response;
+        }
+    }
+
+    /**
+     * Copies what is written to the client into a buffer charged to the store. Once the client cannot be written to, the
+     * rest is only recorded, so that the request still completes and its response is kept for the client to get when it
+     * resends it. Once the store refuses more bytes, recording stops and the buffer is released.
+     */
+    private class RecordingOutputStream extends OutputStream {
+
+        private final OutputStream client;
+
+        private final Entry entry;
+
+        private ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+
+        private IOException clientFailure;
+
+        RecordingOutputStream(final OutputStream client, final Entry entry) {
+            this.client = client;
+            this.entry = entry;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (recorded != null) {
+                if (reserve(entry, len)) {
+                    recorded.write(b, off, len);
+                } else {
+                    recorded = null;
+                }
+            }
+            if (clientFailure == null) {
+                try {
+                    client.write(b, off, len);
+                } catch (final IOException e) {
+                    clientFailure = e;
+                }
+            }
+            if (clientFailure != null && recorded == null) {
+                // neither the client nor a resent request can get the rest
+                throw clientFailure;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (clientFailure == null) {
+                try {
+                    client.flush();
+                } catch (final IOException e) {
+                    clientFailure = e;
+                }
+            }
+        }
+
+        void rethrowClientFailure() throws IOException {
+            if (clientFailure != null) {
+                throw clientFailure;
+            }
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package org.codelibs.vespa.opensearch.handler;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
@@ -18,22 +21,43 @@ import org.codelibs.vespa.opensearch.action.HttpAction;
 import org.codelibs.vespa.opensearch.action.IndicesAction;
 import org.codelibs.vespa.opensearch.action.MappingAction;
 import org.codelibs.vespa.opensearch.action.MgetAction;
+import org.codelibs.vespa.opensearch.action.NodesStatsAction;
 import org.codelibs.vespa.opensearch.action.RefreshAction;
 import org.codelibs.vespa.opensearch.action.RootAction;
 import org.codelibs.vespa.opensearch.action.SearchAction;
 import org.codelibs.vespa.opensearch.action.SettingsAction;
+import org.codelibs.vespa.opensearch.action.TasksAction;
 import org.codelibs.vespa.opensearch.action.UpdateAction;
+import org.codelibs.vespa.opensearch.client.CrossClusterSearch;
+import org.codelibs.vespa.opensearch.client.DocumentAccessBackend;
+import org.codelibs.vespa.opensearch.client.DocumentBackend;
+import org.codelibs.vespa.opensearch.client.ExecutionSearchBackend;
+import org.codelibs.vespa.opensearch.client.HttpDocumentBackend;
+import org.codelibs.vespa.opensearch.client.HttpSearchBackend;
+import org.codelibs.vespa.opensearch.client.SearchBackend;
+import org.codelibs.vespa.opensearch.client.SearchClient;
 import org.codelibs.vespa.opensearch.client.VespaClient;
+import org.codelibs.vespa.opensearch.client.ingest.IngestLog;
+import org.codelibs.vespa.opensearch.client.limit.BulkAdmission;
+import org.codelibs.vespa.opensearch.client.limit.UpstreamGuard;
+import org.codelibs.vespa.opensearch.client.transport.Http2Transport;
+import org.codelibs.vespa.opensearch.client.transport.LoadBalancingTransport;
+import org.codelibs.vespa.opensearch.client.transport.PooledHttpTransport;
+import org.codelibs.vespa.opensearch.client.transport.VespaTransport;
 import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
 import org.codelibs.vespa.opensearch.exception.IncorrectHttpMethodException;
+import org.codelibs.vespa.opensearch.exception.RejectedRequestException;
+import org.codelibs.vespa.opensearch.task.TaskManager;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.yahoo.container.jdisc.HttpRequest;
 import com.yahoo.container.jdisc.HttpResponse;
 import com.yahoo.container.jdisc.ThreadedHttpRequestHandler;
+import com.yahoo.documentapi.DocumentAccess;
 import com.yahoo.jdisc.Metric;
 import com.yahoo.jdisc.http.HttpRequest.Method;
+import com.yahoo.search.searchchain.ExecutionFactory;
 
 // https://github.com/vespa-engine/sample-apps/blob/master/text-search/src/main/java/ai/vespa/example/text_search/site/data/SimpleHttpClient.java
 
@@ -43,23 +67,49 @@ public class RestApiProxyHandler extends ThreadedHttpRequestHandler {
 
     private final VespaClient client;
 
+    private final CrossClusterSearch crossClusterSearch;
+
     private final String documentType;
 
+    private final int bulkConcurrency;
+
+    private final BulkAdmission bulkAdmission;
+
+    private final IngestLog ingestLog;
+
+    private final TaskManager taskManager;
+
+    private final IdempotencyStore idempotencyStore;
+
     private final Map<Method, HttpAction[]> actions;
 
-    @Inject
     public RestApiProxyHandler(final Executor executor, final Metric metric, final ProxyHandlerConfig config) {
+        this(executor, metric, config, null, null);
+    }
+
+    @Inject
+    public RestApiProxyHandler(final Executor executor, final Metric metric, final ProxyHandlerConfig config,
+            final DocumentAccess documentAccess, final ExecutionFactory executionFactory) {
         super(executor, metric);
         pathPrefix = config.pathPrefix();
         documentType = config.documentType();
-        client = new VespaClient(config.vespaEndpoint());
+        bulkConcurrency = config.bulkConcurrency();
+        bulkAdmission = new BulkAdmission(config);
+        taskManager = new TaskManager(config);
+        idempotencyStore = new IdempotencyStore(config);
+        client = createVespaClient(config, documentAccess, executionFactory);
+        crossClusterSearch = new CrossClusterSearch(client.getSearchClient(), createRemoteClients(config),
+                (long) (config.remoteClusterTimeout() * 1000));
+        ingestLog = createIngestLog(config, client);
 
         actions = ImmutableMap.<Method, HttpAction[]> builder()//
                 .put(Method.GET, new HttpAction[] { new RootAction(this), new ClusterHealthAction(this), new ClusterStateAction(this),
-                        new CatIndicesAction(this), new SearchAction(this), new CountAction(this), new MgetAction(this),
-                        new IndicesAction(this), new MappingAction(this), new SettingsAction(this), new DocumentAction(this) })//
+                        new NodesStatsAction(this), new CatIndicesAction(this), new SearchAction(this), new CountAction(this), new MgetAction(this),
+                        new IndicesAction(this), new MappingAction(this), new SettingsAction(this), new TasksAction(this),
+                        new DocumentAction(this) })//
                 .put(Method.POST, new HttpAction[] { new BulkAction(this), new SearchAction(this), new CountAction(this),
-                        new MgetAction(this), new UpdateAction(this), new RefreshAction(this), new DocumentAction(this) })//
+                        new MgetAction(this), new UpdateAction(this), new RefreshAction(this), new TasksAction(this),
+                        new DocumentAction(this) })//
                 .put(Method.PUT, new HttpAction[] { new BulkAction(this), new IndicesAction(this), new MappingAction(this),
                         new SettingsAction(this), new DocumentAction(this) })//
                 .put(Method.DELETE, new HttpAction[] { new IndicesAction(this), new DocumentAction(this) })//
@@ -77,7 +127,16 @@ public class RestApiProxyHandler extends ThreadedHttpRequestHandler {
             final String[] paths = path.split("/");
             for (final HttpAction action : httpActions) {
                 if (action.isTarget(method, paths)) {
-                    return action.execute(httpRequest);
+                    try {
+                        final String idempotencyKey = getIdempotencyKey(httpRequest, method, action);
+                        if (idempotencyKey != null) {
+                            return idempotencyStore.execute(method + " " + path + " " + idempotencyKey, () -> action.execute(httpRequest));
+                        }
+                        return action.execute(httpRequest);
+                    } catch (final RejectedRequestException e) {
+                        log.log(Level.FINE, e, () -> "Rejected " + method + " " + path);
+                        return handleException(httpRequest, e.getStatus(), e);
+                    }
                 }
             }
         }
@@ -85,6 +144,82 @@ public class RestApiProxyHandler extends ThreadedHttpRequestHandler {
                 new IncorrectHttpMethodException("Incorrect HTTP method for uri [" + path + "] and method [" + method + "]"));
     }
 
+    private String getIdempotencyKey(final HttpRequest httpRequest, final Method method, final HttpAction action) {
+        if (!idempotencyStore.isEnabled() || !action.isWrite(method)) {
+            return null;
+        }
+        final String key = httpRequest.getHeader(idempotencyStore.getKeyHeader());
+        return StringUtil.isBlank(key) ? null : key;
+    }
+
+    private VespaClient createVespaClient(final ProxyHandlerConfig config, final DocumentAccess documentAccess,
+            final ExecutionFactory executionFactory) {
+        final List<String> endpoints = LoadBalancingTransport.parseEndpoints(config.vespaEndpoint());
+        final VespaTransport transport = LoadBalancingTransport.create(endpoints, endpoint -> new PooledHttpTransport(endpoint, config),
+                config);
+
+        final DocumentBackend documentBackend;
+        if (config.documentBackend() == ProxyHandlerConfig.DocumentBackend.DOCUMENT_ACCESS) {
+            if (documentAccess == null) {
+                transport.close();
+                throw new IllegalStateException(
+                        "documentBackend is DOCUMENT_ACCESS, but no DocumentAccess is available. Add <document-api/> to the container.");
+            }
+            log.info(() -> "Sending document operations through the Document API.");
+            documentBackend = new DocumentAccessBackend(documentAccess);
+        } else if (config.feedProtocol() == ProxyHandlerConfig.FeedProtocol.HTTP_2) {
+            log.info(() -> "Sending document operations over " + config.feedConnections() + " HTTP/2 connection(s).");
+            final VespaTransport feedTransport = LoadBalancingTransport.create(endpoints, endpoint -> new Http2Transport(endpoint, config),
+                    config);
+            documentBackend = new HttpDocumentBackend(feedTransport, true);
+        } else {
+            documentBackend = new HttpDocumentBackend(transport);
+        }
+
+        final SearchBackend searchBackend;
+        if (config.searchBackend() == ProxyHandlerConfig.SearchBackend.EXECUTION) {
+            if (executionFactory == null) {
+                documentBackend.close();
+                transport.close();
+                throw new IllegalStateException(
+                        "searchBackend is EXECUTION, but no ExecutionFactory is available. Add <search/> to the container.");
+            }
+            log.info(() -> "Running queries through the search chain " + config.searchChain() + ".");
+            searchBackend = new ExecutionSearchBackend(executionFactory, config.searchChain());
+        } else {
+            searchBackend = new HttpSearchBackend(transport);
+        }
+        return new VespaClient(config,
+                new VespaClient.Components().transport(transport).documentBackend(documentBackend).searchBackend(searchBackend));
+    }
+
+    /**
+     * Creates a client of each remote cluster, through which only queries of cross-cluster searches are sent.
+     */
+    private static Map<String, SearchClient> createRemoteClients(final ProxyHandlerConfig config) {
+        final Map<String, SearchClient> clients = new LinkedHashMap<>();
+        CrossClusterSearch.parseClusters(config.remoteClusters()).forEach((alias, endpoint) -> {
+            final VespaTransport transport = LoadBalancingTransport.create(LoadBalancingTransport.parseEndpoints(endpoint),
+                    e -> new PooledHttpTransport(e, config), config);
+            clients.put(alias, new SearchClient(transport, new HttpSearchBackend(transport), new UpstreamGuard(config)));
+            log.info(() -> "Searching remote cluster " + alias + " at " + endpoint + ".");
+        });
+        return clients;
+    }
+
+    private static IngestLog createIngestLog(final ProxyHandlerConfig config, final VespaClient client) {
+        if (StringUtil.isBlank(config.ingestLogDirectory())) {
+            return null;
+        }
+        try {
+            final IngestLog ingestLog = new IngestLog(config, client);
+            log.info(() -> "Acknowledging document writes once they are synced to the ingest log in " + config.ingestLogDirectory() + ".");
+            return ingestLog;
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Failed to open the ingest log in " + config.ingestLogDirectory(), e);
+        }
+    }
+
     private String getPath(final HttpRequest httpRequest) {
         final String path = httpRequest.getUri().getPath();
         if (path == null || path.length() <= pathPrefix.length()) {
@@ -93,14 +228,53 @@ public class RestApiProxyHandler extends ThreadedHttpRequestHandler {
         return path.substring(pathPrefix.length());
     }
 
+    @Override
+    protected void destroy() {
+        // running bulk tasks stop reading and complete what they sent
+        taskManager.close();
+        if (ingestLog != null) {
+            // syncs the writes acknowledged so far before the client goes away
+            ingestLog.close();
+        }
+        crossClusterSearch.close();
+        client.close();
+    }
+
     public VespaClient getVespaClient() {
         return client;
     }
 
+    public CrossClusterSearch getCrossClusterSearch() {
+        return crossClusterSearch;
+    }
+
     public String getDocumentType() {
         return documentType;
     }
 
+    public int getBulkConcurrency() {
+        return bulkConcurrency;
+    }
+
+    public BulkAdmission getBulkAdmission() {
+        return bulkAdmission;
+    }
+
+    public TaskManager getTaskManager() {
+        return taskManager;
+    }
+
+    public IdempotencyStore getIdempotencyStore() {
+        return idempotencyStore;
+    }
+
+    /**
+     * @return the ingest log document writes are appended to, or null if they are sent to Vespa directly
+     */
+    public IngestLog getIngestLog() {
+        return ingestLog;
+    }
+
     private HttpResponse handleException(final HttpRequest httpRequest, final int status, final Exception e) {
         return new HttpAction(this) {
 
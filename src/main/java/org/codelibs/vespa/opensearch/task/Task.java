@@ -0,0 +1,124 @@
+package org.codelibs.vespa.opensearch.task;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A request running in the background, such as a bulk request sent with wait_for_completion=false.
+ * It is described in the format of the OpenSearch tasks API, and keeps its response or error once it completed.
+ */
+public class Task {
+
+    private final String node;
+
+    private final long id;
+
+    private final String action;
+
+    private final String description;
+
+    private final long startTimeMillis = System.currentTimeMillis();
+
+    private final long startNanos = System.nanoTime();
+
+    private volatile Supplier<Map<String, Object>> status = Collections::emptyMap;
+
+    private volatile boolean cancelled;
+
+    private volatile boolean completed;
+
+    private volatile long runningNanos;
+
+    private volatile Map<String, Object> response;
+
+    private volatile Map<String, Object> error;
+
+    Task(final String node, final long id, final String action, final String description) {
+        this.node = node;
+        this.id = id;
+        this.action = action;
+        this.description = description;
+    }
+
+    /**
+     * @return the ID of the task, such as node1:42
+     */
+    public String getId() {
+        return node + ":" + id;
+    }
+
+    long getNumber() {
+        return id;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Asks the task to stop. It stops at its next check, and completes with what it did so far.
+     * @return false if it already completed
+     */
+    boolean cancel() {
+        if (completed) {
+            return false;
+        }
+        cancelled = true;
+        return true;
+    }
+
+    /**
+     * Sets the supplier of the progress reported as the status of the task, which is called from any thread.
+     */
+    public void setStatus(final Supplier<Map<String, Object>> status) {
+        this.status = status;
+    }
+
+    void complete(final Map<String, Object> response, final Map<String, Object> error) {
+        this.response = response;
+        this.error = error;
+        runningNanos = System.nanoTime() - startNanos;
+        completed = true;
+    }
+
+    /**
+     * @return the task as the tasks API lists it
+     */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> map = new HashMap<>();
+        map.put("node", node);
+        map.put("id", id);
+        map.put("type", "transport");
+        map.put("action", action);
+        map.put("description", description);
+        map.put("status", status.get());
+        map.put("start_time_in_millis", startTimeMillis);
+        map.put("running_time_in_nanos", completed ? runningNanos : System.nanoTime() - startNanos);
+        map.put("cancellable", true);
+        map.put("cancelled", cancelled);
+        return map;
+    }
+
+    /**
+     * @return the task with its response or error, as GET _tasks/{id} returns it
+     */
+    public Map<String, Object> toResult() {
+        final Map<String, Object> result = new HashMap<>();
+        result.put("completed", completed);
+        result.put("task", toMap());
+        if (completed) {
+            if (error != null) {
+                result.put("error", error);
+            } else if (response != null) {
+                result.put("response", response);
+            }
+        }
+        return result;
+    }
+}
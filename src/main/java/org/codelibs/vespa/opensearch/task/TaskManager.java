@@ -0,0 +1,326 @@
+package org.codelibs.vespa.opensearch.task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+
+/**
+ * Runs tasks on a bounded pool of background threads, so that long running requests neither hold a request thread
+ * nor take more than taskConcurrency threads from interactive traffic, and keeps them for the tasks API.
+ * A slot is reserved before the input of a task is prepared, and a task asking for one while all threads are busy and
+ * taskQueueSize tasks are waiting or prepared is rejected with 429. The bytes the tasks spool to files are charged to
+ * taskSpoolMaxBytes until they complete, and a task going over it is rejected with 429 as well.
+ * Completed tasks are kept with their result until MAX_COMPLETED_TASKS newer ones completed.
+ */
+public class TaskManager implements AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(TaskManager.class.getName());
+
+    /** Node name the task IDs are prefixed with, as in the nodes of _nodes/stats. */
+    public static final String NODE = "node1";
+
+    static final int MAX_COMPLETED_TASKS = 1000;
+
+    private final ThreadPoolExecutor executor;
+
+    private final int queueSize;
+
+    /** Slots held by reserved, waiting and running tasks, at most the threads plus the queue size. */
+    private final int maxSlots;
+
+    private final long maxSpoolBytes;
+
+    private int slots;
+
+    private long spoolBytes;
+
+    private long rejected;
+
+    /** Tasks by number, oldest first. */
+    private final Map<Long, Task> tasks = new LinkedHashMap<>();
+
+    private long nextId = 1;
+
+    private int completedCount;
+
+    public TaskManager(final ProxyHandlerConfig config) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final int threads = Math.max(1, config.taskConcurrency());
+        queueSize = Math.max(1, config.taskQueueSize());
+        maxSlots = threads + queueSize;
+        maxSpoolBytes = config.taskSpoolMaxBytes();
+        // the slots bound the queue
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    final Thread thread = new Thread(r, "task-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Reserves the slot of a task, before its input is prepared.
+     *
+     * @param action the action of the task, such as indices:data/write/bulk
+     * @return the slot, to be passed to submit or closed if the task is not submitted
+     * @throws EsRejectedExecutionException if the queue of tasks is full
+     */
+    public synchronized Slot reserve(final String action) {
+        if (slots >= maxSlots) {
+            rejected++;
+            throw new EsRejectedExecutionException("rejected execution of task [" + action + "]: [running=" + executor.getActiveCount()
+                    + ", queued=" + executor.getQueue().size() + ", queue_capacity=" + queueSize + "]");
+        }
+        slots++;
+        return new Slot(action);
+    }
+
+    /**
+     * Starts the task when a thread is free.
+     *
+     * @param action the action of the task, such as indices:data/write/bulk
+     * @param description what the task does
+     * @param body runs the task and returns its response; a failure becomes the error of the task
+     * @param cleanup run after the body, or instead of it if the task never runs
+     * @throws EsRejectedExecutionException if the queue of tasks is full
+     */
+    public Task submit(final String action, final String description, final Function<Task, Map<String, Object>> body,
+            final Runnable cleanup) {
+        final Slot slot;
+        try {
+            slot = reserve(action);
+        } catch (final EsRejectedExecutionException e) {
+            cleanup.run();
+            throw e;
+        }
+        return submit(slot, description, body, cleanup);
+    }
+
+    /**
+     * Starts the task of a reserved slot when a thread is free. The slot is closed once the task completed.
+     *
+     * @param slot the slot reserved for the task
+     * @param description what the task does
+     * @param body runs the task and returns its response; a failure becomes the error of the task
+     * @param cleanup run after the body, or instead of it if the task never runs
+     * @throws EsRejectedExecutionException if the task manager is closed
+     */
+    public Task submit(final Slot slot, final String description, final Function<Task, Map<String, Object>> body,
+            final Runnable cleanup) {
+        final Task task;
+        synchronized (this) {
+            task = new Task(NODE, nextId++, slot.action, description);
+            tasks.put(task.getNumber(), task);
+        }
+        try {
+            executor.execute(new TaskRunner(task, slot, body, cleanup));
+        } catch (final RejectedExecutionException e) {
+            synchronized (this) {
+                tasks.remove(task.getNumber());
+                rejected++;
+            }
+            cleanup.run();
+            slot.close();
+            throw new EsRejectedExecutionException("rejected execution of task [" + slot.action + "]: the task manager is closed");
+        }
+        return task;
+    }
+
+    /**
+     * @param taskId the ID of a task, such as node1:42
+     * @return the task, or null if it is unknown or was forgotten
+     */
+    public synchronized Task get(final String taskId) {
+        final Long number = parseNumber(taskId);
+        return number != null ? tasks.get(number) : null;
+    }
+
+    /**
+     * @return the tasks which have not completed yet, oldest first
+     */
+    public synchronized List<Task> getRunning() {
+        final List<Task> running = new ArrayList<>();
+        for (final Task task : tasks.values()) {
+            if (!task.isCompleted()) {
+                running.add(task);
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Asks the task to stop.
+     * @return the task, or null if it is unknown or not running
+     */
+    public Task cancel(final String taskId) {
+        final Task task = get(taskId);
+        return task != null && task.cancel() ? task : null;
+    }
+
+    private static Long parseNumber(final String taskId) {
+        if (taskId == null || !taskId.startsWith(NODE + ":")) {
+            return null;
+        }
+        try {
+            return Long.parseLong(taskId.substring(NODE.length() + 1));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private synchronized void onCompleted() {
+        completedCount++;
+        if (completedCount <= MAX_COMPLETED_TASKS) {
+            return;
+        }
+        final Iterator<Task> iterator = tasks.values().iterator();
+        while (iterator.hasNext() && completedCount > MAX_COMPLETED_TASKS) {
+            if (iterator.next().isCompleted()) {
+                iterator.remove();
+                completedCount--;
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queue", executor.getQueue().size());
+        stats.put("tasks", tasks.size());
+        stats.put("completed", completedCount);
+        stats.put("slots", slots);
+        stats.put("spool_bytes", spoolBytes);
+        stats.put("max_spool_bytes", maxSpoolBytes);
+        stats.put("rejected", rejected);
+        return stats;
+    }
+
+    /**
+     * Cancels the running tasks and discards the waiting ones.
+     */
+    @Override
+    public void close() {
+        // the waiting tasks are taken off the queue first, so that none of them starts once a running one stops
+        final List<Runnable> waiting = executor.shutdownNow();
+        synchronized (this) {
+            tasks.values().forEach(Task::cancel);
+        }
+        for (final Runnable runnable : waiting) {
+            ((TaskRunner) runnable).discard();
+        }
+        try {
+            // the running tasks complete the operations they sent
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warning(() -> "Tasks are still running: " + getRunning().size());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The place of a task among the waiting and running ones, and the bytes it spooled. Closing it again does nothing.
+     */
+    public class Slot implements AutoCloseable {
+
+        private final String action;
+
+        private long spooled;
+
+        private boolean closed;
+
+        Slot(final String action) {
+            this.action = action;
+        }
+
+        /**
+         * Charges bytes spooled for the task, which are held until the slot is closed.
+         * @throws EsRejectedExecutionException if the spooled bytes of all tasks would go over taskSpoolMaxBytes
+         */
+        public void spool(final long bytes) {
+            synchronized (TaskManager.this) {
+                if (closed) {
+                    return;
+                }
+                if (maxSpoolBytes > 0 && spoolBytes + bytes > maxSpoolBytes) {
+                    rejected++;
+                    throw new EsRejectedExecutionException("rejected execution of task [" + action + "]: [spool_bytes=" + spoolBytes
+                            + ", requested_bytes=" + bytes + ", max_spool_bytes=" + maxSpoolBytes + "]");
+                }
+                spooled += bytes;
+                spoolBytes += bytes;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (TaskManager.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                spoolBytes -= spooled;
+                slots--;
+            }
+        }
+    }
+
+    private class TaskRunner implements Runnable {
+
+        private final Task task;
+
+        private final Slot slot;
+
+        private final Function<Task, Map<String, Object>> body;
+
+        private final Runnable cleanup;
+
+        TaskRunner(final Task task, final Slot slot, final Function<Task, Map<String, Object>> body, final Runnable cleanup) {
+            this.task = task;
+            this.slot = slot;
+            this.body = body;
+            this.cleanup = cleanup;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.complete(body.apply(task), null);
+            } catch (final RuntimeException e) {
+                log.log(Level.WARNING, e, () -> "Task " + task.getId() + " failed.");
+                final Map<String, Object> error = new HashMap<>();
+                error.put("type", "exception");
+                error.put("reason", e.getMessage());
+                task.complete(null, error);
+            } finally {
+                cleanup.run();
+                slot.close();
+                onCompleted();
+            }
+        }
+
+        void discard() {
+            final Map<String, Object> error = new HashMap<>();
+            error.put("type", "task_cancelled_exception");
+            error.put("reason", "The task was discarded before it started, as the proxy shut down.");
+            task.complete(null, error);
+            cleanup.run();
+            slot.close();
+        }
+    }
+}
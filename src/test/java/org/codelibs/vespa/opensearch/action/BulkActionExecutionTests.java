@@ -3,13 +3,16 @@ package org.codelibs.vespa.opensearch.action;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -21,12 +24,22 @@ import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.codelibs.vespa.opensearch.client.VespaClient;
+import org.codelibs.vespa.opensearch.client.limit.BulkAdmission;
+import org.codelibs.vespa.opensearch.client.limit.WriteRetryPolicy;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
 import org.codelibs.vespa.opensearch.exception.VespaClientException;
 import org.codelibs.vespa.opensearch.handler.RestApiProxyHandler;
+import org.codelibs.vespa.opensearch.task.Task;
+import org.codelibs.vespa.opensearch.task.TaskManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.opensearch.common.xcontent.json.JsonXContent;
 
 import com.yahoo.container.jdisc.HttpRequest;
@@ -44,6 +57,7 @@ public class BulkActionExecutionTests {
         vespaClient = mock(VespaClient.class);
         when(handler.getVespaClient()).thenReturn(vespaClient);
         when(handler.getDocumentType()).thenReturn("doc");
+        when(handler.getBulkAdmission()).thenReturn(new BulkAdmission(new ProxyHandlerConfig()));
         action = new BulkAction(handler);
     }
 
@@ -58,8 +72,8 @@ public class BulkActionExecutionTests {
         HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
 
         // Mock VespaClient responses
-        when(vespaClient.insert(eq("test"), eq("doc"), eq("1"), anyMap())).thenReturn(Map.of());
-        when(vespaClient.insert(eq("test"), eq("doc"), eq("2"), anyMap())).thenReturn(Map.of());
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("1"), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("2"), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
 
         // Execute
         HttpResponse response = action.execute(request);
@@ -74,7 +88,7 @@ public class BulkActionExecutionTests {
         List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
         assertEquals(2, items.size());
 
-        verify(vespaClient, times(2)).insert(anyString(), anyString(), anyString(), anyMap());
+        verify(vespaClient, times(2)).insertSourceAsync(anyString(), anyString(), anyString(), any());
     }
 
     @Test
@@ -88,7 +102,7 @@ public class BulkActionExecutionTests {
         HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
 
         // Mock VespaClient responses
-        when(vespaClient.insert(anyString(), anyString(), anyString(), anyMap())).thenReturn(Map.of());
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
 
         // Execute
         HttpResponse response = action.execute(request);
@@ -114,7 +128,7 @@ public class BulkActionExecutionTests {
         HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
 
         // Mock VespaClient responses
-        when(vespaClient.update(anyString(), anyString(), anyString(), anyMap())).thenReturn(Map.of());
+        when(vespaClient.updateAsync(anyString(), anyString(), anyString(), anyMap())).thenReturn(CompletableFuture.completedFuture(Map.of()));
 
         // Execute
         HttpResponse response = action.execute(request);
@@ -128,7 +142,7 @@ public class BulkActionExecutionTests {
         List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
         assertEquals(2, items.size());
 
-        verify(vespaClient, times(2)).update(anyString(), anyString(), anyString(), anyMap());
+        verify(vespaClient, times(2)).updateAsync(anyString(), anyString(), anyString(), anyMap());
     }
 
     @Test
@@ -140,7 +154,7 @@ public class BulkActionExecutionTests {
         HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
 
         // Mock VespaClient responses
-        when(vespaClient.delete(anyString(), anyString(), anyString())).thenReturn(Map.of());
+        when(vespaClient.deleteAsync(anyString(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(Map.of()));
 
         // Execute
         HttpResponse response = action.execute(request);
@@ -154,7 +168,7 @@ public class BulkActionExecutionTests {
         List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
         assertEquals(2, items.size());
 
-        verify(vespaClient, times(2)).delete(anyString(), anyString(), anyString());
+        verify(vespaClient, times(2)).deleteAsync(anyString(), anyString(), anyString());
     }
 
     @Test
@@ -171,9 +185,9 @@ public class BulkActionExecutionTests {
         HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
 
         // Mock VespaClient responses
-        when(vespaClient.insert(anyString(), anyString(), anyString(), anyMap())).thenReturn(Map.of());
-        when(vespaClient.update(anyString(), anyString(), anyString(), anyMap())).thenReturn(Map.of());
-        when(vespaClient.delete(anyString(), anyString(), anyString())).thenReturn(Map.of());
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+        when(vespaClient.updateAsync(anyString(), anyString(), anyString(), anyMap())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+        when(vespaClient.deleteAsync(anyString(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(Map.of()));
 
         // Execute
         HttpResponse response = action.execute(request);
@@ -199,14 +213,14 @@ public class BulkActionExecutionTests {
         HttpRequest request = createMockRequest("POST", "/myindex/_bulk", bulkRequest);
 
         // Mock VespaClient responses
-        when(vespaClient.insert(eq("myindex"), eq("doc"), anyString(), anyMap())).thenReturn(Map.of());
+        when(vespaClient.insertSourceAsync(eq("myindex"), eq("doc"), anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
 
         // Execute
         HttpResponse response = action.execute(request);
 
         // Verify
         assertEquals(200, response.getStatus());
-        verify(vespaClient, times(2)).insert(eq("myindex"), eq("doc"), anyString(), anyMap());
+        verify(vespaClient, times(2)).insertSourceAsync(eq("myindex"), eq("doc"), anyString(), any());
     }
 
     @Test
@@ -220,7 +234,7 @@ public class BulkActionExecutionTests {
         HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
 
         // Mock VespaClient responses
-        when(vespaClient.insert(anyString(), anyString(), anyString(), anyMap())).thenReturn(Map.of());
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
 
         // Execute
         HttpResponse response = action.execute(request);
@@ -244,7 +258,7 @@ public class BulkActionExecutionTests {
         HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
 
         // Mock VespaClient responses
-        when(vespaClient.insert(anyString(), anyString(), anyString(), anyMap())).thenReturn(Map.of());
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
 
         // Execute
         HttpResponse response = action.execute(request);
@@ -268,8 +282,8 @@ public class BulkActionExecutionTests {
         HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
 
         // Mock exception
-        when(vespaClient.insert(anyString(), anyString(), anyString(), anyMap()))
-                .thenThrow(new VespaClientException("Vespa connection failed"));
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Vespa connection failed")));
 
         // Execute
         HttpResponse response = action.execute(request);
@@ -280,6 +294,225 @@ public class BulkActionExecutionTests {
         assertTrue((Boolean) responseBody.get("errors")); // Should have errors
     }
 
+    @Test
+    void testBulkWithRejectedExecution() throws IOException {
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new EsRejectedExecutionException("rejected execution of write operation")));
+
+        HttpResponse response = action.execute(request);
+
+        assertEquals(200, response.getStatus());
+        Map<String, Object> responseBody = parseResponse(response);
+        assertTrue((Boolean) responseBody.get("errors"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> item = (Map<String, Object>) ((List<Map<String, Object>>) responseBody.get("items")).get(0).get("index");
+        assertEquals(429, item.get("status"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> error = (Map<String, Object>) item.get("error");
+        assertEquals("es_rejected_execution_exception", error.get("type"));
+    }
+
+    @Test
+    void testBulkRetriesThrottledWrites() throws IOException {
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n" +
+                "{\"index\":{\"_index\":\"test\",\"_id\":\"2\"}}\n" +
+                "{\"title\":\"Document 2\"}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+
+        when(vespaClient.getWriteRetryPolicy()).thenReturn(createRetryPolicy(5.0));
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("1"), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Failed to insert a doc.", new VespaClientException("The response is 429", 429))))
+                .thenReturn(CompletableFuture.failedFuture(new EsRejectedExecutionException("rejected execution of write operation")))
+                .thenReturn(CompletableFuture.completedFuture(Map.of()));
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("2"), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+        HttpResponse response = action.execute(request);
+
+        assertEquals(200, response.getStatus());
+        Map<String, Object> responseBody = parseResponse(response);
+        assertFalse((Boolean) responseBody.get("errors"));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
+        assertEquals(2, items.size());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> first = (Map<String, Object>) items.get(0).get("index");
+        assertEquals("1", first.get("_id"));
+        assertEquals(201, first.get("status"));
+
+        verify(vespaClient, times(3)).insertSourceAsync(eq("test"), eq("doc"), eq("1"), any());
+        verify(vespaClient, times(1)).insertSourceAsync(eq("test"), eq("doc"), eq("2"), any());
+    }
+
+    @Test
+    void testBulkThrottledWritesTimeOut() throws IOException {
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n" +
+                "{\"index\":{\"_index\":\"test\",\"_id\":\"2\"}}\n" +
+                "{\"title\":\"Document 2\"}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+
+        when(vespaClient.getWriteRetryPolicy()).thenReturn(createRetryPolicy(0.05));
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("1"), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Failed to insert a doc.", new VespaClientException("The response is 429", 429))));
+        // not throttling, so not retried
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("2"), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Failed to insert a doc.", new VespaClientException("The response is 400", 400))));
+
+        HttpResponse response = action.execute(request);
+
+        assertEquals(200, response.getStatus());
+        Map<String, Object> responseBody = parseResponse(response);
+        assertTrue((Boolean) responseBody.get("errors"));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> first = (Map<String, Object>) items.get(0).get("index");
+        assertEquals(429, first.get("status"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> second = (Map<String, Object>) items.get(1).get("index");
+        assertEquals(400, second.get("status"));
+
+        verify(vespaClient, times(1)).insertSourceAsync(eq("test"), eq("doc"), eq("2"), any());
+    }
+
+    @Test
+    void testBulkKeepsOrderBehindThrottledWrite() throws IOException {
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n" +
+                "{\"delete\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"delete\":{\"_index\":\"test\",\"_id\":\"2\"}}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+
+        when(vespaClient.getWriteRetryPolicy()).thenReturn(createRetryPolicy(5.0));
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("1"), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Failed to insert a doc.", new VespaClientException("The response is 503", 503))))
+                .thenReturn(CompletableFuture.completedFuture(Map.of()));
+        when(vespaClient.deleteAsync(anyString(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+        HttpResponse response = action.execute(request);
+
+        Map<String, Object> responseBody = parseResponse(response);
+        assertFalse((Boolean) responseBody.get("errors"));
+
+        // the delete of document 1 waits for its throttled write, while document 2 is not held up
+        InOrder order = inOrder(vespaClient);
+        order.verify(vespaClient).insertSourceAsync(eq("test"), eq("doc"), eq("1"), any());
+        order.verify(vespaClient).deleteAsync("test", "doc", "2");
+        order.verify(vespaClient).insertSourceAsync(eq("test"), eq("doc"), eq("1"), any());
+        order.verify(vespaClient).deleteAsync("test", "doc", "1");
+    }
+
+    @Test
+    void testBulkWithoutRetryPolicy() throws IOException {
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+
+        when(vespaClient.getWriteRetryPolicy()).thenReturn(createRetryPolicy(0));
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Failed to insert a doc.", new VespaClientException("The response is 429", 429))));
+
+        HttpResponse response = action.execute(request);
+
+        Map<String, Object> responseBody = parseResponse(response);
+        assertTrue((Boolean) responseBody.get("errors"));
+        verify(vespaClient, times(1)).insertSourceAsync(anyString(), anyString(), anyString(), any());
+    }
+
+    @Test
+    void testBulkSendsOperationsConcurrently() throws IOException {
+        StringBuilder bulkRequest = new StringBuilder();
+        for (int i = 1; i <= 20; i++) {
+            bulkRequest.append("{\"index\":{\"_index\":\"test\",\"_id\":\"").append(i).append("\"}}\n");
+            bulkRequest.append("{\"title\":\"Document ").append(i).append("\"}\n");
+        }
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest.toString());
+
+        when(handler.getBulkConcurrency()).thenReturn(4);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any())).thenAnswer(invocation -> {
+            String id = invocation.getArgument(2);
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    // later documents finish first
+                    Thread.sleep(40 - Integer.parseInt(id));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                if ("7".equals(id)) {
+                    throw new VespaClientException("Failed to insert a doc.", new VespaClientException("The response is 400", 400));
+                }
+                return Map.<String, Object> of();
+            });
+        });
+
+        HttpResponse response = action.execute(request);
+
+        assertEquals(200, response.getStatus());
+        Map<String, Object> responseBody = parseResponse(response);
+        assertTrue((Boolean) responseBody.get("errors"));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
+        assertEquals(20, items.size());
+        for (int i = 1; i <= 20; i++) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> item = (Map<String, Object>) items.get(i - 1).get("index");
+            assertEquals(String.valueOf(i), item.get("_id"));
+            assertEquals(i == 7 ? 400 : 201, item.get("status"));
+        }
+        assertTrue(maxInFlight.get() <= 4, "in flight: " + maxInFlight.get());
+        assertTrue(maxInFlight.get() > 1, "in flight: " + maxInFlight.get());
+    }
+
+    @Test
+    void testBulkKeepsOrderOfConcurrentOperationsOnDocument() throws IOException {
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n" +
+                "{\"index\":{\"_index\":\"test\",\"_id\":\"2\"}}\n" +
+                "{\"title\":\"Document 2\"}\n" +
+                "{\"delete\":{\"_index\":\"test\",\"_id\":\"1\"}}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+
+        when(handler.getBulkConcurrency()).thenReturn(8);
+        CompletableFuture<Map<String, Object>> insert1 = new CompletableFuture<>();
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("1"), any())).thenReturn(insert1);
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("2"), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+        when(vespaClient.deleteAsync(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            // the delete of document 1 is only sent once its write completed
+            assertTrue(insert1.isDone());
+            return CompletableFuture.completedFuture(Map.of());
+        });
+        CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS).execute(() -> insert1.complete(Map.of()));
+
+        HttpResponse response = action.execute(request);
+
+        Map<String, Object> responseBody = parseResponse(response);
+        assertFalse((Boolean) responseBody.get("errors"));
+        InOrder order = inOrder(vespaClient);
+        order.verify(vespaClient).insertSourceAsync(eq("test"), eq("doc"), eq("1"), any());
+        order.verify(vespaClient).insertSourceAsync(eq("test"), eq("doc"), eq("2"), any());
+        order.verify(vespaClient).deleteAsync("test", "doc", "1");
+    }
+
+    private static WriteRetryPolicy createRetryPolicy(double timeout) {
+        return new WriteRetryPolicy(new ProxyHandlerConfig.Builder().writeRetryTimeout(timeout).writeRetryBackoff(0.001).build());
+    }
+
     @Test
     void testBulkWithInvalidJson() throws IOException {
         // Prepare request with invalid JSON
@@ -294,6 +527,192 @@ public class BulkActionExecutionTests {
         assertEquals(400, response.getStatus());
     }
 
+    @Test
+    void testBulkWithInvalidSource() throws IOException {
+        String bulkRequest = "{\"update\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"doc\":\n" +
+                "{\"index\":{\"_index\":\"test\",\"_id\":\"2\"}}\n" +
+                "{\"title\":\"Document 2\"}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+        HttpResponse response = action.execute(request);
+
+        // a source is only read when its operation is sent, so only its item fails
+        assertEquals(200, response.getStatus());
+        Map<String, Object> responseBody = parseResponse(response);
+        assertTrue((Boolean) responseBody.get("errors"));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> first = (Map<String, Object>) items.get(0).get("update");
+        assertEquals(400, first.get("status"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> second = (Map<String, Object>) items.get(1).get("index");
+        assertEquals(201, second.get("status"));
+        verify(vespaClient, times(1)).insertSourceAsync(eq("test"), eq("doc"), eq("2"), any());
+    }
+
+    @Test
+    void testBulkWithInvalidActionAfterItems() throws IOException {
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n" +
+                "{invalid json\n" +
+                "{\"delete\":{\"_index\":\"test\",\"_id\":\"2\"}}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+        HttpResponse response = action.execute(request);
+
+        // the response is already committed when the invalid line is read, so the rest of the body is reported as not executed
+        assertEquals(200, response.getStatus());
+        Map<String, Object> responseBody = parseResponse(response);
+        assertTrue((Boolean) responseBody.get("errors"));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
+        assertEquals(1, items.size());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> error = (Map<String, Object>) responseBody.get("error");
+        assertEquals("parse_exception", error.get("type"));
+        verify(vespaClient, never()).deleteAsync(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void testBulkResponseIsStreamed() throws IOException {
+        String bulkRequest = "{\"delete\":{\"_index\":\"test\",\"_id\":\"1\"}}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+
+        when(vespaClient.deleteAsync(anyString(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+        HttpResponse response = action.execute(request);
+
+        // nothing is sent before the response is rendered
+        verify(vespaClient, never()).deleteAsync(anyString(), anyString(), anyString());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.render(out);
+        String json = out.toString(StandardCharsets.UTF_8);
+        // items come first, and took and errors after them
+        assertTrue(json.startsWith("{\"items\":["), json);
+        assertTrue(json.contains("\"errors\":false"), json);
+    }
+
+    @Test
+    void testBulkRetriesBeforePendingItemsPileUp() throws IOException {
+        StringBuilder bulkRequest = new StringBuilder();
+        for (int i = 1; i <= 1100; i++) {
+            bulkRequest.append("{\"index\":{\"_index\":\"test\",\"_id\":\"").append(i).append("\"}}\n");
+            bulkRequest.append("{\"title\":\"Document ").append(i).append("\"}\n");
+        }
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest.toString());
+
+        when(vespaClient.getWriteRetryPolicy()).thenReturn(createRetryPolicy(5.0));
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("1"), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Failed to insert a doc.", new VespaClientException("The response is 429", 429))))
+                .thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+        HttpResponse response = action.execute(request);
+
+        Map<String, Object> responseBody = parseResponse(response);
+        assertFalse((Boolean) responseBody.get("errors"));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
+        assertEquals(1100, items.size());
+        // the items behind the throttled write are held only until 1024 of them wait, and then it is retried
+        InOrder order = inOrder(vespaClient);
+        order.verify(vespaClient).insertSourceAsync(eq("test"), eq("doc"), eq("1"), any());
+        order.verify(vespaClient).insertSourceAsync(eq("test"), eq("doc"), eq("1024"), any());
+        order.verify(vespaClient).insertSourceAsync(eq("test"), eq("doc"), eq("1"), any());
+        order.verify(vespaClient).insertSourceAsync(eq("test"), eq("doc"), eq("1025"), any());
+    }
+
+    @Test
+    void testBulkRejectedBeforeReadingBody() throws IOException {
+        final BulkAdmission admission = new BulkAdmission(new ProxyHandlerConfig.Builder().bulkMaxOperations(1).build());
+        when(handler.getBulkAdmission()).thenReturn(admission);
+        // another bulk request holds the only operation of the budget
+        final BulkAdmission.Reservation other = admission.admit(null, 0);
+        assertTrue(other.tryAcquire("test", 100));
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", "{\"delete\":{\"_index\":\"test\",\"_id\":\"1\"}}\n");
+
+        final EsRejectedExecutionException e = assertThrows(EsRejectedExecutionException.class, () -> action.execute(request));
+        assertEquals(429, e.getStatus());
+        verify(request, never()).getData();
+        verify(vespaClient, never()).deleteAsync(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void testBulkCompletesOperationsToMakeRoom() throws IOException {
+        final BulkAdmission admission = new BulkAdmission(new ProxyHandlerConfig.Builder().bulkMaxOperations(2).build());
+        when(handler.getBulkAdmission()).thenReturn(admission);
+        final CompletableFuture<Map<String, Object>> insert1 = new CompletableFuture<>();
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("1"), any())).thenReturn(insert1);
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("2"), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+        final BulkAdmission.Reservation other = admission.admit(null, 0);
+        assertTrue(other.tryAcquire("test", 100));
+
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n" +
+                "{\"index\":{\"_index\":\"test\",\"_id\":\"2\"}}\n" +
+                "{\"title\":\"Document 2\"}\n";
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+        HttpResponse response = action.execute(request);
+        // the second operation does not fit until the first one completed
+        new Thread(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            insert1.complete(Map.of());
+        }).start();
+
+        Map<String, Object> responseBody = parseResponse(response);
+        assertFalse((Boolean) responseBody.get("errors"));
+        assertEquals(1L, admission.getOperations());
+        assertTrue(insert1.isDone());
+    }
+
+    @Test
+    void testBulkRejectsOperationsOverBudget() throws IOException {
+        final BulkAdmission admission = new BulkAdmission(new ProxyHandlerConfig.Builder().bulkMaxOperations(2).build());
+        when(handler.getBulkAdmission()).thenReturn(admission);
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n" +
+                "{\"index\":{\"_index\":\"test\",\"_id\":\"2\"}}\n" +
+                "{\"title\":\"Document 2\"}\n";
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+        HttpResponse response = action.execute(request);
+        // other requests take the budget after this one was admitted
+        final BulkAdmission.Reservation other = admission.admit(null, 0);
+        assertTrue(other.tryAcquire("test", 100));
+        assertTrue(other.tryAcquire("test", 100));
+
+        Map<String, Object> responseBody = parseResponse(response);
+        assertTrue((Boolean) responseBody.get("errors"));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
+        assertEquals(2, items.size());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> first = (Map<String, Object>) items.get(0).get("index");
+        assertEquals(429, first.get("status"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> error = (Map<String, Object>) first.get("error");
+        assertEquals("es_rejected_execution_exception", error.get("type"));
+        verify(vespaClient, never()).insertSourceAsync(anyString(), anyString(), anyString(), any());
+        other.close();
+        assertEquals(0L, admission.getBytes());
+    }
+
     @Test
     void testBulkWithEmptyRequest() throws IOException {
         // Prepare empty request
@@ -326,7 +745,7 @@ public class BulkActionExecutionTests {
         HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest.toString());
 
         // Mock VespaClient responses
-        when(vespaClient.insert(anyString(), anyString(), anyString(), anyMap())).thenReturn(Map.of());
+        when(vespaClient.insertSourceAsync(anyString(), anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
 
         // Execute
         HttpResponse response = action.execute(request);
@@ -340,7 +759,7 @@ public class BulkActionExecutionTests {
         List<Map<String, Object>> items = (List<Map<String, Object>>) responseBody.get("items");
         assertEquals(100, items.size());
 
-        verify(vespaClient, times(100)).insert(anyString(), anyString(), anyString(), anyMap());
+        verify(vespaClient, times(100)).insertSourceAsync(anyString(), anyString(), anyString(), any());
     }
 
     @Test
@@ -359,6 +778,71 @@ public class BulkActionExecutionTests {
         assertTrue((Boolean) responseBody.get("errors")); // Should have errors
     }
 
+    @Test
+    void testBulkAsTask() throws Exception {
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n" +
+                "{\"delete\":{\"_index\":\"test\",\"_id\":\"2\"}}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+        when(request.getProperty("wait_for_completion")).thenReturn("false");
+        TaskManager taskManager = new TaskManager(new ProxyHandlerConfig());
+        when(handler.getTaskManager()).thenReturn(taskManager);
+
+        when(vespaClient.insertSourceAsync(eq("test"), eq("doc"), eq("1"), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+        when(vespaClient.deleteAsync("test", "doc", "2")).thenReturn(CompletableFuture.failedFuture(new VespaClientException("The response is 400", 400)));
+
+        try {
+            HttpResponse response = action.execute(request);
+
+            assertEquals(200, response.getStatus());
+            String taskId = (String) parseResponse(response).get("task");
+            assertNotNull(taskId);
+            Task task = taskManager.get(taskId);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!task.isCompleted() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(task.isCompleted());
+
+            @SuppressWarnings("unchecked")
+            Map<String, Object> result = (Map<String, Object>) task.toResult().get("response");
+            assertEquals(2L, ((Number) result.get("total")).longValue());
+            assertEquals(1L, ((Number) result.get("created")).longValue());
+            assertEquals(1L, ((Number) result.get("failed")).longValue());
+            assertTrue((Boolean) result.get("errors"));
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> failures = (List<Map<String, Object>>) result.get("failures");
+            assertEquals(1, failures.size());
+            assertTrue(failures.get(0).containsKey("delete"));
+        } finally {
+            taskManager.close();
+        }
+    }
+
+    @Test
+    void testBulkAsTaskOverSpoolMaxBytes() throws Exception {
+        String bulkRequest = "{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n" +
+                "{\"title\":\"Document 1\"}\n";
+
+        HttpRequest request = createMockRequest("POST", "/_bulk", bulkRequest);
+        when(request.getProperty("wait_for_completion")).thenReturn("false");
+        TaskManager taskManager = new TaskManager(new ProxyHandlerConfig.Builder().taskSpoolMaxBytes(16).build());
+        when(handler.getTaskManager()).thenReturn(taskManager);
+
+        try {
+            assertThrows(EsRejectedExecutionException.class, () -> action.execute(request));
+
+            // the slot and the spooled bytes are released, and no task was started
+            assertEquals(0, taskManager.getStats().get("slots"));
+            assertEquals(0L, taskManager.getStats().get("spool_bytes"));
+            assertTrue(taskManager.getRunning().isEmpty());
+            verify(vespaClient, never()).insertSourceAsync(any(), any(), any(), any());
+        } finally {
+            taskManager.close();
+        }
+    }
+
     private HttpRequest createMockRequest(String method, String path, String body) throws IOException {
         HttpRequest request = mock(HttpRequest.class);
         when(request.getUri()).thenReturn(java.net.URI.create("http://localhost" + path));
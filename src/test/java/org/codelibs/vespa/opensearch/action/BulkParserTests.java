@@ -0,0 +1,125 @@
+package org.codelibs.vespa.opensearch.action;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.junit.jupiter.api.Test;
+
+public class BulkParserTests {
+
+    private static BulkParser createParser(final String body, final int chunkSize) {
+        return new BulkParser(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), chunkSize, bytes -> true);
+    }
+
+    @Test
+    void testReadLines() throws IOException {
+        final BulkParser parser = createParser("{\"index\":{\"_index\":\"test\",\"_id\":\"1\"}}\n{\"title\":\"Document 1\"}\n"
+                + "{\"delete\":{\"_index\":\"test\",\"_id\":\"2\"}}\n", 1024);
+
+        assertTrue(parser.nextLine());
+        assertEquals(Map.of("index", Map.of("_index", "test", "_id", "1")), parser.parseLine());
+        assertTrue(parser.nextLine());
+        final BulkParser.Source source = parser.readSource();
+        assertTrue(parser.nextLine());
+        assertEquals(Map.of("delete", Map.of("_index", "test", "_id", "2")), parser.parseLine());
+        assertFalse(parser.nextLine());
+
+        // the source stays valid after the buffer moved on
+        assertEquals(Map.of("title", "Document 1"), source.toMap());
+    }
+
+    @Test
+    void testLinesAcrossChunks() throws IOException {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            body.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n");
+            body.append("{\"title\":\"").append("x".repeat(i * 3)).append("\"}\n");
+        }
+        // chunks smaller than a line make the buffer grow
+        final BulkParser parser = createParser(body.toString(), 8);
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(parser.nextLine());
+            assertEquals(Map.of("index", Map.of("_id", String.valueOf(i))), parser.parseLine());
+            assertTrue(parser.nextLine());
+            assertEquals(Map.of("title", "x".repeat(i * 3)), parser.readSource().toMap());
+        }
+        assertFalse(parser.nextLine());
+    }
+
+    @Test
+    void testLineEndingAfterRefill() throws IOException {
+        // the first chunk ends inside the second line, whose newline is read by a refill after the first line was consumed
+        final BulkParser parser = createParser("{\"a\":1}\n{\"b\":22}\n{\"c\":3}\n", 16);
+
+        assertTrue(parser.nextLine());
+        assertEquals(Map.of("a", 1), parser.parseLine());
+        assertTrue(parser.nextLine());
+        assertEquals(Map.of("b", 22), parser.parseLine());
+        assertTrue(parser.nextLine());
+        assertEquals(Map.of("c", 3), parser.parseLine());
+        assertFalse(parser.nextLine());
+    }
+
+    @Test
+    void testBlankLinesAndCarriageReturns() throws IOException {
+        final BulkParser parser = createParser("\n  \r\n{\"delete\":{\"_id\":\"1\"}}\r\n\t\n{\"delete\":{\"_id\":\"2\"}}", 16);
+
+        assertTrue(parser.nextLine());
+        assertEquals(Map.of("delete", Map.of("_id", "1")), parser.parseLine());
+        // the last line has no newline
+        assertTrue(parser.nextLine());
+        assertEquals(Map.of("delete", Map.of("_id", "2")), parser.parseLine());
+        assertFalse(parser.nextLine());
+        assertFalse(parser.nextLine());
+    }
+
+    @Test
+    void testUtf8() throws IOException {
+        final BulkParser parser = createParser("{\"title\":\"\u65e5\u672c\u8a9e \u00fc \u20ac\"}\n", 4);
+
+        assertTrue(parser.nextLine());
+        final BulkParser.Source source = parser.readSource();
+        assertEquals(Map.of("title", "\u65e5\u672c\u8a9e \u00fc \u20ac"), source.toMap());
+        assertEquals("{\"title\":\"\u65e5\u672c\u8a9e \u00fc \u20ac\"}", source.toString());
+    }
+
+    @Test
+    void testEmptyBody() throws IOException {
+        assertFalse(createParser("", 16).nextLine());
+        assertTrue(BulkParser.Source.EMPTY.toMap().isEmpty());
+    }
+
+    @Test
+    void testInvalidLine() throws IOException {
+        final BulkParser parser = createParser("{invalid json\n", 16);
+
+        assertTrue(parser.nextLine());
+        assertThrows(IOException.class, parser::parseLine);
+    }
+
+    @Test
+    void testRejectLineOverBudget() throws IOException {
+        final String line = "{\"title\":\"" + "x".repeat(100) + "\"}\n";
+        final List<Long> growths = new ArrayList<>();
+        // the budget holds one growth of the 16 byte buffer, which is not enough for the line
+        final BulkParser parser = new BulkParser(new ByteArrayInputStream(("{\"delete\":{\"_id\":\"1\"}}\n" + line)
+                .getBytes(StandardCharsets.UTF_8)), 16, bytes -> growths.add(bytes) && growths.size() < 3);
+
+        assertTrue(parser.nextLine());
+        assertEquals(Map.of("delete", Map.of("_id", "1")), parser.parseLine());
+        final EsRejectedExecutionException e = assertThrows(EsRejectedExecutionException.class, parser::nextLine);
+        assertEquals(429, e.getStatus());
+        assertEquals(List.of(16L, 32L, 64L), growths);
+    }
+}
@@ -0,0 +1,20 @@
+package org.codelibs.vespa.opensearch.action;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.yahoo.jdisc.http.HttpRequest.Method;
+
+public class NodesStatsActionTests {
+
+    @Test
+    public void testIsTarget() {
+        NodesStatsAction action = new NodesStatsAction(null);
+        assertTrue(action.isTarget(Method.GET, "/_nodes/stats".split("/")));
+        assertFalse(action.isTarget(Method.POST, "/_nodes/stats".split("/")));
+        assertFalse(action.isTarget(Method.GET, "/_nodes".split("/")));
+        assertFalse(action.isTarget(Method.GET, "/_cluster/health".split("/")));
+    }
+}
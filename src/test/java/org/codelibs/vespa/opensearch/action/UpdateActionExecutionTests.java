@@ -7,6 +7,7 @@ import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -17,8 +18,10 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.codelibs.vespa.opensearch.client.VespaClient;
+import org.codelibs.vespa.opensearch.client.ingest.IngestLog;
 import org.codelibs.vespa.opensearch.exception.VespaClientException;
 import org.codelibs.vespa.opensearch.handler.RestApiProxyHandler;
 import org.junit.jupiter.api.BeforeEach;
@@ -292,6 +295,36 @@ public class UpdateActionExecutionTests {
         assertEquals(0, shards.get("failed"));
     }
 
+    @Test
+    void testUpdateThroughIngestLog() throws IOException {
+        IngestLog ingestLog = mock(IngestLog.class);
+        when(handler.getIngestLog()).thenReturn(ingestLog);
+        when(ingestLog.partialUpdate(eq("myindex"), eq("doc"), eq("doc1"), anyMap()))
+                .thenReturn(CompletableFuture.completedFuture(Map.of()));
+
+        Map<String, Object> requestBody = Map.of("doc", Map.of("title", "Updated Title"));
+        HttpResponse response = action.execute(createMockRequest("POST", "/myindex/_update/doc1", requestBody));
+
+        // acknowledged once the update is in the log, and merged when the log sends it
+        assertEquals(200, response.getStatus());
+        assertEquals("updated", parseResponse(response).get("result"));
+        verify(ingestLog, times(1)).partialUpdate("myindex", "doc", "doc1", requestBody);
+        verify(vespaClient, never()).partialUpdate(anyString(), anyString(), anyString(), anyMap());
+    }
+
+    @Test
+    void testUpdateThroughIngestLogFailure() throws IOException {
+        IngestLog ingestLog = mock(IngestLog.class);
+        when(handler.getIngestLog()).thenReturn(ingestLog);
+        when(ingestLog.partialUpdate(anyString(), anyString(), anyString(), anyMap()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("The ingest log is closed.", 503)));
+
+        Map<String, Object> requestBody = Map.of("doc", Map.of("title", "Updated Title"));
+        HttpResponse response = action.execute(createMockRequest("POST", "/myindex/_update/doc1", requestBody));
+
+        assertEquals(503, response.getStatus());
+    }
+
     private HttpRequest createMockRequest(String method, String path, Map<String, Object> body) throws IOException {
         HttpRequest request = mock(HttpRequest.class);
         when(request.getUri()).thenReturn(java.net.URI.create("http://localhost" + path));
@@ -0,0 +1,203 @@
+package org.codelibs.vespa.opensearch.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CrossClusterSearchTests {
+
+    private SearchClient local;
+
+    private SearchClient eu;
+
+    private SearchClient us;
+
+    private CrossClusterSearch crossClusterSearch;
+
+    @BeforeEach
+    void setUp() {
+        local = mock(SearchClient.class);
+        eu = mock(SearchClient.class);
+        us = mock(SearchClient.class);
+        final Map<String, SearchClient> remotes = new LinkedHashMap<>();
+        remotes.put("eu", eu);
+        remotes.put("us", us);
+        crossClusterSearch = new CrossClusterSearch(local, remotes, 1000);
+    }
+
+    private static CompletableFuture<Map<String, Object>> response(final double... scores) {
+        final List<Map<String, Object>> hits = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++) {
+            final Map<String, Object> hit = new HashMap<>();
+            hit.put("_index", "default");
+            hit.put("_id", String.valueOf(scores[i]));
+            hit.put("_score", scores[i]);
+            hits.add(hit);
+        }
+        final Map<String, Object> result = new HashMap<>();
+        result.put("timed_out", false);
+        result.put("_shards", Map.of("total", 1, "successful", 1, "skipped", 0, "failed", 0));
+        result.put("hits", Map.of("total", Map.of("value", scores.length * 10, "relation", "eq"), "max_score",
+                scores.length > 0 ? scores[0] : 0.0, "hits", hits));
+        return CompletableFuture.completedFuture(result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> getHits(final Map<String, Object> result) {
+        return (List<Map<String, Object>>) ((Map<String, Object>) result.get("hits")).get("hits");
+    }
+
+    @Test
+    void testParseClusters() {
+        final Map<String, String> clusters = CrossClusterSearch
+                .parseClusters(" eu=http://eu:8080 ; us=http://us-1:8080,http://us-2:8080;");
+        assertEquals(List.of("eu", "us"), new ArrayList<>(clusters.keySet()));
+        assertEquals("http://us-1:8080,http://us-2:8080", clusters.get("us"));
+        assertTrue(CrossClusterSearch.parseClusters("").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> CrossClusterSearch.parseClusters("http://eu:8080"));
+        assertThrows(IllegalArgumentException.class, () -> CrossClusterSearch.parseClusters("eu=http://a:8080;eu=http://b:8080"));
+    }
+
+    @Test
+    void testIsCrossCluster() {
+        assertTrue(CrossClusterSearch.isCrossCluster("eu:logs-*,us:logs-*"));
+        assertTrue(CrossClusterSearch.isCrossCluster("logs,eu:logs"));
+        assertFalse(CrossClusterSearch.isCrossCluster("logs-*"));
+        assertFalse(CrossClusterSearch.isCrossCluster(null));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testMergeByScore() {
+        when(eu.searchAsync(eq("logs-*"), eq("doc"), any())).thenReturn(response(0.9, 0.5, 0.1));
+        when(us.searchAsync(eq("logs-*"), eq("doc"), any())).thenReturn(response(0.8, 0.7, 0.2));
+
+        final Map<String, Object> result = crossClusterSearch.search("eu:logs-*,us:logs-*", "doc", Map.of("size", 4));
+
+        final List<Map<String, Object>> hits = getHits(result);
+        assertEquals(4, hits.size());
+        assertEquals(List.of(0.9, 0.8, 0.7, 0.5), List.of(hits.get(0).get("_score"), hits.get(1).get("_score"),
+                hits.get(2).get("_score"), hits.get(3).get("_score")));
+        assertEquals("eu:default", hits.get(0).get("_index"));
+        assertEquals("us:default", hits.get(1).get("_index"));
+        final Map<String, Object> total = (Map<String, Object>) ((Map<String, Object>) result.get("hits")).get("total");
+        assertEquals(60L, total.get("value"));
+        assertEquals(0.9, ((Map<String, Object>) result.get("hits")).get("max_score"));
+        assertEquals(Map.of("total", 2, "successful", 2, "skipped", 0), result.get("_clusters"));
+        assertEquals(false, result.get("timed_out"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testPageOverMergedHits() {
+        when(eu.searchAsync(anyString(), anyString(), any())).thenReturn(response(0.9, 0.5, 0.1));
+        when(us.searchAsync(anyString(), anyString(), any())).thenReturn(response(0.8, 0.7, 0.2));
+
+        final Map<String, Object> result = crossClusterSearch.search("eu:logs,us:logs", "doc", Map.of("from", 2, "size", 2));
+
+        final List<Map<String, Object>> hits = getHits(result);
+        assertEquals(List.of(0.7, 0.5), List.of(hits.get(0).get("_score"), hits.get(1).get("_score")));
+        // every cluster is asked for the hits up to the end of the page
+        verify(eu).searchAsync(eq("logs"), eq("doc"), eq(Map.of("from", 0, "size", 4)));
+    }
+
+    @Test
+    void testMergeByScoreWithSort() {
+        when(eu.searchAsync(anyString(), anyString(), any())).thenReturn(response(0.9, 0.1));
+        when(us.searchAsync(anyString(), anyString(), any())).thenReturn(response(0.5));
+
+        // the sort is not passed to Vespa, so every cluster returns its hits by score and they are merged by score
+        final Map<String, Object> result = crossClusterSearch.search("eu:logs,us:logs", "doc",
+                Map.of("sort", List.of(Map.of("timestamp", Map.of("order", "asc")))));
+
+        final List<Map<String, Object>> hits = getHits(result);
+        assertEquals(List.of(0.9, 0.5, 0.1), List.of(hits.get(0).get("_score"), hits.get(1).get("_score"), hits.get(2).get("_score")));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testPartialResults() {
+        when(local.searchAsync(eq("logs"), anyString(), any())).thenReturn(response(0.6));
+        when(eu.searchAsync(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Search failed with status: 500", 500)));
+
+        final Map<String, Object> result = crossClusterSearch.search("logs,eu:logs", "doc", Map.of());
+
+        assertEquals(1, getHits(result).size());
+        assertEquals("default", getHits(result).get(0).get("_index"));
+        assertEquals(Map.of("total", 2, "successful", 1, "skipped", 1), result.get("_clusters"));
+        final Map<String, Object> shards = (Map<String, Object>) result.get("_shards");
+        assertEquals(1, shards.get("failed"));
+        final Map<String, Object> failure = ((List<Map<String, Object>>) shards.get("failures")).get(0);
+        assertEquals("eu:logs", failure.get("index"));
+        verify(us, never()).searchAsync(anyString(), anyString(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testClusterTimeout() {
+        when(eu.searchAsync(anyString(), anyString(), any())).thenReturn(response(0.9));
+        final CompletableFuture<Map<String, Object>> pending = new CompletableFuture<>();
+        when(us.searchAsync(anyString(), anyString(), any())).thenReturn(pending);
+
+        final long startTime = System.nanoTime();
+        final Map<String, Object> result = crossClusterSearch.search("eu:logs,us:logs", "doc", Map.of("timeout", "100ms"));
+
+        assertTrue(System.nanoTime() - startTime < 900_000_000L, "the request timeout overrides the cluster timeout");
+        assertEquals(true, result.get("timed_out"));
+        assertEquals(1, getHits(result).size());
+        final Map<String, Object> shards = (Map<String, Object>) result.get("_shards");
+        final Map<String, Object> reason = (Map<String, Object>) ((List<Map<String, Object>>) shards.get("failures")).get(0).get("reason");
+        assertEquals("timeout_exception", reason.get("type"));
+        // the request of the cluster left out is aborted
+        assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    void testAllClustersFail() {
+        when(eu.searchAsync(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Search failed with status: 500", 500)));
+        when(us.searchAsync(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Search failed with status: 502", 502)));
+
+        final VespaClientException e = assertThrows(VespaClientException.class,
+                () -> crossClusterSearch.search("eu:logs,us:logs", "doc", Map.of()));
+        assertEquals(500, e.getStatus());
+    }
+
+    @Test
+    void testUnknownCluster() {
+        final IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> crossClusterSearch.search("ap:logs", "doc", Map.of()));
+        assertEquals("no such remote cluster: [ap]", e.getMessage());
+        verify(eu, never()).searchAsync(anyString(), anyString(), any());
+    }
+
+    @Test
+    void testCloseOnlyRemoteClients() {
+        crossClusterSearch.close();
+        verify(eu).close();
+        verify(us).close();
+        verify(local, never()).close();
+        assertEquals(List.of("eu", "us"), crossClusterSearch.getRemoteClusters());
+    }
+}
@@ -0,0 +1,214 @@
+package org.codelibs.vespa.opensearch.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.yahoo.document.ArrayDataType;
+import com.yahoo.document.DataType;
+import com.yahoo.document.Document;
+import com.yahoo.document.DocumentId;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.DocumentTypeManager;
+import com.yahoo.document.DocumentUpdate;
+import com.yahoo.documentapi.AsyncParameters;
+import com.yahoo.documentapi.AsyncSession;
+import com.yahoo.documentapi.DocumentAccess;
+import com.yahoo.documentapi.DocumentResponse;
+import com.yahoo.documentapi.RemoveResponse;
+import com.yahoo.documentapi.Response;
+import com.yahoo.documentapi.ResponseHandler;
+import com.yahoo.documentapi.Result;
+import com.yahoo.documentapi.UpdateResponse;
+
+public class DocumentAccessBackendTests {
+
+    private final Map<DocumentId, Document> store = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private VespaClient client;
+
+    @BeforeEach
+    void setUp() {
+        final DocumentType documentType = new DocumentType("doc");
+        documentType.addField("title", DataType.STRING);
+        documentType.addField("count", DataType.LONG);
+        documentType.addField("tags", new ArrayDataType(DataType.STRING));
+        final DocumentTypeManager manager = new DocumentTypeManager();
+        manager.registerDocumentType(documentType);
+
+        final DocumentAccess documentAccess = mock(DocumentAccess.class);
+        when(documentAccess.getDocumentTypeManager()).thenReturn(manager);
+        when(documentAccess.createAsyncSession(any()))
+                .thenAnswer(invocation -> new InMemorySession(invocation.<AsyncParameters> getArgument(0).getResponseHandler()));
+        client = new VespaClient(new ProxyHandlerConfig(),
+                new VespaClient.Components().documentBackend(new DocumentAccessBackend(documentAccess)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testInsertAndGet() {
+        final Map<String, Object> inserted = client.insert("ns", "doc", "1", Map.of("title", "Hello", "count", 3, "tags", List.of("a", "b")));
+        assertEquals("id:ns:doc::1", inserted.get("id"));
+        assertEquals("/document/v1/ns/doc/docid/1", inserted.get("pathId"));
+
+        final Map<String, Object> doc = client.get("ns", "doc", "1");
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> fields = (Map<String, Object>) doc.get("fields");
+        assertEquals("Hello", fields.get("title"));
+        assertEquals(3L, fields.get("count"));
+        assertEquals(List.of("a", "b"), fields.get("tags"));
+    }
+
+    @Test
+    void testUpdate() {
+        client.insert("ns", "doc", "1", Map.of("title", "Hello", "count", 3));
+        client.update("ns", "doc", "1", Map.of("count", 4));
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> fields = (Map<String, Object>) client.get("ns", "doc", "1").get("fields");
+        assertEquals("Hello", fields.get("title"));
+        assertEquals(4L, fields.get("count"));
+    }
+
+    @Test
+    void testDelete() {
+        client.insert("ns", "doc", "1", Map.of("title", "Hello"));
+        client.delete("ns", "doc", "1");
+        assertTrue(store.isEmpty());
+
+        final VespaClientException e = assertThrows(VespaClientException.class, () -> client.get("ns", "doc", "1"));
+        assertTrue(e.getCause().getMessage().contains("The doc is not found."));
+    }
+
+    @Test
+    void testInsertSource() {
+        final byte[] source = "{\"title\":\"Hello\",\"count\":3,\"tags\":[\"a\",\"b\"]}".getBytes(StandardCharsets.UTF_8);
+        client.insertSourceAsync("ns", "doc", "1", source).join();
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> fields = (Map<String, Object>) client.get("ns", "doc", "1").get("fields");
+        assertEquals("Hello", fields.get("title"));
+        assertEquals(3L, fields.get("count"));
+        assertEquals(List.of("a", "b"), fields.get("tags"));
+    }
+
+    @Test
+    void testInsertInvalidSource() {
+        final CompletionException e = assertThrows(CompletionException.class,
+                () -> client.insertSourceAsync("ns", "doc", "1", "{\"title\":".getBytes(StandardCharsets.UTF_8)).join());
+        assertEquals(400, ((VespaClientException) e.getCause()).getStatus());
+        assertFalse(store.containsKey(new DocumentId("id:ns:doc::1")));
+    }
+
+    @Test
+    void testUnknownField() {
+        assertThrows(VespaClientException.class, () -> client.insert("ns", "doc", "1", Map.of("unknown", "value")));
+        assertFalse(store.containsKey(new DocumentId("id:ns:doc::1")));
+    }
+
+    @Test
+    void testMultiGet() {
+        client.insert("ns", "doc", "1", Map.of("title", "One"));
+        client.insert("ns", "doc", "2", Map.of("title", "Two"));
+
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> docs = (List<Map<String, Object>>) client.multiGet("ns", "doc", List.of("1", "2", "3")).get("docs");
+        assertEquals(3, docs.size());
+        assertEquals(true, docs.get(0).get("found"));
+        assertEquals(true, docs.get(1).get("found"));
+        assertEquals(false, docs.get(2).get("found"));
+    }
+
+    /**
+     * Session storing documents in memory and sending responses from another thread, as the message bus does.
+     */
+    private class InMemorySession implements AsyncSession {
+
+        private final ResponseHandler handler;
+
+        private final AtomicLong requestId = new AtomicLong();
+
+        InMemorySession(final ResponseHandler handler) {
+            this.handler = handler;
+        }
+
+        private Result respond(final java.util.function.LongFunction<Response> response) {
+            final long id = requestId.incrementAndGet();
+            executor.execute(() -> handler.handleResponse(response.apply(id)));
+            return new Result(id);
+        }
+
+        @Override
+        public Result put(final Document document) {
+            store.put(document.getId(), document);
+            return respond(Response::new);
+        }
+
+        @Override
+        public Result get(final DocumentId id) {
+            final Document document = store.get(id);
+            return respond(requestId -> new DocumentResponse(requestId, document));
+        }
+
+        @Override
+        public Result remove(final DocumentId id) {
+            final boolean found = store.remove(id) != null;
+            return respond(requestId -> new RemoveResponse(requestId, found));
+        }
+
+        @Override
+        public Result update(final DocumentUpdate update) {
+            final Document document = store.get(update.getId());
+            if (document != null) {
+                update.applyTo(document);
+            }
+            return respond(requestId -> new UpdateResponse(requestId, document != null));
+        }
+
+        @Override
+        public double getCurrentWindowSize() {
+            return 1;
+        }
+
+        @Override
+        public Response getNext() {
+            return null;
+        }
+
+        @Override
+        public Response getNext(final int timeoutMilliseconds) {
+            return null;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.codelibs.vespa.opensearch.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class DocumentSourceTests {
+
+    private static String toFieldsJson(final String source) throws IOException {
+        return new String(DocumentSource.toFieldsJson(source.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testFlattenNestedObjects() throws IOException {
+        assertEquals("{\"fields\":{\"title\":\"Hello\",\"meta.lang\":\"en\",\"meta.author.name\":\"Bob\",\"count\":3}}",
+                toFieldsJson("{\"title\":\"Hello\",\"meta\":{\"lang\":\"en\",\"author\":{\"name\":\"Bob\"}},\"count\":3}"));
+    }
+
+    @Test
+    void testCopyValuesAsTheyAre() throws IOException {
+        assertEquals("{\"fields\":{\"tags\":[\"a\",{\"b\":1}],\"price\":1.5,\"flag\":true,\"none\":null,\"empty\":\"\"}}",
+                toFieldsJson("{\"tags\":[\"a\",{\"b\":1}],\"price\":1.5,\"flag\":true,\"none\":null,\"empty\":\"\"}"));
+        assertEquals("{\"fields\":{\"title\":\"\u65e5\u672c\u8a9e\"}}", toFieldsJson("{ \"title\" : \"\u65e5\u672c\u8a9e\" }"));
+    }
+
+    @Test
+    void testEmptySource() throws IOException {
+        assertEquals("{\"fields\":{}}", toFieldsJson(""));
+        assertEquals("{\"fields\":{}}", toFieldsJson("{}"));
+    }
+
+    @Test
+    void testInvalidSource() {
+        assertThrows(IOException.class, () -> toFieldsJson("{\"title\":"));
+        assertThrows(IOException.class, () -> toFieldsJson("[1,2]"));
+        assertThrows(IOException.class, () -> toFieldsJson("\"title\""));
+        assertThrows(IOException.class, () -> toFieldsJson("{\"title\":\"a\"} {\"title\":\"b\"}"));
+    }
+}
@@ -0,0 +1,109 @@
+package org.codelibs.vespa.opensearch.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.yahoo.component.ComponentId;
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.Searcher;
+import com.yahoo.search.result.ErrorMessage;
+import com.yahoo.search.result.Hit;
+import com.yahoo.search.searchchain.Execution;
+import com.yahoo.search.searchchain.ExecutionFactory;
+import com.yahoo.search.searchchain.SearchChain;
+
+public class ExecutionSearchBackendTests {
+
+    private final AtomicReference<Query> lastQuery = new AtomicReference<>();
+
+    private VespaClient client;
+
+    private boolean fail;
+
+    @BeforeEach
+    void setUp() {
+        final Searcher searcher = new Searcher() {
+            @Override
+            public Result search(final Query query, final Execution execution) {
+                lastQuery.set(query);
+                if (fail) {
+                    return new Result(query, ErrorMessage.createBackendCommunicationError("down"));
+                }
+                final Result result = new Result(query);
+                result.setTotalHitCount(42);
+                for (int i = 0; i < query.getHits(); i++) {
+                    final Hit hit = new Hit("id:ns:doc::" + i, 1.0 / (i + 1));
+                    hit.setField("title", "Title " + i);
+                    result.hits().add(hit);
+                }
+                return result;
+            }
+        };
+        final ExecutionFactory executionFactory = mock(ExecutionFactory.class);
+        when(executionFactory.newExecution(anyString()))
+                .thenAnswer(invocation -> new Execution(new SearchChain(new ComponentId("test"), searcher), Execution.Context.createContextStub()));
+        client = new VespaClient(new ProxyHandlerConfig(),
+                new VespaClient.Components().searchBackend(new ExecutionSearchBackend(executionFactory, "vespa")));
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+    }
+
+    @Test
+    void testSearch() {
+        final Map<String, Object> response = client.search("ns", "doc",
+                Map.of("query", Map.of("match", Map.of("title", "hello")), "size", 2, "from", 3));
+
+        final Query query = lastQuery.get();
+        assertEquals(2, query.getHits());
+        assertEquals(3, query.getOffset());
+        assertEquals("title:hello", query.getModel().getQueryTree().getRoot().toString());
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> hits = (Map<String, Object>) response.get("hits");
+        assertEquals(Map.of("value", 42L, "relation", "eq"), hits.get("total"));
+        assertEquals(1.0, hits.get("max_score"));
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> hitList = (List<Map<String, Object>>) hits.get("hits");
+        assertEquals(2, hitList.size());
+        assertEquals("id:ns:doc::0", hitList.get(0).get("_id"));
+        assertEquals(Map.of("title", "Title 0"), hitList.get(0).get("_source"));
+        assertEquals(0.5, hitList.get(1).get("_score"));
+    }
+
+    @Test
+    void testSearchTimeout() {
+        client.search("ns", "doc", Map.of("timeout", "250ms"));
+        assertEquals(250L, lastQuery.get().getTimeout());
+    }
+
+    @Test
+    void testCount() {
+        final Map<String, Object> response = client.count("ns", "doc", null);
+        assertEquals(0, lastQuery.get().getHits());
+        assertEquals(42L, response.get("count"));
+    }
+
+    @Test
+    void testSearchError() {
+        fail = true;
+        assertThrows(VespaClientException.class, () -> client.search("ns", "doc", Map.of()));
+    }
+
+}
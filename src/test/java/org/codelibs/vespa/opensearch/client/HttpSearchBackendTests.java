@@ -0,0 +1,124 @@
+package org.codelibs.vespa.opensearch.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.codelibs.vespa.opensearch.client.limit.UpstreamGuard;
+import org.codelibs.vespa.opensearch.client.transport.TransportRequest;
+import org.codelibs.vespa.opensearch.client.transport.TransportResponse;
+import org.codelibs.vespa.opensearch.client.transport.VespaTransport;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensearch.common.xcontent.json.JsonXContent;
+import org.opensearch.core.xcontent.DeprecationHandler;
+import org.opensearch.core.xcontent.NamedXContentRegistry;
+
+public class HttpSearchBackendTests {
+
+    private static final String RESULT = "{\"root\":{\"id\":\"toplevel\",\"relevance\":1.0,\"fields\":{\"totalCount\":1},"
+            + "\"coverage\":{\"documents\":1},\"children\":[{\"id\":\"id:ns:doc::1\",\"relevance\":0.5,\"fields\":{\"title\":\"hello\"}}]}}";
+
+    private final List<TransportRequest> requests = new ArrayList<>();
+
+    private VespaClient client;
+
+    @BeforeEach
+    void setUp() {
+        final VespaTransport transport = mock(VespaTransport.class);
+        when(transport.executeAsync(any())).thenAnswer(invocation -> {
+            requests.add(invocation.getArgument(0));
+            return CompletableFuture.completedFuture(new TransportResponse(200, RESULT.getBytes(StandardCharsets.UTF_8)));
+        });
+        client = new VespaClient(new ProxyHandlerConfig(), new VespaClient.Components().transport(transport));
+    }
+
+    private static Map<String, Object> parseBody(final TransportRequest request) throws Exception {
+        return JsonXContent.jsonXContent
+                .createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.IGNORE_DEPRECATIONS, request.getBody()).map();
+    }
+
+    @Test
+    void testSearchAsJsonBody() throws Exception {
+        final Map<String, Object> response = client.search("ns", "doc",
+                Map.of("query", Map.of("match", Map.of("title", "hello")), "size", 5, "from", 10, "timeout", "2s"));
+
+        final TransportRequest request = requests.get(0);
+        assertEquals(TransportRequest.Method.POST, request.getMethod());
+        assertEquals("search/", request.getPath());
+        // a query only reads, so it may be hedged and retried
+        assertTrue(request.isIdempotent());
+        final Map<String, Object> body = parseBody(request);
+        assertTrue(((String) body.get("yql")).contains("title contains \"hello\""));
+        assertEquals(5, body.get("hits"));
+        assertEquals(10, body.get("offset"));
+        assertEquals("2000ms", body.get("timeout"));
+
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> hits = (List<Map<String, Object>>) ((Map<String, Object>) response.get("hits")).get("hits");
+        assertEquals("id:ns:doc::1", hits.get(0).get("_id"));
+    }
+
+    @Test
+    void testManyIds() throws Exception {
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            ids.add("document-" + i);
+        }
+        client.search("ns", "doc", Map.of("query", Map.of("ids", Map.of("values", ids))));
+
+        // no URL length limit, and the YQL is sent as is
+        final TransportRequest request = requests.get(0);
+        assertEquals("search/", request.getPath());
+        assertTrue(((String) parseBody(request).get("yql")).contains("\"document-4999\""));
+    }
+
+    @Test
+    void testCount() throws Exception {
+        final Map<String, Object> response = client.count("ns", "doc", null);
+
+        final Map<String, Object> body = parseBody(requests.get(0));
+        assertEquals("select * from sources * where true", body.get("yql"));
+        assertEquals(0, body.get("hits"));
+        assertNull(body.get("timeout"));
+        assertEquals(1, response.get("count"));
+    }
+
+    @Test
+    void testParseTimeMillis() {
+        assertEquals(-1, SearchQuery.parseTimeMillis(null));
+        assertEquals(-1, SearchQuery.parseTimeMillis("-1"));
+        assertEquals(500, SearchQuery.parseTimeMillis("500ms"));
+        assertEquals(3000, SearchQuery.parseTimeMillis("3s"));
+        assertEquals(120000, SearchQuery.parseTimeMillis("2m"));
+        assertEquals(1, SearchQuery.parseTimeMillis("1000micros"));
+        assertThrows(IllegalArgumentException.class, () -> SearchQuery.parseTimeMillis("fast"));
+        assertFalse(TransportRequest.post("document/v1/ns/doc/docid/1", new byte[0]).isIdempotent());
+    }
+
+    @Test
+    void testCancelSearch() {
+        final VespaTransport transport = mock(VespaTransport.class);
+        final CompletableFuture<TransportResponse> request = new CompletableFuture<>();
+        when(transport.executeAsync(any())).thenReturn(request);
+        final UpstreamGuard guard = new UpstreamGuard(new ProxyHandlerConfig());
+        client = new VespaClient(new ProxyHandlerConfig(), new VespaClient.Components().transport(transport).upstreamGuard(guard));
+
+        // a caller giving up on the search aborts its request and gives back its permit
+        assertTrue(client.searchAsync("ns", "doc", Map.of()).cancel(false));
+        assertTrue(request.isCancelled());
+        assertEquals(0, ((Map<?, ?>) guard.getStats().get("search")).get("in_flight"));
+    }
+}
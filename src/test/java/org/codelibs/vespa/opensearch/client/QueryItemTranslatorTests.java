@@ -0,0 +1,131 @@
+package org.codelibs.vespa.opensearch.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.Test;
+
+import com.yahoo.prelude.query.AndItem;
+import com.yahoo.prelude.query.FalseItem;
+import com.yahoo.prelude.query.Item;
+import com.yahoo.prelude.query.NotItem;
+import com.yahoo.prelude.query.OrItem;
+import com.yahoo.prelude.query.PhraseItem;
+import com.yahoo.prelude.query.PrefixItem;
+import com.yahoo.prelude.query.RangeItem;
+import com.yahoo.prelude.query.RegExpItem;
+import com.yahoo.prelude.query.TrueItem;
+import com.yahoo.prelude.query.WordItem;
+
+public class QueryItemTranslatorTests {
+
+    private Item translate(final Map<String, Object> query) {
+        return QueryItemTranslator.translate(query);
+    }
+
+    @Test
+    void testMatchAllQuery() {
+        assertTrue(translate(Map.of("match_all", Map.of())) instanceof TrueItem);
+        assertTrue(translate(null) instanceof TrueItem);
+    }
+
+    @Test
+    void testMatchQuery() {
+        final Item item = translate(Map.of("match", Map.of("title", "hello world")));
+        assertTrue(item instanceof AndItem);
+        assertEquals("AND title:hello title:world", item.toString());
+
+        assertEquals("title:hello", translate(Map.of("match", Map.of("title", Map.of("query", "hello")))).toString());
+    }
+
+    @Test
+    void testMatchPhraseQuery() {
+        final Item item = translate(Map.of("match_phrase", Map.of("title", "hello world")));
+        assertTrue(item instanceof PhraseItem);
+        assertEquals("title:\"hello world\"", item.toString());
+    }
+
+    @Test
+    void testMultiMatchQuery() {
+        final Item item = translate(Map.of("multi_match", Map.of("query", "search", "fields", List.of("title", "content"))));
+        assertEquals("OR title:search content:search", item.toString());
+    }
+
+    @Test
+    void testTermQuery() {
+        final Item item = translate(Map.of("term", Map.of("status", "published")));
+        assertTrue(item instanceof WordItem);
+        assertEquals("status:published", item.toString());
+    }
+
+    @Test
+    void testTermsQuery() {
+        final Item item = translate(Map.of("terms", Map.of("status", List.of("published", "draft"))));
+        assertTrue(item instanceof OrItem);
+        assertEquals("OR status:published status:draft", item.toString());
+
+        assertTrue(translate(Map.of("terms", Map.of("status", List.of()))) instanceof FalseItem);
+    }
+
+    @Test
+    void testRangeQuery() {
+        final Item item = translate(Map.of("range", Map.of("price", Map.of("gte", 10, "lt", 100))));
+        assertTrue(item instanceof RangeItem);
+        final RangeItem range = (RangeItem) item;
+        assertEquals("price", range.getIndexName());
+        assertEquals(10L, range.getFrom().longValue());
+        assertEquals(100L, range.getTo().longValue());
+
+        assertThrows(VespaClientException.class, () -> translate(Map.of("range", Map.of("date", Map.of("gte", "now-1d")))));
+    }
+
+    @Test
+    void testPrefixAndWildcardQuery() {
+        final Item prefix = translate(Map.of("prefix", Map.of("title", "hel")));
+        assertTrue(prefix instanceof PrefixItem);
+        assertEquals("title:hel*", prefix.toString());
+
+        final Item wildcard = translate(Map.of("wildcard", Map.of("title", Map.of("value", "h?l.o*"))));
+        assertTrue(wildcard instanceof RegExpItem);
+        assertEquals("^h.l\\.o.*$", ((RegExpItem) wildcard).stringValue());
+    }
+
+    @Test
+    void testBoolQuery() {
+        final Map<String, Object> bool = Map.of("bool",
+                Map.of("must", List.of(Map.of("match", Map.of("title", "test"))), //
+                        "filter", Map.of("term", Map.of("status", "published")), //
+                        "should", List.of(Map.of("term", Map.of("tag", "a")), Map.of("term", Map.of("tag", "b"))), //
+                        "must_not", List.of(Map.of("term", Map.of("deleted", "true")))));
+        final Item item = translate(bool);
+        assertTrue(item instanceof NotItem);
+        final NotItem not = (NotItem) item;
+        assertEquals("(AND title:test status:published (OR tag:a tag:b))", not.getPositiveItem().toString());
+        assertEquals(2, not.getItemCount());
+        assertEquals("deleted:true", not.getItem(1).toString());
+    }
+
+    @Test
+    void testBoolQueryWithOnlyMustNot() {
+        final Item item = translate(Map.of("bool", Map.of("must_not", Map.of("term", Map.of("deleted", "true")))));
+        assertTrue(item instanceof NotItem);
+        assertTrue(((NotItem) item).getPositiveItem() instanceof TrueItem);
+    }
+
+    @Test
+    void testIdsQuery() {
+        assertEquals("OR documentid:1 documentid:2", translate(Map.of("ids", Map.of("values", List.of("1", "2")))).toString());
+    }
+
+    @Test
+    void testSpecialCharactersNeedNoEscaping() {
+        final Item item = translate(Map.of("term", Map.of("title", "say \"hi\" \\o/")));
+        assertEquals("say \"hi\" \\o/", ((WordItem) item).getWord());
+    }
+
+}
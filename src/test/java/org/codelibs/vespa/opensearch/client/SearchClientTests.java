@@ -0,0 +1,65 @@
+package org.codelibs.vespa.opensearch.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.codelibs.vespa.opensearch.client.limit.UpstreamGuard;
+import org.codelibs.vespa.opensearch.client.transport.VespaTransport;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+public class SearchClientTests {
+
+    @Test
+    void testSearch() {
+        final SearchBackend searchBackend = mock(SearchBackend.class);
+        when(searchBackend.search(any())).thenReturn(CompletableFuture.completedFuture(Map.of("took", 1)));
+        final UpstreamGuard guard = new UpstreamGuard(new ProxyHandlerConfig());
+        final SearchClient client = new SearchClient(null, searchBackend, guard);
+
+        assertEquals(Map.of("took", 1), client.search("logs", "doc", Map.of("size", 5, "from", 10, "timeout", "2s")));
+        final ArgumentCaptor<SearchQuery> query = ArgumentCaptor.forClass(SearchQuery.class);
+        verify(searchBackend).search(query.capture());
+        assertEquals(5, query.getValue().getHits());
+        assertEquals(10, query.getValue().getOffset());
+        assertEquals(2000, query.getValue().getTimeoutMillis());
+        assertEquals("select * from sources * where true", query.getValue().getYql());
+        assertEquals(0, ((Map<?, ?>) guard.getStats().get("search")).get("in_flight"));
+    }
+
+    @Test
+    void testSearchFailure() {
+        final SearchBackend searchBackend = mock(SearchBackend.class);
+        when(searchBackend.search(any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Search failed with status: 500", 500)));
+        final SearchClient client = new SearchClient(null, searchBackend, new UpstreamGuard(new ProxyHandlerConfig()));
+
+        final VespaClientException e = assertThrows(VespaClientException.class, () -> client.search("logs", "doc", Map.of()));
+        assertEquals("Failed to execute search", e.getMessage());
+        assertEquals(500, ((VespaClientException) e.getCause()).getStatus());
+    }
+
+    @Test
+    void testCloseOwnedTransport() {
+        final VespaTransport transport = mock(VespaTransport.class);
+        final SearchBackend searchBackend = mock(SearchBackend.class);
+        new SearchClient(transport, searchBackend, new UpstreamGuard(new ProxyHandlerConfig())).close();
+        verify(searchBackend).close();
+        verify(transport).close();
+
+        // the search client of a VespaClient leaves its backend to the VespaClient
+        final SearchBackend shared = mock(SearchBackend.class);
+        new SearchClient(null, shared, new UpstreamGuard(new ProxyHandlerConfig())).close();
+        verify(shared, never()).close();
+    }
+}
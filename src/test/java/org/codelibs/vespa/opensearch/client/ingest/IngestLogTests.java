@@ -0,0 +1,286 @@
+package org.codelibs.vespa.opensearch.client.ingest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.codelibs.vespa.opensearch.client.VespaClient;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IngestLogTests {
+
+    @TempDir
+    Path directory;
+
+    private ProxyHandlerConfig.Builder config() {
+        return new ProxyHandlerConfig.Builder().ingestLogDirectory(directory.toString()).ingestLogSyncInterval(0.001).writeRetryBackoff(0.001);
+    }
+
+    private static byte[] source(final String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The condition was not met in time.");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static long stat(final IngestLog log, final String name) {
+        return ((Number) log.getStats().get(name)).longValue();
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static VespaClient pendingClient() {
+        final VespaClient client = mock(VespaClient.class);
+        when(client.putFieldsAsync(any(), any(), any(), any())).thenAnswer(invocation -> new CompletableFuture<>());
+        when(client.updateAsync(any(), any(), any(), anyMap())).thenAnswer(invocation -> new CompletableFuture<>());
+        when(client.deleteAsync(any(), any(), any())).thenAnswer(invocation -> new CompletableFuture<>());
+        when(client.partialUpdateAsync(any(), any(), any(), anyMap())).thenAnswer(invocation -> new CompletableFuture<>());
+        return client;
+    }
+
+    private static VespaClient completingClient() {
+        final VespaClient client = mock(VespaClient.class);
+        when(client.putFieldsAsync(any(), any(), any(), any())).thenAnswer(invocation -> CompletableFuture.completedFuture(new HashMap<>()));
+        when(client.updateAsync(any(), any(), any(), anyMap())).thenAnswer(invocation -> CompletableFuture.completedFuture(new HashMap<>()));
+        when(client.deleteAsync(any(), any(), any())).thenAnswer(invocation -> CompletableFuture.completedFuture(new HashMap<>()));
+        when(client.partialUpdateAsync(any(), any(), any(), anyMap()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(new HashMap<>()));
+        return client;
+    }
+
+    @Test
+    void testAppendAndDrain() throws Exception {
+        final VespaClient client = completingClient();
+        try (IngestLog log = new IngestLog(config().build(), client)) {
+            log.put("test", "doc", "1", source("{\"title\":\"a\",\"meta\":{\"lang\":\"en\"}}")).join();
+            log.update("test", "doc", "2", Map.of("title", "b")).join();
+            log.delete("test", "doc", "3").join();
+
+            await(() -> stat(log, "drained") == 3);
+            verify(client).putFieldsAsync(eq("test"), eq("doc"), eq("1"),
+                    eq(source("{\"fields\":{\"title\":\"a\",\"meta.lang\":\"en\"}}")));
+            verify(client).updateAsync("test", "doc", "2", Map.of("title", "b"));
+            verify(client).deleteAsync("test", "doc", "3");
+            assertEquals(3L, stat(log, "appended"));
+            assertEquals(0L, stat(log, "operations"));
+            assertEquals(0L, stat(log, "failed"));
+        }
+    }
+
+    @Test
+    void testReplayAfterRestart() throws Exception {
+        try (IngestLog log = new IngestLog(config().build(), pendingClient())) {
+            log.put("test", "doc", "1", source("{\"title\":\"a\"}")).join();
+            log.delete("test", "doc", "2").join();
+        }
+
+        final VespaClient client = completingClient();
+        try (IngestLog log = new IngestLog(config().build(), client)) {
+            assertEquals(2L, stat(log, "operations") + stat(log, "drained"));
+            await(() -> stat(log, "drained") == 2);
+            verify(client).putFieldsAsync(eq("test"), eq("doc"), eq("1"), eq(source("{\"fields\":{\"title\":\"a\"}}")));
+            verify(client).deleteAsync("test", "doc", "2");
+            // the recovered segment is deleted once drained, and only the new one is left
+            await(() -> stat(log, "segments") == 1);
+        }
+        assertEquals(1, segmentFiles().size());
+    }
+
+    @Test
+    void testReplayPartialUpdate() throws Exception {
+        try (IngestLog log = new IngestLog(config().build(), pendingClient())) {
+            log.partialUpdate("test", "doc", "1", Map.of("doc", Map.of("title", "b"))).join();
+        }
+
+        final VespaClient client = completingClient();
+        try (IngestLog log = new IngestLog(config().build(), client)) {
+            await(() -> stat(log, "drained") == 1);
+            // merged into the stored document when it is sent, not when it is appended
+            verify(client).partialUpdateAsync("test", "doc", "1", Map.of("doc", Map.of("title", "b")));
+            verify(client, never()).updateAsync(any(), any(), any(), anyMap());
+        }
+    }
+
+    @Test
+    void testSkipFilesNotNamedAsSegments() throws Exception {
+        Files.write(directory.resolve("ingest-abc.log"), new byte[] { 1, 2, 3 });
+        Files.write(directory.resolve("ingest-99999999999999999999.log"), new byte[0]);
+        Files.write(directory.resolve("notes.txt"), source("kept"));
+
+        try (IngestLog log = new IngestLog(config().build(), completingClient())) {
+            assertEquals(0L, stat(log, "operations"));
+            assertEquals(1L, stat(log, "segments"));
+        }
+        assertTrue(Files.exists(directory.resolve("ingest-abc.log")));
+        assertTrue(Files.exists(directory.resolve("notes.txt")));
+        assertEquals(0L, IngestLog.parseSequence("ingest-0000000000000000000.log"));
+        assertEquals(-1L, IngestLog.parseSequence("ingest-9999999999999999999.log"));
+    }
+
+    @Test
+    void testCutOffTornRecord() throws Exception {
+        try (IngestLog log = new IngestLog(config().build(), pendingClient())) {
+            log.put("test", "doc", "1", source("{\"title\":\"a\"}")).join();
+            log.put("test", "doc", "2", source("{\"title\":\"b\"}")).join();
+        }
+        final Path segment = segmentFiles().get(0);
+        final long size = Files.size(segment);
+        // a crash in the middle of appending leaves part of a record
+        Files.write(segment, new byte[] { 0, 0, 1, 0, 7 }, StandardOpenOption.APPEND);
+
+        try (IngestLog log = new IngestLog(config().build(), pendingClient())) {
+            assertEquals(size, Files.size(segment));
+            assertEquals(2L, stat(log, "operations"));
+        }
+
+        final VespaClient client = completingClient();
+        try (IngestLog log = new IngestLog(config().build(), client)) {
+            await(() -> stat(log, "drained") == 2);
+            verify(client, times(2)).putFieldsAsync(any(), any(), any(), any());
+        }
+    }
+
+    @Test
+    void testCutOffCorruptRecord() throws Exception {
+        try (IngestLog log = new IngestLog(config().build(), pendingClient())) {
+            log.put("test", "doc", "1", source("{\"title\":\"a\"}")).join();
+            log.put("test", "doc", "2", source("{\"title\":\"b\"}")).join();
+        }
+        final Path segment = segmentFiles().get(0);
+        final byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 3] ^= 0x5a;
+        Files.write(segment, bytes);
+
+        final VespaClient client = completingClient();
+        try (IngestLog log = new IngestLog(config().build(), client)) {
+            await(() -> stat(log, "drained") == 1);
+            verify(client).putFieldsAsync(eq("test"), eq("doc"), eq("1"), any());
+            verify(client, never()).putFieldsAsync(eq("test"), eq("doc"), eq("2"), any());
+        }
+    }
+
+    @Test
+    void testRetryOverloadAndDropInvalid() throws Exception {
+        final VespaClient client = mock(VespaClient.class);
+        when(client.putFieldsAsync(eq("test"), eq("doc"), eq("1"), any()))
+                .thenReturn(CompletableFuture.failedFuture(new VespaClientException("Failed to insert a doc.",
+                        new VespaClientException("The response is 429", 429))))
+                .thenReturn(CompletableFuture.completedFuture(new HashMap<>()));
+        when(client.putFieldsAsync(eq("test"), eq("doc"), eq("2"), any())).thenReturn(CompletableFuture.failedFuture(
+                new VespaClientException("Failed to insert a doc.", new VespaClientException("The response is 400", 400))));
+
+        try (IngestLog log = new IngestLog(config().build(), client)) {
+            log.put("test", "doc", "1", source("{\"title\":\"a\"}")).join();
+            log.put("test", "doc", "2", source("{\"title\":\"b\"}")).join();
+
+            await(() -> stat(log, "drained") == 2);
+            verify(client, times(2)).putFieldsAsync(eq("test"), eq("doc"), eq("1"), any());
+            verify(client, times(1)).putFieldsAsync(eq("test"), eq("doc"), eq("2"), any());
+            assertEquals(1L, stat(log, "retried"));
+            assertEquals(1L, stat(log, "failed"));
+        }
+    }
+
+    @Test
+    void testDeleteSegmentsOnceDrained() throws Exception {
+        final VespaClient client = completingClient();
+        // every record gets a segment of its own
+        try (IngestLog log = new IngestLog(config().ingestLogSegmentSize(1).build(), client)) {
+            for (int i = 0; i < 5; i++) {
+                log.put("test", "doc", String.valueOf(i), source("{\"title\":\"a\"}")).join();
+            }
+            await(() -> stat(log, "drained") == 5);
+            await(() -> stat(log, "segments") == 1);
+            assertEquals(1, segmentFiles().size());
+        }
+    }
+
+    @Test
+    void testKeepOrderOnSameDocument() throws Exception {
+        final VespaClient client = completingClient();
+        final CompletableFuture<Map<String, Object>> put = new CompletableFuture<>();
+        when(client.putFieldsAsync(eq("test"), eq("doc"), eq("1"), any())).thenReturn(put);
+
+        try (IngestLog log = new IngestLog(config().build(), client)) {
+            log.put("test", "doc", "1", source("{\"title\":\"a\"}")).join();
+            log.delete("test", "doc", "1").join();
+            log.delete("test", "doc", "2").join();
+
+            // the write on another document does not wait
+            await(() -> stat(log, "drained") == 1);
+            verify(client).deleteAsync("test", "doc", "2");
+            verify(client, never()).deleteAsync("test", "doc", "1");
+
+            put.complete(new HashMap<>());
+            await(() -> stat(log, "drained") == 3);
+            verify(client).deleteAsync("test", "doc", "1");
+        }
+    }
+
+    @Test
+    void testRejectInvalidSource() throws Exception {
+        try (IngestLog log = new IngestLog(config().build(), pendingClient())) {
+            final CompletionException e = assertThrows(CompletionException.class,
+                    () -> log.put("test", "doc", "1", source("[\"not an object\"]")).join());
+            assertTrue(e.getCause() instanceof VespaClientException);
+            assertEquals(400, ((VespaClientException) e.getCause()).getStatus());
+            assertEquals(0L, stat(log, "appended"));
+        }
+    }
+
+    @Test
+    void testRejectOverMaxBytes() throws Exception {
+        try (IngestLog log = new IngestLog(config().ingestLogMaxBytes(200).build(), pendingClient())) {
+            CompletableFuture<Map<String, Object>> future = null;
+            for (int i = 0; i < 10; i++) {
+                future = log.put("test", "doc", String.valueOf(i), source("{\"title\":\"a\"}"));
+                if (future.isCompletedExceptionally()) {
+                    break;
+                }
+                future.join();
+            }
+            final CompletionException e = assertThrows(CompletionException.class, future::join);
+            assertTrue(e.getCause() instanceof EsRejectedExecutionException);
+            assertEquals(1L, stat(log, "rejected"));
+            assertTrue(stat(log, "bytes") <= 200);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveConcurrencyLimitTests {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Runs rounds of calls which use the whole limit, each call taking the given round trip time.
+     */
+    private static void saturate(final AdaptiveConcurrencyLimit limit, final int rounds, final long rttNanos) {
+        for (int round = 0; round < rounds; round++) {
+            final int calls = limit.getLimit();
+            final int[] inFlight = new int[calls];
+            for (int i = 0; i < calls; i++) {
+                inFlight[i] = limit.tryAcquire();
+            }
+            for (int i = 0; i < calls; i++) {
+                limit.release(rttNanos, inFlight[i], false);
+            }
+        }
+    }
+
+    @Test
+    void testRejectOverLimit() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10);
+        assertEquals(0, limit.tryAcquire());
+        assertEquals(1, limit.tryAcquire());
+        assertEquals(-1, limit.tryAcquire());
+        limit.release();
+        assertEquals(1, limit.tryAcquire());
+        assertEquals(1L, limit.getStats().get("rejected"));
+    }
+
+    @Test
+    void testGrowWhileLatencyIsFlat() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 100);
+        saturate(limit, 50, RTT);
+        assertTrue(limit.getLimit() > 20, () -> "limit=" + limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    void testNoGrowthWhenIdle() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 1, 100);
+        for (int i = 0; i < 100; i++) {
+            limit.release(RTT, limit.tryAcquire(), false);
+        }
+        assertEquals(20, limit.getLimit());
+    }
+
+    @Test
+    void testShrinkWhenLatencyRises() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 2, 100);
+        saturate(limit, 20, RTT);
+        final int before = limit.getLimit();
+        saturate(limit, 20, RTT * 10);
+        assertTrue(limit.getLimit() < before, () -> "before=" + before + ", after=" + limit.getLimit());
+    }
+
+    @Test
+    void testSingleFastCallKeepsLimit() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 2, 100);
+        saturate(limit, 20, RTT);
+        final int before = limit.getLimit();
+
+        // a call answered from a cache, for example, is far faster than the others
+        limit.release(RTT / 100, limit.tryAcquire(), false);
+        saturate(limit, 5, RTT);
+        assertTrue(limit.getLimit() >= before, () -> "before=" + before + ", after=" + limit.getLimit());
+        assertTrue((Long) limit.getStats().get("long_rtt_ms") >= 9, () -> "long_rtt_ms=" + limit.getStats().get("long_rtt_ms"));
+    }
+
+    @Test
+    void testFollowLastingLatencyDrop() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 2, 100);
+        saturate(limit, 20, RTT * 10);
+        saturate(limit, 20, RTT);
+        assertTrue((Long) limit.getStats().get("long_rtt_ms") <= 20, () -> "long_rtt_ms=" + limit.getStats().get("long_rtt_ms"));
+    }
+
+    @Test
+    void testBackOffOnDrop() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 5, 100);
+        for (int i = 0; i < 50; i++) {
+            limit.release(RTT, limit.tryAcquire(), true);
+        }
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    void testUnlimited() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, limit.tryAcquire());
+        }
+        assertEquals(-1, limit.getLimit());
+    }
+}
@@ -0,0 +1,116 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.junit.jupiter.api.Test;
+
+public class BulkAdmissionTests {
+
+    @Test
+    void testReserveReadingBuffer() {
+        final BulkAdmission admission = new BulkAdmission(1024 * 1024, 1.0, 0);
+        final BulkAdmission.Reservation small = admission.admit(null, 100);
+        assertEquals(100, admission.getBytes());
+        // a large body is read in chunks
+        final BulkAdmission.Reservation large = admission.admit(null, 500L * 1024 * 1024);
+        assertEquals(100 + BulkAdmission.REQUEST_BYTES, admission.getBytes());
+        final BulkAdmission.Reservation unknown = admission.admit(null, -1);
+        assertEquals(100 + 2 * BulkAdmission.REQUEST_BYTES, admission.getBytes());
+
+        small.close();
+        large.close();
+        unknown.close();
+        assertEquals(0, admission.getBytes());
+    }
+
+    @Test
+    void testHoldOperations() {
+        final BulkAdmission admission = new BulkAdmission(10_000, 1.0, 0);
+        final BulkAdmission.Reservation reservation = admission.admit("logs", 0);
+        assertTrue(reservation.tryAcquire("logs", 6000));
+        assertFalse(reservation.tryAcquire("logs", 6000));
+        assertEquals(1, admission.getOperations());
+
+        reservation.release("logs", 6000);
+        assertTrue(reservation.tryAcquire("logs", 6000));
+        assertEquals(1L, admission.getStats().get("rejected_operations"));
+    }
+
+    @Test
+    void testRejectRequestWhenBudgetIsUsedUp() {
+        final BulkAdmission admission = new BulkAdmission(10_000, 1.0, 0);
+        final BulkAdmission.Reservation first = admission.admit(null, 0);
+        assertTrue(first.tryAcquire("logs", 9_990));
+
+        final EsRejectedExecutionException e = assertThrows(EsRejectedExecutionException.class, () -> admission.admit(null, 100));
+        assertEquals(429, e.getStatus());
+        assertTrue(e.getMessage().startsWith("rejected execution of bulk request: [bulk_bytes=9990"), e.getMessage());
+        assertEquals(1L, admission.getStats().get("rejected_requests"));
+
+        // closing a request releases every operation it still holds
+        first.close();
+        assertEquals(0, admission.getBytes());
+        assertEquals(0, admission.getOperations());
+        admission.admit(null, 100).close();
+    }
+
+    @Test
+    void testAdmitLargeOperationWhenNothingIsHeld() {
+        final BulkAdmission admission = new BulkAdmission(10_000, 1.0, 0);
+        final BulkAdmission.Reservation reservation = admission.admit(null, 0);
+        assertTrue(reservation.tryAcquire("logs", 50_000));
+        assertFalse(reservation.tryAcquire("logs", 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testLimitPerIndex() {
+        final BulkAdmission admission = new BulkAdmission(10_000, 0.5, 0);
+        final BulkAdmission.Reservation reservation = admission.admit(null, 0);
+        assertTrue(reservation.tryAcquire("logs", 4000));
+        assertFalse(reservation.tryAcquire("logs", 2000));
+        assertTrue(reservation.tryAcquire("metrics", 4000));
+        assertEquals(Map.of("logs", 4000L, "metrics", 4000L), admission.getStats().get("index_bytes"));
+
+        // a request on a busy index is rejected while one on another index is not
+        assertThrows(EsRejectedExecutionException.class, () -> admission.admit("logs", 2000));
+        admission.admit("traces", 1000).close();
+
+        reservation.close();
+        assertTrue(((Map<String, Long>) admission.getStats().get("index_bytes")).isEmpty());
+    }
+
+    @Test
+    void testLimitOperations() {
+        final BulkAdmission admission = new BulkAdmission(0, 1.0, 2);
+        final BulkAdmission.Reservation reservation = admission.admit(null, 0);
+        assertTrue(reservation.tryAcquire(null, 100));
+        assertTrue(reservation.tryAcquire(null, 100));
+        assertFalse(reservation.tryAcquire(null, 100));
+        assertThrows(EsRejectedExecutionException.class, () -> admission.admit(null, 0));
+
+        reservation.release(null, 100);
+        admission.admit(null, 0).close();
+    }
+
+    @Test
+    void testGrowBufferWithinBudget() {
+        final BulkAdmission admission = new BulkAdmission(10_000, 1.0, 0);
+        final BulkAdmission.Reservation reservation = admission.admit("logs", 1000);
+        assertTrue(reservation.tryGrowBuffer(1000));
+        assertTrue(reservation.tryGrowBuffer(2000));
+        assertEquals(Map.of("logs", 4000L), admission.getStats().get("index_bytes"));
+        assertFalse(reservation.tryGrowBuffer(8000));
+        assertEquals(1L, admission.getStats().get("rejected_requests"));
+
+        // the grown buffer is given back with the request
+        reservation.close();
+        assertEquals(0, admission.getBytes());
+    }
+}
@@ -0,0 +1,127 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.Test;
+
+public class FeedWindowTests {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static FeedWindow createWindow(final int initialSize, final int maxQueued) {
+        return new FeedWindow(new ProxyHandlerConfig.Builder()//
+                .feedWindowInitialSize(initialSize)//
+                .feedWindowMinSize(1)//
+                .feedWindowMaxSize(64)//
+                .feedWindowMaxQueued(maxQueued)//
+                .build());
+    }
+
+    @Test
+    void testWaitForWindow() {
+        final FeedWindow window = createWindow(2, 1);
+        final FeedWindow.Permit first = window.acquire().join();
+        window.acquire().join();
+        final CompletableFuture<FeedWindow.Permit> waiting = window.acquire();
+        assertFalse(waiting.isDone());
+
+        // the queue is full
+        final CompletionException e = assertThrows(CompletionException.class, () -> window.acquire().join());
+        assertInstanceOf(EsRejectedExecutionException.class, e.getCause());
+
+        first.release(RTT, null);
+        assertTrue(waiting.isDone());
+        assertEquals(2, window.getInFlight());
+        // released once only
+        first.release(RTT, null);
+        assertEquals(2, window.getInFlight());
+    }
+
+    @Test
+    void testAdditiveIncrease() {
+        final FeedWindow window = createWindow(4, 0);
+        for (int round = 0; round < 10; round++) {
+            final int size = window.getSize();
+            final List<FeedWindow.Permit> permits = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                permits.add(window.acquire().join());
+            }
+            permits.forEach(permit -> permit.release(RTT, null));
+            // at most one more per window of writes
+            assertTrue(window.getSize() <= size + 1, () -> "size " + window.getSize());
+        }
+        assertTrue(window.getSize() >= 8, () -> "size " + window.getSize());
+    }
+
+    @Test
+    void testNoIncreaseWhileUnused() {
+        final FeedWindow window = createWindow(8, 0);
+        for (int i = 0; i < 100; i++) {
+            window.acquire().join().release(RTT, null);
+        }
+        assertEquals(8, window.getSize());
+    }
+
+    @Test
+    void testMultiplicativeDecreaseOnThrottling() {
+        final FeedWindow window = createWindow(32, 0);
+        window.acquire().join().release(RTT, null);
+
+        final List<FeedWindow.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            permits.add(window.acquire().join());
+        }
+        // writes throttled by the same overload halve the window once
+        permits.forEach(permit -> permit.release(RTT, new VespaClientException("Failed to insert a doc.", new VespaClientException("429", 429))));
+        assertEquals(16, window.getSize());
+
+        // not throttling
+        window.acquire().join().release(RTT, new VespaClientException("400", 400));
+        assertEquals(16, window.getSize());
+    }
+
+    @Test
+    void testDecreaseOnLatencySpike() {
+        final FeedWindow window = createWindow(32, 0);
+        for (int i = 0; i < 10; i++) {
+            window.acquire().join().release(RTT, null);
+        }
+        window.acquire().join().release(RTT * 10, null);
+        assertEquals(16, window.getSize());
+    }
+
+    @Test
+    void testCancelledWaiter() {
+        final FeedWindow window = createWindow(1, 10);
+        final FeedWindow.Permit first = window.acquire().join();
+        final CompletableFuture<FeedWindow.Permit> cancelled = window.acquire();
+        final CompletableFuture<FeedWindow.Permit> waiting = window.acquire();
+        cancelled.cancel(false);
+
+        first.release(RTT, null);
+        assertTrue(waiting.isDone());
+        assertEquals(1, window.getInFlight());
+    }
+
+    @Test
+    void testDisabled() {
+        final FeedWindow window = new FeedWindow(new ProxyHandlerConfig.Builder().feedWindowMaxSize(0).build());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(window.acquire().isDone());
+        }
+        assertEquals(-1, window.getSize());
+    }
+}
@@ -0,0 +1,122 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.CircuitBreakingException;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.Test;
+
+public class UpstreamGuardTests {
+
+    private static UpstreamGuard createGuard(final int limit, final int failureThreshold, final double openDuration) {
+        return new UpstreamGuard(new ProxyHandlerConfig.Builder()//
+                .concurrencyInitialLimit(limit)//
+                .concurrencyMinLimit(limit)//
+                .concurrencyMaxLimit(limit)//
+                .circuitBreakerFailureThreshold(failureThreshold)//
+                .circuitBreakerOpenDuration(openDuration)//
+                .build());
+    }
+
+    @Test
+    void testRejectPerOperationType() {
+        final UpstreamGuard guard = createGuard(2, 0, 1.0);
+        final UpstreamGuard.Permit first = guard.acquire(OperationType.WRITE);
+        guard.acquire(OperationType.WRITE);
+        final EsRejectedExecutionException e = assertThrows(EsRejectedExecutionException.class, () -> guard.acquire(OperationType.WRITE));
+        assertEquals(429, e.getStatus());
+
+        // other operation types have their own limit
+        guard.acquire(OperationType.SEARCH).release(null);
+        guard.acquire(OperationType.GET).release(null);
+
+        first.release(null);
+        guard.acquire(OperationType.WRITE);
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> writeStats = (Map<String, Object>) guard.getStats().get("write");
+        assertEquals(2, writeStats.get("in_flight"));
+        assertEquals(1L, writeStats.get("rejected"));
+    }
+
+    @Test
+    void testSampleOnlySuccessfulCalls() throws Exception {
+        final UpstreamGuard guard = createGuard(10, 0, 1.0);
+        final UpstreamGuard.Permit permit = guard.acquire(OperationType.GET);
+        Thread.sleep(5);
+        permit.release(new VespaClientException("Document not found", 404));
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> getStats = (Map<String, Object>) guard.getStats().get("get");
+        assertEquals(0L, getStats.get("long_rtt_ms"));
+        assertEquals(0, getStats.get("in_flight"));
+        assertEquals(10, getStats.get("limit"));
+    }
+
+    @Test
+    void testDisabledByDefault() {
+        final UpstreamGuard guard = new UpstreamGuard(new ProxyHandlerConfig());
+        for (int i = 0; i < 1000; i++) {
+            guard.acquire(OperationType.SEARCH);
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> searchStats = (Map<String, Object>) guard.getStats().get("search");
+        assertEquals(-1, searchStats.get("limit"));
+    }
+
+    @Test
+    void testCircuitBreaker() throws Exception {
+        final UpstreamGuard guard = createGuard(10, 3, 0.05);
+        for (int i = 0; i < 3; i++) {
+            guard.acquire(OperationType.SEARCH).release(new VespaClientException("Search failed with status: 503", 503));
+        }
+        final CircuitBreakingException e = assertThrows(CircuitBreakingException.class, () -> guard.acquire(OperationType.SEARCH));
+        assertEquals(503, e.getStatus());
+        guard.acquire(OperationType.GET).release(null);
+
+        Thread.sleep(100);
+        // a single trial call is let through while half open
+        final UpstreamGuard.Permit trial = guard.acquire(OperationType.SEARCH);
+        assertThrows(CircuitBreakingException.class, () -> guard.acquire(OperationType.SEARCH));
+        trial.release(new CompletionException(new ConnectException("Connection refused")));
+        assertThrows(CircuitBreakingException.class, () -> guard.acquire(OperationType.SEARCH));
+
+        Thread.sleep(100);
+        guard.acquire(OperationType.SEARCH).release(null);
+        guard.acquire(OperationType.SEARCH).release(null);
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> searchStats = (Map<String, Object>) guard.getStats().get("search");
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> breakerStats = (Map<String, Object>) searchStats.get("circuit_breaker");
+        assertEquals("closed", breakerStats.get("state"));
+        assertEquals(2L, breakerStats.get("opened"));
+    }
+
+    @Test
+    void testClientErrorsDoNotOpenBreaker() {
+        final UpstreamGuard guard = createGuard(10, 2, 10.0);
+        for (int i = 0; i < 5; i++) {
+            guard.acquire(OperationType.GET).release(new VespaClientException("The doc is not found. The response is 404", 404));
+        }
+        guard.acquire(OperationType.GET).release(null);
+    }
+
+    @Test
+    void testIsOverload() {
+        assertTrue(UpstreamGuard.isOverload(new VespaClientException("busy", 429), true));
+        assertFalse(UpstreamGuard.isOverload(new VespaClientException("busy", 429), false));
+        assertTrue(UpstreamGuard.isOverload(new VespaClientException("failed", new ConnectException()), false));
+        assertFalse(UpstreamGuard.isOverload(new VespaClientException("failed", 400), true));
+        assertFalse(UpstreamGuard.isOverload(new IllegalArgumentException(), true));
+    }
+}
@@ -0,0 +1,127 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import org.codelibs.vespa.opensearch.client.limit.WriteCoalescer.Write;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.Test;
+
+public class WriteCoalescerTests {
+
+    private final List<Write> sent = Collections.synchronizedList(new ArrayList<>());
+
+    private final Function<Write, CompletableFuture<Map<String, Object>>> sender = write -> {
+        sent.add(write);
+        return CompletableFuture.completedFuture(Map.of("pathId", "/document/v1/"));
+    };
+
+    private static WriteCoalescer createCoalescer(final double window) {
+        return new WriteCoalescer(new ProxyHandlerConfig.Builder().writeCoalesceWindow(window).build());
+    }
+
+    @Test
+    void testDisabled() {
+        final WriteCoalescer coalescer = createCoalescer(0);
+        assertFalse(coalescer.isEnabled());
+
+        coalescer.submit("ns/doc/1", Write.update(Map.of("a", 1)), sender).join();
+        coalescer.submit("ns/doc/1", Write.update(Map.of("b", 2)), sender).join();
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    void testMergeUpdates() {
+        final WriteCoalescer coalescer = createCoalescer(0.05);
+
+        final CompletableFuture<Map<String, Object>> first = coalescer.submit("ns/doc/1", Write.update(Map.of("a", 1, "b", 1)), sender);
+        final CompletableFuture<Map<String, Object>> second = coalescer.submit("ns/doc/1", Write.update(Map.of("b", 2)), sender);
+        assertEquals(Map.of("pathId", "/document/v1/"), first.join());
+        assertEquals(Map.of("pathId", "/document/v1/"), second.join());
+
+        assertEquals(1, sent.size());
+        assertEquals(Write.Type.UPDATE, sent.get(0).getType());
+        assertEquals(Map.of("a", 1, "b", 2), sent.get(0).getFields());
+        assertEquals(2L, coalescer.getStats().get("writes"));
+        assertEquals(1L, coalescer.getStats().get("coalesced"));
+        assertEquals(1L, coalescer.getStats().get("sent"));
+    }
+
+    @Test
+    void testMergeUpdateIntoPut() {
+        final WriteCoalescer coalescer = createCoalescer(0.05);
+
+        coalescer.submit("ns/doc/1", Write.put(Map.of("a", 1, "b", 1)), sender);
+        coalescer.submit("ns/doc/1", Write.update(Map.of("b", 2)), sender).join();
+
+        assertEquals(1, sent.size());
+        assertEquals(Write.Type.PUT, sent.get(0).getType());
+        assertEquals(Map.of("a", 1, "b", 2), sent.get(0).getFields());
+    }
+
+    @Test
+    void testDeleteSupersedesWrites() {
+        final WriteCoalescer coalescer = createCoalescer(0.05);
+
+        final CompletableFuture<Map<String, Object>> update = coalescer.submit("ns/doc/1", Write.update(Map.of("a", 1)), sender);
+        final CompletableFuture<Map<String, Object>> delete = coalescer.submit("ns/doc/1", Write.delete(), sender);
+        delete.join();
+
+        assertTrue(update.isDone());
+        assertEquals(1, sent.size());
+        assertEquals(Write.Type.DELETE, sent.get(0).getType());
+    }
+
+    @Test
+    void testSendUnmergeableWriteAfterPendingOne() {
+        final WriteCoalescer coalescer = createCoalescer(0.05);
+
+        final CompletableFuture<Map<String, Object>> delete = coalescer.submit("ns/doc/1", Write.delete(), sender);
+        final CompletableFuture<Map<String, Object>> update = coalescer.submit("ns/doc/1", Write.update(Map.of("a", 1)), sender);
+        // the delete does not wait for its window any more
+        delete.join();
+        assertEquals(1, sent.size());
+        update.join();
+
+        assertEquals(2, sent.size());
+        assertEquals(Write.Type.DELETE, sent.get(0).getType());
+        assertEquals(Write.Type.UPDATE, sent.get(1).getType());
+    }
+
+    @Test
+    void testKeepDocumentsApart() {
+        final WriteCoalescer coalescer = createCoalescer(0.05);
+
+        final CompletableFuture<Map<String, Object>> first = coalescer.submit("ns/doc/1", Write.update(Map.of("a", 1)), sender);
+        final CompletableFuture<Map<String, Object>> second = coalescer.submit("ns/doc/2", Write.update(Map.of("a", 2)), sender);
+        CompletableFuture.allOf(first, second).join();
+
+        assertEquals(2, sent.size());
+        assertEquals(0L, coalescer.getStats().get("coalesced"));
+    }
+
+    @Test
+    void testFailAllMergedWrites() {
+        final WriteCoalescer coalescer = createCoalescer(0.05);
+        final VespaClientException failure = new VespaClientException("The response is 400", 400);
+        final Function<Write, CompletableFuture<Map<String, Object>>> failingSender = write -> CompletableFuture.failedFuture(failure);
+
+        final CompletableFuture<Map<String, Object>> first = coalescer.submit("ns/doc/1", Write.update(Map.of("a", 1)), failingSender);
+        final CompletableFuture<Map<String, Object>> second = coalescer.submit("ns/doc/1", Write.update(Map.of("b", 2)), failingSender);
+
+        assertSame(failure, assertThrows(CompletionException.class, first::join).getCause());
+        assertSame(failure, assertThrows(CompletionException.class, second::join).getCause());
+    }
+}
@@ -0,0 +1,105 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.Test;
+
+public class WriteLanesTests {
+
+    private static WriteLanes createLanes(final int size) {
+        return new WriteLanes(new ProxyHandlerConfig.Builder().writeLanes(size).build());
+    }
+
+    @Test
+    void testSerializeWritesOnSameDocument() {
+        final WriteLanes lanes = createLanes(16);
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        final CompletableFuture<String> second = new CompletableFuture<>();
+        final List<String> started = new ArrayList<>();
+
+        final CompletableFuture<String> firstResult = lanes.submit("ns/doc/1", () -> {
+            started.add("index");
+            return first;
+        });
+        final CompletableFuture<String> secondResult = lanes.submit("ns/doc/1", () -> {
+            started.add("delete");
+            return second;
+        });
+        assertEquals(List.of("index"), started);
+        assertEquals(1, lanes.getStats().get("waiting"));
+
+        first.complete("indexed");
+        assertEquals("indexed", firstResult.join());
+        assertEquals(List.of("index", "delete"), started);
+        assertFalse(secondResult.isDone());
+
+        second.complete("deleted");
+        assertEquals("deleted", secondResult.join());
+        assertEquals(0, lanes.getStats().get("busy"));
+    }
+
+    @Test
+    void testRunWritesOnOtherDocumentsInParallel() {
+        final WriteLanes lanes = createLanes(1024);
+        final AtomicInteger started = new AtomicInteger();
+        for (int i = 0; i < 8; i++) {
+            lanes.submit("ns/doc/" + i, () -> {
+                started.incrementAndGet();
+                return new CompletableFuture<>();
+            });
+        }
+        assertEquals(8, started.get());
+        assertEquals(Map.of("lanes", 1024, "busy", 8, "waiting", 0, "max_waiting", 0, "queued", 0L), lanes.getStats());
+    }
+
+    @Test
+    void testFailureDoesNotBlockLane() {
+        final WriteLanes lanes = createLanes(16);
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        final CompletableFuture<String> firstResult = lanes.submit("ns/doc/1", () -> first);
+        final CompletableFuture<String> secondResult = lanes.submit("ns/doc/1", () -> {
+            throw new VespaClientException("invalid");
+        });
+        final CompletableFuture<String> thirdResult = lanes.submit("ns/doc/1", () -> CompletableFuture.completedFuture("indexed"));
+
+        first.completeExceptionally(new VespaClientException("Vespa returned 429", 429));
+        assertTrue(firstResult.isCompletedExceptionally());
+        assertTrue(secondResult.isCompletedExceptionally());
+        assertEquals("indexed", thirdResult.join());
+    }
+
+    @Test
+    void testRunWritesCompletingAtOnceWithoutRecursion() {
+        final WriteLanes lanes = createLanes(1);
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        lanes.submit("ns/doc/0", () -> first);
+        final List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 1; i <= 100_000; i++) {
+            results.add(lanes.submit("ns/doc/" + i, () -> CompletableFuture.failedFuture(new VespaClientException("rejected", 429))));
+        }
+
+        first.complete("indexed");
+        assertTrue(results.stream().allMatch(CompletableFuture::isCompletedExceptionally));
+        assertEquals(100_000L, lanes.getStats().get("queued"));
+    }
+
+    @Test
+    void testDisabled() {
+        final WriteLanes lanes = createLanes(0);
+        assertFalse(lanes.isEnabled());
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        lanes.submit("ns/doc/1", () -> first);
+        final CompletableFuture<String> second = lanes.submit("ns/doc/1", () -> CompletableFuture.completedFuture("indexed"));
+        assertEquals("indexed", second.join());
+    }
+}
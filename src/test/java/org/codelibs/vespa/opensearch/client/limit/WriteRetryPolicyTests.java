@@ -0,0 +1,51 @@
+package org.codelibs.vespa.opensearch.client.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ConnectException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.CircuitBreakingException;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.Test;
+
+public class WriteRetryPolicyTests {
+
+    @Test
+    void testThrottled() {
+        assertEquals(429, WriteRetryPolicy.getThrottleStatus(
+                new VespaClientException("Failed to insert a doc.", new CompletionException(new VespaClientException("429", 429)))));
+        assertEquals(503, WriteRetryPolicy.getThrottleStatus(new VespaClientException("503", 503)));
+        assertEquals(429, WriteRetryPolicy.getThrottleStatus(new EsRejectedExecutionException("rejected")));
+
+        assertFalse(WriteRetryPolicy.isThrottled(new VespaClientException("400", 400)));
+        assertFalse(WriteRetryPolicy.isThrottled(new VespaClientException("504", 504)));
+        // the breaker is open because Vespa keeps failing, which a retry within the bulk request does not fix
+        assertFalse(WriteRetryPolicy.isThrottled(new CircuitBreakingException("open")));
+        // a connection failure is not throttling
+        assertFalse(WriteRetryPolicy.isThrottled(new VespaClientException("Failed to insert a doc.", new ConnectException())));
+    }
+
+    @Test
+    void testBackoff() {
+        final WriteRetryPolicy policy = new WriteRetryPolicy(new ProxyHandlerConfig.Builder().writeRetryBackoff(0.1).build());
+        for (int i = 0; i < 100; i++) {
+            final long first = policy.getBackoffNanos(0);
+            assertTrue(first > 0 && first <= TimeUnit.MILLISECONDS.toNanos(100) + 1);
+            final long capped = policy.getBackoffNanos(20);
+            assertTrue(capped > 0 && capped <= TimeUnit.MILLISECONDS.toNanos(6400) + 1);
+        }
+    }
+
+    @Test
+    void testEnabled() {
+        assertTrue(new WriteRetryPolicy(new ProxyHandlerConfig()).isEnabled());
+        assertFalse(new WriteRetryPolicy(new ProxyHandlerConfig.Builder().writeRetryTimeout(0).build()).isEnabled());
+        assertFalse(new WriteRetryPolicy(new ProxyHandlerConfig.Builder().writeRetryQueueSize(0).build()).isEnabled());
+    }
+}
@@ -0,0 +1,202 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class Http2TransportTests {
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+
+    private final Set<String> clientAddresses = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger concurrent = new AtomicInteger();
+
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    private final AtomicInteger received = new AtomicInteger();
+
+    private HttpAsyncServer server;
+
+    private String endpoint;
+
+    private Http2Transport transport;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = H2ServerBootstrap.bootstrap()//
+                .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)//
+                .register("*", new AsyncServerRequestHandler<Message<HttpRequest, String>>() {
+                    @Override
+                    public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(final HttpRequest request,
+                            final EntityDetails entityDetails, final HttpContext context) {
+                        return new BasicRequestConsumer<>(entityDetails != null ? new StringAsyncEntityConsumer() : null);
+                    }
+
+                    @Override
+                    public void handle(final Message<HttpRequest, String> message, final ResponseTrigger responseTrigger,
+                            final HttpContext context) throws HttpException, IOException {
+                        clientAddresses.add(HttpCoreContext.adapt(context).getEndpointDetails().getRemoteAddress().toString());
+                        maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                        received.incrementAndGet();
+                        final String body = "{\"method\":\"" + message.getHead().getMethod() + "\"}";
+                        // hold the stream open for a while, so requests overlap
+                        scheduler.schedule(() -> {
+                            concurrent.decrementAndGet();
+                            try {
+                                responseTrigger.submitResponse(
+                                        AsyncResponseBuilder.create(200).setEntity(body, ContentType.APPLICATION_JSON).build(), context);
+                            } catch (final Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }, message.getHead().getPath().contains("/slow/") ? 10_000 : 50, TimeUnit.MILLISECONDS);
+                    }
+                })//
+                .create();
+        server.start();
+        final ListenerEndpoint listener = server.listen(new InetSocketAddress("127.0.0.1", 0)).get();
+        endpoint = "http://127.0.0.1:" + ((InetSocketAddress) listener.getAddress()).getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (transport != null) {
+            transport.close();
+        }
+        server.close(CloseMode.IMMEDIATE);
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void testMultiplexing() throws Exception {
+        transport = new Http2Transport(endpoint, new ProxyHandlerConfig.Builder().feedConnections(1).build());
+
+        final List<CompletableFuture<TransportResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(transport.executeAsync(TransportRequest.post("document/v1/ns/doc/docid/" + i, "{}".getBytes())));
+        }
+        for (final CompletableFuture<TransportResponse> future : futures) {
+            final TransportResponse response = future.get(10, TimeUnit.SECONDS);
+            assertEquals(200, response.getHttpStatusCode());
+            assertEquals("{\"method\":\"POST\"}", response.getContentAsString());
+        }
+
+        // all requests were in flight at the same time on a single connection
+        assertEquals(1, clientAddresses.size());
+        assertTrue(maxConcurrent.get() > 1, "max concurrent streams: " + maxConcurrent.get());
+
+        final Map<String, Object> stats = transport.getStats();
+        assertEquals("HTTP/2", stats.get("protocol"));
+        assertEquals(0, stats.get("active"));
+        assertEquals(0, stats.get("pending"));
+        assertEquals(50L, stats.get("completed"));
+    }
+
+    @Test
+    void testMaxStreamsPerConnection() throws Exception {
+        transport = new Http2Transport(endpoint,
+                new ProxyHandlerConfig.Builder().feedConnections(2).feedMaxStreamsPerConnection(3).build());
+
+        final List<CompletableFuture<TransportResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            futures.add(transport.executeAsync(TransportRequest.delete("document/v1/ns/doc/docid/" + i)));
+        }
+        assertTrue((Integer) transport.getStats().get("pending") > 0);
+        for (final CompletableFuture<TransportResponse> future : futures) {
+            assertEquals(200, future.get(10, TimeUnit.SECONDS).getHttpStatusCode());
+        }
+
+        assertEquals(2, clientAddresses.size());
+        assertTrue(maxConcurrent.get() <= 6, "max concurrent streams: " + maxConcurrent.get());
+        assertEquals(0, transport.getStats().get("pending"));
+    }
+
+    @Test
+    void testSkipCancelledQueuedRequest() throws Exception {
+        transport = new Http2Transport(endpoint,
+                new ProxyHandlerConfig.Builder().feedConnections(1).feedMaxStreamsPerConnection(1).build());
+
+        final CompletableFuture<TransportResponse> first = transport.executeAsync(TransportRequest.delete("document/v1/ns/doc/docid/1"));
+        final CompletableFuture<TransportResponse> second = transport.executeAsync(TransportRequest.delete("document/v1/ns/doc/docid/2"));
+        final CompletableFuture<TransportResponse> third = transport.executeAsync(TransportRequest.delete("document/v1/ns/doc/docid/3"));
+        assertTrue(second.cancel(false));
+
+        assertEquals(200, first.get(10, TimeUnit.SECONDS).getHttpStatusCode());
+        assertEquals(200, third.get(10, TimeUnit.SECONDS).getHttpStatusCode());
+        // the cancelled request was never sent
+        assertEquals(2, received.get());
+        assertEquals(0, transport.getStats().get("pending"));
+    }
+
+    @Test
+    void testCancelSentRequest() throws Exception {
+        transport = new Http2Transport(endpoint,
+                new ProxyHandlerConfig.Builder().feedConnections(1).feedMaxStreamsPerConnection(1).build());
+
+        final CompletableFuture<TransportResponse> slow = transport.executeAsync(TransportRequest.get("document/v1/ns/slow/docid/1"));
+        final CompletableFuture<TransportResponse> next = transport.executeAsync(TransportRequest.get("document/v1/ns/doc/docid/2"));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (received.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(slow.cancel(false));
+
+        // the stream of the cancelled request is reset, so the next one does not wait for its response
+        assertEquals(200, next.get(5, TimeUnit.SECONDS).getHttpStatusCode());
+    }
+
+    @Test
+    void testFailQueuedRequestsOnClose() throws Exception {
+        transport = new Http2Transport(endpoint,
+                new ProxyHandlerConfig.Builder().feedConnections(1).feedMaxStreamsPerConnection(1).build());
+
+        transport.executeAsync(TransportRequest.get("document/v1/ns/slow/docid/1"));
+        final CompletableFuture<TransportResponse> queued = transport.executeAsync(TransportRequest.get("document/v1/ns/doc/docid/2"));
+        transport.close();
+
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertEquals(0, transport.getStats().get("pending"));
+        // a request after the close fails at once
+        final CompletableFuture<TransportResponse> late = transport.executeAsync(TransportRequest.get("document/v1/ns/doc/docid/3"));
+        assertInstanceOf(IOException.class, assertThrows(ExecutionException.class, () -> late.get(5, TimeUnit.SECONDS)).getCause());
+    }
+
+}
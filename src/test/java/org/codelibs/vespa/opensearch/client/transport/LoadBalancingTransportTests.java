@@ -0,0 +1,307 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.junit.jupiter.api.Test;
+
+public class LoadBalancingTransportTests {
+
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+
+    private final Map<String, Supplier<CompletableFuture<TransportResponse>>> behaviors = new ConcurrentHashMap<>();
+
+    private LoadBalancingTransport createTransport(final ProxyHandlerConfig config, final String... endpoints) {
+        for (final String endpoint : endpoints) {
+            requestCounts.put(endpoint, new AtomicInteger());
+            behaviors.putIfAbsent(endpoint, () -> CompletableFuture.completedFuture(new TransportResponse(200, "{}".getBytes())));
+        }
+        return new LoadBalancingTransport(List.of(endpoints), endpoint -> new VespaTransport() {
+            @Override
+            public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+                requestCounts.get(endpoint).incrementAndGet();
+                return behaviors.get(endpoint).get();
+            }
+
+            @Override
+            public Map<String, Object> getStats() {
+                return Map.of();
+            }
+
+            @Override
+            public void close() {
+            }
+        }, config);
+    }
+
+    private static TransportRequest request() {
+        return TransportRequest.get("search/?yql=select");
+    }
+
+    @Test
+    void testParseEndpoints() {
+        assertEquals(List.of("http://a:8080", "http://b:8080"), LoadBalancingTransport.parseEndpoints(" http://a:8080 ,http://b:8080,"));
+        assertEquals(List.of("http://localhost:8080"), LoadBalancingTransport.parseEndpoints("http://localhost:8080"));
+    }
+
+    @Test
+    void testCreate() {
+        final Map<String, VespaTransport> created = new ConcurrentHashMap<>();
+        final Function<String, VespaTransport> factory = endpoint -> created.computeIfAbsent(endpoint, e -> new VespaTransport() {
+            @Override
+            public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+                return CompletableFuture.completedFuture(new TransportResponse(200, new byte[0]));
+            }
+
+            @Override
+            public Map<String, Object> getStats() {
+                return Map.of();
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        // a single endpoint is spoken to directly unless its reads are retried
+        assertSame(factory.apply("a"), LoadBalancingTransport.create(List.of("a"), factory, new ProxyHandlerConfig()));
+        assertTrue(LoadBalancingTransport.create(List.of("a"), factory,
+                new ProxyHandlerConfig.Builder().readRetries(1).build()) instanceof LoadBalancingTransport);
+        assertTrue(LoadBalancingTransport.create(List.of("a", "b"), factory, new ProxyHandlerConfig()) instanceof LoadBalancingTransport);
+    }
+
+    @Test
+    void testLeastOutstanding() {
+        final List<CompletableFuture<TransportResponse>> held = new ArrayList<>();
+        for (final String endpoint : List.of("a", "b", "c")) {
+            behaviors.put(endpoint, () -> {
+                final CompletableFuture<TransportResponse> future = new CompletableFuture<>();
+                held.add(future);
+                return future;
+            });
+        }
+        final LoadBalancingTransport transport = createTransport(new ProxyHandlerConfig(), "a", "b", "c");
+        for (int i = 0; i < 30; i++) {
+            transport.executeAsync(request());
+        }
+        // the endpoint with fewer outstanding requests always wins, so none can lag far behind
+        for (final AtomicInteger count : requestCounts.values()) {
+            assertTrue(count.get() >= 7 && count.get() <= 13, requestCounts.toString());
+        }
+        held.forEach(future -> future.complete(new TransportResponse(200, new byte[0])));
+        transport.getNodes().forEach(node -> assertEquals(0, node.outstanding.get()));
+    }
+
+    @Test
+    void testEjectFailingEndpoint() {
+        behaviors.put("bad", () -> CompletableFuture.failedFuture(new IOException("Connection refused")));
+        final LoadBalancingTransport transport = createTransport(new ProxyHandlerConfig.Builder().ejectionFailureThreshold(3).build(),
+                "good", "bad");
+        for (int i = 0; i < 100; i++) {
+            transport.executeAsync(request());
+        }
+        assertEquals(3, requestCounts.get("bad").get());
+        assertEquals(97, requestCounts.get("good").get());
+
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> endpoints = (List<Map<String, Object>>) transport.getStats().get("endpoints");
+        assertEquals(true, endpoints.get(1).get("ejected"));
+        assertEquals(1, endpoints.get(1).get("ejections"));
+    }
+
+    @Test
+    void testUnavailableIsFailureButServerErrorIsNot() {
+        behaviors.put("unavailable", () -> CompletableFuture.completedFuture(new TransportResponse(503, new byte[0])));
+        behaviors.put("error", () -> CompletableFuture.completedFuture(new TransportResponse(500, new byte[0])));
+        final LoadBalancingTransport transport = createTransport(new ProxyHandlerConfig(), "unavailable", "error");
+        for (int i = 0; i < 100; i++) {
+            transport.executeAsync(request());
+        }
+        assertEquals(3, requestCounts.get("unavailable").get());
+        assertEquals(97, requestCounts.get("error").get());
+    }
+
+    @Test
+    void testEjectSlowEndpoint() {
+        final LoadBalancingTransport transport = createTransport(new ProxyHandlerConfig.Builder().ejectionLatencyFactor(3.0).build(),
+                "fast1", "fast2", "slow");
+        for (int i = 0; i < 300; i++) {
+            transport.executeAsync(request()).join();
+        }
+        assertTrue(requestCounts.get("slow").get() >= 20, requestCounts.toString());
+
+        // the node becomes slow
+        behaviors.put("slow", () -> CompletableFuture.supplyAsync(() -> new TransportResponse(200, new byte[0]),
+                CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS)));
+        for (int i = 0; i < 300 && !transport.getNodes().get(2).isEjected(System.nanoTime()); i++) {
+            transport.executeAsync(request()).join();
+        }
+        assertTrue(transport.getNodes().get(2).isEjected(System.nanoTime()), transport.getStats().toString());
+        final int slowCount = requestCounts.get("slow").get();
+        for (int i = 0; i < 100; i++) {
+            transport.executeAsync(request()).join();
+        }
+        assertEquals(slowCount, requestCounts.get("slow").get());
+    }
+
+    @Test
+    void testAllEjected() {
+        behaviors.put("a", () -> CompletableFuture.failedFuture(new IOException("down")));
+        behaviors.put("b", () -> CompletableFuture.failedFuture(new IOException("down")));
+        final LoadBalancingTransport transport = createTransport(new ProxyHandlerConfig.Builder().ejectionFailureThreshold(1).build(), "a",
+                "b");
+        for (int i = 0; i < 10; i++) {
+            transport.executeAsync(request());
+        }
+        // requests keep going somewhere rather than failing without a try
+        assertEquals(10, requestCounts.get("a").get() + requestCounts.get("b").get());
+    }
+
+    @Test
+    void testHedgeSlowRead() throws Exception {
+        behaviors.put("b", () -> CompletableFuture.completedFuture(new TransportResponse(200, "b".getBytes())));
+        final LoadBalancingTransport transport = createTransport(
+                new ProxyHandlerConfig.Builder().hedgeDelayPercentile(90.0).hedgeMinDelay(0.01).ejectionLatencyFactor(0).build(), "a", "b");
+        for (int i = 0; i < 100; i++) {
+            transport.executeAsync(request()).join();
+        }
+
+        // "a" stalls, as in a long GC pause; reads going to it are answered by "b"
+        final List<CompletableFuture<TransportResponse>> stalled = new ArrayList<>();
+        behaviors.put("a", () -> {
+            final CompletableFuture<TransportResponse> future = new CompletableFuture<>();
+            stalled.add(future);
+            return future;
+        });
+        final int before = requestCounts.get("a").get();
+        for (int i = 0; i < 100 && requestCounts.get("a").get() == before; i++) {
+            final TransportResponse response = transport.executeAsync(request()).get(5, TimeUnit.SECONDS);
+            assertEquals("b", response.getContentAsString());
+        }
+        assertEquals(before + 1, requestCounts.get("a").get());
+
+        // the stalled attempt is cancelled once the hedge has answered
+        @SuppressWarnings("unchecked")
+        Map<String, Object> reads = (Map<String, Object>) transport.getStats().get("reads");
+        for (int i = 0; i < 100 && !Long.valueOf(1).equals(reads.get("hedge_wins")); i++) {
+            Thread.sleep(10);
+            reads = (Map<String, Object>) transport.getStats().get("reads");
+        }
+        assertTrue(stalled.get(0).isCancelled());
+        assertEquals(1L, reads.get("hedges"));
+        assertEquals(1L, reads.get("hedge_wins"));
+        // the cancelled attempt no longer counts as outstanding on "a"
+        transport.getNodes().forEach(node -> assertEquals(0, node.outstanding.get()));
+    }
+
+    @Test
+    void testNoHedgeToSameEndpoint() throws Exception {
+        final LoadBalancingTransport transport = createTransport(
+                new ProxyHandlerConfig.Builder().hedgeDelayPercentile(90.0).hedgeMinDelay(0.01).build(), "a", "b");
+        for (int i = 0; i < 100; i++) {
+            transport.executeAsync(request()).join();
+        }
+        // "b" is ejected, so "a" is the only healthy endpoint left
+        behaviors.put("b", () -> CompletableFuture.failedFuture(new IOException("Connection refused")));
+        for (int i = 0; i < 100 && !transport.getNodes().get(1).isEjected(System.nanoTime()); i++) {
+            transport.executeAsync(request()).exceptionally(t -> null).join();
+        }
+        assertTrue(transport.getNodes().get(1).isEjected(System.nanoTime()));
+
+        final CompletableFuture<TransportResponse> stalled = new CompletableFuture<>();
+        behaviors.put("a", () -> stalled);
+        final int before = requestCounts.get("a").get();
+        final CompletableFuture<TransportResponse> read = transport.executeAsync(request());
+        Thread.sleep(100);
+        assertEquals(before + 1, requestCounts.get("a").get());
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> reads = (Map<String, Object>) transport.getStats().get("reads");
+        assertEquals(0L, reads.get("hedges"));
+        stalled.complete(new TransportResponse(200, new byte[0]));
+        assertEquals(200, read.get(5, TimeUnit.SECONDS).getHttpStatusCode());
+        assertFalse(LoadBalancingTransport.isRequired(List.of("a"), new ProxyHandlerConfig.Builder().hedgeDelayPercentile(90.0).build()));
+    }
+
+    @Test
+    void testSampleCancelledAttempts() throws Exception {
+        final LoadBalancingTransport transport = createTransport(new ProxyHandlerConfig.Builder().hedgeDelayPercentile(99.0)
+                .hedgeMinDelay(0.01).ejectionLatencyFactor(0).ejectionFailureThreshold(1000).build(), "a", "b");
+        for (int i = 0; i < 1000; i++) {
+            transport.executeAsync(request()).join();
+        }
+
+        // "a" stalls and every read going to it is answered by a hedge to "b"
+        behaviors.put("a", CompletableFuture::new);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(200, transport.executeAsync(request()).get(5, TimeUnit.SECONDS).getHttpStatusCode());
+        }
+
+        // the cancelled reads ran for at least the hedge delay, and raise it although none of them answered
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> reads = (Map<String, Object>) transport.getStats().get("reads");
+        assertTrue((Long) reads.get("hedge_wins") > 0, reads.toString());
+        @SuppressWarnings("unchecked")
+        final long delay = (Long) ((Map<String, Object>) reads.get("hedge_delay_ms")).get("search");
+        assertTrue(delay >= 10, reads.toString());
+    }
+
+    @Test
+    void testNoHedgeForWrites() throws Exception {
+        final LoadBalancingTransport transport = createTransport(new ProxyHandlerConfig.Builder().hedgeDelayPercentile(50.0).build(), "a",
+                "b");
+        for (int i = 0; i < 100; i++) {
+            transport.executeAsync(request()).join();
+        }
+        behaviors.put("a", () -> CompletableFuture.supplyAsync(() -> new TransportResponse(200, new byte[0]),
+                CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS)));
+        behaviors.put("b", behaviors.get("a"));
+        for (int i = 0; i < 5; i++) {
+            transport.executeAsync(TransportRequest.post("document/v1/ns/doc/docid/1", "{}".getBytes())).join();
+        }
+        assertEquals(105, requestCounts.get("a").get() + requestCounts.get("b").get());
+    }
+
+    @Test
+    void testRetryConnectionFailure() {
+        final AtomicInteger failures = new AtomicInteger(2);
+        behaviors.put("a", () -> failures.getAndDecrement() > 0 ? CompletableFuture.failedFuture(new ConnectException("refused"))
+                : CompletableFuture.completedFuture(new TransportResponse(200, new byte[0])));
+        final LoadBalancingTransport transport = createTransport(
+                new ProxyHandlerConfig.Builder().readRetries(2).retryBackoff(0.001).ejectionFailureThreshold(10).build(), "a");
+        assertEquals(200, transport.executeAsync(request()).join().getHttpStatusCode());
+        assertEquals(3, requestCounts.get("a").get());
+
+        // retries are bounded
+        failures.set(5);
+        final CompletionException e = assertThrows(CompletionException.class, () -> transport.executeAsync(request()).join());
+        assertTrue(e.getCause() instanceof ConnectException);
+        assertEquals(6, requestCounts.get("a").get());
+
+        // writes and timeouts are not retried
+        failures.set(1);
+        assertThrows(CompletionException.class,
+                () -> transport.executeAsync(TransportRequest.put("document/v1/ns/doc/docid/1", "{}".getBytes())).join());
+        assertEquals(7, requestCounts.get("a").get());
+        behaviors.put("a", () -> CompletableFuture.failedFuture(new SocketTimeoutException("timeout")));
+        assertThrows(CompletionException.class, () -> transport.executeAsync(request()).join());
+        assertEquals(8, requestCounts.get("a").get());
+    }
+
+}
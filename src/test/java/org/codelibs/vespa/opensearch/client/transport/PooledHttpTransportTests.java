@@ -0,0 +1,98 @@
+package org.codelibs.vespa.opensearch.client.transport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class PooledHttpTransportTests {
+
+    private HttpServer server;
+
+    private PooledHttpTransport transport;
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            final byte[] body = exchange.getRequestBody().readAllBytes();
+            final byte[] response = ("{\"method\":\"" + exchange.getRequestMethod() + "\",\"length\":" + body.length + "}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        transport = new PooledHttpTransport("http://127.0.0.1:" + server.getAddress().getPort(),
+                new ProxyHandlerConfig.Builder().maxConnections(4).build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    void testExecute() throws IOException {
+        final TransportResponse response = transport.execute(TransportRequest.post("document/v1/ns/doc/docid/1", "{}".getBytes()));
+        assertEquals(200, response.getHttpStatusCode());
+        assertEquals("{\"method\":\"POST\",\"length\":2}", response.getContentAsString());
+    }
+
+    @Test
+    void testExecuteAsync() {
+        final List<CompletableFuture<TransportResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(transport.executeAsync(TransportRequest.delete("document/v1/ns/doc/docid/" + i)));
+        }
+        for (final CompletableFuture<TransportResponse> future : futures) {
+            final TransportResponse response = future.join();
+            assertEquals(200, response.getHttpStatusCode());
+            assertEquals("{\"method\":\"DELETE\",\"length\":0}", response.getContentAsString());
+        }
+        assertTrue(clientPorts.size() <= 4);
+    }
+
+    @Test
+    void testConnectionReuse() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(200, transport.execute(TransportRequest.get("search/")).getHttpStatusCode());
+        }
+        // a connection is released to the pool just after its response is delivered, so a second one may be opened
+        assertTrue(clientPorts.size() <= 2);
+
+        Map<String, Object> stats = transport.getStats();
+        for (int i = 0; i < 50 && !Integer.valueOf(0).equals(stats.get("active")); i++) {
+            Thread.sleep(10L);
+            stats = transport.getStats();
+        }
+        assertEquals(4, stats.get("max"));
+        assertEquals(0, stats.get("active"));
+        assertEquals(clientPorts.size(), stats.get("idle"));
+        assertEquals(0, stats.get("pending"));
+        assertTrue(stats.get("endpoint").toString().startsWith("http://127.0.0.1:"));
+    }
+}
@@ -0,0 +1,246 @@
+package org.codelibs.vespa.opensearch.handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.IdempotencyConflictException;
+import org.junit.jupiter.api.Test;
+
+import com.yahoo.container.jdisc.HttpResponse;
+
+public class IdempotencyStoreTests {
+
+    private static IdempotencyStore createStore(final double ttl, final double waitTimeout, final long maxBytes) {
+        return new IdempotencyStore(new ProxyHandlerConfig.Builder().idempotencyKeyTtl(ttl)
+                .idempotencyWaitTimeout(waitTimeout)
+                .idempotencyMaxBytes(maxBytes)
+                .build());
+    }
+
+    private static HttpResponse createResponse(final int status, final String body) {
+        return new HttpResponse(status) {
+            @Override
+            public void render(final OutputStream stream) throws IOException {
+                stream.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    private static Supplier<HttpResponse> countingAction(final AtomicInteger count, final int status) {
+        return () -> createResponse(status, "{\"run\":" + count.incrementAndGet() + "}");
+    }
+
+    private static String render(final HttpResponse response) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.render(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testReplayCompletedRequest() throws IOException {
+        final IdempotencyStore store = createStore(60, 1, 1024);
+        final AtomicInteger count = new AtomicInteger();
+
+        final HttpResponse first = store.execute("POST /_bulk key1", countingAction(count, 200));
+        assertEquals("{\"run\":1}", render(first));
+
+        final HttpResponse second = store.execute("POST /_bulk key1", countingAction(count, 200));
+        assertEquals(200, second.getStatus());
+        assertEquals("{\"run\":1}", render(second));
+        assertEquals("true", second.headers().getFirst(IdempotencyStore.REPLAYED_HEADER));
+        assertEquals(1, count.get());
+        assertEquals(1L, store.getStats().get("replayed"));
+
+        // another key runs on its own
+        assertEquals("{\"run\":2}", render(store.execute("POST /_bulk key2", countingAction(count, 200))));
+    }
+
+    @Test
+    void testReplayHeadersAndContentType() throws IOException {
+        final IdempotencyStore store = createStore(60, 1, 1024);
+        final Supplier<HttpResponse> action = () -> {
+            final HttpResponse response = new HttpResponse(201) {
+                @Override
+                public void render(final OutputStream stream) throws IOException {
+                    stream.write("{}".getBytes(StandardCharsets.UTF_8));
+                }
+
+                @Override
+                public String getContentType() {
+                    return "application/json";
+                }
+            };
+            response.headers().add("Location", "/test/_doc/1");
+            return response;
+        };
+
+        final HttpResponse first = store.execute("PUT /test/_doc/1 key1", action);
+        assertEquals("application/json", first.getContentType());
+        assertEquals("/test/_doc/1", first.headers().getFirst("Location"));
+        render(first);
+
+        final HttpResponse second = store.execute("PUT /test/_doc/1 key1", action);
+        assertEquals(201, second.getStatus());
+        assertEquals("application/json", second.getContentType());
+        assertEquals("/test/_doc/1", second.headers().getFirst("Location"));
+        assertEquals("true", second.headers().getFirst(IdempotencyStore.REPLAYED_HEADER));
+    }
+
+    @Test
+    void testJoinRunningRequest() throws Exception {
+        final IdempotencyStore store = createStore(60, 10, 1024);
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        final CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return render(store.execute("POST /_bulk key1", () -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return countingAction(count, 200).get();
+                }));
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, executor);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        final CompletableFuture<HttpResponse> second =
+                CompletableFuture.supplyAsync(() -> store.execute("POST /_bulk key1", countingAction(count, 200)), executor);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((Long) store.getStats().get("joined") == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse(second.isDone());
+
+        release.countDown();
+        assertEquals("{\"run\":1}", first.get(10, TimeUnit.SECONDS));
+        assertEquals("{\"run\":1}", render(second.get(10, TimeUnit.SECONDS)));
+        assertEquals(1, count.get());
+        executor.shutdown();
+    }
+
+    @Test
+    void testConflictWhileRunning() throws Exception {
+        final IdempotencyStore store = createStore(0.05, 0.01, 1024);
+        final AtomicInteger count = new AtomicInteger();
+
+        // the first response is never rendered
+        store.execute("POST /_bulk key1", countingAction(count, 200));
+        assertThrows(IdempotencyConflictException.class, () -> store.execute("POST /_bulk key1", countingAction(count, 200)));
+        assertEquals(1L, store.getStats().get("conflicts"));
+
+        // the first request is forgotten once its time to live passed, so a later one runs on its own
+        Thread.sleep(60);
+        assertEquals("{\"run\":2}", render(store.execute("POST /_bulk key1", countingAction(count, 200))));
+        assertEquals(0, store.getStats().get("in_flight"));
+    }
+
+    @Test
+    void testKeepResponseAfterClientWentAway() throws IOException {
+        final IdempotencyStore store = createStore(60, 1, 1024);
+        final AtomicInteger count = new AtomicInteger();
+
+        final HttpResponse first = store.execute("POST /_bulk key1", countingAction(count, 200));
+        assertThrows(IOException.class, () -> first.render(new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                throw new IOException("closed");
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                throw new IOException("closed");
+            }
+        }));
+
+        assertEquals("{\"run\":1}", render(store.execute("POST /_bulk key1", countingAction(count, 200))));
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    void testRunRejectedRequestAgain() throws IOException {
+        final IdempotencyStore store = createStore(60, 1, 1024);
+        final AtomicInteger count = new AtomicInteger();
+
+        assertEquals(429, store.execute("POST /_bulk key1", countingAction(count, 429)).getStatus());
+        assertEquals("{\"run\":2}", render(store.execute("POST /_bulk key1", countingAction(count, 200))));
+        assertEquals(1L, store.getStats().get("not_kept"));
+    }
+
+    @Test
+    void testConflictWhenResponseTooLarge() throws IOException {
+        final IdempotencyStore store = createStore(60, 1, 100);
+        final HttpResponse large = createResponse(200, "x".repeat(60));
+        final Supplier<HttpResponse> action = () -> new HttpResponse(200) {
+            @Override
+            public void render(final OutputStream stream) throws IOException {
+                // the bytes recorded so far are charged while the rest is rendered
+                large.render(stream);
+                assertEquals(60L, store.getStats().get("bytes"));
+                large.render(stream);
+            }
+        };
+
+        // the client still gets the whole response
+        assertEquals("x".repeat(120), render(store.execute("POST /_bulk key1", action)));
+        assertEquals(0L, store.getStats().get("bytes"));
+
+        // the writes ran, so the request does not run again
+        assertThrows(IdempotencyConflictException.class, () -> store.execute("POST /_bulk key1", action));
+    }
+
+    @Test
+    void testDropOldestResponse() throws IOException {
+        // a response of 9 bytes is kept with 64 bytes of overhead, so only one fits
+        final IdempotencyStore store = createStore(60, 1, 100);
+        final AtomicInteger count = new AtomicInteger();
+
+        render(store.execute("POST /_bulk key1", countingAction(count, 200)));
+        render(store.execute("POST /_bulk key2", countingAction(count, 200)));
+
+        assertThrows(IdempotencyConflictException.class, () -> store.execute("POST /_bulk key1", countingAction(count, 200)));
+        assertEquals("{\"run\":2}", render(store.execute("POST /_bulk key2", countingAction(count, 200))));
+        assertEquals(2, count.get());
+    }
+
+    @Test
+    void testForgetOldestKey() throws IOException {
+        final IdempotencyStore store = new IdempotencyStore(new ProxyHandlerConfig.Builder().idempotencyMaxKeys(1).build());
+        final AtomicInteger count = new AtomicInteger();
+
+        render(store.execute("POST /_bulk key1", countingAction(count, 200)));
+        render(store.execute("POST /_bulk key2", countingAction(count, 200)));
+        assertEquals(1, store.getStats().get("keys"));
+
+        assertEquals("{\"run\":2}", render(store.execute("POST /_bulk key2", countingAction(count, 200))));
+        assertEquals("{\"run\":3}", render(store.execute("POST /_bulk key1", countingAction(count, 200))));
+    }
+
+    @Test
+    void testDisabled() {
+        assertFalse(createStore(0, 1, 1024).isEnabled());
+        assertFalse(new IdempotencyStore(new ProxyHandlerConfig.Builder().idempotencyKeyHeader("").build()).isEnabled());
+        assertTrue(new IdempotencyStore(new ProxyHandlerConfig()).isEnabled());
+    }
+}
@@ -5,26 +5,41 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
 import java.util.Map;
 
 import org.codelibs.vespa.opensearch.client.VespaClient;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
-import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 /**
- * Integration tests that require a running Vespa instance at localhost:8080.
- * These tests are disabled by default. To run them, remove the @Disabled annotation
- * and ensure a Vespa instance is running.
+ * Integration tests against the embedded VespaStandIn.
+ * To run them against a real Vespa instance, set the system property vespa.endpoint, such as -Dvespa.endpoint=http://localhost:8080.
  */
-@Disabled("Integration tests require a running Vespa instance at localhost:8080")
 public class OpenSearchApiIntegrationTests {
 
+    private VespaStandIn vespa;
+
     private VespaClient client;
 
     @BeforeEach
-    void setUp() {
-        client = new VespaClient("http://localhost:8080");
+    void setUp() throws IOException {
+        final String endpoint = System.getProperty("vespa.endpoint");
+        if (endpoint != null) {
+            client = new VespaClient(endpoint);
+        } else {
+            vespa = new VespaStandIn();
+            client = new VespaClient(vespa.getEndpoint());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        if (vespa != null) {
+            vespa.close();
+        }
     }
 
     @Test
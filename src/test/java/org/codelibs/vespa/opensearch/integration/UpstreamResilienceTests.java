@@ -0,0 +1,244 @@
+package org.codelibs.vespa.opensearch.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.codelibs.vespa.opensearch.client.VespaClient;
+import org.codelibs.vespa.opensearch.client.transport.LoadBalancingTransport;
+import org.codelibs.vespa.opensearch.client.transport.PooledHttpTransport;
+import org.codelibs.vespa.opensearch.client.transport.VespaTransport;
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.CircuitBreakingException;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.codelibs.vespa.opensearch.exception.VespaClientException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Behavior of VespaClient over HTTP when Vespa is slow, throttles, fails or sends broken responses.
+ */
+public class UpstreamResilienceTests {
+
+    private static final Logger log = Logger.getLogger(UpstreamResilienceTests.class.getName());
+
+    private final List<VespaStandIn> servers = new ArrayList<>();
+
+    private VespaClient client;
+
+    private VespaStandIn startServer() throws IOException {
+        final VespaStandIn server = new VespaStandIn();
+        servers.add(server);
+        return server;
+    }
+
+    private VespaClient createClient(final ProxyHandlerConfig config) {
+        final List<String> endpoints = new ArrayList<>();
+        servers.forEach(server -> endpoints.add(server.getEndpoint()));
+        final VespaTransport transport = LoadBalancingTransport.isRequired(endpoints, config)
+                ? new LoadBalancingTransport(endpoints, endpoint -> new PooledHttpTransport(endpoint, config), config)
+                : new PooledHttpTransport(endpoints.get(0), config);
+        client = new VespaClient(config, new VespaClient.Components().transport(transport));
+        return client;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        servers.forEach(VespaStandIn::close);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getOperationStats(final VespaClient client, final String type) {
+        final Map<String, Object> nodes = (Map<String, Object>) client.getNodesStats().get("nodes");
+        final Map<String, Object> vespaClient = (Map<String, Object>) ((Map<String, Object>) nodes.get("node1")).get("vespa_client");
+        return (Map<String, Object>) ((Map<String, Object>) vespaClient.get("operations")).get(type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getFeedWindowStats(final VespaClient client) {
+        final Map<String, Object> nodes = (Map<String, Object>) client.getNodesStats().get("nodes");
+        final Map<String, Object> vespaClient = (Map<String, Object>) ((Map<String, Object>) nodes.get("node1")).get("vespa_client");
+        return (Map<String, Object>) vespaClient.get("feed_window");
+    }
+
+    @Test
+    void testThroughput() throws Exception {
+        final VespaStandIn server = startServer();
+        server.documentFaults().latency(VespaStandIn.uniform(0, 2));
+        final VespaClient client = createClient(new ProxyHandlerConfig.Builder().concurrencyInitialLimit(64).concurrencyMaxLimit(512).build());
+
+        final int count = 2000;
+        final long startTime = System.nanoTime();
+        final List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(client.insertAsync("ns", "doc", "id" + i, Map.of("title", "doc " + i)));
+            // stay below the concurrency limit, as a bulk request would
+            if (futures.size() >= 32) {
+                futures.remove(0).join();
+            }
+        }
+        futures.forEach(CompletableFuture::join);
+        final long elapsed = System.nanoTime() - startTime;
+        log.info(() -> count + " puts in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms: "
+                + (count * TimeUnit.SECONDS.toNanos(1) / elapsed) + " ops/s, max in flight " + server.getMaxInFlight());
+
+        assertEquals(count, server.getDocuments().size());
+        assertTrue(server.getMaxInFlight() <= 32, () -> "max in flight " + server.getMaxInFlight());
+        assertEquals(count, ((Number) client.count("ns", "doc", null).get("count")).intValue());
+    }
+
+    @Test
+    void testBackpressure() throws Exception {
+        final VespaStandIn server = startServer();
+        server.documentFaults().latency(VespaStandIn.fixed(200));
+        final VespaClient client = createClient(
+                new ProxyHandlerConfig.Builder().concurrencyInitialLimit(8).concurrencyMinLimit(8).concurrencyMaxLimit(8).build());
+
+        final List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(client.getAsync("ns", "doc", "id" + i));
+        }
+        int rejected = 0;
+        for (final CompletableFuture<Map<String, Object>> future : futures) {
+            try {
+                future.join();
+            } catch (final CompletionException e) {
+                if (e.getCause() instanceof EsRejectedExecutionException) {
+                    rejected++;
+                }
+            }
+        }
+        // the excess calls fail at once instead of queuing in front of the slow upstream
+        assertEquals(42, rejected);
+        assertTrue(server.getMaxInFlight() <= 8, () -> "max in flight " + server.getMaxInFlight());
+        assertEquals(42L, getOperationStats(client, "get").get("rejected"));
+    }
+
+    @Test
+    void testThrottling() throws Exception {
+        final VespaStandIn server = startServer();
+        server.documentFaults().throttle(1.0);
+        final VespaClient client = createClient(new ProxyHandlerConfig.Builder().concurrencyInitialLimit(32).concurrencyMaxLimit(512).build());
+
+        for (int i = 0; i < 20; i++) {
+            final VespaClientException e = assertThrows(VespaClientException.class,
+                    () -> client.insert("ns", "doc", "id", Map.of("title", "doc")));
+            assertEquals(429, ((VespaClientException) e.getCause()).getStatus());
+        }
+        // 429 is overload, so the write limit backs off, but it is not a failure of the endpoint
+        assertTrue((Integer) getOperationStats(client, "write").get("limit") < 32);
+        assertEquals(20L, server.getStatusCount(429));
+    }
+
+    @Test
+    void testFeedWindowShrinksOnThrottling() throws Exception {
+        final VespaStandIn server = startServer();
+        server.documentFaults().latency(VespaStandIn.fixed(20)).throttle(1.0);
+        final VespaClient client = createClient(new ProxyHandlerConfig.Builder()//
+                .concurrencyInitialLimit(512)//
+                .concurrencyMaxLimit(512)//
+                .feedWindowInitialSize(16)//
+                .build());
+
+        final List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(client.insertAsync("ns", "doc", "id" + i, Map.of("title", "doc " + i)));
+        }
+        futures.forEach(future -> assertThrows(CompletionException.class, future::join));
+
+        // the writes waited for the window instead of piling up on the throttling upstream
+        assertTrue(server.getMaxInFlight() <= 16, () -> "max in flight " + server.getMaxInFlight());
+        assertEquals(1, getFeedWindowStats(client).get("size"));
+
+        server.documentFaults().reset();
+        for (int i = 0; i < 200; i++) {
+            futures.set(i % futures.size(), client.insertAsync("ns", "doc", "id" + i, Map.of("title", "doc " + i)));
+            if (i % futures.size() == futures.size() - 1) {
+                futures.forEach(CompletableFuture::join);
+            }
+        }
+        assertTrue((Integer) getFeedWindowStats(client).get("size") > 1);
+    }
+
+    @Test
+    void testUnavailableOpensCircuitBreaker() throws Exception {
+        final VespaStandIn server = startServer();
+        server.searchFaults().errors(1.0, 503);
+        final VespaClient client = createClient(
+                new ProxyHandlerConfig.Builder().circuitBreakerFailureThreshold(5).circuitBreakerOpenDuration(0.2).build());
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(VespaClientException.class, () -> client.search("ns", "doc", Map.of()));
+        }
+        assertThrows(CircuitBreakingException.class, () -> client.search("ns", "doc", Map.of()));
+        assertEquals(5, server.getRequestCount());
+        // document operations are not affected
+        client.insert("ns", "doc", "id", Map.of("title", "doc"));
+
+        server.searchFaults().reset();
+        Thread.sleep(300);
+        assertTrue(client.search("ns", "doc", Map.of()).containsKey("hits"));
+    }
+
+    @Test
+    void testReadTimeout() throws Exception {
+        final VespaStandIn server = startServer();
+        server.documentFaults().latency(VespaStandIn.fixed(3000));
+        final VespaClient client = createClient(new ProxyHandlerConfig.Builder().readTimeout(0.2).build());
+
+        final long startTime = System.nanoTime();
+        assertThrows(VespaClientException.class, () -> client.get("ns", "doc", "id"));
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void testBrokenBodies() throws Exception {
+        final VespaStandIn server = startServer();
+        server.getDocuments().put("ns/doc/id", Map.of("title", "doc"));
+        final VespaClient client = createClient(new ProxyHandlerConfig());
+
+        server.documentFaults().slowBody(1.0, 20);
+        assertEquals(Map.of("title", "doc"), client.get("ns", "doc", "id").get("fields"));
+
+        // a truncated body fails the call rather than hanging or returning half a document
+        server.documentFaults().reset().partialBody(1.0);
+        assertThrows(VespaClientException.class, () -> client.get("ns", "doc", "id"));
+    }
+
+    @Test
+    void testHedgingCutsPauses() throws Exception {
+        final VespaStandIn pausing = startServer();
+        final VespaStandIn healthy = startServer();
+        pausing.getDocuments().put("ns/doc/id", Map.of("title", "doc"));
+        healthy.getDocuments().put("ns/doc/id", Map.of("title", "doc"));
+        final VespaClient client = createClient(new ProxyHandlerConfig.Builder()//
+                .hedgeDelayPercentile(95.0)//
+                .hedgeMinDelay(0.02)//
+                .ejectionLatencyFactor(0)//
+                .build());
+        for (int i = 0; i < 200; i++) {
+            client.get("ns", "doc", "id");
+        }
+
+        pausing.documentFaults().latency(VespaStandIn.fixed(1000));
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(client.get("ns", "doc", "id").isEmpty());
+        }
+        final long elapsed = System.nanoTime() - startTime;
+        assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(1000), () -> "took " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+    }
+}
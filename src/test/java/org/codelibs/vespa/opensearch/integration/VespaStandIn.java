@@ -0,0 +1,393 @@
+package org.codelibs.vespa.opensearch.integration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded stand-in for the Vespa container endpoints used by VespaClient, with injectable faults.
+ * <p>
+ * It serves document/v1 (put, get, update and remove on an in-memory store) and search/ (all stored documents,
+ * paged by hits and offset given as GET parameters or in a POST JSON body; the YQL is not evaluated). Latency, errors, 429 throttling, and slow or truncated
+ * bodies can be set separately for document and search requests, and changed while requests are running.
+ */
+public class VespaStandIn implements AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(VespaStandIn.class.getName());
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final int SLOW_BODY_CHUNKS = 4;
+
+    static {
+        // without it, delayed ACKs add tens of milliseconds to every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Map<String, Map<String, Object>> documents = new ConcurrentHashMap<>();
+
+    private final Faults documentFaults = new Faults();
+
+    private final Faults searchFaults = new Faults();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private final Map<Integer, AtomicLong> statusCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Faults injected into requests of one kind. Rates are probabilities between 0 and 1, drawn per request.
+     */
+    public static class Faults {
+
+        private volatile LongSupplier latencyMillis = () -> 0;
+
+        private volatile double errorRate;
+
+        private volatile int errorStatus = 500;
+
+        private volatile double throttleRate;
+
+        private volatile double slowBodyRate;
+
+        private volatile long slowBodyChunkDelayMillis;
+
+        private volatile double partialBodyRate;
+
+        /**
+         * @param latencyMillis the time in milliseconds before each request is answered, such as {@link VespaStandIn#fixed(long)}
+         */
+        public Faults latency(final LongSupplier latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            return this;
+        }
+
+        /**
+         * Answers requests with the given status, such as 500, 503 or 504, instead of serving them.
+         */
+        public Faults errors(final double rate, final int status) {
+            errorRate = rate;
+            errorStatus = status;
+            return this;
+        }
+
+        /**
+         * Answers requests with 429, as Vespa does when it is overloaded.
+         */
+        public Faults throttle(final double rate) {
+            throttleRate = rate;
+            return this;
+        }
+
+        /**
+         * Sends bodies in a few chunks with the given delay between them.
+         */
+        public Faults slowBody(final double rate, final long chunkDelayMillis) {
+            slowBodyRate = rate;
+            slowBodyChunkDelayMillis = chunkDelayMillis;
+            return this;
+        }
+
+        /**
+         * Closes the connection after half of the announced body.
+         */
+        public Faults partialBody(final double rate) {
+            partialBodyRate = rate;
+            return this;
+        }
+
+        public Faults reset() {
+            latencyMillis = () -> 0;
+            errorRate = 0;
+            errorStatus = 500;
+            throttleRate = 0;
+            slowBodyRate = 0;
+            partialBodyRate = 0;
+            return this;
+        }
+    }
+
+    public static LongSupplier fixed(final long millis) {
+        return () -> millis;
+    }
+
+    public static LongSupplier uniform(final long minMillis, final long maxMillis) {
+        return () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+    }
+
+    /**
+     * Latency of a node with occasional pauses, such as garbage collection: usually around the base,
+     * but with the given probability the pause is added.
+     */
+    public static LongSupplier withPauses(final long baseMillis, final double pauseRate, final long pauseMillis) {
+        return () -> ThreadLocalRandom.current().nextDouble() < pauseRate ? baseMillis + pauseMillis : baseMillis;
+    }
+
+    public VespaStandIn() throws IOException {
+        this(64);
+    }
+
+    /**
+     * @param threads the number of requests served at once; further requests wait in the accept queue
+     */
+    public VespaStandIn(final int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "vespa-stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public Faults documentFaults() {
+        return documentFaults;
+    }
+
+    public Faults searchFaults() {
+        return searchFaults;
+    }
+
+    /**
+     * @return the stored documents by "namespace/type/id"
+     */
+    public Map<String, Map<String, Object>> getDocuments() {
+        return documents;
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    public long getStatusCount(final int status) {
+        final AtomicLong count = statusCounts.get(status);
+        return count != null ? count.get() : 0;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            final String path = exchange.getRequestURI().getRawPath();
+            final Faults faults = path.startsWith("/search/") ? searchFaults : documentFaults;
+            final byte[] requestBody = exchange.getRequestBody().readAllBytes();
+
+            final long latency = faults.latencyMillis.getAsLong();
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < faults.throttleRate) {
+                send(exchange, faults, 429,
+                        Map.of("pathId", path, "message", "Rejecting execution due to overload: too many pending requests"));
+            } else if (random.nextDouble() < faults.errorRate) {
+                send(exchange, faults, faults.errorStatus, Map.of("pathId", path, "message", "Injected error"));
+            } else if (path.startsWith("/document/v1/")) {
+                handleDocument(exchange, faults, path, requestBody);
+            } else if (path.startsWith("/search/")) {
+                handleSearch(exchange, faults, requestBody);
+            } else {
+                send(exchange, faults, 200, Map.of());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException e) {
+            // the client went away, or the body was truncated on purpose; the server drops the connection on rethrow
+            log.log(Level.FINE, e, () -> "Failed to answer " + exchange.getRequestURI());
+            throw e;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        exchange.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleDocument(final HttpExchange exchange, final Faults faults, final String path, final byte[] requestBody)
+            throws IOException, InterruptedException {
+        // document/v1/<namespace>/<type>/docid/<id>
+        final String[] parts = path.split("/", 7);
+        if (parts.length < 7 || !"docid".equals(parts[5])) {
+            send(exchange, faults, 400, Map.of("pathId", path, "message", "Unsupported document path"));
+            return;
+        }
+        final String namespace = parts[3];
+        final String docType = parts[4];
+        final String id = URLDecoder.decode(parts[6], StandardCharsets.UTF_8);
+        final String key = namespace + "/" + docType + "/" + id;
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("pathId", path);
+        result.put("id", "id:" + namespace + ":" + docType + "::" + id);
+
+        switch (exchange.getRequestMethod()) {
+        case "POST":
+            documents.put(key, new ConcurrentHashMap<>(getFields(requestBody)));
+            send(exchange, faults, 200, result);
+            break;
+        case "PUT":
+            final Map<String, Object> existing = documents.get(key);
+            if (existing == null) {
+                send(exchange, faults, 404, result);
+                break;
+            }
+            getFields(requestBody).forEach((name, value) -> {
+                // both plain values and {"assign": value} are accepted
+                if (value instanceof Map && ((Map<String, Object>) value).containsKey("assign")) {
+                    existing.put(name, ((Map<String, Object>) value).get("assign"));
+                } else {
+                    existing.put(name, value);
+                }
+            });
+            send(exchange, faults, 200, result);
+            break;
+        case "GET":
+            final Map<String, Object> fields = documents.get(key);
+            if (fields == null) {
+                send(exchange, faults, 404, result);
+                break;
+            }
+            result.put("fields", new HashMap<>(fields));
+            send(exchange, faults, 200, result);
+            break;
+        case "DELETE":
+            documents.remove(key);
+            send(exchange, faults, 200, result);
+            break;
+        default:
+            send(exchange, faults, 405, result);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleSearch(final HttpExchange exchange, final Faults faults, final byte[] requestBody)
+            throws IOException, InterruptedException {
+        // parameters come in the query string of a GET, or in the JSON body of a POST
+        final Map<String, String> params = getQueryParameters(exchange);
+        if (requestBody.length > 0) {
+            MAPPER.readValue(requestBody, Map.class).forEach((name, value) -> params.put(name.toString(), String.valueOf(value)));
+        }
+        final int hits = Integer.parseInt(params.getOrDefault("hits", "10"));
+        final int offset = Integer.parseInt(params.getOrDefault("offset", "0"));
+
+        final TreeMap<String, Map<String, Object>> sorted = new TreeMap<>(documents);
+        final List<Map<String, Object>> children = new ArrayList<>();
+        int i = 0;
+        for (final Map.Entry<String, Map<String, Object>> entry : sorted.entrySet()) {
+            if (i >= offset && children.size() < hits) {
+                final String[] parts = entry.getKey().split("/", 3);
+                final Map<String, Object> child = new LinkedHashMap<>();
+                child.put("id", "id:" + parts[0] + ":" + parts[1] + "::" + parts[2]);
+                child.put("relevance", 1.0);
+                child.put("fields", new HashMap<>(entry.getValue()));
+                children.add(child);
+            }
+            i++;
+        }
+        final Map<String, Object> root = new LinkedHashMap<>();
+        root.put("id", "toplevel");
+        root.put("relevance", 1.0);
+        root.put("fields", Map.of("totalCount", sorted.size()));
+        root.put("coverage", Map.of("coverage", 100, "documents", sorted.size(), "full", true, "nodes", 1, "results", 1, "resultsFull", 1));
+        root.put("children", children);
+        send(exchange, faults, 200, Map.of("root", root));
+    }
+
+    private static Map<String, String> getQueryParameters(final HttpExchange exchange) {
+        final Map<String, String> params = new HashMap<>();
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (final String param : query.split("&")) {
+                final int eq = param.indexOf('=');
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(param.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return params;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getFields(final byte[] requestBody) throws IOException {
+        if (requestBody.length == 0) {
+            return Map.of();
+        }
+        final Map<String, Object> body = MAPPER.readValue(requestBody, Map.class);
+        final Object fields = body.get("fields");
+        return fields instanceof Map ? (Map<String, Object>) fields : Map.of();
+    }
+
+    private void send(final HttpExchange exchange, final Faults faults, final int status, final Map<String, Object> content)
+            throws IOException, InterruptedException {
+        statusCounts.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+        final byte[] body = MAPPER.writeValueAsBytes(content);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < faults.partialBodyRate) {
+            exchange.sendResponseHeaders(status, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body, 0, body.length / 2);
+            out.flush();
+            throw new IOException("Truncated the body on purpose.");
+        } else if (random.nextDouble() < faults.slowBodyRate) {
+            exchange.sendResponseHeaders(status, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                final int chunkSize = (body.length + SLOW_BODY_CHUNKS - 1) / SLOW_BODY_CHUNKS;
+                for (int offset = 0; offset < body.length; offset += chunkSize) {
+                    out.write(body, offset, Math.min(chunkSize, body.length - offset));
+                    out.flush();
+                    TimeUnit.MILLISECONDS.sleep(faults.slowBodyChunkDelayMillis);
+                }
+            }
+        } else {
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.codelibs.vespa.opensearch.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codelibs.vespa.opensearch.config.ProxyHandlerConfig;
+import org.codelibs.vespa.opensearch.exception.EsRejectedExecutionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class TaskManagerTests {
+
+    private TaskManager taskManager;
+
+    private TaskManager createTaskManager(final int concurrency, final int queueSize) {
+        taskManager = new TaskManager(new ProxyHandlerConfig.Builder().taskConcurrency(concurrency).taskQueueSize(queueSize).build());
+        return taskManager;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (taskManager != null) {
+            taskManager.close();
+        }
+    }
+
+    private static void awaitCompleted(final Task task) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!task.isCompleted() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(task.isCompleted());
+    }
+
+    @Test
+    void testCompleteWithResponse() throws InterruptedException {
+        final TaskManager manager = createTaskManager(2, 16);
+        final AtomicInteger cleanups = new AtomicInteger();
+
+        final Task task = manager.submit("indices:data/write/bulk", "bulk", t -> Map.of("took", 1), cleanups::incrementAndGet);
+        awaitCompleted(task);
+
+        assertEquals("node1:1", task.getId());
+        assertSame(task, manager.get(task.getId()));
+        final Map<String, Object> result = task.toResult();
+        assertEquals(true, result.get("completed"));
+        assertEquals(Map.of("took", 1), result.get("response"));
+        assertFalse(result.containsKey("error"));
+        assertEquals(1, cleanups.get());
+        assertTrue(manager.getRunning().isEmpty());
+    }
+
+    @Test
+    void testFailureBecomesError() throws InterruptedException {
+        final TaskManager manager = createTaskManager(1, 1);
+        final AtomicInteger cleanups = new AtomicInteger();
+
+        final Task task = manager.submit("indices:data/write/bulk", "bulk", t -> {
+            throw new IllegalStateException("broken");
+        }, cleanups::incrementAndGet);
+        awaitCompleted(task);
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> error = (Map<String, Object>) task.toResult().get("error");
+        assertEquals("exception", error.get("type"));
+        assertEquals("broken", error.get("reason"));
+        assertEquals(1, cleanups.get());
+    }
+
+    @Test
+    void testRejectWhenQueueIsFull() throws InterruptedException {
+        final TaskManager manager = createTaskManager(1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Task running = manager.submit("indices:data/write/bulk", "bulk", t -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Map.of();
+        }, () -> {});
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        final Task queued = manager.submit("indices:data/write/bulk", "bulk", t -> Map.of(), () -> {});
+
+        assertThrows(EsRejectedExecutionException.class, () -> manager.submit("indices:data/write/bulk", "bulk", t -> Map.of(), () -> {}));
+        assertEquals(List.of(running, queued), manager.getRunning());
+
+        release.countDown();
+        awaitCompleted(running);
+        awaitCompleted(queued);
+    }
+
+    @Test
+    void testReserveSlotBeforeSubmit() throws InterruptedException {
+        final TaskManager manager = createTaskManager(1, 1);
+        final AtomicInteger cleanups = new AtomicInteger();
+
+        final TaskManager.Slot first = manager.reserve("indices:data/write/bulk");
+        final TaskManager.Slot second = manager.reserve("indices:data/write/bulk");
+        // the reserved slots count as waiting tasks while their input is prepared
+        assertThrows(EsRejectedExecutionException.class, () -> manager.reserve("indices:data/write/bulk"));
+        assertThrows(EsRejectedExecutionException.class,
+                () -> manager.submit("indices:data/write/bulk", "bulk", t -> Map.of(), cleanups::incrementAndGet));
+        assertEquals(1, cleanups.get());
+
+        second.close();
+        second.close();
+        final Task task = manager.submit(first, "bulk", t -> Map.of(), cleanups::incrementAndGet);
+        awaitCompleted(task);
+        assertEquals(2, cleanups.get());
+        // the slot is closed once the task completed
+        manager.reserve("indices:data/write/bulk").close();
+        assertEquals(0, manager.getStats().get("slots"));
+        assertEquals(2L, manager.getStats().get("rejected"));
+    }
+
+    @Test
+    void testRejectOverSpoolMaxBytes() {
+        taskManager = new TaskManager(new ProxyHandlerConfig.Builder().taskConcurrency(1).taskQueueSize(4).taskSpoolMaxBytes(100).build());
+        final TaskManager.Slot first = taskManager.reserve("indices:data/write/bulk");
+        final TaskManager.Slot second = taskManager.reserve("indices:data/write/bulk");
+
+        first.spool(60);
+        assertThrows(EsRejectedExecutionException.class, () -> second.spool(50));
+        second.spool(40);
+        assertEquals(100L, taskManager.getStats().get("spool_bytes"));
+
+        // the spooled bytes are released with the slot
+        first.close();
+        second.spool(50);
+        assertEquals(90L, taskManager.getStats().get("spool_bytes"));
+        second.close();
+        assertEquals(0L, taskManager.getStats().get("spool_bytes"));
+    }
+
+    @Test
+    void testCancel() throws InterruptedException {
+        final TaskManager manager = createTaskManager(1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final Task task = manager.submit("indices:data/write/bulk", "bulk", t -> {
+            started.countDown();
+            while (!t.isCancelled()) {
+                Thread.onSpinWait();
+            }
+            return Map.of("canceled", "by user request");
+        }, () -> {});
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        assertSame(task, manager.cancel(task.getId()));
+        awaitCompleted(task);
+        assertEquals(true, task.toMap().get("cancelled"));
+        assertEquals(Map.of("canceled", "by user request"), task.toResult().get("response"));
+        // a completed task cannot be canceled anymore
+        assertNull(manager.cancel(task.getId()));
+    }
+
+    @Test
+    void testUnknownTask() {
+        final TaskManager manager = createTaskManager(1, 1);
+        assertNull(manager.get("node1:42"));
+        assertNull(manager.get("node2:1"));
+        assertNull(manager.get("node1:abc"));
+        assertNull(manager.cancel("node1:42"));
+    }
+
+    @Test
+    void testDiscardQueuedTasksOnClose() throws InterruptedException {
+        final TaskManager manager = createTaskManager(1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger cleanups = new AtomicInteger();
+
+        final Task running = manager.submit("indices:data/write/bulk", "bulk", t -> {
+            started.countDown();
+            while (!t.isCancelled()) {
+                Thread.onSpinWait();
+            }
+            return Map.of();
+        }, cleanups::incrementAndGet);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        final Task queued = manager.submit("indices:data/write/bulk", "bulk", t -> Map.of(), cleanups::incrementAndGet);
+
+        manager.close();
+
+        assertTrue(running.isCompleted());
+        assertTrue(queued.isCompleted());
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> error = (Map<String, Object>) queued.toResult().get("error");
+        assertEquals("task_cancelled_exception", error.get("type"));
+        assertEquals(2, cleanups.get());
+    }
+}